@@ -0,0 +1,37 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.dao.InMemoryTicketDAO;
+import com.parkit.parkingsystem.dao.TicketLog;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+/**
+ * Memory engine TicketDAO whose saved tickets are back-dated by two hours, so exits go through the paying branch
+ * of the fare calculation. The ticket log goes to a temporary file, without fsync.
+ */
+class BackdatedTicketDAO extends InMemoryTicketDAO {
+
+    private static final long STAY_MILLIS = 2 * 60 * 60 * 1000;
+
+    private BackdatedTicketDAO(TicketLog ticketLog) {
+        super(ParkingSpot.DEFAULT_LOT, ticketLog);
+    }
+
+    static BackdatedTicketDAO create() throws IOException {
+        Path logFile = Files.createTempFile("benchmark-tickets", ".log");
+        logFile.toFile().deleteOnExit();
+        return new BackdatedTicketDAO(new TicketLog(logFile, ParkingSpot.DEFAULT_LOT, false));
+    }
+
+    @Override
+    public boolean saveTicket(UnitOfWork unitOfWork, Ticket ticket) {
+        ticket.setInTime(new Date(ticket.getInTime().getTime() - STAY_MILLIS));
+        return super.saveTicket(unitOfWork, ticket);
+    }
+}
@@ -0,0 +1,100 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.Tariff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FareCalculatorService.calculateFare over a fixed mix of car and bike stays, from under the free half-hour to several days.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FareCalculatorBenchmark {
+
+    private static final int TICKETS = 1024;
+
+    private final FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    private final FareCalculatorService bandedFareCalculatorService = new FareCalculatorService(bandedTariff());
+    private Ticket[] tickets;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        tickets = new Ticket[TICKETS];
+        for (int i = 0; i < TICKETS; i++) {
+            Ticket ticket = new Ticket();
+            ParkingType parkingType = (i % 3 == 0) ? ParkingType.BIKE : ParkingType.CAR;
+            ticket.setParkingSpot(new ParkingSpot(i % 5 + 1, parkingType, false));
+            ticket.setVehicleRegNumber("REG" + i);
+            long durationMillis = (long) (random.nextDouble() * 72 * 60 * 60 * 1000);
+            ticket.setInTime(new Date(now - durationMillis));
+            ticket.setOutTime(new Date(now));
+            tickets[i] = ticket;
+        }
+    }
+
+    // night and lunch bands plus daily caps, so stays cross band edges and calendar days
+    private static Tariff bandedTariff() {
+        Properties definition = new Properties();
+        definition.setProperty("free.minutes", "30");
+        definition.setProperty("discount.returningCustomer.percent", "5");
+        definition.setProperty("rate.CAR", "1.5");
+        definition.setProperty("rate.BIKE", "1.0");
+        definition.setProperty("bands.CAR", "20:00-08:00=0.5,12:00-14:00=2.0");
+        definition.setProperty("bands.BIKE", "20:00-08:00=0.25");
+        definition.setProperty("cap.daily.CAR", "15");
+        definition.setProperty("cap.daily.BIKE", "8");
+        return Tariff.compile(definition, TimeZone.getDefault());
+    }
+
+    private Ticket nextTicket() {
+        Ticket ticket = tickets[next];
+        next = (next + 1) & (TICKETS - 1);
+        return ticket;
+    }
+
+    @Benchmark
+    public double calculateFare() {
+        Ticket ticket = nextTicket();
+        fareCalculatorService.calculateFare(ticket);
+        return ticket.getPrice();
+    }
+
+    @Benchmark
+    public double calculateFareWithDiscount() {
+        Ticket ticket = nextTicket();
+        fareCalculatorService.calculateFare(ticket, true);
+        return ticket.getPrice();
+    }
+
+    @Benchmark
+    public double calculateFareWithBandsAndCaps() {
+        Ticket ticket = nextTicket();
+        bandedFareCalculatorService.calculateFare(ticket, false);
+        return ticket.getPrice();
+    }
+}
@@ -0,0 +1,61 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FareCalculatorService.round against the BigDecimal rounding it replaced. Both give the same result;
+ * compare ns/op and gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FareRoundingBenchmark {
+
+    private static final int PRICES = 1024;
+
+    private double[] prices;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        prices = new double[PRICES];
+        for (int i = 0; i < PRICES; i++) {
+            prices[i] = random.nextDouble() * 72 * 1.5 * (i % 2 == 0 ? 0.95 : 1);
+        }
+    }
+
+    private double nextPrice() {
+        double price = prices[next];
+        next = (next + 1) & (PRICES - 1);
+        return price;
+    }
+
+    @Benchmark
+    public double bigDecimal() {
+        return new BigDecimal(nextPrice()).setScale(2, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    @Benchmark
+    public double cents() {
+        return FareCalculatorService.round(nextPrice());
+    }
+}
@@ -0,0 +1,163 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.InMemoryParkingSpotDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.ParkingService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed-loop load test of the gate server: each client thread sends an entry then the matching exit, back to back,
+ * and the run reports requests per second and latency percentiles.
+ * Without --url, a server is started in-process over the in-memory storage engine, with --dbLatencyMillis added to every commit
+ * to stand in for the database round trip.
+ * <pre>
+ * java -cp target/benchmarks.jar com.parkit.parkingsystem.benchmark.GateLoadTest --clients 256 --seconds 20 --dbLatencyMillis 5
+ * java -cp target/benchmarks.jar com.parkit.parkingsystem.benchmark.GateLoadTest --url http://gate-host:8080 --clients 64
+ * </pre>
+ */
+public class GateLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String url = option(args, "--url", null);
+        int clients = Integer.parseInt(option(args, "--clients", "64"));
+        int seconds = Integer.parseInt(option(args, "--seconds", "10"));
+        int warmupSeconds = Integer.parseInt(option(args, "--warmupSeconds", "3"));
+
+        GateServer gateServer = null;
+        if (url == null) {
+            InMemoryParkingSpotDAO parkingSpotDAO = new InMemoryParkingSpotDAO(ParkingSpot.DEFAULT_LOT,
+                    Collections.singletonMap(ParkingType.CAR, clients),
+                    new SlowCommitDataBaseConfig(Long.parseLong(option(args, "--dbLatencyMillis", "5"))));
+            gateServer = new GateServer(new ParkingService(null, parkingSpotDAO, BackdatedTicketDAO.create()),
+                    Integer.parseInt(option(args, "--maxConcurrentRequests", "1024")), 1_000);
+            gateServer.start(0, Integer.parseInt(option(args, "--fallbackThreads", "64")));
+            url = "http://localhost:" + gateServer.getPort();
+        }
+
+        System.out.println("Warming up " + url + " with " + clients + " clients for " + warmupSeconds + " s");
+        run(url, clients, warmupSeconds);
+        System.out.println("Measuring for " + seconds + " s");
+        long start = System.nanoTime();
+        Result result = run(url, clients, seconds);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] latencies = result.latencies;
+        Arrays.sort(latencies);
+        System.out.printf("requests: %d, errors: %d, throughput: %.0f requests/s%n",
+                latencies.length, result.errors, latencies.length / elapsedSeconds);
+        System.out.printf("latency ms  p50: %.2f  p90: %.2f  p99: %.2f  p99.9: %.2f  max: %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1.0));
+
+        if (gateServer != null) {
+            gateServer.stop(5_000);
+        }
+    }
+
+    private static final class Result {
+        final long[] latencies;
+        final int errors;
+
+        Result(long[] latencies, int errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+    }
+
+    private static Result run(String url, int clients, int seconds) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int client = 0; client < clients; client++) {
+            String vehicleRegNumber = "LOAD" + client;
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    for (String[] request : new String[][]{
+                            {"/entries", "{\"vehicleRegNumber\":\"" + vehicleRegNumber + "\",\"parkingType\":\"CAR\"}"},
+                            {"/exits", "{\"vehicleRegNumber\":\"" + vehicleRegNumber + "\"}"}}) {
+                        long sent = System.nanoTime();
+                        int status = post(url + request[0], request[1]);
+                        if (status >= 400) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - sent;
+                    }
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+        long[] all = new long[0];
+        for (Future<long[]> future : futures) {
+            long[] latencies = future.get();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        executor.shutdown();
+        return new Result(all, errors.get());
+    }
+
+    private static int post(String url, String json) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            // drain the body so the keep-alive connection is reused
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[256];
+                    while (in.read(buffer) != -1) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return 599;
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1e6;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
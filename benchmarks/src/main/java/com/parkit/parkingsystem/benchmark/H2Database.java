@@ -0,0 +1,56 @@
+package com.parkit.parkingsystem.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * Parking and ticket tables in an embedded H2 database (MySQL mode), with the indexes of the db/migration scripts.
+ */
+final class H2Database {
+
+    private H2Database() {
+    }
+
+    /**
+     * Recreates the tables with parkingSpots free CAR spots and closedTickets closed tickets, one per minute up to now,
+     * spread over customers vehicles named REG0, REG1, ...
+     */
+    static void create(Connection con, int parkingSpots, int closedTickets, int customers) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("drop all objects");
+            statement.execute("create table parking(PARKING_NUMBER int PRIMARY KEY, AVAILABLE bool NOT NULL, TYPE varchar(10) NOT NULL)");
+            statement.execute("create table ticket(ID int PRIMARY KEY AUTO_INCREMENT, PARKING_NUMBER int NOT NULL,"
+                    + " VEHICLE_REG_NUMBER varchar(10) NOT NULL, PRICE double, IN_TIME DATETIME NOT NULL, OUT_TIME DATETIME,"
+                    + " OPEN_VEHICLE_REG_NUMBER varchar(10) GENERATED ALWAYS AS (case when OUT_TIME is null then VEHICLE_REG_NUMBER end),"
+                    + " FOREIGN KEY (PARKING_NUMBER) REFERENCES parking(PARKING_NUMBER))");
+            statement.execute("create index IDX_TICKET_REG_IN_TIME on ticket (VEHICLE_REG_NUMBER, IN_TIME)");
+            statement.execute("create index IDX_TICKET_REG_OUT_TIME on ticket (VEHICLE_REG_NUMBER, OUT_TIME)");
+            statement.execute("create index IDX_TICKET_OPEN on ticket (OPEN_VEHICLE_REG_NUMBER)");
+            statement.execute("create index IDX_PARKING_TYPE_AVAILABLE on parking (TYPE, AVAILABLE, PARKING_NUMBER)");
+            statement.execute("create index IDX_TICKET_OUT_TIME on ticket (OUT_TIME)");
+        }
+        try (PreparedStatement ps = con.prepareStatement("insert into parking(PARKING_NUMBER, AVAILABLE, TYPE) values(?,true,'CAR')")) {
+            for (int id = 1; id <= parkingSpots; id++) {
+                ps.setInt(1, id);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        long now = System.currentTimeMillis();
+        try (PreparedStatement ps = con.prepareStatement(
+                "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)")) {
+            for (int i = 0; i < closedTickets; i++) {
+                ps.setInt(1, i % parkingSpots + 1);
+                ps.setString(2, "REG" + (i % customers));
+                ps.setDouble(3, 1.5);
+                ps.setTimestamp(4, new Timestamp(now - (closedTickets - i) * 60_000L - 3_600_000L));
+                ps.setTimestamp(5, new Timestamp(now - (closedTickets - i) * 60_000L));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
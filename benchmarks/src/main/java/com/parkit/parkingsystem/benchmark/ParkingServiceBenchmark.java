@@ -0,0 +1,59 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.InMemoryParkingSpotDAO;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One vehicle entry followed by its exit through the ParkingService gate API, over the in-memory storage engine.
+ * Vehicles cycle through a fixed set of registration numbers,
+ * so after the first pass every exit takes the returning-customer discount.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParkingServiceBenchmark {
+
+    private static final int VEHICLES = 256;
+
+    private ParkingService parkingService;
+    private String[] vehicleRegNumbers;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        parkingService = new ParkingService(null,
+                new InMemoryParkingSpotDAO(ParkingSpot.DEFAULT_LOT, InMemoryParkingSpotDAO.parseLayout("CAR:3,BIKE:2")),
+                BackdatedTicketDAO.create());
+        vehicleRegNumbers = new String[VEHICLES];
+        for (int i = 0; i < VEHICLES; i++) {
+            vehicleRegNumbers[i] = "REG" + i;
+        }
+    }
+
+    @Benchmark
+    public ExitResult enterAndExit() {
+        String vehicleRegNumber = vehicleRegNumbers[next];
+        next = (next + 1) & (VEHICLES - 1);
+        parkingService.enter(vehicleRegNumber, ParkingType.CAR);
+        return parkingService.exit(vehicleRegNumber);
+    }
+}
@@ -0,0 +1,91 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.FareRecomputationService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the same workload (gate entries and exits, then a fare recomputation over the closed tickets) twice against two
+ * embedded H2 databases standing for a primary and its replica, first without and then with db.replicas, and prints
+ * the statements each database executed. The replica is seeded with the same rows and reports no lag; writes are not
+ * replicated, which does not matter for counting load.
+ * <pre>
+ * java -cp target/benchmarks.jar com.parkit.parkingsystem.benchmark.ReplicaRoutingDemo [gate cycles]
+ * </pre>
+ */
+public class ReplicaRoutingDemo {
+
+    private static final int PARKING_SPOTS = 100;
+    private static final int CLOSED_TICKETS = 50_000;
+    private static final int CUSTOMERS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        int cycles = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000;
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+        System.setProperty("db.pool.enabled", "true");
+        System.setProperty("db.replica.lagQuery", "select 0");
+        // H2 has no SKIP LOCKED, spots are claimed from the in-memory index instead
+        System.setProperty("parking.index.enabled", "true");
+
+        System.out.printf("%-16s %20s %20s %20s%n", "", "primary statements", "primary time ms", "replica statements");
+        run("primary only", false, cycles);
+        run("with replica", true, cycles);
+    }
+
+    private static void run(String label, boolean withReplica, int cycles) throws Exception {
+        String primaryUrl = "jdbc:h2:mem:primary-" + withReplica + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        String replicaUrl = "jdbc:h2:mem:replica-" + withReplica + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        for (String url : new String[]{primaryUrl, replicaUrl}) {
+            try (Connection con = DriverManager.getConnection(url, "sa", "")) {
+                H2Database.create(con, PARKING_SPOTS, CLOSED_TICKETS, CUSTOMERS);
+                try (Statement statement = con.createStatement()) {
+                    statement.execute("SET QUERY_STATISTICS TRUE");
+                }
+            }
+        }
+        System.setProperty("db.url", primaryUrl);
+        System.setProperty("db.replicas", withReplica ? replicaUrl : "");
+
+        try (ParkingSystem parkingSystem = ParkingSystem.fromConfig(null)) {
+            ParkingService parkingService = parkingSystem.getParkingService();
+            for (int i = 0; i < cycles; i++) {
+                String vehicleRegNumber = "REG" + (i % (2 * CUSTOMERS));
+                parkingService.enter(vehicleRegNumber, ParkingType.CAR);
+                parkingService.exit(vehicleRegNumber);
+            }
+        }
+        new FareRecomputationService(new TicketDAO(), new FareCalculatorService(), ForkJoinPool.commonPool(), 1_024, 8)
+                .recompute(new Date(0), new Date(System.currentTimeMillis() + 60_000), new StringWriter());
+        DataBaseConfig.closePools();
+
+        long[] primary = statistics(primaryUrl);
+        long[] replica = statistics(replicaUrl);
+        System.out.printf("%-16s %20d %20d %20d%n", label, primary[0], primary[1], replica[0]);
+    }
+
+    // statements executed and their cumulative time in ms, leaving out the setup and this query
+    private static long[] statistics(String url) throws SQLException {
+        try (Connection con = DriverManager.getConnection(url, "sa", "");
+             Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("select coalesce(sum(EXECUTION_COUNT), 0), coalesce(sum(CUMULATIVE_EXECUTION_TIME), 0)"
+                     + " from INFORMATION_SCHEMA.QUERY_STATISTICS"
+                     + " where SQL_STATEMENT not like '%QUERY_STATISTICS%' and SQL_STATEMENT <> 'select 0'")) {
+            rs.next();
+            return new long[]{rs.getLong(1), (long) rs.getDouble(2)};
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Memory engine connections whose commit sleeps for a given latency, to stand in for the database round trip.
+ */
+class SlowCommitDataBaseConfig extends EmbeddedDataBaseConfig {
+
+    private final Connection connection;
+
+    SlowCommitDataBaseConfig(long commitLatencyMillis) {
+        Connection embedded = super.getConnection();
+        connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (commitLatencyMillis > 0 && method.getName().equals("commit")) {
+                        Thread.sleep(commitLatencyMillis);
+                    }
+                    try {
+                        return method.invoke(embedded, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public Connection getReadConnection() {
+        return connection;
+    }
+}
@@ -0,0 +1,103 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReturningCustomerRegistry;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TicketDAO against an embedded H2 database in MySQL mode, seeded with closed tickets and carrying the same indexes
+ * as the db/migration scripts. H2 is not MySQL, so compare these numbers between builds, not with production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Ddb.url=jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "-Ddb.user=sa",
+        "-Ddb.password=",
+        "-Dticket.cache.enabled=false"})
+public class TicketDAOBenchmark {
+
+    private static final int PARKING_SPOTS = 100;
+    private static final int CUSTOMERS = 1_000;
+
+    @Param({"10000"})
+    public int closedTickets;
+
+    // whether getNbTickets is answered by the returning-customer registry or by the database
+    @Param({"false", "true"})
+    public boolean returningCustomerRegistry;
+
+    private TicketDAO ticketDAO;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        DataBaseConfig dataBaseConfig = new DataBaseConfig();
+        Connection con = dataBaseConfig.getConnection();
+        H2Database.create(con, PARKING_SPOTS, closedTickets, CUSTOMERS);
+        dataBaseConfig.closeConnection(con);
+
+        ticketDAO = new TicketDAO();
+        if (returningCustomerRegistry) {
+            ReturningCustomerRegistry registry = new ReturningCustomerRegistry(CUSTOMERS * 2, 0.01, CUSTOMERS * 2);
+            registry.setLoaded(ticketDAO.loadReturningCustomers(registry));
+            ticketDAO.setReturningCustomerRegistry(registry);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DataBaseConfig.closePools();
+    }
+
+    // alternates between returning customers and first-time ones
+    private String nextVehicleRegNumber() {
+        int n = next++;
+        return (n & 1) == 0 ? "REG" + (n % CUSTOMERS) : "NEW" + (n % CUSTOMERS);
+    }
+
+    @Benchmark
+    public Ticket getTicket() {
+        return ticketDAO.getTicket("REG" + (next++ % CUSTOMERS));
+    }
+
+    @Benchmark
+    public boolean getNbTickets() {
+        return ticketDAO.getNbTickets(nextVehicleRegNumber());
+    }
+
+    @Benchmark
+    public boolean saveAndUpdateTicket() {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(next++ % PARKING_SPOTS + 1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("BENCH");
+        ticket.setInTime(new Date(System.currentTimeMillis() - 3_600_000L));
+        ticketDAO.saveTicket(ticket);
+        ticket.setOutTime(new Date());
+        ticket.setPrice(1.5);
+        return ticketDAO.updateTicket(ticket);
+    }
+}
@@ -0,0 +1,43 @@
+/* Seeds a 10M-row ticket table in a scratch database and times the hot ticket queries.
+   Run once before applying the schema migrations and once after (mysql --verbose shows the timings),
+   then compare the EXPLAIN output: before, both queries scan the whole table; after, they use
+   IDX_TICKET_REG_IN_TIME / IDX_TICKET_REG_OUT_TIME and read a handful of rows. */
+create database if not exists perf;
+use perf;
+
+create table if not exists parking(
+PARKING_NUMBER int PRIMARY KEY,
+AVAILABLE bool NOT NULL,
+TYPE varchar(10) NOT NULL
+);
+
+create table if not exists ticket(
+ ID int PRIMARY KEY AUTO_INCREMENT,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME,
+ FOREIGN KEY (PARKING_NUMBER)
+ REFERENCES parking(PARKING_NUMBER));
+
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR'),(2,true,'CAR'),(3,true,'CAR'),(4,true,'BIKE'),(5,true,'BIKE');
+
+create temporary table digits (D int);
+insert into digits values (0),(1),(2),(3),(4),(5),(6),(7),(8),(9);
+
+/* 10^7 rows, 200 000 distinct registration numbers, one stay every 3 seconds over a year */
+insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+select 1 + (n % 5),
+       concat('REG', n % 200000),
+       1.5,
+       timestamp('2025-01-01') + interval (n * 3) second,
+       timestamp('2025-01-01') + interval (n * 3 + 3600) second
+from (select a.D + 10*b.D + 100*c.D + 1000*d.D + 10000*e.D + 100000*f.D + 1000000*g.D as n
+      from digits a, digits b, digits c, digits d, digits e, digits f, digits g) seq;
+
+explain select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER='REG4242' order by t.IN_TIME desc limit 1;
+select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER='REG4242' order by t.IN_TIME desc limit 1;
+
+explain SELECT COUNT(*) FROM ticket WHERE VEHICLE_REG_NUMBER = 'REG4242' AND OUT_TIME IS NOT NULL;
+SELECT COUNT(*) FROM ticket WHERE VEHICLE_REG_NUMBER = 'REG4242' AND OUT_TIME IS NOT NULL;
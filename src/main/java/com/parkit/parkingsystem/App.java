@@ -1,13 +1,132 @@
 package com.parkit.parkingsystem;
 
+import com.parkit.parkingsystem.config.ApplicationConfig;
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.config.SchemaMigrator;
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.FareRecomputationService;
+import com.parkit.parkingsystem.service.GateServer;
 import com.parkit.parkingsystem.service.InteractiveShell;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.service.TariffLoader;
+import com.parkit.parkingsystem.service.TicketExportService;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
 public class App {
     private static final Logger logger = LogManager.getLogger("App");
     public static void main(String[] args){
         logger.info("Initializing Parking System");
-        InteractiveShell.loadInterface();
+        Metrics.registerMBean();
+        DataBaseConfig.startStatsLogging(ApplicationConfig.getLong("db.stats.logPeriodMillis", 60_000));
+        try {
+            if (ApplicationConfig.getBoolean("db.migrate.onStartup", true) && !EmbeddedDataBaseConfig.isEnabled()) {
+                migrateSchema();
+            }
+            if (args.length > 0 && args[0].equals("recompute-fares")) {
+                recomputeFares(args);
+            } else if (args.length > 0 && args[0].equals("export-tickets")) {
+                exportTickets(args);
+            } else if (args.length > 0 && args[0].equals("serve")) {
+                serve();
+            } else {
+                InteractiveShell.loadInterface();
+            }
+        } finally {
+            DataBaseConfig.closePools();
+        }
+    }
+
+    // serve: runs the gate server until the JVM is asked to stop, then drains the requests in progress
+    private static void serve(){
+        ParkingSystem parkingSystem = ParkingSystem.fromConfig(null);
+        GateServer gateServer = new GateServer(parkingSystem.getParkingService(),
+                ApplicationConfig.getInt("server.maxConcurrentRequests", 64),
+                ApplicationConfig.getLong("server.queueTimeoutMillis", 100));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                gateServer.stop(ApplicationConfig.getLong("server.drainTimeoutMillis", 10_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                parkingSystem.close();
+                DataBaseConfig.closePools();
+                stopped.countDown();
+            }
+        }, "gate-server-shutdown"));
+        try {
+            gateServer.start(ApplicationConfig.getInt("server.port", 8080), ApplicationConfig.getInt("server.fallbackThreads", 64));
+            stopped.await();
+        } catch (IOException e) {
+            logger.error("Unable to start the gate server", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // recompute-fares <from yyyy-MM-dd> <to yyyy-MM-dd, exclusive> <output csv> [lot id]
+    private static void recomputeFares(String[] args){
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: recompute-fares <from yyyy-MM-dd> <to yyyy-MM-dd> <output.csv> [lot id]");
+            return;
+        }
+        TicketRepository ticketRepository = ParkingSystem.newTicketRepository((args.length == 5) ? Integer.parseInt(args[4]) : ParkingSystem.configuredLotIds()[0]);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        FareRecomputationService fareRecomputationService = new FareRecomputationService(ticketRepository, new FareCalculatorService(TariffLoader.fromConfig()),
+                ForkJoinPool.commonPool(),
+                ApplicationConfig.getInt("fares.recompute.chunkSize", 1_024),
+                ApplicationConfig.getInt("fares.recompute.maxChunksInFlight", 2 * ForkJoinPool.getCommonPoolParallelism()));
+        try (Writer out = Files.newBufferedWriter(Paths.get(args[3]), StandardCharsets.UTF_8)) {
+            FareRecomputationService.Summary summary = fareRecomputationService.recompute(dateFormat.parse(args[1]), dateFormat.parse(args[2]), out);
+            System.out.println(summary.getTickets() + " tickets recomputed, " + summary.getChangedTickets() + " with a different fare");
+            System.out.println("Recorded total: " + FareRecomputationService.appendCents(new StringBuilder(), summary.getRecordedTotalCents())
+                    + ", recomputed total: " + FareRecomputationService.appendCents(new StringBuilder(), summary.getRecomputedTotalCents()));
+        } catch (Exception e) {
+            logger.error("Unable to recompute fares", e);
+        }
+    }
+
+    // export-tickets <directory> [lot id]
+    private static void exportTickets(String[] args){
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: export-tickets <directory> [lot id]");
+            return;
+        }
+        TicketRepository ticketRepository = ParkingSystem.newTicketRepository((args.length == 3) ? Integer.parseInt(args[2]) : ParkingSystem.configuredLotIds()[0]);
+        TicketExportService ticketExportService = new TicketExportService(ticketRepository, Paths.get(args[1]),
+                ApplicationConfig.getInt("export.rowGroupSize", 8_192), ZoneId.systemDefault());
+        try {
+            TicketExportService.Summary summary = ticketExportService.export();
+            System.out.println(summary.getTickets() + " tickets exported to " + summary.getFiles() + " files, last ID " + summary.getLastId()
+                    + (summary.getHeldBackIds().isEmpty() ? "" : ", " + summary.getHeldBackIds().size()
+                            + " open tickets held back since ID " + summary.getHeldBackIds().first()));
+        } catch (Exception e) {
+            logger.error("Unable to export tickets", e);
+        }
+    }
+
+    private static void migrateSchema(){
+        for (int lotId : ParkingSystem.configuredLotIds()) {
+            try {
+                int applied = new SchemaMigrator(new DataBaseConfig(lotId)).migrate();
+                logger.info("Database schema of lot " + lotId + " up to date, " + applied + " migration(s) applied");
+            } catch (Exception e) {
+                logger.error("Unable to migrate the database schema of lot " + lotId, e);
+            }
+        }
     }
 }
@@ -0,0 +1,57 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Reads the application settings from parkingsystem.properties on the classpath.
+ * Any key can be overridden with a JVM system property of the same name (-Dkey=value).
+ */
+public class ApplicationConfig {
+
+    private static final Logger logger = LogManager.getLogger("ApplicationConfig");
+
+    private static final String CONFIG_RESOURCE = "/parkingsystem.properties";
+
+    private static final Properties properties = load();
+
+    private static Properties load() {
+        Properties props = new Properties();
+        try (InputStream in = ApplicationConfig.class.getResourceAsStream(CONFIG_RESOURCE)) {
+            if (in != null) {
+                props.load(in);
+            }
+        } catch (IOException e) {
+            logger.error("Error while loading " + CONFIG_RESOURCE, e);
+        }
+        return props;
+    }
+
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue));
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return (value == null || value.trim().isEmpty()) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return (value == null || value.trim().isEmpty()) ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        return (value == null || value.trim().isEmpty()) ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return (value == null || value.trim().isEmpty()) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
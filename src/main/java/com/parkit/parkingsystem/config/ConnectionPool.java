@@ -0,0 +1,551 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Borrowed connections are proxies: calling close() hands the physical connection back to the pool
+ * instead of closing it, so the DAOs keep their usual getConnection / closeConnection sequence.
+ * Each physical connection also keeps its most recently used prepared statements open (statementCacheSize per
+ * connection): preparing the same SQL again reuses the statement, and closing it only hands it back. With server-side
+ * prepared statements the database then parses each query once per connection, and the number of statement handles
+ * it holds is bounded by maxSize * statementCacheSize.
+ * A connection returned less than validationSkipMillis ago is handed out again without validation, as it was just in
+ * use. Leak detection only records when and by which thread a connection was borrowed; the borrowing stack is captured
+ * at DEBUG level, otherwise the stack of the holding thread is logged when the threshold is exceeded.
+ */
+public class ConnectionPool {
+
+    private static final Logger logger = LogManager.getLogger("ConnectionPool");
+
+    public static final long DEFAULT_VALIDATION_SKIP_MILLIS = 500;
+
+    public interface ConnectionFactory {
+        Connection create() throws ClassNotFoundException, SQLException;
+    }
+
+    private final String name;
+    private final ConnectionFactory connectionFactory;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+    private final long validationSkipMillis;
+
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    public ConnectionPool(String name, ConnectionFactory connectionFactory, int minSize, int maxSize,
+                          long borrowTimeoutMillis, int validationTimeoutSeconds,
+                          long idleTimeoutMillis, long leakThresholdMillis, long housekeepingPeriodMillis) {
+        this(name, connectionFactory, minSize, maxSize, borrowTimeoutMillis, validationTimeoutSeconds,
+                idleTimeoutMillis, leakThresholdMillis, housekeepingPeriodMillis, 0);
+    }
+
+    /**
+     * @param statementCacheSize prepared statements kept open per connection, 0 to close them as usual
+     */
+    public ConnectionPool(String name, ConnectionFactory connectionFactory, int minSize, int maxSize,
+                          long borrowTimeoutMillis, int validationTimeoutSeconds,
+                          long idleTimeoutMillis, long leakThresholdMillis, long housekeepingPeriodMillis,
+                          int statementCacheSize) {
+        this(name, connectionFactory, minSize, maxSize, borrowTimeoutMillis, validationTimeoutSeconds,
+                idleTimeoutMillis, leakThresholdMillis, housekeepingPeriodMillis, statementCacheSize, DEFAULT_VALIDATION_SKIP_MILLIS);
+    }
+
+    /**
+     * @param validationSkipMillis a connection returned more recently is not validated again on borrow, 0 to always validate
+     */
+    public ConnectionPool(String name, ConnectionFactory connectionFactory, int minSize, int maxSize,
+                          long borrowTimeoutMillis, int validationTimeoutSeconds,
+                          long idleTimeoutMillis, long leakThresholdMillis, long housekeepingPeriodMillis,
+                          int statementCacheSize, long validationSkipMillis) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+        }
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.validationSkipMillis = validationSkipMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (housekeepingPeriodMillis > 0) {
+            housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingPeriodMillis, housekeepingPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Connection borrow() throws ClassNotFoundException, SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a connection from pool " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from pool " + name, e);
+        }
+        totalWaitNanos.addAndGet(System.nanoTime() - start);
+        try {
+            PooledConnection pooled = takeValidIdleConnection();
+            if (pooled == null) {
+                pooled = createConnection();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            if (leakThresholdMillis > 0) {
+                pooled.borrowThread = Thread.currentThread();
+                pooled.borrowSite = logger.isDebugEnabled() ? new Throwable("Connection borrowed here") : null;
+            }
+            pooled.leakReported = false;
+            borrowedConnections.add(pooled);
+            borrowCount.incrementAndGet();
+            return pooled.newHandle();
+        } catch (ClassNotFoundException | SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.lastReturnedAt < validationSkipMillis || isValid(pooled)) {
+                return pooled;
+            }
+            validationFailureCount.incrementAndGet();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return !pooled.physical.isClosed() && pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection createConnection() throws ClassNotFoundException, SQLException {
+        Connection physical = connectionFactory.create();
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        pooled.borrowThread = null;
+        pooled.borrowSite = null;
+        pooled.reclaimStatements();
+        pooled.lastReturnedAt = System.currentTimeMillis();
+        boolean reusable = !closed;
+        try {
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error("Error while resetting pooled connection, discarding it", e);
+            reusable = false;
+        }
+        if (reusable) {
+            idleConnections.offerFirst(pooled);
+        } else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            logger.error("Error while closing pooled connection", e);
+        }
+    }
+
+    void housekeep() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (idleTimeoutMillis > 0) {
+            Iterator<PooledConnection> it = idleConnections.descendingIterator();
+            while (it.hasNext() && totalConnections.get() > minSize) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastReturnedAt > idleTimeoutMillis && idleConnections.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+        }
+        while (totalConnections.get() < minSize && !closed) {
+            try {
+                idleConnections.offerLast(createConnection());
+            } catch (Exception e) {
+                logger.error("Error while filling connection pool " + name + " to its minimum size", e);
+                break;
+            }
+        }
+        if (leakThresholdMillis > 0) {
+            for (PooledConnection pooled : borrowedConnections) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                    pooled.leakReported = true;
+                    leakCount.incrementAndGet();
+                    logger.warn("Connection from pool " + name + " held for more than " + leakThresholdMillis + "ms, possible leak",
+                            leakSite(pooled));
+                }
+            }
+        }
+    }
+
+    // where the connection was borrowed when that was recorded, otherwise where the thread holding it is now
+    private static Throwable leakSite(PooledConnection pooled) {
+        Throwable borrowSite = pooled.borrowSite;
+        if (borrowSite != null) {
+            return borrowSite;
+        }
+        Thread thread = pooled.borrowThread;
+        if (thread == null) {
+            return null;
+        }
+        Throwable holdingSite = new Throwable("Connection held by thread " + thread.getName() + ", now here");
+        holdingSite.setStackTrace(thread.getStackTrace());
+        return holdingSite;
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    public int getActiveConnections() {
+        return borrowedConnections.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool[" + name + " total=" + getTotalConnections() + " active=" + getActiveConnections()
+                + " idle=" + getIdleConnections() + " borrowed=" + getBorrowCount() + " created=" + getCreatedCount()
+                + " destroyed=" + getDestroyedCount() + " invalid=" + getValidationFailureCount()
+                + " timeouts=" + getTimeoutCount() + " leaks=" + getLeakCount()
+                + " statementCacheHits=" + getStatementCacheHits() + " statementCacheMisses=" + getStatementCacheMisses() + "]";
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private volatile long borrowedAt;
+        private volatile long lastReturnedAt = System.currentTimeMillis();
+        private volatile Thread borrowThread;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+
+        // open statements by SQL, least recently used first; only touched by the thread holding the connection
+        private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+
+        private PreparedStatement prepare(Connection connectionHandle, String sql, Integer autoGeneratedKeys) throws SQLException {
+            String key = (autoGeneratedKeys == null) ? sql : autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.lease == null) {
+                statementCacheHits.incrementAndGet();
+                return cached.lend(connectionHandle);
+            }
+            statementCacheMisses.incrementAndGet();
+            PreparedStatement statement = (autoGeneratedKeys == null)
+                    ? physical.prepareStatement(sql) : physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                // the same SQL is still open in this borrow: hand out a plain statement, closed as usual
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            statements.put(key, cached);
+            evictStatements();
+            return cached.lend(connectionHandle);
+        }
+
+        private void evictStatements() {
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (statements.size() > statementCacheSize && it.hasNext()) {
+                CachedStatement eldest = it.next();
+                if (eldest.lease == null) {
+                    it.remove();
+                    eldest.closePhysical();
+                }
+            }
+        }
+
+        // statements the borrower left open go back to the cache with the connection
+        private void reclaimStatements() {
+            for (CachedStatement cached : statements.values()) {
+                if (cached.lease != null) {
+                    cached.giveBack();
+                }
+            }
+            evictStatements();
+        }
+    }
+
+    private final class CachedStatement {
+        private final PreparedStatement physical;
+        // the handle currently lent out, null when the statement is free
+        private StatementHandle lease;
+
+        private CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        private PreparedStatement lend(Connection connectionHandle) {
+            lease = new StatementHandle(this, connectionHandle);
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, lease);
+        }
+
+        private void giveBack() {
+            lease = null;
+            try {
+                physical.clearParameters();
+                physical.clearBatch();
+            } catch (SQLException e) {
+                logger.warn("Error while resetting cached statement: " + e.getMessage());
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.warn("Error while closing cached statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One handle per use of a cached statement: closing it returns the statement to the cache, and a handle kept
+     * after that fails instead of touching a statement now used elsewhere.
+     */
+    private final class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connectionHandle;
+
+        private StatementHandle(CachedStatement cached, Connection connectionHandle) {
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean current = cached.lease == this;
+            switch (method.getName()) {
+                case "close": {
+                    if (current) {
+                        cached.giveBack();
+                    }
+                    return null;
+                }
+                case "isClosed": {
+                    return !current;
+                }
+                case "getConnection": {
+                    return connectionHandle;
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString": {
+                    return "Cached" + cached.physical;
+                }
+                default: {
+                    if (!current) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    try {
+                        return method.invoke(cached.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+
+    // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys); cursor and column variants are not cached
+    private static boolean isCacheable(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        return parameterTypes.length == 1 || (parameterTypes.length == 2 && parameterTypes[1] == int.class);
+    }
+
+    /**
+     * One handle per borrow, so a stale reference closed twice cannot return the connection again.
+     */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        private Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": {
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(pooled);
+                        }
+                    }
+                    return null;
+                }
+                case "isClosed": {
+                    return returned || pooled.physical.isClosed();
+                }
+                case "unwrap": {
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : pooled.physical.unwrap((Class<?>) args[0]);
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString": {
+                    return "Pooled" + pooled.physical;
+                }
+                default: {
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to pool " + name);
+                    }
+                    if (statementCacheSize > 0 && method.getName().equals("prepareStatement") && isCacheable(method)) {
+                        return pooled.prepare((Connection) proxy, (String) args[0], args.length == 2 ? (Integer) args[1] : null);
+                    }
+                    try {
+                        return method.invoke(pooled.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+}
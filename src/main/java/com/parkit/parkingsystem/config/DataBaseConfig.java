@@ -1,27 +1,263 @@
 package com.parkit.parkingsystem.config;
 
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class DataBaseConfig {
 
     private static final Logger logger = LogManager.getLogger("DataBaseConfig");
 
+    // time to get a connection, from the pool or the driver
+    private static final LatencyHistogram primaryAcquireTimer = Metrics.timer("parking_db_connection_acquire_seconds", "database", "primary");
+    private static final LatencyHistogram replicaAcquireTimer = Metrics.timer("parking_db_connection_acquire_seconds", "database", "replica");
+
+    // lifecycle events counted on every DAO call, reported in aggregate instead of logged one by one
+    private static final LongAdder connectionsOpened = Metrics.counter("parking_db_connections_opened_total");
+    private static final LongAdder connectionsClosed = Metrics.counter("parking_db_connections_closed_total");
+    private static final LongAdder closeErrors = Metrics.counter("parking_db_close_errors_total");
+
+    private static ScheduledExecutorService statsLogger;
+
+    // one pool per database URL and credentials, shared by every DAO instance connecting with them:
+    // lots on the same URL with their own user get their own pool
+    private static final Map<List<String>, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    // replicas of each primary URL, shared by every DAO instance
+    private static final Map<String, ReplicaSet> replicaSets = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final List<String> replicaUrls;
+
+    public DataBaseConfig() {
+        url = ApplicationConfig.getString("db.url", "jdbc:mysql://localhost:3306/prod?serverTimezone=Europe/Paris&rewriteBatchedStatements=true&useServerPrepStmts=true");
+        user = ApplicationConfig.getString("db.user", "root");
+        password = ApplicationConfig.getString("db.password", "rootroot");
+        replicaUrls = parseUrls(ApplicationConfig.getString("db.replicas", ""));
+    }
+
+    /**
+     * Database of one parking lot: db.lot.&lt;lotId&gt;.url, .user and .password, each falling back to the db.* setting.
+     * Every lot needs its own database or schema, the tables have no lot column.
+     * A lot with its own URL only has the replicas listed in db.lot.&lt;lotId&gt;.replicas.
+     */
+    public DataBaseConfig(int lotId) {
+        DataBaseConfig defaults = new DataBaseConfig();
+        String lotUrl = ApplicationConfig.getString("db.lot." + lotId + ".url", null);
+        url = (lotUrl == null) ? defaults.url : lotUrl;
+        user = ApplicationConfig.getString("db.lot." + lotId + ".user", defaults.user);
+        password = ApplicationConfig.getString("db.lot." + lotId + ".password", defaults.password);
+        replicaUrls = (lotUrl == null) ? defaults.replicaUrls : parseUrls(ApplicationConfig.getString("db.lot." + lotId + ".replicas", ""));
+    }
+
+    private static List<String> parseUrls(String urls) {
+        List<String> parsed = new ArrayList<>();
+        for (String replicaUrl : urls.split(",")) {
+            if (!replicaUrl.trim().isEmpty()) {
+                parsed.add(replicaUrl.trim());
+            }
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+
+    /**
+     * Connection to the primary, for writes and for reads that must see the latest writes.
+     */
     public Connection getConnection() throws ClassNotFoundException, SQLException {
-        logger.info("Create DB connection");
+        return connect(url);
+    }
+
+    /**
+     * Connection for reads that tolerate replication lag up to db.replica.maxStalenessMillis: a replica within
+     * that lag when there is one, the primary otherwise. Close it with closeConnection as usual.
+     */
+    public Connection getReadConnection() throws ClassNotFoundException, SQLException {
+        Connection replica = getReplicaConnection();
+        return (replica != null) ? replica : getConnection();
+    }
+
+    /**
+     * Connection to a replica within db.replica.maxStalenessMillis of lag, or null when none qualifies or answers.
+     * A caller already holding a primary connection reads on it in that case rather than borrowing a second one.
+     */
+    public Connection getReplicaConnection() throws ClassNotFoundException {
+        if (replicaUrls.isEmpty()) {
+            return null;
+        }
+        ReplicaSet replicaSet = getReplicaSet();
+        String replicaUrl = replicaSet.pick(ApplicationConfig.getLong("db.replica.maxStalenessMillis", 2_000));
+        if (replicaUrl == null) {
+            return null;
+        }
+        try {
+            return connect(replicaUrl);
+        } catch (SQLException e) {
+            logger.warn("Replica " + replicaUrl + " unavailable, reading from the primary: " + e.getMessage());
+            replicaSet.markUnavailable(replicaUrl);
+            return null;
+        }
+    }
+
+    public boolean hasReplicas() {
+        return !replicaUrls.isEmpty();
+    }
+
+    public ReplicaSet getReplicaSet() {
+        return replicaSets.computeIfAbsent(url, key -> {
+            ReplicaSet replicaSet = new ReplicaSet(replicaUrls, this::measureLagMillis);
+            replicaSet.startProbing(ApplicationConfig.getLong("db.replica.probePeriodMillis", 1_000));
+            return replicaSet;
+        });
+    }
+
+    /**
+     * Runs db.replica.lagQuery on the replica. SHOW REPLICA STATUS (the default, MySQL 8.0.22+) and SHOW SLAVE STATUS
+     * report Seconds_Behind_Source / Seconds_Behind_Master; any other query must return the lag in seconds in its first column.
+     */
+    private long measureLagMillis(String replicaUrl) throws ClassNotFoundException, SQLException {
+        String lagQuery = ApplicationConfig.getString("db.replica.lagQuery", "SHOW REPLICA STATUS");
+        Connection con = connect(replicaUrl);
+        try (Statement statement = con.createStatement(); ResultSet rs = statement.executeQuery(lagQuery)) {
+            if (!rs.next()) {
+                return ReplicaSet.UNKNOWN_LAG; // not a replica, or replication stopped
+            }
+            Object seconds = hasColumn(rs, "Seconds_Behind_Source") ? rs.getObject("Seconds_Behind_Source")
+                    : hasColumn(rs, "Seconds_Behind_Master") ? rs.getObject("Seconds_Behind_Master")
+                    : rs.getObject(1);
+            return (seconds == null) ? ReplicaSet.UNKNOWN_LAG : ((Number) seconds).longValue() * 1_000;
+        } finally {
+            closeConnection(con);
+        }
+    }
+
+    private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Connection connect(String databaseUrl) throws ClassNotFoundException, SQLException {
+        long start = System.nanoTime();
+        try {
+            if (ApplicationConfig.getBoolean("db.pool.enabled", false)) {
+                return getPool(databaseUrl).borrow();
+            }
+            return openConnection(databaseUrl);
+        } finally {
+            (databaseUrl.equals(url) ? primaryAcquireTimer : replicaAcquireTimer).recordSince(start);
+        }
+    }
+
+    protected Connection openConnection() throws ClassNotFoundException, SQLException {
+        return openConnection(url);
+    }
+
+    private Connection openConnection(String databaseUrl) throws ClassNotFoundException, SQLException {
+        logger.trace("Create DB connection");
         Class.forName("com.mysql.cj.jdbc.Driver");
-        return DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/prod?serverTimezone=Europe/Paris","root","rootroot");
+        Connection con = DriverManager.getConnection(databaseUrl, user, password);
+        connectionsOpened.increment();
+        return con;
+    }
+
+    /**
+     * Fetch size for queries that read through large result sets row by row.
+     * Connector/J only streams rows with Integer.MIN_VALUE; any other value makes it buffer the whole result.
+     */
+    public int getStreamingFetchSize() {
+        return url.startsWith("jdbc:mysql:") ? Integer.MIN_VALUE : ApplicationConfig.getInt("db.fetchSize", 1_000);
+    }
+
+    public ConnectionPool getPool() {
+        return getPool(url);
+    }
+
+    private ConnectionPool getPool(String databaseUrl) {
+        return pools.computeIfAbsent(Arrays.asList(databaseUrl, user, password), key -> new ConnectionPool(user + "@" + databaseUrl,
+                databaseUrl.equals(url) ? this::openConnection : () -> openConnection(databaseUrl),
+                ApplicationConfig.getInt("db.pool.minSize", 2),
+                ApplicationConfig.getInt("db.pool.maxSize", 10),
+                ApplicationConfig.getLong("db.pool.borrowTimeoutMillis", 5_000),
+                ApplicationConfig.getInt("db.pool.validationTimeoutSeconds", 2),
+                ApplicationConfig.getLong("db.pool.idleTimeoutMillis", 600_000),
+                ApplicationConfig.getLong("db.pool.leakThresholdMillis", 30_000),
+                ApplicationConfig.getLong("db.pool.housekeepingPeriodMillis", 30_000),
+                ApplicationConfig.getInt("db.pool.statementCacheSize", 32),
+                ApplicationConfig.getLong("db.pool.validationSkipMillis", ConnectionPool.DEFAULT_VALIDATION_SKIP_MILLIS)));
+    }
+
+    /**
+     * Logs, every periodMillis, the connection lifecycle counts of the period and the state of each pool,
+     * in place of one log line per call. Stopped by closePools.
+     */
+    public static synchronized void startStatsLogging(long periodMillis) {
+        if (statsLogger != null || periodMillis <= 0) {
+            return;
+        }
+        statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-stats-logger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = new long[3];
+        statsLogger.scheduleAtFixedRate(() -> {
+            long[] current = {connectionsOpened.sum(), connectionsClosed.sum(), closeErrors.sum()};
+            if (!Arrays.equals(current, last)) {
+                logger.info("DB activity over the last " + periodMillis / 1_000 + "s: " + (current[0] - last[0]) + " connections opened, "
+                        + (current[1] - last[1]) + " released, " + (current[2] - last[2]) + " close errors");
+                for (ConnectionPool pool : pools.values()) {
+                    logger.info(pool);
+                }
+                System.arraycopy(current, 0, last, 0, last.length);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static void closePools() {
+        synchronized (DataBaseConfig.class) {
+            if (statsLogger != null) {
+                statsLogger.shutdownNow();
+                statsLogger = null;
+            }
+        }
+        for (ReplicaSet replicaSet : replicaSets.values()) {
+            replicaSet.close();
+        }
+        replicaSets.clear();
+        for (ConnectionPool pool : pools.values()) {
+            logger.info("Closing " + pool);
+            pool.close();
+        }
+        pools.clear();
     }
 
     public void closeConnection(Connection con){
         if(con!=null){
             try {
                 con.close();
-                logger.info("Closing DB connection");
+                connectionsClosed.increment();
+                logger.trace("Closing DB connection");
             } catch (SQLException e) {
+                closeErrors.increment();
                 logger.error("Error while closing connection",e);
             }
         }
@@ -31,8 +267,9 @@ public class DataBaseConfig {
         if(ps!=null){
             try {
                 ps.close();
-                logger.info("Closing Prepared Statement");
+                logger.trace("Closing Prepared Statement");
             } catch (SQLException e) {
+                closeErrors.increment();
                 logger.error("Error while closing prepared statement",e);
             }
         }
@@ -42,8 +279,9 @@ public class DataBaseConfig {
         if(rs!=null){
             try {
                 rs.close();
-                logger.info("Closing Result Set");
+                logger.trace("Closing Result Set");
             } catch (SQLException e) {
+                closeErrors.increment();
                 logger.error("Error while closing result set",e);
             }
         }
@@ -0,0 +1,81 @@
+package com.parkit.parkingsystem.config;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * Database settings of the in-memory storage engine (db.engine=memory): there is no server, the connections only
+ * give units of work a commit and a rollback to hang their callbacks on. Every read and write goes to the
+ * in-memory DAOs, which apply their changes and undo them through those callbacks. Anything else asked of a
+ * connection, a statement above all, fails with SQLFeatureNotSupportedException.
+ */
+public class EmbeddedDataBaseConfig extends DataBaseConfig {
+
+    private static final Connection CONNECTION = (Connection) Proxy.newProxyInstance(
+            EmbeddedDataBaseConfig.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setAutoCommit":
+                    case "commit":
+                    case "rollback":
+                    case "close":
+                        return null;
+                    case "isValid":
+                        return true;
+                    case "isClosed":
+                        return false;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "EmbeddedConnection";
+                    default:
+                        throw new SQLFeatureNotSupportedException(method.getName() + " is not supported by the in-memory storage engine");
+                }
+            });
+
+    public static boolean isEnabled() {
+        return ApplicationConfig.getString("db.engine", "mysql").equals("memory");
+    }
+
+    @Override
+    public Connection getConnection() {
+        return CONNECTION;
+    }
+
+    @Override
+    public Connection getReadConnection() {
+        return CONNECTION;
+    }
+
+    @Override
+    public Connection getReplicaConnection() {
+        return null;
+    }
+
+    @Override
+    public boolean hasReplicas() {
+        return false;
+    }
+
+    @Override
+    public ReplicaSet getReplicaSet() {
+        throw new UnsupportedOperationException("The in-memory storage engine has no replicas");
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        throw new UnsupportedOperationException("The in-memory storage engine has no connection pool");
+    }
+
+    @Override
+    protected Connection openConnection() {
+        return CONNECTION;
+    }
+
+    @Override
+    public void closeConnection(Connection con) {
+        // nothing to release
+    }
+}
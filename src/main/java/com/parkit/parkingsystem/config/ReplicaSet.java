@@ -0,0 +1,122 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read replicas of one primary database with their last measured replication lag.
+ * A background task probes every replica periodically; reads go round-robin to the replicas whose lag is within
+ * the caller's tolerance. A replica that cannot be probed or reached counts as infinitely stale until the next probe.
+ */
+public class ReplicaSet {
+
+    private static final Logger logger = LogManager.getLogger("ReplicaSet");
+
+    public static final long UNKNOWN_LAG = Long.MAX_VALUE;
+
+    public interface LagProbe {
+        /**
+         * @return the replication lag of the replica in milliseconds, or UNKNOWN_LAG when replication is not running
+         */
+        long lagMillis(String url) throws Exception;
+    }
+
+    private final String[] urls;
+    private final LagProbe lagProbe;
+    private final AtomicLongArray lagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService prober;
+
+    public ReplicaSet(List<String> urls, LagProbe lagProbe) {
+        this.urls = urls.toArray(new String[0]);
+        this.lagProbe = lagProbe;
+        this.lagMillis = new AtomicLongArray(this.urls.length);
+        for (int i = 0; i < this.urls.length; i++) {
+            lagMillis.set(i, UNKNOWN_LAG);
+        }
+    }
+
+    /**
+     * @return the next replica at most maxStalenessMillis behind the primary, or null when none is
+     */
+    public String pick(long maxStalenessMillis) {
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < urls.length; i++) {
+            int replica = (start + i) % urls.length;
+            if (lagMillis.get(replica) <= maxStalenessMillis) {
+                return urls[replica];
+            }
+        }
+        return null;
+    }
+
+    public long getLagMillis(String url) {
+        int replica = indexOf(url);
+        return replica < 0 ? UNKNOWN_LAG : lagMillis.get(replica);
+    }
+
+    /**
+     * Takes a replica out of rotation after a failed connection, until the next probe succeeds.
+     */
+    public void markUnavailable(String url) {
+        int replica = indexOf(url);
+        if (replica >= 0) {
+            lagMillis.set(replica, UNKNOWN_LAG);
+        }
+    }
+
+    public void probe() {
+        for (int i = 0; i < urls.length; i++) {
+            long lag;
+            try {
+                lag = lagProbe.lagMillis(urls[i]);
+            } catch (Exception e) {
+                logger.warn("Unable to measure replication lag of " + urls[i] + ": " + e.getMessage());
+                lag = UNKNOWN_LAG;
+            }
+            if (lag == UNKNOWN_LAG && lagMillis.get(i) != UNKNOWN_LAG) {
+                logger.warn("Replica " + urls[i] + " taken out of rotation");
+            }
+            lagMillis.set(i, lag);
+        }
+    }
+
+    /**
+     * Probes once now, so the replicas are usable right away, then every periodMillis.
+     */
+    public synchronized void startProbing(long periodMillis) {
+        if (prober != null) {
+            return;
+        }
+        probe();
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-lag-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+
+    private int indexOf(String url) {
+        for (int i = 0; i < urls.length; i++) {
+            if (urls[i].equals(url)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,124 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies the versioned scripts under db/migration on top of the Data.sql baseline, in order, once each.
+ * Applied versions are recorded in the schema_version table.
+ * MySQL commits DDL implicitly, so a script failing halfway has to be fixed by hand before the next start.
+ */
+public class SchemaMigrator {
+
+    private static final Logger logger = LogManager.getLogger("SchemaMigrator");
+
+    private static final String MIGRATION_PATH = "/db/migration/";
+
+    // in application order, named V<version>__<description>.sql
+    private static final String[] MIGRATIONS = {
+            "V1__ticket_lookup_indexes.sql",
+            "V2__parking_availability_index.sql",
+            "V3__ticket_out_time_index.sql",
+            "V4__gate_journal_checkpoint.sql",
+            "V5__ticket_archive.sql"
+    };
+
+    private static final String CREATE_SCHEMA_VERSION = "create table if not exists schema_version("
+            + "VERSION int PRIMARY KEY, DESCRIPTION varchar(100) NOT NULL, APPLIED_ON DATETIME NOT NULL)";
+    private static final String GET_APPLIED_VERSIONS = "select VERSION from schema_version";
+    private static final String SAVE_VERSION = "insert into schema_version(VERSION, DESCRIPTION, APPLIED_ON) values(?,?,now())";
+
+    private final DataBaseConfig dataBaseConfig;
+
+    public SchemaMigrator(DataBaseConfig dataBaseConfig) {
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    /**
+     * @return the number of migrations applied by this call
+     */
+    public int migrate() throws ClassNotFoundException, SQLException, IOException {
+        Connection con = null;
+        int applied = 0;
+        try {
+            con = dataBaseConfig.getConnection();
+            try (Statement statement = con.createStatement()) {
+                statement.execute(CREATE_SCHEMA_VERSION);
+            }
+            Set<Integer> appliedVersions = getAppliedVersions(con);
+            for (String migration : MIGRATIONS) {
+                int version = Integer.parseInt(migration.substring(1, migration.indexOf("__")));
+                if (appliedVersions.contains(version)) {
+                    continue;
+                }
+                logger.info("Applying schema migration " + migration);
+                long start = System.nanoTime();
+                try (Statement statement = con.createStatement()) {
+                    for (String sql : readStatements(migration)) {
+                        statement.execute(sql);
+                    }
+                }
+                try (PreparedStatement ps = con.prepareStatement(SAVE_VERSION)) {
+                    ps.setInt(1, version);
+                    ps.setString(2, migration.substring(migration.indexOf("__") + 2, migration.lastIndexOf('.')));
+                    ps.executeUpdate();
+                }
+                logger.info("Schema migration " + migration + " applied in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                applied++;
+            }
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        return applied;
+    }
+
+    private static Set<Integer> getAppliedVersions(Connection con) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (PreparedStatement ps = con.prepareStatement(GET_APPLIED_VERSIONS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                versions.add(rs.getInt(1));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Splits a script on ';' and drops comment-only chunks. Scripts must not contain ';' inside literals.
+     */
+    static List<String> readStatements(String migration) throws IOException {
+        InputStream in = SchemaMigrator.class.getResourceAsStream(MIGRATION_PATH + migration);
+        if (in == null) {
+            throw new IOException("Missing schema migration " + migration);
+        }
+        StringBuilder script = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                script.append(line).append('\n');
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        for (String chunk : script.toString().replaceAll("(?s)/\\*.*?\\*/", "").split(";")) {
+            if (!chunk.trim().isEmpty()) {
+                statements.add(chunk.trim());
+            }
+        }
+        return statements;
+    }
+}
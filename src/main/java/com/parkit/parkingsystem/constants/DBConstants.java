@@ -3,10 +3,59 @@ package com.parkit.parkingsystem.constants;
 public class DBConstants {
 
     public static final String GET_NEXT_PARKING_SPOT = "select min(PARKING_NUMBER) from parking where AVAILABLE = true and TYPE = ?";
-    public static final String UPDATE_PARKING_SPOT = "update parking set available = ? where PARKING_NUMBER = ?";
+    public static final String UPDATE_PARKING_SPOT = "update parking set available = ? where PARKING_NUMBER = ? and AVAILABLE <> ?";
+    public static final String GET_NEXT_PARKING_SPOT_FOR_UPDATE = "select PARKING_NUMBER from parking where AVAILABLE = true and TYPE = ? order by PARKING_NUMBER limit 1 for update skip locked";
+    public static final String CLAIM_PARKING_SPOT = "update parking set AVAILABLE = false where PARKING_NUMBER = ? and AVAILABLE = true";
+    public static final String GET_PARKING_SPOTS = "select PARKING_NUMBER, TYPE, AVAILABLE from parking";
+    public static final String GET_OCCUPANCY = "select TYPE, sum(case when AVAILABLE then 1 else 0 end), sum(case when AVAILABLE then 0 else 1 end) from parking group by TYPE";
 
     public static final String SAVE_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)";
-    public static final String UPDATE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=?";
+    // only an open ticket is closed: of two concurrent exits of the same vehicle, the second updates no row
+    public static final String UPDATE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=? and OUT_TIME is null";
     public static final String GET_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME desc limit 1";
-    public static final String GET_NB_TICKET = "SELECT COUNT(*) FROM ticket WHERE VEHICLE_REG_NUMBER = ? AND OUT_TIME IS NOT NULL";
+    public static final String GET_OPEN_TICKETS = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE, t.VEHICLE_REG_NUMBER from ticket t,parking p where p.parking_number = t.parking_number and t.OPEN_VEHICLE_REG_NUMBER is not null";
+    // the discount applied at exit when an earlier stay of the same vehicle was already closed, possibly since archived
+    public static final String GET_CLOSED_TICKETS = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE, t.VEHICLE_REG_NUMBER,"
+            + " exists(select 1 from ticket e where e.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and e.OUT_TIME < t.OUT_TIME)"
+            + " or exists(select 1 from ticket_archive a where a.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and a.OUT_TIME < t.OUT_TIME)"
+            + " from ticket t,parking p where p.parking_number = t.parking_number and t.OUT_TIME >= ? and t.OUT_TIME < ?";
+    // ticket export: closed tickets in ID order up to the last ID, the open ones below it being held back by their ID;
+    // archived ones included as they may have been moved before they were exported
+    public static final String GET_LAST_TICKET_ID = "select greatest((select coalesce(max(ID), 0) from ticket),"
+            + " (select coalesce(max(ID), 0) from ticket_archive))";
+    public static final String GET_OPEN_TICKET_IDS = "select ID from ticket where OPEN_VEHICLE_REG_NUMBER is not null and ID > ? and ID <= ? order by ID";
+    public static final String GET_TICKETS_TO_EXPORT = "select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket"
+            + " where ID > ? and ID <= ? and OUT_TIME is not null"
+            + " union all select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket_archive"
+            + " where ID > ? and ID <= ? order by ID";
+    // %1$s: one placeholder per held back ID, each ID is set twice
+    public static final String GET_HELD_BACK_TICKETS_TO_EXPORT = "select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket"
+            + " where ID in (%1$s) and OUT_TIME is not null"
+            + " union all select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket_archive"
+            + " where ID in (%1$s) order by ID";
+    // revenue rollups: closed stays per type and UTC epoch hour of exit, with the same discount test as GET_CLOSED_TICKETS
+    public static final String GET_ROLLUPS = "select p.TYPE, floor(unix_timestamp(t.OUT_TIME) / 3600), count(*), sum(round(t.PRICE * 100)),"
+            + " sum(timestampdiff(MINUTE, t.IN_TIME, t.OUT_TIME)),"
+            + " sum(exists(select 1 from ticket e where e.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and e.OUT_TIME < t.OUT_TIME)"
+            + " or exists(select 1 from ticket_archive a where a.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and a.OUT_TIME < t.OUT_TIME))"
+            + " from ticket t,parking p where p.parking_number = t.parking_number and t.OUT_TIME >= ?"
+            + " group by p.TYPE, floor(unix_timestamp(t.OUT_TIME) / 3600)";
+    // a stay moved to ticket_archive still earns the discount
+    public static final String IS_RETURNING_CUSTOMER = "select 1 from ticket where VEHICLE_REG_NUMBER = ? and OUT_TIME is not null"
+            + " union all select 1 from ticket_archive where VEHICLE_REG_NUMBER = ? limit 1";
+    public static final String GET_RETURNING_CUSTOMERS = "select VEHICLE_REG_NUMBER from ticket where OUT_TIME is not null"
+            + " union select VEHICLE_REG_NUMBER from ticket_archive";
+
+    // TicketArchiver: closed tickets older than the horizon move to ticket_archive, oldest first, locked until moved.
+    // The newest ticket always stays: InnoDB before MySQL 8 restarts AUTO_INCREMENT at max(ID) + 1 and would reuse archived IDs
+    public static final String GET_TICKETS_TO_ARCHIVE = "select ID from ticket where OUT_TIME < ? and ID < (select max(ID) from ticket)"
+            + " order by OUT_TIME limit ? for update";
+    public static final String ARCHIVE_TICKET = "insert into ticket_archive(ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)"
+            + " select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket where ID = ?";
+    public static final String DELETE_TICKET = "delete from ticket where ID = ?";
+
+    // GateJournalDrainer: the checkpoint row is locked for the transaction applying a batch of gate events
+    public static final String CREATE_JOURNAL_CHECKPOINT = "insert ignore into journal_checkpoint(JOURNAL_ID, APPLIED_SEQ) values(?, 0)";
+    public static final String GET_JOURNAL_CHECKPOINT_FOR_UPDATE = "select APPLIED_SEQ from journal_checkpoint where JOURNAL_ID = ? for update";
+    public static final String UPDATE_JOURNAL_CHECKPOINT = "update journal_checkpoint set APPLIED_SEQ = ? where JOURNAL_ID = ?";
 }
@@ -0,0 +1,364 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped file of the gate events (entries and exits) not yet written to the database, in sequence order.
+ * A gate appends its event and is answered at once; GateJournalDrainer then applies the events to the DAOs.
+ * Writes to the mapping survive a crash of the JVM; with force enabled each append is also flushed to disk.
+ * <pre>
+ * header   MAGIC int, VERSION int, journal id long, applied seq long, tail offset int          (64 bytes)
+ * record   payload length int, seq long, CRC32 of seq and payload int, payload
+ * payload  type byte, spot int, parking type byte, in time long, out time long (-1 when open), price double,
+ *          flags byte (1: discounted, 2: discount not confirmed at the gate), registration number length short,
+ *          registration number UTF-8
+ * </pre>
+ * The records form a ring after the header: the tail offset is the first record not yet applied, and markApplied moves
+ * it past the applied ones, so their space is reused while the drainer keeps up. A record that does not fit before the
+ * end of the file is preceded by a -1 length, and written at the start of the ring instead.
+ * Every append is followed by a zero length, so reading stops at the last record; a record whose length, sequence
+ * or checksum does not match was cut short by a crash and ends the journal too.
+ */
+public class GateJournal implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("GateJournal");
+
+    public static final byte ENTRY = 1;
+    public static final byte EXIT = 2;
+
+    private static final int MAGIC = 0x4741544A; // GATJ
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int JOURNAL_ID_OFFSET = 8;
+    private static final int APPLIED_SEQ_OFFSET = 16;
+    private static final int TAIL_OFFSET_OFFSET = 24;
+    private static final int WRAP = -1;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+    private static final int MAX_REG_NUMBER_BYTES = 255;
+    private static final byte DISCOUNTED = 1;
+    private static final byte DISCOUNT_UNCONFIRMED = 2;
+
+    /**
+     * One gate event read back from the journal.
+     */
+    public static final class Record {
+        private final long seq;
+        private final byte type;
+        private final Ticket ticket;
+        private final boolean discountUnconfirmed;
+
+        private Record(long seq, byte type, Ticket ticket, boolean discountUnconfirmed) {
+            this.seq = seq;
+            this.type = type;
+            this.ticket = ticket;
+            this.discountUnconfirmed = discountUnconfirmed;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * @return the ticket as the gate saw it: no ID, and for an exit its price and out time
+         */
+        public Ticket getTicket() {
+            return ticket;
+        }
+
+        /**
+         * @return true for an exit discounted on a returning customer the gate could not confirm from memory
+         */
+        public boolean isDiscountUnconfirmed() {
+            return discountUnconfirmed;
+        }
+    }
+
+    private final Path path;
+    private final int lotId;
+    private final boolean force;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final String journalId;
+    private final CRC32 crc = new CRC32();
+    private int writeOffset;
+    private int readOffset;
+    private int tailOffset;
+    private long lastSeq;
+    private long appliedSeq;
+
+    /**
+     * Opens the journal, creating it with the given capacity if needed, and finds the last complete record.
+     * @param force flush every append to disk, so events also survive a power loss
+     */
+    public GateJournal(Path path, int lotId, int capacityBytes, boolean force) throws IOException {
+        this.path = path;
+        this.lotId = lotId;
+        this.force = force;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        boolean created = !Files.exists(path);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = created ? capacityBytes : channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (created || buffer.getInt(0) != MAGIC) {
+            if (!created) {
+                throw new IOException(path + " is not a gate journal");
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(JOURNAL_ID_OFFSET, new Random().nextLong() & Long.MAX_VALUE);
+            buffer.putLong(APPLIED_SEQ_OFFSET, 0);
+            buffer.putInt(TAIL_OFFSET_OFFSET, HEADER_SIZE);
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.force();
+        } else if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " is a gate journal of version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        journalId = Long.toHexString(buffer.getLong(JOURNAL_ID_OFFSET));
+        appliedSeq = buffer.getLong(APPLIED_SEQ_OFFSET);
+        lastSeq = appliedSeq;
+        tailOffset = buffer.getInt(TAIL_OFFSET_OFFSET);
+        if (tailOffset < HEADER_SIZE || tailOffset + 4 > buffer.capacity()) {
+            throw new IOException(path + " has an invalid tail offset " + tailOffset);
+        }
+        // the applied seq is written before the tail: after a crash in between, the tail may still hold applied records
+        writeOffset = tailOffset;
+        long previousSeq = -1;
+        for (Record record; (record = readAt(unwrap(writeOffset), previousSeq)) != null; previousSeq = record.seq) {
+            if (record.seq > appliedSeq && record.seq != lastSeq + 1) {
+                break;
+            }
+            writeOffset = unwrap(writeOffset) + recordSize(record);
+            if (record.seq <= appliedSeq) {
+                tailOffset = writeOffset;
+            } else {
+                lastSeq = record.seq;
+            }
+        }
+        readOffset = tailOffset;
+        logger.info("Gate journal " + path + " opened: " + (lastSeq - Math.min(appliedSeq, lastSeq)) + " events to apply");
+    }
+
+    /**
+     * Identifies this journal in the database checkpoint, see GateJournalDrainer.
+     */
+    public String getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Appends a gate event.
+     * @return its sequence number
+     * @throws IOException when the journal is full: the events ahead of this one are not in the database yet
+     */
+    public long append(byte type, Ticket ticket) throws IOException {
+        return append(type, ticket, false);
+    }
+
+    /**
+     * Appends a gate event, flagging an exit whose discount the drainer must confirm against the database.
+     * @return its sequence number
+     * @throws IOException when the journal is full: the events ahead of this one are not in the database yet
+     */
+    public synchronized long append(byte type, Ticket ticket, boolean discountUnconfirmed) throws IOException {
+        byte[] regNumber = ticket.getVehicleRegNumber().getBytes(StandardCharsets.UTF_8);
+        if (regNumber.length > MAX_REG_NUMBER_BYTES) {
+            throw new IllegalArgumentException("Registration number too long: " + ticket.getVehicleRegNumber());
+        }
+        int payloadLength = 1 + 4 + 1 + 8 + 8 + 8 + 1 + 2 + regNumber.length;
+        int size = RECORD_HEADER_SIZE + payloadLength;
+        // the record and the terminator after it must not reach the tail, or an equal tail and write offset would be ambiguous
+        int offset = writeOffset;
+        boolean wrap = writeOffset >= tailOffset && writeOffset + size + 4 > buffer.capacity();
+        if (wrap) {
+            offset = HEADER_SIZE;
+        }
+        int limit = (wrap || offset < tailOffset) ? tailOffset : buffer.capacity();
+        if (offset + size + 4 > limit) {
+            throw new IOException("Gate journal " + path + " is full, " + (lastSeq - appliedSeq) + " events waiting for the database");
+        }
+        if (wrap) {
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.putInt(writeOffset, WRAP);
+        }
+        long seq = lastSeq + 1;
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.put(type)
+                .putInt(ticket.getParkingSpot().getId())
+                .put((byte) ticket.getParkingSpot().getParkingType().ordinal())
+                .putLong(ticket.getInTime().getTime())
+                .putLong(ticket.getOutTime() == null ? -1 : ticket.getOutTime().getTime())
+                .putDouble(ticket.getPrice())
+                .put((byte) ((ticket.isDiscounted() ? DISCOUNTED : 0) | (discountUnconfirmed ? DISCOUNT_UNCONFIRMED : 0)))
+                .putShort((short) regNumber.length)
+                .put(regNumber);
+        // terminator first, then the record body, then its length: a torn write never looks complete
+        buffer.putInt(offset + RECORD_HEADER_SIZE + payloadLength, 0);
+        buffer.putLong(offset + 4, seq);
+        buffer.putInt(offset + 12, checksum(seq, payload.array()));
+        for (int i = 0; i < payloadLength; i++) {
+            buffer.put(offset + RECORD_HEADER_SIZE + i, payload.get(i));
+        }
+        buffer.putInt(offset, payloadLength);
+        if (force) {
+            buffer.force();
+        }
+        writeOffset = offset + size;
+        lastSeq = seq;
+        return seq;
+    }
+
+    /**
+     * @return up to max events after the ones already returned, oldest first
+     */
+    public synchronized List<Record> poll(int max) {
+        List<Record> records = new ArrayList<>();
+        long previousSeq = -1;
+        while (records.size() < max && readOffset != writeOffset) {
+            Record record = readAt(unwrap(readOffset), previousSeq);
+            if (record == null) {
+                break;
+            }
+            records.add(record);
+            readOffset = unwrap(readOffset) + recordSize(record);
+            previousSeq = record.seq;
+        }
+        return records;
+    }
+
+    /**
+     * @return every event not yet marked applied, oldest first, without moving the poll position
+     */
+    public synchronized List<Record> getPending() {
+        List<Record> records = new ArrayList<>();
+        int offset = tailOffset;
+        for (Record record; offset != writeOffset && (record = readAt(unwrap(offset), -1)) != null; ) {
+            if (record.seq > appliedSeq) {
+                records.add(record);
+            }
+            offset = unwrap(offset) + recordSize(record);
+        }
+        return records;
+    }
+
+    /**
+     * Records that every event up to seq is in the database, and frees their space.
+     */
+    public synchronized void markApplied(long seq) {
+        appliedSeq = Math.max(appliedSeq, Math.min(seq, lastSeq));
+        buffer.putLong(APPLIED_SEQ_OFFSET, appliedSeq);
+        // only the lengths and sequences are read: these records were checked when they were polled
+        while (tailOffset != writeOffset) {
+            int offset = unwrap(tailOffset);
+            if (buffer.getLong(offset + 4) > appliedSeq) {
+                break;
+            }
+            tailOffset = offset + RECORD_HEADER_SIZE + buffer.getInt(offset);
+        }
+        buffer.putInt(TAIL_OFFSET_OFFSET, tailOffset);
+        if (force) {
+            buffer.force();
+        }
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    public synchronized long getPendingCount() {
+        return lastSeq - appliedSeq;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    // where the record at offset actually starts: the start of the ring when a wrap marker is found there
+    private int unwrap(int offset) {
+        return buffer.getInt(offset) == WRAP ? HEADER_SIZE : offset;
+    }
+
+    // null at the end of the journal: no length, a torn record, or a sequence not following previousSeq (-1 for any)
+    private Record readAt(int offset, long previousSeq) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int payloadLength = buffer.getInt(offset);
+        if (payloadLength <= 0 || offset + RECORD_HEADER_SIZE + payloadLength > buffer.capacity()) {
+            return null;
+        }
+        long seq = buffer.getLong(offset + 4);
+        if (previousSeq >= 0 && seq != previousSeq + 1) {
+            return null;
+        }
+        byte[] payload = new byte[payloadLength];
+        for (int i = 0; i < payloadLength; i++) {
+            payload[i] = buffer.get(offset + RECORD_HEADER_SIZE + i);
+        }
+        if (buffer.getInt(offset + 12) != checksum(seq, payload)) {
+            return null;
+        }
+        ByteBuffer fields = ByteBuffer.wrap(payload);
+        byte type = fields.get();
+        int spot = fields.getInt();
+        ParkingType parkingType = ParkingType.values()[fields.get()];
+        long inTime = fields.getLong();
+        long outTime = fields.getLong();
+        double price = fields.getDouble();
+        byte flags = fields.get();
+        byte[] regNumber = new byte[fields.getShort()];
+        fields.get(regNumber);
+        Ticket ticket = new Ticket();
+        ticket.setLotId(lotId);
+        ticket.setParkingSpot(new ParkingSpot(lotId, spot, parkingType, type == EXIT));
+        ticket.setVehicleRegNumber(new String(regNumber, StandardCharsets.UTF_8));
+        ticket.setInTime(new Date(inTime));
+        ticket.setOutTime(outTime < 0 ? null : new Date(outTime));
+        ticket.setPrice(price);
+        ticket.setDiscounted((flags & DISCOUNTED) != 0);
+        return new Record(seq, type, ticket, (flags & DISCOUNT_UNCONFIRMED) != 0);
+    }
+
+    private static int recordSize(Record record) {
+        return RECORD_HEADER_SIZE + 1 + 4 + 1 + 8 + 8 + 8 + 1 + 2
+                + record.ticket.getVehicleRegNumber().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private int checksum(long seq, byte[] payload) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (seq >>> shift));
+        }
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,331 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.JsonUtil;
+import com.parkit.parkingsystem.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies the gate events of a GateJournal to the database, in order, on a single background thread.
+ * Each batch of events is written in one transaction together with the journal checkpoint (the last sequence applied),
+ * so after a crash the events already in the database are skipped and every event is applied exactly once.
+ * While the database is unavailable the same batch is retried with an increasing delay; the gates keep working from
+ * the journal meanwhile. When a batch fails for another reason its events are applied one per transaction, and an event
+ * that still fails maxAttempts times in a row is parked: appended as a JSON line to the dead-letter file, counted in
+ * parking_gate_journal_dead_letters_total and logged as an error, so the events behind it are not held back. A parked
+ * event was already acknowledged at the gate and must be repaired by hand.
+ * The DAOs given here write straight to the database: the open ticket cache and the availability index are kept up to
+ * date by the gates when they journal an event.
+ * An exit the gate discounted on a registry "maybe" is settled against the databases, through the DiscountSettlement,
+ * in the transaction applying it; exits recovered at startup, before the settlement is set, keep the gate's price.
+ */
+public class GateJournalDrainer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("GateJournalDrainer");
+
+    /**
+     * Decides, from the databases, a discount the gate gave without being able to confirm it from memory.
+     */
+    public interface DiscountSettlement {
+        /**
+         * Prices the exit again, without the discount, when the vehicle had no earlier stay.
+         */
+        void settle(UnitOfWork unitOfWork, Ticket exit) throws SQLException;
+    }
+
+    private final GateJournal journal;
+    private final TicketDAO ticketDAO;
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final int batchSize;
+    private final long idleMillis;
+    private final long retryMaxMillis;
+    private final int maxAttempts;
+    private final Path deadLetterFile;
+    private final LongAdder deadLetterCount;
+    private final Thread drainerThread;
+    private volatile boolean running = true;
+    private volatile DiscountSettlement discountSettlement;
+    private List<GateJournal.Record> batch = Collections.emptyList();
+    // set once the batch failed as a whole, until all of its events are applied or parked
+    private boolean oneByOne;
+    private int attempts;
+
+    public GateJournalDrainer(GateJournal journal, TicketDAO ticketDAO, ParkingSpotDAO parkingSpotDAO,
+                              int batchSize, long idleMillis, long retryMaxMillis, int maxAttempts, Path deadLetterFile) {
+        this.journal = journal;
+        this.ticketDAO = ticketDAO;
+        this.parkingSpotDAO = parkingSpotDAO;
+        this.batchSize = batchSize;
+        this.idleMillis = idleMillis;
+        this.retryMaxMillis = retryMaxMillis;
+        this.maxAttempts = maxAttempts;
+        this.deadLetterFile = deadLetterFile;
+        this.deadLetterCount = Metrics.counter("parking_gate_journal_dead_letters_total", "lot", Integer.toString(parkingSpotDAO.getLotId()));
+        this.drainerThread = new Thread(this::run, "gate-journal-drainer");
+        this.drainerThread.setDaemon(true);
+    }
+
+    public GateJournal getJournal() {
+        return journal;
+    }
+
+    public ParkingSpotDAO getParkingSpotDAO() {
+        return parkingSpotDAO;
+    }
+
+    public TicketDAO getTicketDAO() {
+        return ticketDAO;
+    }
+
+    /**
+     * Applies every event left by the previous run, before the in-memory structures are loaded from the database.
+     * @return false when the database could not be written, the events are then applied once the drainer is started
+     */
+    public boolean recover() {
+        long pending = journal.getPendingCount();
+        try {
+            while (drainOnce()) {
+                // until the journal is empty
+            }
+            if (pending > 0) {
+                logger.info("Applied " + pending + " gate events left in " + journal.getJournalId());
+            }
+            return true;
+        } catch (Exception e) {
+            logger.error("Unable to apply the " + pending + " gate events left in " + journal.getJournalId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Replays the events not yet in the database onto the index, the cache and the registry loaded from it, as the gates did.
+     */
+    public void replayPending(ParkingSpotAvailabilityIndex availabilityIndex, OpenTicketCache openTicketCache,
+                              ReturningCustomerRegistry returningCustomerRegistry) {
+        for (GateJournal.Record record : journal.getPending()) {
+            Ticket ticket = record.getTicket();
+            availabilityIndex.setAvailable(ticket.getParkingSpot());
+            if (record.getType() == GateJournal.ENTRY) {
+                openTicketCache.put(ticket);
+                continue;
+            }
+            returningCustomerRegistry.confirm(ticket.getVehicleRegNumber());
+            Ticket cached = openTicketCache.get(ticket.getVehicleRegNumber());
+            if (cached != null) {
+                cached.setOutTime(ticket.getOutTime());
+                openTicketCache.put(cached);
+            }
+        }
+    }
+
+    public void setDiscountSettlement(DiscountSettlement discountSettlement) {
+        this.discountSettlement = discountSettlement;
+    }
+
+    public void start() {
+        drainerThread.start();
+    }
+
+    private void run() {
+        long retryMillis = idleMillis;
+        while (running) {
+            try {
+                if (!drainOnce()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(idleMillis));
+                }
+                retryMillis = idleMillis;
+            } catch (Exception e) {
+                logger.error("Error applying " + batch.size() + " gate events, retrying in " + retryMillis + "ms", e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryMillis));
+                retryMillis = Math.min(Math.max(1, retryMillis) * 2, retryMaxMillis);
+            }
+        }
+    }
+
+    // false when there was nothing to apply; on failure the rest of the batch is kept for the next call
+    private synchronized boolean drainOnce() throws Exception {
+        if (batch.isEmpty()) {
+            batch = journal.poll(batchSize);
+            oneByOne = false;
+            if (batch.isEmpty()) {
+                return false;
+            }
+        }
+        if (!oneByOne && batch.size() > 1) {
+            try {
+                apply(batch, batch.get(batch.size() - 1).getSeq());
+                journal.markApplied(batch.get(batch.size() - 1).getSeq());
+                batch = Collections.emptyList();
+                return true;
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                logger.warn("Error applying " + batch.size() + " gate events, applying them one by one", e);
+                oneByOne = true;
+            }
+        }
+        GateJournal.Record record = batch.get(0);
+        try {
+            apply(Collections.singletonList(record), record.getSeq());
+        } catch (Exception e) {
+            if (isTransient(e) || ++attempts < maxAttempts) {
+                throw e;
+            }
+            park(record, e);
+        }
+        attempts = 0;
+        journal.markApplied(record.getSeq());
+        batch = batch.subList(1, batch.size());
+        return true;
+    }
+
+    // a lost connection, a timeout or a deadlock may pass; a constraint violation or a bad value will not
+    private static boolean isTransient(Exception e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        if (e instanceof SQLNonTransientException || !(e instanceof SQLException)) {
+            return false;
+        }
+        String sqlState = ((SQLException) e).getSQLState();
+        return sqlState == null || sqlState.startsWith("08") || sqlState.startsWith("40");
+    }
+
+    // the file is written first: an event is never dropped without a trace
+    private void park(GateJournal.Record record, Exception e) throws Exception {
+        Ticket ticket = record.getTicket();
+        Map<String, Object> deadLetter = new LinkedHashMap<>();
+        deadLetter.put("journalId", journal.getJournalId());
+        deadLetter.put("seq", record.getSeq());
+        deadLetter.put("type", record.getType() == GateJournal.ENTRY ? "ENTRY" : "EXIT");
+        deadLetter.put("vehicleRegNumber", ticket.getVehicleRegNumber());
+        deadLetter.put("lotId", ticket.getLotId());
+        deadLetter.put("parkingNumber", ticket.getParkingSpot().getId());
+        deadLetter.put("parkingType", ticket.getParkingSpot().getParkingType().name());
+        deadLetter.put("inTime", ticket.getInTime().getTime());
+        deadLetter.put("outTime", ticket.getOutTime() == null ? null : ticket.getOutTime().getTime());
+        deadLetter.put("price", ticket.getPrice());
+        deadLetter.put("discounted", ticket.isDiscounted());
+        deadLetter.put("error", e.toString());
+        try (Writer writer = Files.newBufferedWriter(deadLetterFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(JsonUtil.toJson(deadLetter));
+            writer.write('\n');
+        } catch (IOException ioe) {
+            ioe.addSuppressed(e);
+            throw ioe;
+        }
+        deadLetterCount.increment();
+        logger.error("Gate event " + record.getSeq() + " of vehicle number:" + ticket.getVehicleRegNumber() + " failed "
+                + attempts + " times, parked in " + deadLetterFile, e);
+        try {
+            apply(Collections.emptyList(), record.getSeq());
+        } catch (Exception checkpointError) {
+            // the checkpoint moves with the next event applied; a restart before that parks this one again
+            logger.warn("Unable to move the journal checkpoint past the parked event " + record.getSeq(), checkpointError);
+        }
+    }
+
+    // the checkpoint is moved to lastSeq in the same transaction
+    private void apply(List<GateJournal.Record> records, long lastSeq) throws Exception {
+        try (UnitOfWork unitOfWork = parkingSpotDAO.beginUnitOfWork()) {
+            long appliedSeq = lockCheckpoint(unitOfWork);
+            for (GateJournal.Record record : records) {
+                if (record.getSeq() <= appliedSeq) {
+                    continue; // committed before a crash, the local applied seq was not written yet
+                }
+                if (record.getType() == GateJournal.ENTRY) {
+                    applyEntry(unitOfWork, record.getTicket());
+                } else {
+                    applyExit(unitOfWork, record);
+                }
+            }
+            JdbcTemplate.update(unitOfWork.getConnection(), DBConstants.UPDATE_JOURNAL_CHECKPOINT, ps -> {
+                ps.setLong(1, lastSeq);
+                ps.setString(2, journal.getJournalId());
+            });
+            unitOfWork.commit();
+        }
+    }
+
+    private long lockCheckpoint(UnitOfWork unitOfWork) throws SQLException {
+        JdbcTemplate.update(unitOfWork.getConnection(), DBConstants.CREATE_JOURNAL_CHECKPOINT,
+                ps -> ps.setString(1, journal.getJournalId()));
+        Long appliedSeq = JdbcTemplate.queryForObject(unitOfWork.getConnection(), DBConstants.GET_JOURNAL_CHECKPOINT_FOR_UPDATE,
+                ps -> ps.setString(1, journal.getJournalId()), rs -> rs.getLong(1));
+        return appliedSeq == null ? 0 : appliedSeq;
+    }
+
+    // a write matching no row will not pass on a retry: it fails as non-transient, to be parked after maxAttempts
+    private void applyEntry(UnitOfWork unitOfWork, Ticket ticket) throws SQLException {
+        parkingSpotDAO.updateParking(unitOfWork, ticket.getParkingSpot());
+        if (!ticketDAO.saveTicket(unitOfWork, ticket)) {
+            throw new SQLNonTransientException("Unable to save ticket for vehicle number:" + ticket.getVehicleRegNumber());
+        }
+    }
+
+    // the gate only had the ticket's registration number and times, the row is found again by registration number
+    private void applyExit(UnitOfWork unitOfWork, GateJournal.Record record) throws SQLException {
+        Ticket exit = record.getTicket();
+        Ticket ticket = ticketDAO.getTicket(unitOfWork, exit.getVehicleRegNumber());
+        if (ticket == null || ticket.getOutTime() != null) {
+            logger.warn("No open ticket for the journaled exit of vehicle number:" + exit.getVehicleRegNumber() + ", skipped");
+            return;
+        }
+        DiscountSettlement settlement = discountSettlement;
+        if (record.isDiscountUnconfirmed() && settlement != null) {
+            settlement.settle(unitOfWork, exit);
+        }
+        ticket.setPrice(exit.getPrice());
+        ticket.setOutTime(exit.getOutTime());
+        ticket.setDiscounted(exit.isDiscounted());
+        if (!ticketDAO.updateTicket(unitOfWork, ticket)) {
+            throw new SQLNonTransientException("Unable to close ticket " + ticket.getId() + " of vehicle number:" + exit.getVehicleRegNumber());
+        }
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        parkingSpot.setAvailable(true);
+        parkingSpotDAO.updateParking(unitOfWork, parkingSpot);
+    }
+
+    /**
+     * Stops the background thread, then tries once more to apply what is left; anything still in the journal
+     * is applied on the next start.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (drainerThread.isAlive()) {
+            LockSupport.unpark(drainerThread);
+            try {
+                drainerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!recover()) {
+            logger.warn(journal.getPendingCount() + " gate events left in the journal, they are applied on the next start");
+        }
+    }
+}
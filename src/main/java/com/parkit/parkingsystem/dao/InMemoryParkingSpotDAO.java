@@ -0,0 +1,237 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ParkingSpotRepository of the in-memory storage engine: the parking table is an array of spot types and one bitset of
+ * free spots per type, numbered from 1. Spot states are not persisted; on start they are derived from the open tickets.
+ * A spot taken in a unit of work is held at once, so no other gate is handed it, and given back if it rolls back.
+ * A spot freed in a unit of work only becomes free once it commits: no gate can take a spot whose exit may still roll back.
+ * There is no availability index: the bitsets are one.
+ */
+public class InMemoryParkingSpotDAO implements ParkingSpotRepository {
+
+    private static final Logger logger = LogManager.getLogger("InMemoryParkingSpotDAO");
+
+    private final int lotId;
+    private final EmbeddedDataBaseConfig dataBaseConfig;
+    private final ParkingType[] types;
+    private final Map<ParkingType, BitSet> freeSpots = new EnumMap<>(ParkingType.class);
+    // spots freed in a unit of work not yet committed or rolled back
+    private final BitSet releasingSpots = new BitSet();
+    private OccupancyCounters occupancyCounters;
+
+    /**
+     * @param layout number of spots of each type, numbered in the order of the map
+     */
+    public InMemoryParkingSpotDAO(int lotId, Map<ParkingType, Integer> layout) {
+        this(lotId, layout, new EmbeddedDataBaseConfig());
+    }
+
+    /**
+     * @param dataBaseConfig gives the units of work begun by this DAO their connection
+     */
+    public InMemoryParkingSpotDAO(int lotId, Map<ParkingType, Integer> layout, EmbeddedDataBaseConfig dataBaseConfig) {
+        this.lotId = lotId;
+        this.dataBaseConfig = dataBaseConfig;
+        int spots = 0;
+        for (int count : layout.values()) {
+            spots += count;
+        }
+        types = new ParkingType[spots + 1];
+        for (ParkingType parkingType : ParkingType.values()) {
+            freeSpots.put(parkingType, new BitSet(spots + 1));
+        }
+        int number = 1;
+        for (Map.Entry<ParkingType, Integer> type : layout.entrySet()) {
+            for (int i = 0; i < type.getValue(); i++, number++) {
+                types[number] = type.getKey();
+                freeSpots.get(type.getKey()).set(number);
+            }
+        }
+    }
+
+    /**
+     * Parses db.memory.spots, e.g. CAR:3,BIKE:2.
+     */
+    public static Map<ParkingType, Integer> parseLayout(String layout) {
+        Map<ParkingType, Integer> parsed = new LinkedHashMap<>();
+        for (String type : layout.split(",")) {
+            String[] parts = type.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid spot layout " + layout + ", expected TYPE:count,...");
+            }
+            parsed.put(ParkingType.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return parsed;
+    }
+
+    /**
+     * Marks the spots of the open tickets read back from the ticket log as occupied.
+     */
+    public synchronized void restore(List<Ticket> openTickets) {
+        for (Ticket ticket : openTickets) {
+            int number = ticket.getParkingSpot().getId();
+            if (isKnown(number)) {
+                freeSpots.get(types[number]).clear(number);
+            }
+        }
+    }
+
+    @Override
+    public int getLotId() {
+        return lotId;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork() throws ClassNotFoundException, SQLException {
+        return new UnitOfWork(dataBaseConfig);
+    }
+
+    @Override
+    public ParkingSpotAvailabilityIndex getAvailabilityIndex() {
+        return null;
+    }
+
+    @Override
+    public OccupancyCounters getOccupancyCounters() {
+        return occupancyCounters;
+    }
+
+    public void setOccupancyCounters(OccupancyCounters occupancyCounters) {
+        this.occupancyCounters = occupancyCounters;
+    }
+
+    @Override
+    public synchronized int getNextAvailableSlot(ParkingType parkingType) {
+        int number = freeSpots.get(parkingType).nextSetBit(1);
+        return (number < 0) ? -1 : number;
+    }
+
+    @Override
+    public ParkingSpot claimNextSpot(ParkingType parkingType) {
+        try (UnitOfWork unitOfWork = beginUnitOfWork()) {
+            ParkingSpot parkingSpot = claimNextSpot(unitOfWork, parkingType);
+            unitOfWork.commit();
+            return parkingSpot;
+        } catch (Exception ex) {
+            logger.error("Error claiming next available slot", ex);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized ParkingSpot claimNextSpot(UnitOfWork unitOfWork, ParkingType parkingType) {
+        BitSet free = freeSpots.get(parkingType);
+        int number = free.nextSetBit(1);
+        if (number < 0) {
+            return null;
+        }
+        free.clear(number);
+        unitOfWork.onRollback(() -> setAvailable(number, true));
+        ParkingSpot parkingSpot = new ParkingSpot(lotId, number, parkingType, false);
+        onSpotChangeCommitted(unitOfWork, parkingSpot);
+        return parkingSpot;
+    }
+
+    @Override
+    public boolean updateParking(ParkingSpot parkingSpot) {
+        try (UnitOfWork unitOfWork = beginUnitOfWork()) {
+            boolean updated = updateParking(unitOfWork, parkingSpot);
+            unitOfWork.commit();
+            return updated;
+        } catch (Exception ex) {
+            logger.error("Error updating parking info", ex);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean updateParking(UnitOfWork unitOfWork, ParkingSpot parkingSpot) {
+        int number = parkingSpot.getId();
+        if (!isKnown(number)) {
+            return false;
+        }
+        boolean wasAvailable = freeSpots.get(types[number]).get(number);
+        if (wasAvailable == parkingSpot.isAvailable() || releasingSpots.get(number)) {
+            return false;
+        }
+        if (parkingSpot.isAvailable()) {
+            releasingSpots.set(number);
+            unitOfWork.onCommit(() -> released(number, true));
+            unitOfWork.onRollback(() -> released(number, false));
+        } else {
+            setAvailable(number, false);
+            unitOfWork.onRollback(() -> setAvailable(number, true));
+        }
+        onSpotChangeCommitted(unitOfWork, new ParkingSpot(lotId, number, types[number], parkingSpot.isAvailable()));
+        return true;
+    }
+
+    @Override
+    public int[] updateParkings(UnitOfWork unitOfWork, List<ParkingSpot> parkingSpots) {
+        int[] updateCounts = new int[parkingSpots.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = updateParking(unitOfWork, parkingSpots.get(i)) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+
+    @Override
+    public synchronized List<ParkingSpot> getParkingSpots() {
+        List<ParkingSpot> parkingSpots = new ArrayList<>(types.length - 1);
+        for (int number = 1; number < types.length; number++) {
+            parkingSpots.add(new ParkingSpot(lotId, number, types[number], freeSpots.get(types[number]).get(number)));
+        }
+        return parkingSpots;
+    }
+
+    @Override
+    public synchronized Map<ParkingType, Occupancy> getOccupancy() {
+        int[] totals = new int[ParkingType.values().length];
+        for (int number = 1; number < types.length; number++) {
+            totals[types[number].ordinal()]++;
+        }
+        Map<ParkingType, Occupancy> occupancy = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            int available = freeSpots.get(parkingType).cardinality();
+            occupancy.put(parkingType, new Occupancy(parkingType, available, totals[parkingType.ordinal()] - available));
+        }
+        return occupancy;
+    }
+
+    private void onSpotChangeCommitted(UnitOfWork unitOfWork, ParkingSpot parkingSpot) {
+        if (occupancyCounters != null && occupancyCounters.isLoaded()) {
+            occupancyCounters.spotChanged(unitOfWork, parkingSpot.getParkingType(), parkingSpot.isAvailable());
+        }
+    }
+
+    private boolean isKnown(int number) {
+        return number > 0 && number < types.length;
+    }
+
+    private synchronized void setAvailable(int number, boolean available) {
+        freeSpots.get(types[number]).set(number, available);
+    }
+
+    private synchronized void released(int number, boolean committed) {
+        releasingSpots.clear(number);
+        if (committed) {
+            setAvailable(number, true);
+        }
+    }
+}
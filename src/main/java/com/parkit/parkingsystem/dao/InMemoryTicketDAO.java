@@ -0,0 +1,401 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * TicketRepository of the in-memory storage engine. The latest ticket of each vehicle and the vehicles with a completed
+ * stay are held in a TicketTable, in primitive arrays. The writes of a unit of work are staged with it: they are appended to a TicketLog, read back
+ * on start, just before it commits, and only applied to the maps once it committed. Until then, only the unit of work
+ * itself reads them. A unit of work whose append fails does not commit, so memory never holds a ticket the log is missing.
+ * Closed tickets are streamed from the log, so only the latest stay of each vehicle stays in memory; archiveTickets
+ * compacts the log into history segments, which readers of the recent tickets skip.
+ * None of the optional structures of TicketDAO (batch writer, gate journal, cache, registry, rollups) sits on top of it:
+ * it already answers from memory.
+ */
+public class InMemoryTicketDAO implements TicketRepository {
+
+    private static final Logger logger = LogManager.getLogger("InMemoryTicketDAO");
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private final int lotId;
+    private final EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig();
+    private final TicketLog ticketLog;
+    private final TicketTable tickets;
+    // IDs saved in a unit of work not yet committed or rolled back, so not in the log yet
+    private final NavigableSet<Integer> pendingIds = new TreeSet<>();
+    // IDs of the tickets closed in a unit of work not yet committed or rolled back: no other one may close them
+    private final Set<Integer> closingIds = new HashSet<>();
+    // tickets written in each unit of work not yet committed, appended together before it commits, applied once it did
+    private final Map<UnitOfWork, List<Ticket>> stagedTickets = new IdentityHashMap<>();
+    private int lastId;
+
+    public InMemoryTicketDAO(int lotId, TicketLog ticketLog) {
+        this.lotId = lotId;
+        this.ticketLog = ticketLog;
+        this.tickets = new TicketTable(lotId);
+    }
+
+    /**
+     * Rebuilds the tickets from the log.
+     * @return the number of records read since the log was last compacted
+     */
+    public synchronized long load() throws Exception {
+        long start = System.nanoTime();
+        long records = ticketLog.replay(this::apply, ticket -> apply(ticket, false));
+        lastId = Math.max(lastId, ticketLog.getLastSegmentId());
+        logger.info("Ticket log of lot " + lotId + " replayed: " + records + " records, " + tickets.size() + " vehicles, "
+                + getOpenTickets().size() + " open tickets in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        return records;
+    }
+
+    public TicketLog getTicketLog() {
+        return ticketLog;
+    }
+
+    @Override
+    public int getLotId() {
+        return lotId;
+    }
+
+    @Override
+    public boolean saveTicket(Ticket ticket) {
+        try (UnitOfWork unitOfWork = new UnitOfWork(dataBaseConfig)) {
+            boolean saved = saveTicket(unitOfWork, ticket);
+            unitOfWork.commit();
+            return saved;
+        } catch (Exception ex) {
+            logger.error("Error saving ticket", ex);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean saveTicket(UnitOfWork unitOfWork, Ticket ticket) {
+        ticket.setId(++lastId);
+        ticket.setLotId(lotId);
+        pendingIds.add(ticket.getId());
+        stage(unitOfWork, copy(ticket));
+        return true;
+    }
+
+    @Override
+    public int[] saveTickets(UnitOfWork unitOfWork, List<Ticket> tickets) {
+        int[] updateCounts = new int[tickets.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = saveTicket(unitOfWork, tickets.get(i)) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+
+    @Override
+    public Ticket getTicket(String vehicleRegNumber) {
+        return getTicket(null, vehicleRegNumber);
+    }
+
+    @Override
+    public synchronized Ticket getTicket(UnitOfWork unitOfWork, String vehicleRegNumber) {
+        Ticket ticket = getLatest(unitOfWork, vehicleRegNumber);
+        return (ticket == null) ? null : copy(ticket);
+    }
+
+    @Override
+    public boolean updateTicket(Ticket ticket) {
+        try (UnitOfWork unitOfWork = new UnitOfWork(dataBaseConfig)) {
+            boolean updated = updateTicket(unitOfWork, ticket);
+            unitOfWork.commit();
+            return updated;
+        } catch (Exception ex) {
+            logger.error("Error saving ticket info", ex);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean updateTicket(UnitOfWork unitOfWork, Ticket ticket) {
+        Ticket previous = getLatest(unitOfWork, ticket.getVehicleRegNumber());
+        if (previous == null || previous.getId() != ticket.getId()) {
+            return false; // only the latest stay of a vehicle is kept, and only it can still change
+        }
+        if (previous.getOutTime() != null || !closingIds.add(previous.getId())) {
+            // already closed, or being closed by another unit of work: UPDATE_TICKET only updates an open ticket
+            return false;
+        }
+        Ticket updated = copy(previous);
+        updated.setPrice(ticket.getPrice());
+        updated.setOutTime(ticket.getOutTime());
+        stage(unitOfWork, updated);
+        return true;
+    }
+
+    @Override
+    public int[] updateTickets(UnitOfWork unitOfWork, List<Ticket> tickets) {
+        int[] updateCounts = new int[tickets.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = updateTicket(unitOfWork, tickets.get(i)) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+
+    @Override
+    public synchronized List<Ticket> getOpenTickets() {
+        return tickets.getOpenTickets();
+    }
+
+    /**
+     * Streams the closed tickets of the log, from the first history segment holding one closed since from.
+     * A ticket is discounted when the same vehicle closed a stay earlier in the log.
+     */
+    @Override
+    public long forEachClosedTicket(Date from, Date to, ClosedTicketHandler handler) throws Exception {
+        Set<String> closedBefore = new HashSet<>();
+        long[] read = {0};
+        ticketLog.replayClosedSince(from, (ticket, returningCustomer) -> {
+            if (returningCustomer) {
+                closedBefore.add(ticket.getVehicleRegNumber());
+            }
+        }, ticket -> {
+            Date outTime = ticket.getOutTime();
+            if (outTime == null) {
+                return;
+            }
+            boolean returningCustomer = !closedBefore.add(ticket.getVehicleRegNumber());
+            if (!outTime.before(from) && outTime.before(to)) {
+                handler.handle(ticket, returningCustomer);
+                read[0]++;
+            }
+        });
+        return read[0];
+    }
+
+    /**
+     * Replays the log from the first history segment holding a ticket to export, where the last record of a ticket ID
+     * is its state. The closed tickets to export are collected
+     * before the first one is handled, so memory grows with the number of tickets closed since the previous export.
+     */
+    @Override
+    public int forEachTicketToExport(int afterId, SortedSet<Integer> heldBackIds, Collection<Integer> openIds,
+                                     TicketHandler handler) throws Exception {
+        int upperId;
+        synchronized (this) {
+            // IDs are handed out before the log sees them: stop below the first one still pending, it may yet be committed
+            upperId = Math.max(afterId, pendingIds.isEmpty() ? lastId : pendingIds.first() - 1);
+        }
+        SortedMap<Integer, Ticket> closedTickets = new TreeMap<>();
+        Set<Integer> open = new TreeSet<>();
+        int fromId = heldBackIds.isEmpty() ? afterId + 1 : Math.min(afterId + 1, heldBackIds.first());
+        ticketLog.replayFrom(fromId, ticket -> {
+            int id = ticket.getId();
+            boolean inRange = id > afterId && id <= upperId;
+            if (!inRange && !heldBackIds.contains(id)) {
+                return;
+            }
+            if (ticket.getOutTime() != null) {
+                open.remove(id);
+                closedTickets.put(id, ticket);
+            } else if (inRange) {
+                open.add(id);
+            }
+        });
+        openIds.addAll(open);
+        // held back IDs are all at most afterId, so they come first like in the database
+        for (Ticket ticket : closedTickets.values()) {
+            handler.handle(ticket);
+        }
+        return upperId;
+    }
+
+    /**
+     * Totals of the stays closed since from, replayed from the log.
+     * @return null if the log could not be read
+     */
+    @Override
+    public List<Rollup> getRollups(Date from) {
+        Map<ParkingType, SortedMap<Long, long[]>> totals = new EnumMap<>(ParkingType.class);
+        try {
+            forEachClosedTicket(from, new Date(Long.MAX_VALUE), (ticket, returningCustomer) -> {
+                long outMillis = ticket.getOutTime().getTime();
+                long[] total = totals.computeIfAbsent(ticket.getParkingSpot().getParkingType(), type -> new TreeMap<>())
+                        .computeIfAbsent(outMillis / HOUR_MILLIS, hour -> new long[4]);
+                total[0]++;
+                total[1] += Math.round(ticket.getPrice() * 100);
+                total[2] += (outMillis - ticket.getInTime().getTime()) / 60_000;
+                total[3] += returningCustomer ? 1 : 0;
+            });
+        } catch (Exception ex) {
+            logger.error("Error replaying revenue rollups", ex);
+            return null;
+        }
+        List<Rollup> rollups = new ArrayList<>();
+        for (Map.Entry<ParkingType, SortedMap<Long, long[]>> type : totals.entrySet()) {
+            for (Map.Entry<Long, long[]> hour : type.getValue().entrySet()) {
+                long[] total = hour.getValue();
+                rollups.add(new Rollup(type.getKey(), new Date(hour.getKey() * HOUR_MILLIS), total[0], total[1], total[2], total[3]));
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Only the latest stay of each vehicle is held in memory, the older ones are only in the log: compacts the log
+     * instead, whatever closedBefore and limit, so a restart only reads the state and the writes since.
+     * @return the number of records moved to the history, or -1 if the compaction failed
+     */
+    @Override
+    public int archiveTickets(Date closedBefore, int limit) {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, ticketLog.compact());
+        } catch (Exception ex) {
+            logger.error("Error compacting the ticket log of lot " + lotId, ex);
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized int loadReturningCustomers(ReturningCustomerRegistry registry) {
+        return tickets.forEachReturning(registry::add);
+    }
+
+    @Override
+    public boolean getNbTickets(String vehicleRegNumber) {
+        return getNbTickets(null, vehicleRegNumber);
+    }
+
+    @Override
+    public synchronized boolean getNbTickets(UnitOfWork unitOfWork, String vehicleRegNumber) {
+        if (tickets.isReturning(vehicleRegNumber)) {
+            return true;
+        }
+        for (Ticket ticket : getStaged(unitOfWork)) {
+            if (ticket.getOutTime() != null && ticket.getVehicleRegNumber().equals(vehicleRegNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasClosedStay(UnitOfWork unitOfWork, String vehicleRegNumber) {
+        return getNbTickets(unitOfWork, vehicleRegNumber);
+    }
+
+    @Override
+    public boolean hasClosedStay(String vehicleRegNumber) {
+        return getNbTickets(null, vehicleRegNumber);
+    }
+
+    @Override
+    public TicketBatchWriter getBatchWriter() {
+        return null;
+    }
+
+    @Override
+    public GateJournal getGateJournal() {
+        return null;
+    }
+
+    @Override
+    public OpenTicketCache getOpenTicketCache() {
+        return null;
+    }
+
+    @Override
+    public ReturningCustomerRegistry getReturningCustomerRegistry() {
+        return null;
+    }
+
+    @Override
+    public RevenueRollups getRevenueRollups() {
+        return null;
+    }
+
+    private synchronized void stage(UnitOfWork unitOfWork, Ticket ticket) {
+        List<Ticket> tickets = stagedTickets.get(unitOfWork);
+        if (tickets == null) {
+            tickets = new ArrayList<>();
+            stagedTickets.put(unitOfWork, tickets);
+            unitOfWork.beforeCommit(() -> {
+                try {
+                    ticketLog.append(getStaged(unitOfWork));
+                } catch (IOException e) {
+                    throw new SQLException("Unable to append to the ticket log of lot " + lotId, e);
+                }
+            });
+            unitOfWork.onCommit(() -> settle(unitOfWork, true));
+            unitOfWork.onRollback(() -> settle(unitOfWork, false));
+        }
+        tickets.add(ticket);
+    }
+
+    private synchronized List<Ticket> getStaged(UnitOfWork unitOfWork) {
+        List<Ticket> tickets = (unitOfWork == null) ? null : stagedTickets.get(unitOfWork);
+        return (tickets == null) ? Collections.<Ticket>emptyList() : tickets;
+    }
+
+    // the unit of work's own writes first, then the committed ones
+    private synchronized Ticket getLatest(UnitOfWork unitOfWork, String vehicleRegNumber) {
+        List<Ticket> staged = getStaged(unitOfWork);
+        for (int i = staged.size() - 1; i >= 0; i--) {
+            if (staged.get(i).getVehicleRegNumber().equals(vehicleRegNumber)) {
+                return staged.get(i);
+            }
+        }
+        return tickets.get(vehicleRegNumber);
+    }
+
+    private synchronized void settle(UnitOfWork unitOfWork, boolean committed) {
+        List<Ticket> tickets = stagedTickets.remove(unitOfWork);
+        if (tickets == null) {
+            return;
+        }
+        for (Ticket ticket : tickets) {
+            if (committed) {
+                apply(ticket, false);
+            }
+            pendingIds.remove(ticket.getId());
+            closingIds.remove(ticket.getId());
+        }
+    }
+
+    private synchronized void apply(Ticket ticket, boolean returningCustomer) {
+        lastId = Math.max(lastId, ticket.getId());
+        tickets.put(ticket, returningCustomer);
+    }
+
+    private static Ticket copy(Ticket ticket) {
+        Ticket copy = new Ticket();
+        copy.setLotId(ticket.getLotId());
+        copy.setId(ticket.getId());
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        copy.setParkingSpot(new ParkingSpot(parkingSpot.getLotId(), parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable()));
+        copy.setVehicleRegNumber(ticket.getVehicleRegNumber());
+        copy.setPrice(ticket.getPrice());
+        copy.setInTime(ticket.getInTime());
+        copy.setOutTime(ticket.getOutTime());
+        return copy;
+    }
+}
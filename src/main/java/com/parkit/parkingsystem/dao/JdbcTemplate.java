@@ -0,0 +1,156 @@
+package com.parkit.parkingsystem.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * JDBC plumbing shared by the DAOs: every statement and result set is closed by try-with-resources, whatever the
+ * outcome, and rows are mapped straight to objects. Statements are prepared on the caller's connection; a pooled
+ * connection keeps them in its statement cache (see ConnectionPool), so closing one here only hands it back.
+ */
+public final class JdbcTemplate {
+
+    public interface ParameterSetter {
+        void set(PreparedStatement ps) throws SQLException;
+    }
+
+    public interface BatchParameterSetter<T> {
+        void set(PreparedStatement ps, T item) throws SQLException;
+    }
+
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    public interface RowHandler {
+        void handle(ResultSet rs) throws Exception;
+    }
+
+    public static final ParameterSetter NO_PARAMETERS = ps -> { };
+
+    private JdbcTemplate() {
+    }
+
+    /**
+     * @return the first row mapped, or null when the query returns no row
+     */
+    public static <T> T queryForObject(Connection con, String sql, ParameterSetter parameters, RowMapper<T> mapper) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            parameters.set(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapper.map(rs) : null;
+            }
+        }
+    }
+
+    public static <T> List<T> query(Connection con, String sql, ParameterSetter parameters, RowMapper<T> mapper) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            parameters.set(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<T> rows = new ArrayList<>();
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+                return rows;
+            }
+        }
+    }
+
+    public static boolean exists(Connection con, String sql, ParameterSetter parameters) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            parameters.set(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Reads a large result through a forward-only cursor, one row at a time; the statement is not cached since its
+     * fetch size is changed and it stays open for the whole read. Exceptions of the handler propagate.
+     * @return the number of rows read
+     */
+    public static long stream(Connection con, String sql, int fetchSize, ParameterSetter parameters, RowHandler handler) throws Exception {
+        try (PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            parameters.set(ps);
+            long rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(rs);
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * @return the update count
+     */
+    public static int update(Connection con, String sql, ParameterSetter parameters) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            parameters.set(ps);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Runs an insert and passes the generated key, if any, to generatedKey.
+     * @return the update count
+     */
+    public static int insert(Connection con, String sql, ParameterSetter parameters, IntConsumer generatedKey) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            parameters.set(ps);
+            int updateCount = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    generatedKey.accept(keys.getInt(1));
+                }
+            }
+            return updateCount;
+        }
+    }
+
+    /**
+     * Runs the statement once per item in a single JDBC batch.
+     * @return the update count of each item, in the order of the list
+     */
+    public static <T> int[] batchUpdate(Connection con, String sql, List<T> items, BatchParameterSetter<T> parameters) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            for (T item : items) {
+                parameters.set(ps, item);
+                ps.addBatch();
+            }
+            return ps.executeBatch();
+        }
+    }
+
+    /**
+     * Inserts all items in a single JDBC batch and passes each generated key to generatedKey with its item.
+     * @return the update count of each item, in the order of the list
+     */
+    public static <T> int[] batchInsert(Connection con, String sql, List<T> items, BatchParameterSetter<T> parameters,
+                                        ObjIntConsumer<T> generatedKey) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (T item : items) {
+                parameters.set(ps, item);
+                ps.addBatch();
+            }
+            int[] updateCounts = ps.executeBatch();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                for (int i = 0; i < items.size() && keys.next(); i++) {
+                    generatedKey.accept(items.get(i), keys.getInt(1));
+                }
+            }
+            return updateCounts;
+        }
+    }
+}
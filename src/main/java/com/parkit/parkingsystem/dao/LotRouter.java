@@ -0,0 +1,254 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends each lot's traffic to the repositories bound to that lot's storage, and runs the queries that span every lot
+ * (returning-customer check, registry warm-up) on all lots in parallel.
+ */
+public class LotRouter implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("LotRouter");
+
+    private final int[] lotIds;
+    private final Map<Integer, ParkingSpotRepository> parkingSpotRepositories;
+    private final Map<Integer, TicketRepository> ticketRepositories;
+    private final long fanOutTimeoutMillis;
+    // null with a single lot, nothing to fan out to
+    private final ExecutorService fanOutExecutor;
+
+    private interface LocalCheck {
+        boolean check() throws SQLException;
+    }
+
+    private interface RemoteCheck {
+        boolean check(TicketRepository ticketRepository, String vehicleRegNumber) throws SQLException;
+    }
+
+    /**
+     * @param parkingSpotRepositories repository of each lot, keyed by lot id; the ticket repositories must cover the same lots
+     * @param fanOutThreads threads querying the other lots during a cross-lot check
+     * @param fanOutTimeoutMillis time a cross-lot check waits for the other lots before treating them as negative
+     */
+    public LotRouter(Map<Integer, ParkingSpotRepository> parkingSpotRepositories, Map<Integer, TicketRepository> ticketRepositories,
+                     int fanOutThreads, long fanOutTimeoutMillis) {
+        if (parkingSpotRepositories.isEmpty() || !parkingSpotRepositories.keySet().equals(ticketRepositories.keySet())) {
+            throw new IllegalArgumentException("Parking spot and ticket repositories must be given for the same, non-empty, set of lots");
+        }
+        this.parkingSpotRepositories = new HashMap<>(parkingSpotRepositories);
+        this.ticketRepositories = new HashMap<>(ticketRepositories);
+        this.lotIds = parkingSpotRepositories.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.fanOutTimeoutMillis = fanOutTimeoutMillis;
+        if (lotIds.length > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            fanOutExecutor = Executors.newFixedThreadPool(fanOutThreads, r -> {
+                Thread thread = new Thread(r, "lot-fan-out-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            fanOutExecutor = null;
+        }
+    }
+
+    /**
+     * Routing for an installation with one database, under lot ParkingSpot.DEFAULT_LOT.
+     */
+    public static LotRouter singleLot(ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository) {
+        return new LotRouter(Collections.singletonMap(ParkingSpot.DEFAULT_LOT, parkingSpotRepository),
+                Collections.singletonMap(ParkingSpot.DEFAULT_LOT, ticketRepository), 1, 0);
+    }
+
+    public int[] getLotIds() {
+        return lotIds.clone();
+    }
+
+    /**
+     * @return the lowest lot id, used by callers that do not name a lot (console shell)
+     */
+    public int getDefaultLotId() {
+        return lotIds[0];
+    }
+
+    public boolean hasLot(int lotId) {
+        return Arrays.binarySearch(lotIds, lotId) >= 0;
+    }
+
+    public ParkingSpotRepository getParkingSpotRepository(int lotId) {
+        ParkingSpotRepository parkingSpotRepository = parkingSpotRepositories.get(lotId);
+        if (parkingSpotRepository == null) {
+            throw new IllegalArgumentException("Unknown parking lot " + lotId);
+        }
+        return parkingSpotRepository;
+    }
+
+    public TicketRepository getTicketRepository(int lotId) {
+        TicketRepository ticketRepository = ticketRepositories.get(lotId);
+        if (ticketRepository == null) {
+            throw new IllegalArgumentException("Unknown parking lot " + lotId);
+        }
+        return ticketRepository;
+    }
+
+    /**
+     * @return true when the vehicle completed a stay in any lot; the lot's own database is queried in the
+     * caller's unit of work while the other lots are queried in parallel
+     */
+    public boolean isReturningCustomer(UnitOfWork unitOfWork, int lotId, String vehicleRegNumber) throws SQLException {
+        TicketRepository ticketRepository = getTicketRepository(lotId);
+        return isReturningCustomer(ticketRepository, vehicleRegNumber, () -> ticketRepository.getNbTickets(unitOfWork, vehicleRegNumber));
+    }
+
+    public boolean isReturningCustomer(int lotId, String vehicleRegNumber) {
+        TicketRepository ticketRepository = getTicketRepository(lotId);
+        try {
+            return isReturningCustomer(ticketRepository, vehicleRegNumber, () -> ticketRepository.getNbTickets(vehicleRegNumber));
+        } catch (SQLException e) {
+            // the standalone check logs and answers false itself, this is not reached
+            return false;
+        }
+    }
+
+    /**
+     * Same check from the databases alone, for the gate journal drainer settling a discount given at a journaled exit:
+     * by then the registry also holds the stay that exit closed.
+     * @throws SQLException when a lot does not answer in time, so the exit is settled again later
+     */
+    public boolean hadClosedStay(UnitOfWork unitOfWork, int lotId, String vehicleRegNumber) throws SQLException {
+        TicketRepository ticketRepository = getTicketRepository(lotId);
+        return fanOut(ticketRepository, vehicleRegNumber, () -> ticketRepository.hasClosedStay(unitOfWork, vehicleRegNumber), TicketRepository::hasClosedStay, true);
+    }
+
+    private boolean isReturningCustomer(TicketRepository localRepository, String vehicleRegNumber, LocalCheck localCheck) throws SQLException {
+        if (fanOutExecutor == null) {
+            return localCheck.check();
+        }
+        // the registry is shared by every lot
+        ReturningCustomerRegistry registry = localRepository.getReturningCustomerRegistry();
+        Boolean known = (registry == null) ? null : registry.lookup(vehicleRegNumber);
+        if (known != null) {
+            return known;
+        }
+        return fanOut(localRepository, vehicleRegNumber, localCheck, TicketRepository::getNbTickets, false);
+    }
+
+    // a lot that fails or misses the timeout counts as "no earlier stay there": the gate must not wait on a slow lot.
+    // A strict check fails instead, for a caller that can retry
+    private boolean fanOut(TicketRepository localRepository, String vehicleRegNumber, LocalCheck localCheck, RemoteCheck remoteCheck,
+                           boolean strict) throws SQLException {
+        if (fanOutExecutor == null) {
+            return localCheck.check();
+        }
+        CompletionService<Boolean> completion = new ExecutorCompletionService<>(fanOutExecutor);
+        List<Future<Boolean>> futures = new ArrayList<>(lotIds.length - 1);
+        for (TicketRepository ticketRepository : ticketRepositories.values()) {
+            if (ticketRepository != localRepository) {
+                futures.add(completion.submit(() -> remoteCheck.check(ticketRepository, vehicleRegNumber)));
+            }
+        }
+        try {
+            if (localCheck.check()) {
+                return true;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fanOutTimeoutMillis);
+            for (int answered = 0; answered < futures.size(); answered++) {
+                Future<Boolean> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    String message = (futures.size() - answered) + " lot(s) did not answer the returning customer check for " + vehicleRegNumber;
+                    if (strict) {
+                        throw new SQLTimeoutException(message);
+                    }
+                    logger.warn(message);
+                    return false;
+                }
+                if (done.get()) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (strict) {
+                throw new SQLTransientException("Interrupted while checking returning customer " + vehicleRegNumber, e);
+            }
+            return false;
+        } catch (ExecutionException e) {
+            if (strict) {
+                throw (e.getCause() instanceof SQLException) ? (SQLException) e.getCause() : new SQLException(e.getCause());
+            }
+            logger.error("Error checking returning customer " + vehicleRegNumber, e.getCause());
+            return false;
+        } finally {
+            // not interrupted: a query already running finishes and returns its connection normally
+            for (Future<Boolean> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Loads the customers with a completed stay in any lot into the registry, all lots in parallel,
+     * and marks it loaded when every lot succeeded.
+     * @return the number of customers loaded (a customer of several lots counts once per lot), or -1 on failure
+     */
+    public int loadReturningCustomers(ReturningCustomerRegistry registry) {
+        List<Callable<Integer>> loads = new ArrayList<>();
+        for (int lotId : lotIds) {
+            TicketRepository ticketRepository = ticketRepositories.get(lotId);
+            loads.add(() -> ticketRepository.loadReturningCustomers(registry));
+        }
+        int customers = 0;
+        try {
+            List<Integer> loaded = new ArrayList<>();
+            if (fanOutExecutor == null) {
+                loaded.add(loads.get(0).call());
+            } else {
+                for (Future<Integer> future : fanOutExecutor.invokeAll(loads)) {
+                    loaded.add(future.get());
+                }
+            }
+            for (int count : loaded) {
+                if (count < 0) {
+                    return -1;
+                }
+                customers += count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (Exception e) {
+            logger.error("Error loading returning customers", e);
+            return -1;
+        }
+        registry.setLoaded(customers);
+        return customers;
+    }
+
+    @Override
+    public void close() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Free and occupied spot counts per ParkingType, moved by every committed spot change and periodically
+ * reconciled with the parking table, so occupancy reads never query the database nor take a lock.
+ * Both counts of a type share one long (available in the high half, occupied in the low half) and change
+ * together with a single compare-and-set: a read never sees a spot counted twice or missing.
+ * Changes count themselves and CAS under the read side of reconcileLock, a reconciliation checks and
+ * overwrites under the write side, so it never drops a change it did not see.
+ * A change is announced before its transaction commits and applied after: a reconciliation reading the
+ * database in between would count it twice, so it skips its pass while a change is pending.
+ */
+public class OccupancyCounters {
+
+    private static final Logger logger = LogManager.getLogger("OccupancyCounters");
+
+    private final AtomicLongArray counts = new AtomicLongArray(ParkingType.values().length);
+    private final AtomicLong modificationCount = new AtomicLong();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final ReadWriteLock reconcileLock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+    private ScheduledExecutorService reconciler;
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void load(Map<ParkingType, Occupancy> occupancy) {
+        set(occupancy);
+        loaded = true;
+        logger.info("Occupancy counters loaded: " + occupancy.values());
+    }
+
+    /**
+     * Replaces the counts with the given database snapshot, unless a spot changed while the snapshot
+     * was being read (the next pass will pick the change up).
+     */
+    public boolean reconcile(Map<ParkingType, Occupancy> occupancy, long expectedModificationCount) {
+        reconcileLock.writeLock().lock();
+        try {
+            if (modificationCount.get() != expectedModificationCount || pendingChanges.get() > 0) {
+                logger.debug("Occupancy counters modified during reconciliation, skipping this pass");
+                return false;
+            }
+            set(occupancy);
+        } finally {
+            reconcileLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
+    /**
+     * Announces a spot change about to be committed, before the commit, so a reconciliation reading the
+     * database from then on skips its pass. Follow it with changeCommitted or changeRolledBack.
+     */
+    public void changePending() {
+        reconcileLock.readLock().lock();
+        try {
+            modificationCount.incrementAndGet();
+            pendingChanges.incrementAndGet();
+        } finally {
+            reconcileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the spot once the unit of work commits, announcing the change just before the commit.
+     * Call it for a spot that actually changed state in the unit of work.
+     */
+    public void spotChanged(UnitOfWork unitOfWork, ParkingType parkingType, boolean available) {
+        unitOfWork.beforeCommit(() -> {
+            changePending();
+            unitOfWork.onRollback(this::changeRolledBack);
+        });
+        unitOfWork.onCommit(() -> changeCommitted(parkingType, available));
+    }
+
+    public void changeCommitted(ParkingType parkingType, boolean available) {
+        spotChanged(parkingType, available);
+        pendingChanges.decrementAndGet();
+    }
+
+    public void changeRolledBack() {
+        modificationCount.incrementAndGet();
+        pendingChanges.decrementAndGet();
+    }
+
+    /**
+     * Moves one spot of the given type to available or occupied. Call it once per committed change of state:
+     * a spot set to the state it already had would skew the counts until the next reconciliation.
+     */
+    public void spotChanged(ParkingType parkingType, boolean available) {
+        int index = parkingType.ordinal();
+        reconcileLock.readLock().lock();
+        try {
+            modificationCount.incrementAndGet();
+            long current;
+            long updated;
+            do {
+                current = counts.get(index);
+                int free = available(current);
+                int used = occupied(current);
+                if (available ? used == 0 : free == 0) {
+                    return; // counts already stale, leave them to the reconciliation
+                }
+                updated = available ? pack(free + 1, used - 1) : pack(free - 1, used + 1);
+            } while (!counts.compareAndSet(index, current, updated));
+        } finally {
+            reconcileLock.readLock().unlock();
+        }
+    }
+
+    public Occupancy get(ParkingType parkingType) {
+        long value = counts.get(parkingType.ordinal());
+        return new Occupancy(parkingType, available(value), occupied(value));
+    }
+
+    /**
+     * @return the counts of every type; each type is consistent on its own, not across types
+     */
+    public Map<ParkingType, Occupancy> snapshot() {
+        Map<ParkingType, Occupancy> snapshot = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            snapshot.put(parkingType, get(parkingType));
+        }
+        return snapshot;
+    }
+
+    public synchronized void startReconciliation(ParkingSpotRepository parkingSpotRepository, long periodMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "occupancy-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            long expected = getModificationCount();
+            Map<ParkingType, Occupancy> occupancy = parkingSpotRepository.getOccupancy();
+            if (occupancy != null) {
+                reconcile(occupancy, expected);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReconciliation() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    private void set(Map<ParkingType, Occupancy> occupancy) {
+        for (ParkingType parkingType : ParkingType.values()) {
+            Occupancy typeOccupancy = occupancy.get(parkingType);
+            counts.set(parkingType.ordinal(), (typeOccupancy == null) ? 0 : pack(typeOccupancy.getAvailable(), typeOccupancy.getOccupied()));
+        }
+    }
+
+    private static long pack(int available, int occupied) {
+        return ((long) available << 32) | (occupied & 0xFFFFFFFFL);
+    }
+
+    private static int available(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static int occupied(long value) {
+        return (int) value;
+    }
+}
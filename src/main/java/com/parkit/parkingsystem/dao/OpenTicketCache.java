@@ -0,0 +1,83 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-through map of the tickets still open (OUT_TIME null), keyed by registration number.
+ * It is bounded by the number of parking spots. Entries are copies, so callers can mutate what they get back.
+ * The cache assumes this JVM is the only writer of the ticket table.
+ */
+public class OpenTicketCache {
+
+    private static final Logger logger = LogManager.getLogger("OpenTicketCache");
+
+    private final Map<String, Ticket> openTickets = new ConcurrentHashMap<>();
+
+    public void load(List<Ticket> tickets) {
+        openTickets.clear();
+        for (Ticket ticket : tickets) {
+            put(ticket);
+        }
+        logger.info("Open ticket cache loaded with " + openTickets.size() + " tickets");
+    }
+
+    public Ticket get(String vehicleRegNumber) {
+        Ticket ticket = openTickets.get(vehicleRegNumber);
+        return ticket == null ? null : copyOf(ticket);
+    }
+
+    /**
+     * Caches the ticket while it is open, evicts it once it has an out time.
+     */
+    public void put(Ticket ticket) {
+        if (ticket.getOutTime() == null) {
+            openTickets.put(ticket.getVehicleRegNumber(), copyOf(ticket));
+        } else {
+            openTickets.computeIfPresent(ticket.getVehicleRegNumber(),
+                    (vehicleRegNumber, cached) -> cached.getId() == ticket.getId() ? null : cached);
+        }
+    }
+
+    /**
+     * Evicts the open ticket of the vehicle if it is still the given stay, as one atomic step: of two exits
+     * of the same vehicle, only the one evicting it may close the ticket.
+     * @return false when the ticket is no longer cached, closed by another exit
+     */
+    public boolean remove(Ticket ticket) {
+        boolean[] removed = {false};
+        openTickets.computeIfPresent(ticket.getVehicleRegNumber(), (vehicleRegNumber, cached) -> {
+            if (cached.getId() != ticket.getId() || !Objects.equals(cached.getInTime(), ticket.getInTime())) {
+                return cached;
+            }
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public int size() {
+        return openTickets.size();
+    }
+
+    private static Ticket copyOf(Ticket ticket) {
+        Ticket copy = new Ticket();
+        copy.setLotId(ticket.getLotId());
+        copy.setId(ticket.getId());
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        copy.setParkingSpot(new ParkingSpot(parkingSpot.getLotId(), parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable()));
+        copy.setVehicleRegNumber(ticket.getVehicleRegNumber());
+        copy.setPrice(ticket.getPrice());
+        copy.setInTime(ticket.getInTime() == null ? null : new Date(ticket.getInTime().getTime()));
+        copy.setOutTime(ticket.getOutTime() == null ? null : new Date(ticket.getOutTime().getTime()));
+        return copy;
+    }
+}
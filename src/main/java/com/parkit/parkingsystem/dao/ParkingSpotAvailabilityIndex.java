@@ -0,0 +1,188 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * In-process index of free parking spots: one bitset per ParkingType, bit n set when spot n is available.
+ * The parking table stays the source of truth; the index is loaded from it and periodically reconciled.
+ * Changes hold the read lock, so they run concurrently with each other but never between the check and the swap of a
+ * reconciliation, and count themselves before touching a bit: a reconciliation never drops a change it did not see.
+ */
+public class ParkingSpotAvailabilityIndex {
+
+    private static final Logger logger = LogManager.getLogger("ParkingSpotAvailabilityIndex");
+
+    private volatile Map<ParkingType, AtomicLongArray> freeSpots;
+    private final AtomicLong modificationCount = new AtomicLong();
+    private final ReadWriteLock reconcileLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService reconciler;
+    private volatile BooleanSupplier reconciliationHold = () -> false;
+
+    public boolean isLoaded() {
+        return freeSpots != null;
+    }
+
+    public void load(List<ParkingSpot> parkingSpots) {
+        freeSpots = build(parkingSpots);
+        logger.info("Parking availability index loaded with " + parkingSpots.size() + " spots");
+    }
+
+    /**
+     * Replaces the bitsets with the given database snapshot, unless the index was modified while the
+     * snapshot was being read (the next pass will pick the change up).
+     */
+    public boolean reconcile(List<ParkingSpot> parkingSpots, long expectedModificationCount) {
+        Map<ParkingType, AtomicLongArray> rebuilt = build(parkingSpots);
+        reconcileLock.writeLock().lock();
+        try {
+            if (modificationCount.get() != expectedModificationCount) {
+                logger.debug("Parking availability index modified during reconciliation, skipping this pass");
+                return false;
+            }
+            freeSpots = rebuilt;
+        } finally {
+            reconcileLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
+    public int lowestAvailable(ParkingType parkingType) {
+        AtomicLongArray bits = freeSpots.get(parkingType);
+        for (int word = 0; word < bits.length(); word++) {
+            long value = bits.get(word);
+            if (value != 0) {
+                return word * Long.SIZE + Long.numberOfTrailingZeros(value);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Atomically takes the lowest free spot of the given type out of the index.
+     * @return the spot number, or -1 when no spot of that type is free
+     */
+    public int claimLowest(ParkingType parkingType) {
+        reconcileLock.readLock().lock();
+        try {
+            modificationCount.incrementAndGet();
+            AtomicLongArray bits = freeSpots.get(parkingType);
+            for (int word = 0; word < bits.length(); word++) {
+                long value;
+                while ((value = bits.get(word)) != 0) {
+                    long lowestBit = value & -value;
+                    if (bits.compareAndSet(word, value, value & ~lowestBit)) {
+                        return word * Long.SIZE + Long.numberOfTrailingZeros(lowestBit);
+                    }
+                }
+            }
+            return -1;
+        } finally {
+            reconcileLock.readLock().unlock();
+        }
+    }
+
+    public void setAvailable(ParkingSpot parkingSpot) {
+        reconcileLock.readLock().lock();
+        try {
+            modificationCount.incrementAndGet();
+            AtomicLongArray bits = freeSpots.get(parkingSpot.getParkingType());
+            int number = parkingSpot.getId();
+            int word = number / Long.SIZE;
+            if (number < 0 || word >= bits.length()) {
+                return; // unknown spot, the next reconciliation will resize the index
+            }
+            long mask = 1L << (number % Long.SIZE);
+            long current;
+            long updated;
+            do {
+                current = bits.get(word);
+                updated = parkingSpot.isAvailable() ? current | mask : current & ~mask;
+            } while (current != updated && !bits.compareAndSet(word, current, updated));
+        } finally {
+            reconcileLock.readLock().unlock();
+        }
+    }
+
+    public int countAvailable(ParkingType parkingType) {
+        AtomicLongArray bits = freeSpots.get(parkingType);
+        int count = 0;
+        for (int word = 0; word < bits.length(); word++) {
+            count += Long.bitCount(bits.get(word));
+        }
+        return count;
+    }
+
+    /**
+     * Skips the reconciliation passes while the condition holds, e.g. while the index is ahead of the database.
+     */
+    public void holdReconciliationWhile(BooleanSupplier condition) {
+        reconciliationHold = condition;
+    }
+
+    public synchronized void startReconciliation(ParkingSpotRepository parkingSpotRepository, long periodMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "parking-index-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            if (reconciliationHold.getAsBoolean()) {
+                return;
+            }
+            long expected = getModificationCount();
+            List<ParkingSpot> parkingSpots = parkingSpotRepository.getParkingSpots();
+            if (parkingSpots != null) {
+                reconcile(parkingSpots, expected);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReconciliation() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    private static Map<ParkingType, AtomicLongArray> build(List<ParkingSpot> parkingSpots) {
+        int maxNumber = 0;
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            maxNumber = Math.max(maxNumber, parkingSpot.getId());
+        }
+        int words = maxNumber / Long.SIZE + 1;
+        Map<ParkingType, AtomicLongArray> bitsets = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            bitsets.put(parkingType, new AtomicLongArray(words));
+        }
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            if (parkingSpot.isAvailable()) {
+                AtomicLongArray bits = bitsets.get(parkingSpot.getParkingType());
+                int number = parkingSpot.getId();
+                bits.set(number / Long.SIZE, bits.get(number / Long.SIZE) | (1L << (number % Long.SIZE)));
+            }
+        }
+        return bitsets;
+    }
+}
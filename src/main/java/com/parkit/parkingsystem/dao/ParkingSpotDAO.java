@@ -3,56 +3,301 @@ package com.parkit.parkingsystem.dao;
 import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
-public class ParkingSpotDAO {
+public class ParkingSpotDAO implements ParkingSpotRepository {
     private static final Logger logger = LogManager.getLogger("ParkingSpotDAO");
 
-    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+    private static final int MAX_CLAIM_ATTEMPTS = 10;
 
+    // the standalone writes are timed by the unit-of-work overload they call
+    private static final LatencyHistogram getNextAvailableSlotTimer = timer("getNextAvailableSlot");
+    private static final LatencyHistogram claimNextSpotTimer = timer("claimNextSpot");
+    private static final LatencyHistogram updateParkingTimer = timer("updateParking");
+    private static final LatencyHistogram updateParkingsTimer = timer("updateParkings");
+    private static final LatencyHistogram getParkingSpotsTimer = timer("getParkingSpots");
+    private static final LatencyHistogram getOccupancyTimer = timer("getOccupancy");
+
+    private DataBaseConfig dataBaseConfig;
+
+    // lot whose parking table dataBaseConfig points to, stamped on the spots read
+    private final int lotId;
+
+    private ParkingSpotAvailabilityIndex availabilityIndex;
+    private OccupancyCounters occupancyCounters;
+
+    public ParkingSpotDAO() {
+        this(ParkingSpot.DEFAULT_LOT, new DataBaseConfig());
+    }
+
+    public ParkingSpotDAO(int lotId, DataBaseConfig dataBaseConfig) {
+        this.lotId = lotId;
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    private static LatencyHistogram timer(String method) {
+        return Metrics.timer("parking_dao_seconds", "dao", "ParkingSpotDAO", "method", method);
+    }
+
+    @Override
+    public int getLotId() {
+        return lotId;
+    }
+
+    public DataBaseConfig getDataBaseConfig() {
+        return dataBaseConfig;
+    }
+
+    public void setDataBaseConfig(DataBaseConfig dataBaseConfig) {
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Override
+    public ParkingSpotAvailabilityIndex getAvailabilityIndex() {
+        return availabilityIndex;
+    }
+
+    public void setAvailabilityIndex(ParkingSpotAvailabilityIndex availabilityIndex) {
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    @Override
+    public OccupancyCounters getOccupancyCounters() {
+        return occupancyCounters;
+    }
+
+    public void setOccupancyCounters(OccupancyCounters occupancyCounters) {
+        this.occupancyCounters = occupancyCounters;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork() throws ClassNotFoundException, SQLException {
+        return new UnitOfWork(dataBaseConfig);
+    }
+
+    @Override
     public int getNextAvailableSlot(ParkingType parkingType){
-        Connection con = null;
-        int result=-1;
+        long start = System.nanoTime();
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT);
-            ps.setString(1, parkingType.toString());
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                result = rs.getInt(1);
-            }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
+            if(availabilityIndex != null && availabilityIndex.isLoaded()){
+                return availabilityIndex.lowestAvailable(parkingType);
+            }
+            Connection con = null;
+            int result=-1;
+            try {
+                con = dataBaseConfig.getConnection();
+                Integer parkingNumber = JdbcTemplate.queryForObject(con, DBConstants.GET_NEXT_PARKING_SPOT,
+                        ps -> ps.setString(1, parkingType.toString()), rs -> rs.getInt(1));
+                if(parkingNumber != null){
+                    result = parkingNumber;
+                }
+            }catch (Exception ex){
+                logger.error("Error fetching next available slot",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return result;
+        } finally {
+            getNextAvailableSlotTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Selects the lowest free spot of the given type and marks it unavailable in a single step,
+     * so two gates can never be handed the same spot.
+     * @return the claimed spot, or null when none is free or the claim failed
+     */
+    @Override
+    public ParkingSpot claimNextSpot(ParkingType parkingType){
+        try (UnitOfWork unitOfWork = beginUnitOfWork()) {
+            ParkingSpot parkingSpot = claimNextSpot(unitOfWork, parkingType);
+            unitOfWork.commit();
+            return parkingSpot;
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            logger.error("Error claiming next available slot",ex);
+            return null;
+        }
+    }
+
+    @Override
+    public ParkingSpot claimNextSpot(UnitOfWork unitOfWork, ParkingType parkingType) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if(availabilityIndex != null && availabilityIndex.isLoaded()){
+                return claimNextSpotFromIndex(unitOfWork, parkingType);
+            }
+            ParkingSpot parkingSpot = JdbcTemplate.queryForObject(unitOfWork.getConnection(), DBConstants.GET_NEXT_PARKING_SPOT_FOR_UPDATE,
+                    ps -> ps.setString(1, parkingType.toString()), rs -> new ParkingSpot(lotId, rs.getInt(1), parkingType, false));
+            if(parkingSpot != null){
+                updateParking(unitOfWork, parkingSpot);
+            }
+            return parkingSpot;
+        } finally {
+            claimNextSpotTimer.recordSince(start);
         }
-        return result;
     }
 
+    private ParkingSpot claimNextSpotFromIndex(UnitOfWork unitOfWork, ParkingType parkingType) throws SQLException {
+        for(int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++){
+            int parkingNumber = availabilityIndex.claimLowest(parkingType);
+            if(parkingNumber < 0){
+                return null;
+            }
+            ParkingSpot parkingSpot = new ParkingSpot(lotId, parkingNumber, parkingType, false);
+            int updateRowCount;
+            try {
+                updateRowCount = JdbcTemplate.update(unitOfWork.getConnection(), DBConstants.CLAIM_PARKING_SPOT, ps -> ps.setInt(1, parkingNumber));
+            }catch (SQLException ex){
+                availabilityIndex.setAvailable(new ParkingSpot(lotId, parkingNumber, parkingType, true));
+                throw ex;
+            }
+            if(updateRowCount == 1){
+                onSpotChangeCommitted(unitOfWork, parkingSpot);
+                unitOfWork.onRollback(() -> availabilityIndex.setAvailable(new ParkingSpot(lotId, parkingNumber, parkingType, true)));
+                return parkingSpot;
+            }
+            //the index was stale and the spot is already taken: keep it out of the index and try the next one
+            logger.warn("Parking spot " + parkingNumber + " was already occupied, retrying");
+        }
+        return null;
+    }
+
+    @Override
     public boolean updateParking(ParkingSpot parkingSpot){
         //update the availability fo that parking slot
-        Connection con = null;
-        try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
-            ps.setBoolean(1, parkingSpot.isAvailable());
-            ps.setInt(2, parkingSpot.getId());
-            int updateRowCount = ps.executeUpdate();
-            dataBaseConfig.closePreparedStatement(ps);
-            return (updateRowCount == 1);
+        try (UnitOfWork unitOfWork = beginUnitOfWork()) {
+            boolean updated = updateParking(unitOfWork, parkingSpot);
+            unitOfWork.commit();
+            return updated;
         }catch (Exception ex){
             logger.error("Error updating parking info",ex);
             return false;
-        }finally {
-            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * Writes the availability of the spot; a spot already in that state is left untouched.
+     * @return true when the spot changed state
+     */
+    @Override
+    public boolean updateParking(UnitOfWork unitOfWork, ParkingSpot parkingSpot) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int updateRowCount = JdbcTemplate.update(unitOfWork.getConnection(), DBConstants.UPDATE_PARKING_SPOT, ps -> setUpdateParameters(ps, parkingSpot));
+            if(updateRowCount == 1){
+                onSpotChangeCommitted(unitOfWork, parkingSpot);
+            }
+            if(availabilityIndex != null && availabilityIndex.isLoaded()){
+                ParkingSpot updatedSpot = new ParkingSpot(lotId, parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable());
+                unitOfWork.onCommit(() -> availabilityIndex.setAvailable(updatedSpot));
+            }
+            return (updateRowCount == 1);
+        } finally {
+            updateParkingTimer.recordSince(start);
+        }
+    }
+
+    // only called for a spot that actually changed state, the update leaves a spot already in that state alone
+    private void onSpotChangeCommitted(UnitOfWork unitOfWork, ParkingSpot parkingSpot) {
+        if(occupancyCounters != null && occupancyCounters.isLoaded() && parkingSpot.getParkingType() != null){
+            occupancyCounters.spotChanged(unitOfWork, parkingSpot.getParkingType(), parkingSpot.isAvailable());
+        }
+    }
+
+    private static void setUpdateParameters(PreparedStatement ps, ParkingSpot parkingSpot) throws SQLException {
+        ps.setBoolean(1, parkingSpot.isAvailable());
+        ps.setInt(2, parkingSpot.getId());
+        ps.setBoolean(3, parkingSpot.isAvailable());
+    }
+
+    /**
+     * Writes the availability of all spots with a single JDBC batch.
+     * @return the update count of each spot, in the order of the list, 0 for a spot already in that state
+     */
+    @Override
+    public int[] updateParkings(UnitOfWork unitOfWork, List<ParkingSpot> parkingSpots) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int[] updateCounts = JdbcTemplate.batchUpdate(unitOfWork.getConnection(), DBConstants.UPDATE_PARKING_SPOT, parkingSpots, ParkingSpotDAO::setUpdateParameters);
+            for (int i = 0; i < updateCounts.length; i++) {
+                // a driver answering SUCCESS_NO_INFO does not say whether the spot changed, leave it to the reconciliation
+                if(updateCounts[i] == 1){
+                    onSpotChangeCommitted(unitOfWork, parkingSpots.get(i));
+                }
+            }
+            if(availabilityIndex != null && availabilityIndex.isLoaded()){
+                for (ParkingSpot parkingSpot : parkingSpots) {
+                    ParkingSpot updatedSpot = new ParkingSpot(lotId, parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable());
+                    unitOfWork.onCommit(() -> availabilityIndex.setAvailable(updatedSpot));
+                }
+            }
+            return updateCounts;
+        } finally {
+            updateParkingsTimer.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<ParkingSpot> getParkingSpots(){
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            List<ParkingSpot> parkingSpots = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                parkingSpots = JdbcTemplate.query(con, DBConstants.GET_PARKING_SPOTS, JdbcTemplate.NO_PARAMETERS,
+                        rs -> new ParkingSpot(lotId, rs.getInt(1), ParkingType.valueOf(rs.getString(2)), rs.getBoolean(3)));
+            }catch (Exception ex){
+                logger.error("Error fetching parking spots",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return parkingSpots;
+        } finally {
+            getParkingSpotsTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * @return the free and occupied spot counts of each type, read from the parking table, or null on error
+     */
+    @Override
+    public Map<ParkingType, Occupancy> getOccupancy(){
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            Map<ParkingType, Occupancy> occupancy = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                List<Occupancy> rows = JdbcTemplate.query(con, DBConstants.GET_OCCUPANCY, JdbcTemplate.NO_PARAMETERS,
+                        rs -> new Occupancy(ParkingType.valueOf(rs.getString(1)), rs.getInt(2), rs.getInt(3)));
+                occupancy = new EnumMap<>(ParkingType.class);
+                for (ParkingType parkingType : ParkingType.values()) {
+                    occupancy.put(parkingType, new Occupancy(parkingType, 0, 0));
+                }
+                for (Occupancy row : rows) {
+                    occupancy.put(row.getParkingType(), row);
+                }
+            }catch (Exception ex){
+                logger.error("Error fetching occupancy",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return occupancy;
+        } finally {
+            getOccupancyTimer.recordSince(start);
         }
     }
 }
@@ -0,0 +1,74 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parking spots of one lot: ParkingSpotDAO on the lot's database, InMemoryParkingSpotDAO on the in-memory storage engine.
+ * A spot change made in a unit of work is only seen by the other units of work once it commits, except a claim:
+ * a claimed spot is never handed to another unit of work, even before the claim commits.
+ */
+public interface ParkingSpotRepository {
+
+    /**
+     * @return the lot whose spots this repository holds, stamped on the spots read
+     */
+    int getLotId();
+
+    /**
+     * Starts the unit of work an entry or exit writes its spot and its ticket in.
+     */
+    UnitOfWork beginUnitOfWork() throws ClassNotFoundException, SQLException;
+
+    /**
+     * @return the lowest free spot of the given type, without claiming it, or -1 when none is free or on error
+     */
+    int getNextAvailableSlot(ParkingType parkingType);
+
+    /**
+     * Selects the lowest free spot of the given type and marks it unavailable in a single step,
+     * so two gates can never be handed the same spot.
+     * @return the claimed spot, or null when none is free or the claim failed
+     */
+    ParkingSpot claimNextSpot(ParkingType parkingType);
+
+    ParkingSpot claimNextSpot(UnitOfWork unitOfWork, ParkingType parkingType) throws SQLException;
+
+    boolean updateParking(ParkingSpot parkingSpot);
+
+    /**
+     * Writes the availability of the spot; a spot already in that state is left untouched.
+     * @return true when the spot changed state
+     */
+    boolean updateParking(UnitOfWork unitOfWork, ParkingSpot parkingSpot) throws SQLException;
+
+    /**
+     * @return the update count of each spot, in the order of the list, 0 for a spot already in that state
+     */
+    int[] updateParkings(UnitOfWork unitOfWork, List<ParkingSpot> parkingSpots) throws SQLException;
+
+    /**
+     * @return every spot of the lot with its availability, or null on error
+     */
+    List<ParkingSpot> getParkingSpots();
+
+    /**
+     * @return the free and occupied spot counts of each type, or null on error
+     */
+    Map<ParkingType, Occupancy> getOccupancy();
+
+    /**
+     * @return the in-memory index of free spots, null when disabled
+     */
+    ParkingSpotAvailabilityIndex getAvailabilityIndex();
+
+    /**
+     * @return the free / occupied counts per type, null when disabled
+     */
+    OccupancyCounters getOccupancyCounters();
+}
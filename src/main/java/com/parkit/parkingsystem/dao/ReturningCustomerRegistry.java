@@ -0,0 +1,129 @@
+package com.parkit.parkingsystem.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers "has this vehicle completed at least one stay" without counting tickets.
+ * A Bloom filter over every registration number with a closed ticket rules out first-time customers in memory;
+ * registration numbers confirmed as returning are remembered, so only a Bloom filter false positive
+ * (or a first confirmation) falls back to the database.
+ */
+public class ReturningCustomerRegistry {
+
+    private static final Logger logger = LogManager.getLogger("ReturningCustomerRegistry");
+
+    private final AtomicLongArray bits;
+    private final int bitCount;
+    private final int hashCount;
+    private final int maxConfirmed;
+    private final Set<String> confirmed = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+
+    /**
+     * @param expectedCustomers number of distinct returning customers the filter is sized for
+     * @param falsePositiveRate target probability of falling back to the database for a first-time customer
+     * @param maxConfirmed upper bound on the number of confirmed registration numbers kept in memory
+     */
+    public ReturningCustomerRegistry(int expectedCustomers, double falsePositiveRate, int maxConfirmed) {
+        long optimalBits = (long) Math.ceil(-expectedCustomers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(Long.SIZE, Math.min(optimalBits, Integer.MAX_VALUE - Long.SIZE));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedCustomers * Math.log(2)));
+        this.bits = new AtomicLongArray((bitCount + Long.SIZE - 1) / Long.SIZE);
+        this.maxConfirmed = maxConfirmed;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Marks the registry as complete once every known returning customer has been added.
+     * Until then, callers must not trust a negative answer.
+     */
+    public void setLoaded(int customers) {
+        loaded = true;
+        logger.info("Returning customer registry loaded with " + customers + " customers (" + bitCount + " bits, " + hashCount + " hashes)");
+    }
+
+    public void add(String vehicleRegNumber) {
+        long hash = hash64(vehicleRegNumber);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            int word = bit / Long.SIZE;
+            long mask = 1L << (bit % Long.SIZE);
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                // retry until the bit is set
+            }
+        }
+    }
+
+    /**
+     * Adds a customer whose stay was just closed, or whose status the database has confirmed.
+     */
+    public void confirm(String vehicleRegNumber) {
+        add(vehicleRegNumber);
+        if (confirmed.size() < maxConfirmed) {
+            confirmed.add(vehicleRegNumber);
+        }
+    }
+
+    public boolean isConfirmed(String vehicleRegNumber) {
+        return confirmed.contains(vehicleRegNumber);
+    }
+
+    /**
+     * @return false when the customer has certainly never completed a stay
+     */
+    public boolean mightBeReturning(String vehicleRegNumber) {
+        long hash = hash64(vehicleRegNumber);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((bits.get(bit / Long.SIZE) & (1L << (bit % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true or false when memory is enough to answer, null when only the database can tell
+     */
+    public Boolean lookup(String vehicleRegNumber) {
+        if (!loaded) {
+            return null;
+        }
+        if (isConfirmed(vehicleRegNumber)) {
+            return true;
+        }
+        if (!mightBeReturning(vehicleRegNumber)) {
+            return false;
+        }
+        return null;
+    }
+
+    // 64-bit FNV-1a followed by a murmur3 finalizer, split in two halves for double hashing
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
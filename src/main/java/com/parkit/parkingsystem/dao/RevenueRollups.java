@@ -0,0 +1,175 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stays, revenue, minutes parked and discounted stays per ParkingType, by hour and by day of exit, kept in two
+ * fixed-size rings (the last hours and days) updated by every committed ticket close. Loaded once from the ticket
+ * table; afterwards a figure over a period costs one read per bucket, whatever the number of tickets.
+ * Hours are UTC epoch hours, days are calendar days in the given zone.
+ */
+public class RevenueRollups {
+
+    private static final Logger logger = LogManager.getLogger("RevenueRollups");
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final int TYPES = ParkingType.values().length;
+    private static final int STAYS = 0;
+    private static final int REVENUE_CENTS = 1;
+    private static final int MINUTES = 2;
+    private static final int DISCOUNTED_STAYS = 3;
+    private static final int FIELDS = 4;
+
+    private final ZoneId zone;
+    private final Ring hourly;
+    private final Ring daily;
+    private volatile boolean loaded;
+
+    public RevenueRollups(int hours, int days, ZoneId zone) {
+        this.zone = zone;
+        this.hourly = new Ring(hours);
+        this.daily = new Ring(days);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return the oldest exit time the rings can hold, the start of what load needs
+     */
+    public Date getRetentionStart(long nowMillis) {
+        long firstHour = nowMillis / HOUR_MILLIS - hourly.size() + 1;
+        long firstDay = dayOf(nowMillis).toEpochDay() - daily.size() + 1;
+        long firstDayMillis = LocalDate.ofEpochDay(firstDay).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Date(Math.min(firstHour * HOUR_MILLIS, firstDayMillis));
+    }
+
+    /**
+     * Adds hourly rollups read from the ticket table to both rings.
+     */
+    public void load(List<Rollup> hourlyRollups) {
+        for (Rollup rollup : hourlyRollups) {
+            add(rollup.getParkingType(), rollup.getStart().getTime(), rollup.getStays(), rollup.getRevenueCents(),
+                    rollup.getMinutes(), rollup.getDiscountedStays());
+        }
+        loaded = true;
+        logger.info("Revenue rollups loaded from " + hourlyRollups.size() + " hourly rows");
+    }
+
+    /**
+     * Counts a closed stay in the hour and day of its exit. Call it once per ticket close.
+     */
+    public void record(Ticket ticket) {
+        long outMillis = ticket.getOutTime().getTime();
+        add(ticket.getParkingSpot().getParkingType(), outMillis, 1, Math.round(ticket.getPrice() * 100),
+                (outMillis - ticket.getInTime().getTime()) / 60_000, ticket.isDiscounted() ? 1 : 0);
+    }
+
+    private void add(ParkingType parkingType, long outMillis, long stays, long revenueCents, long minutes, long discountedStays) {
+        hourly.add(outMillis / HOUR_MILLIS, parkingType.ordinal(), stays, revenueCents, minutes, discountedStays);
+        daily.add(dayOf(outMillis).toEpochDay(), parkingType.ordinal(), stays, revenueCents, minutes, discountedStays);
+    }
+
+    /**
+     * @return one rollup per type for each hour starting in [from, to) and still held, oldest first
+     */
+    public List<Rollup> getHourly(Date from, Date to) {
+        List<Rollup> rollups = new ArrayList<>();
+        long firstHour = Math.floorDiv(from.getTime() + HOUR_MILLIS - 1, HOUR_MILLIS);
+        long lastHour = Math.floorDiv(to.getTime() - 1, HOUR_MILLIS);
+        for (long hour = Math.max(firstHour, lastHour - hourly.size() + 1); hour <= lastHour; hour++) {
+            hourly.read(hour, new Date(hour * HOUR_MILLIS), rollups);
+        }
+        return rollups;
+    }
+
+    /**
+     * @return one rollup per type for each day in [from, to) still held, oldest first
+     */
+    public List<Rollup> getDaily(LocalDate from, LocalDate to) {
+        List<Rollup> rollups = new ArrayList<>();
+        long lastDay = to.toEpochDay() - 1;
+        for (long day = Math.max(from.toEpochDay(), lastDay - daily.size() + 1); day <= lastDay; day++) {
+            daily.read(day, Date.from(LocalDate.ofEpochDay(day).atStartOfDay(zone).toInstant()), rollups);
+        }
+        return rollups;
+    }
+
+    /**
+     * Adds up the rollups of each type.
+     * @return one rollup per type, starting with the earliest of the given ones
+     */
+    public static Map<ParkingType, Rollup> total(List<Rollup> rollups) {
+        Map<ParkingType, Rollup> totals = new EnumMap<>(ParkingType.class);
+        for (Rollup rollup : rollups) {
+            Rollup total = totals.get(rollup.getParkingType());
+            totals.put(rollup.getParkingType(), (total == null) ? rollup : new Rollup(rollup.getParkingType(), total.getStart(),
+                    total.getStays() + rollup.getStays(), total.getRevenueCents() + rollup.getRevenueCents(),
+                    total.getMinutes() + rollup.getMinutes(), total.getDiscountedStays() + rollup.getDiscountedStays()));
+        }
+        return totals;
+    }
+
+    public LocalDate dayOf(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+    }
+
+    // one slot per bucket number modulo the size; a slot is reset when a newer bucket takes it over
+    private static final class Ring {
+        private final long[] buckets;
+        private final long[] values;
+
+        private Ring(int size) {
+            buckets = new long[size];
+            Arrays.fill(buckets, Long.MIN_VALUE);
+            values = new long[size * TYPES * FIELDS];
+        }
+
+        private int size() {
+            return buckets.length;
+        }
+
+        private synchronized void add(long bucket, int type, long stays, long revenueCents, long minutes, long discountedStays) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] != bucket) {
+                if (buckets[slot] > bucket) {
+                    return; // older than what the ring holds
+                }
+                buckets[slot] = bucket;
+                Arrays.fill(values, slot * TYPES * FIELDS, (slot + 1) * TYPES * FIELDS, 0);
+            }
+            int offset = (slot * TYPES + type) * FIELDS;
+            values[offset + STAYS] += stays;
+            values[offset + REVENUE_CENTS] += revenueCents;
+            values[offset + MINUTES] += minutes;
+            values[offset + DISCOUNTED_STAYS] += discountedStays;
+        }
+
+        private synchronized void read(long bucket, Date start, List<Rollup> rollups) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            boolean held = buckets[slot] == bucket;
+            for (ParkingType parkingType : ParkingType.values()) {
+                int offset = (slot * TYPES + parkingType.ordinal()) * FIELDS;
+                rollups.add(held
+                        ? new Rollup(parkingType, start, values[offset + STAYS], values[offset + REVENUE_CENTS],
+                                values[offset + MINUTES], values[offset + DISCOUNTED_STAYS])
+                        : new Rollup(parkingType, start, 0, 0, 0, 0));
+            }
+        }
+    }
+}
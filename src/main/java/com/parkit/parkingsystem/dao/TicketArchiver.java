@@ -0,0 +1,113 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the tickets closed more than horizonDays ago from ticket to ticket_archive, so the table the gates query keeps
+ * only the recent stays. Runs on a background thread during the off-peak window [windowStart, windowEnd), which may span
+ * midnight (equal bounds mean always), in batches of batchSize tickets, each in its own short transaction, with a pause
+ * between batches so the gates are never queued behind it for long.
+ */
+public class TicketArchiver {
+
+    private static final Logger logger = LogManager.getLogger("TicketArchiver");
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final TicketRepository ticketRepository;
+    private final int horizonDays;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+    private final ZoneId zone;
+    private final LongAdder archivedCount;
+    private ScheduledExecutorService scheduler;
+
+    public TicketArchiver(TicketRepository ticketRepository, int horizonDays, int batchSize, long pauseMillis,
+                          LocalTime windowStart, LocalTime windowEnd, ZoneId zone) {
+        this.ticketRepository = ticketRepository;
+        this.horizonDays = horizonDays;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.zone = zone;
+        this.archivedCount = Metrics.counter("parking_tickets_archived_total", "lot", Integer.toString(ticketRepository.getLotId()));
+    }
+
+    /**
+     * Checks every checkPeriodMillis whether the window is open, then archives until nothing is left or it closes.
+     */
+    public synchronized void start(long checkPeriodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ticket-archiver-lot" + ticketRepository.getLotId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (isOffPeak(LocalTime.now(zone))) {
+                archive(System.currentTimeMillis());
+            }
+        }, checkPeriodMillis, checkPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public boolean isOffPeak(LocalTime time) {
+        if (windowStart.isBefore(windowEnd)) {
+            return !time.isBefore(windowStart) && time.isBefore(windowEnd);
+        }
+        return !time.isBefore(windowStart) || time.isBefore(windowEnd);
+    }
+
+    /**
+     * Archives the tickets closed before nowMillis minus the horizon, batch after batch, while the window stays open.
+     * Stops at the first short or failed batch; the next check picks up from there.
+     * @return the number of tickets archived
+     */
+    public long archive(long nowMillis) {
+        Date closedBefore = new Date(nowMillis - horizonDays * DAY_MILLIS);
+        long archived = 0;
+        long start = System.nanoTime();
+        while (true) {
+            int moved = ticketRepository.archiveTickets(closedBefore, batchSize);
+            if (moved > 0) {
+                archived += moved;
+                archivedCount.add(moved);
+            }
+            if (moved < batchSize || Thread.currentThread().isInterrupted() || !isOffPeak(LocalTime.now(zone))) {
+                break;
+            }
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (archived > 0) {
+            logger.info("Archived " + archived + " tickets of lot " + ticketRepository.getLotId() + " closed before " + closedBefore + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+        return archived;
+    }
+}
@@ -0,0 +1,231 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous ticket write path with group commit.
+ * Callers enqueue ticket saves and updates; a single writer thread coalesces whatever is pending
+ * (up to flushSize, or what arrived within flushIntervalMillis) into JDBC batches committed in one transaction.
+ * The returned future completes once the write is committed, or exceptionally if it failed: when a batch fails, its
+ * writes are retried one per transaction so that a single bad row only fails its own caller.
+ * A spot claimed by an entry and a spot freed by an exit are written in the same transaction as their ticket.
+ */
+public class TicketBatchWriter implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("TicketBatchWriter");
+
+    private final TicketDAO ticketDAO;
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    public TicketBatchWriter(TicketDAO ticketDAO, ParkingSpotDAO parkingSpotDAO, int queueCapacity, int flushSize, long flushIntervalMillis) {
+        this.ticketDAO = ticketDAO;
+        this.parkingSpotDAO = parkingSpotDAO;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.writerThread = new Thread(this::run, "ticket-batch-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public CompletableFuture<Boolean> save(Ticket ticket) {
+        return enqueue(new PendingWrite(ticket, true, false, null));
+    }
+
+    /**
+     * Claims the next free spot of the type of the ticket's spot and saves the ticket on it, in the same transaction.
+     * @return completes with false, the ticket left unsaved, when the lot has no free spot of that type
+     */
+    public CompletableFuture<Boolean> enter(Ticket ticket) {
+        return enqueue(new PendingWrite(ticket, true, true, null));
+    }
+
+    /**
+     * Updates the ticket and, when parkingSpot is not null, writes its availability in the same transaction.
+     * The spot is only written when the update closed the ticket.
+     */
+    public CompletableFuture<Boolean> update(Ticket ticket, ParkingSpot parkingSpot) {
+        return enqueue(new PendingWrite(ticket, false, false, parkingSpot));
+    }
+
+    private CompletableFuture<Boolean> enqueue(PendingWrite write) {
+        try {
+            // blocks the caller while the queue is full, but not past close
+            while (!queue.offer(write, 100, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    write.result.completeExceptionally(new IllegalStateException("Ticket batch writer is closed"));
+                    return write.result;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.result.completeExceptionally(e);
+            return write.result;
+        }
+        // close may have drained the queue before this write got in: nobody would complete it
+        if (!running && queue.remove(write)) {
+            write.result.completeExceptionally(new IllegalStateException("Ticket batch writer is closed"));
+        }
+        return write.result;
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < flushSize) {
+                    if (queue.drainTo(batch, flushSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                logger.warn("Ticket batch writer interrupted");
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<PendingWrite> saves = new ArrayList<>();
+        List<PendingWrite> updates = new ArrayList<>();
+        List<PendingWrite> parkingFull = new ArrayList<>();
+        List<Ticket> savedTickets = new ArrayList<>();
+        List<Ticket> updatedTickets = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write.save) {
+                saves.add(write);
+            } else {
+                updates.add(write);
+                updatedTickets.add(write.ticket);
+            }
+        }
+        try (UnitOfWork unitOfWork = parkingSpotDAO.beginUnitOfWork()) {
+            for (PendingWrite write : new ArrayList<>(saves)) {
+                if (write.claimSpot && !claimSpot(unitOfWork, write.ticket)) {
+                    saves.remove(write);
+                    parkingFull.add(write);
+                } else {
+                    savedTickets.add(write.ticket);
+                }
+            }
+            int[] saveCounts = savedTickets.isEmpty() ? new int[0] : ticketDAO.saveTickets(unitOfWork, savedTickets);
+            int[] updateCounts = updatedTickets.isEmpty() ? new int[0] : ticketDAO.updateTickets(unitOfWork, updatedTickets);
+            // a ticket already closed by another exit keeps its spot: that exit frees it
+            List<ParkingSpot> parkingSpots = new ArrayList<>();
+            for (int i = 0; i < updates.size(); i++) {
+                if (updates.get(i).parkingSpot != null && i < updateCounts.length && updateCounts[i] == 1) {
+                    parkingSpots.add(updates.get(i).parkingSpot);
+                }
+            }
+            if (!parkingSpots.isEmpty()) {
+                parkingSpotDAO.updateParkings(unitOfWork, parkingSpots);
+            }
+            unitOfWork.commit();
+            complete(saves, saveCounts, true);
+            complete(updates, updateCounts, false);
+            for (PendingWrite write : parkingFull) {
+                write.result.complete(false);
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                logger.error("Error writing ticket of vehicle number:" + batch.get(0).ticket.getVehicleRegNumber(), e);
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            logger.warn("Error writing batch of " + batch.size() + " tickets, writing them one by one", e);
+            for (PendingWrite write : batch) {
+                flush(Collections.singletonList(write));
+            }
+        }
+    }
+
+    // claimed again on each attempt, a failed transaction gives its spots back
+    private boolean claimSpot(UnitOfWork unitOfWork, Ticket ticket) throws SQLException {
+        ParkingSpot parkingSpot = parkingSpotDAO.claimNextSpot(unitOfWork, ticket.getParkingSpot().getParkingType());
+        if (parkingSpot == null || parkingSpot.getId() <= 0) {
+            return false;
+        }
+        ticket.setParkingSpot(parkingSpot);
+        return true;
+    }
+
+    // an update must have closed its ticket: SUCCESS_NO_INFO would not say whether the spot can be freed
+    private static void complete(List<PendingWrite> writes, int[] updateCounts, boolean successNoInfo) {
+        for (int i = 0; i < writes.size(); i++) {
+            int count = i < updateCounts.length ? updateCounts[i] : Statement.EXECUTE_FAILED;
+            writes.get(i).result.complete(count == 1 || (successNoInfo && count == Statement.SUCCESS_NO_INFO));
+        }
+    }
+
+    /**
+     * Stops accepting writes and waits until everything already queued is committed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.result.completeExceptionally(new SQLException("Ticket batch writer closed before the write was flushed"));
+        }
+    }
+
+    public int getPendingWrites() {
+        return queue.size();
+    }
+
+    private static final class PendingWrite {
+        private final Ticket ticket;
+        private final boolean save;
+        private final boolean claimSpot;
+        private final ParkingSpot parkingSpot;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private PendingWrite(Ticket ticket, boolean save, boolean claimSpot, ParkingSpot parkingSpot) {
+            this.ticket = ticket;
+            this.save = save;
+            this.claimSpot = claimSpot;
+            this.parkingSpot = parkingSpot;
+        }
+    }
+}
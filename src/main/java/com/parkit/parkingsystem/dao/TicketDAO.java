@@ -4,106 +4,624 @@ import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-public class TicketDAO {
+public class TicketDAO implements TicketRepository {
 
     private static final Logger logger = LogManager.getLogger("TicketDAO");
 
-    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+    // time of each method, whatever its overload; the standalone writes are timed by the unit-of-work overload they call
+    private static final LatencyHistogram saveTicketTimer = timer("saveTicket");
+    private static final LatencyHistogram saveTicketsTimer = timer("saveTickets");
+    private static final LatencyHistogram getTicketTimer = timer("getTicket");
+    private static final LatencyHistogram updateTicketTimer = timer("updateTicket");
+    private static final LatencyHistogram updateTicketsTimer = timer("updateTickets");
+    private static final LatencyHistogram getOpenTicketsTimer = timer("getOpenTickets");
+    private static final LatencyHistogram forEachClosedTicketTimer = timer("forEachClosedTicket");
+    private static final LatencyHistogram forEachTicketToExportTimer = timer("forEachTicketToExport");
+    private static final LatencyHistogram loadReturningCustomersTimer = timer("loadReturningCustomers");
+    private static final LatencyHistogram getNbTicketsTimer = timer("getNbTickets");
+    private static final LatencyHistogram getRollupsTimer = timer("getRollups");
+    private static final LatencyHistogram archiveTicketsTimer = timer("archiveTickets");
 
+    private static final int HELD_BACK_IDS_PER_QUERY = 500;
+
+    private DataBaseConfig dataBaseConfig;
+
+    // lot whose ticket table dataBaseConfig points to, stamped on the tickets read
+    private final int lotId;
+
+    private TicketBatchWriter batchWriter;
+    private GateJournal gateJournal;
+    private OpenTicketCache openTicketCache;
+    private ReturningCustomerRegistry returningCustomerRegistry;
+    private RevenueRollups revenueRollups;
+
+    public TicketDAO() {
+        this(ParkingSpot.DEFAULT_LOT, new DataBaseConfig());
+    }
+
+    public TicketDAO(int lotId, DataBaseConfig dataBaseConfig) {
+        this.lotId = lotId;
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    private static LatencyHistogram timer(String method) {
+        return Metrics.timer("parking_dao_seconds", "dao", "TicketDAO", "method", method);
+    }
+
+    @Override
+    public int getLotId() {
+        return lotId;
+    }
+
+    public DataBaseConfig getDataBaseConfig() {
+        return dataBaseConfig;
+    }
+
+    public void setDataBaseConfig(DataBaseConfig dataBaseConfig) {
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Override
+    public TicketBatchWriter getBatchWriter() {
+        return batchWriter;
+    }
+
+    public void setBatchWriter(TicketBatchWriter batchWriter) {
+        this.batchWriter = batchWriter;
+    }
+
+    @Override
+    public GateJournal getGateJournal() {
+        return gateJournal;
+    }
+
+    public void setGateJournal(GateJournal gateJournal) {
+        this.gateJournal = gateJournal;
+    }
+
+    @Override
+    public OpenTicketCache getOpenTicketCache() {
+        return openTicketCache;
+    }
+
+    public void setOpenTicketCache(OpenTicketCache openTicketCache) {
+        this.openTicketCache = openTicketCache;
+    }
+
+    @Override
+    public ReturningCustomerRegistry getReturningCustomerRegistry() {
+        return returningCustomerRegistry;
+    }
+
+    public void setReturningCustomerRegistry(ReturningCustomerRegistry returningCustomerRegistry) {
+        this.returningCustomerRegistry = returningCustomerRegistry;
+    }
+
+    @Override
+    public RevenueRollups getRevenueRollups() {
+        return revenueRollups;
+    }
+
+    public void setRevenueRollups(RevenueRollups revenueRollups) {
+        this.revenueRollups = revenueRollups;
+    }
+
+    @Override
     public boolean saveTicket(Ticket ticket){
-        Connection con = null;
-        try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET);
-            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME
-            //ps.setInt(1,ticket.getId());
-            ps.setInt(1,ticket.getParkingSpot().getId());
-            ps.setString(2, ticket.getVehicleRegNumber());
-            ps.setDouble(3, ticket.getPrice());
-            ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
-            ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
-            return ps.execute();
+        if (batchWriter != null) {
+            return awaitBatchWrite(batchWriter.save(ticket));
+        }
+        try (UnitOfWork unitOfWork = new UnitOfWork(dataBaseConfig)) {
+            boolean saved = saveTicket(unitOfWork, ticket);
+            unitOfWork.commit();
+            return saved;
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            logger.error("Error saving ticket",ex);
         }
         return false;
     }
 
+    @Override
+    public boolean saveTicket(UnitOfWork unitOfWork, Ticket ticket) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int updateRowCount = JdbcTemplate.insert(unitOfWork.getConnection(), DBConstants.SAVE_TICKET,
+                    ps -> setSaveParameters(ps, ticket), ticket::setId);
+            if (updateRowCount == 1) {
+                onCommit(unitOfWork, ticket);
+            }
+            return updateRowCount == 1;
+        } finally {
+            saveTicketTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Inserts all tickets with a single JDBC batch and sets their generated IDs.
+     * @return the update count of each insert, in the order of the list
+     */
+    @Override
+    public int[] saveTickets(UnitOfWork unitOfWork, List<Ticket> tickets) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int[] updateCounts = JdbcTemplate.batchInsert(unitOfWork.getConnection(), DBConstants.SAVE_TICKET, tickets,
+                    TicketDAO::setSaveParameters, Ticket::setId);
+            onCommit(unitOfWork, tickets, updateCounts);
+            return updateCounts;
+        } finally {
+            saveTicketsTimer.recordSince(start);
+        }
+    }
+
+    private void onCommit(UnitOfWork unitOfWork, List<Ticket> tickets, int[] updateCounts) {
+        for (int i = 0; i < tickets.size() && i < updateCounts.length; i++) {
+            if (updateCounts[i] == 1 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                onCommit(unitOfWork, tickets.get(i));
+            }
+        }
+    }
+
+    // the in-memory structures only see a ticket write once it is committed
+    private void onCommit(UnitOfWork unitOfWork, Ticket ticket) {
+        if (openTicketCache != null) {
+            unitOfWork.onCommit(() -> openTicketCache.put(ticket));
+        }
+        if (returningCustomerRegistry != null && ticket.getOutTime() != null) {
+            unitOfWork.onCommit(() -> returningCustomerRegistry.confirm(ticket.getVehicleRegNumber()));
+        }
+        if (revenueRollups != null && ticket.getOutTime() != null) {
+            unitOfWork.onCommit(() -> revenueRollups.record(ticket));
+        }
+    }
+
+    private static void setSaveParameters(PreparedStatement ps, Ticket ticket) throws SQLException {
+        //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME
+        //ps.setInt(1,ticket.getId());
+        ps.setInt(1,ticket.getParkingSpot().getId());
+        ps.setString(2, ticket.getVehicleRegNumber());
+        ps.setDouble(3, ticket.getPrice());
+        ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
+        ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
+    }
+
+    /**
+     * Always reads the primary: the exit must see the ticket its own entry just wrote.
+     */
+    @Override
     public Ticket getTicket(String vehicleRegNumber) {
-        Connection con = null;
-        Ticket ticket = null;
+        long start = System.nanoTime();
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET);
-            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME
-            ps.setString(1,vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                ticket = new Ticket();
-                ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setId(rs.getInt(2));
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(rs.getDouble(3));
-                ticket.setInTime(rs.getTimestamp(4));
-                ticket.setOutTime(rs.getTimestamp(5));
-            }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
-        }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            if (openTicketCache != null) {
+                Ticket ticket = openTicketCache.get(vehicleRegNumber);
+                if (ticket != null) {
+                    return ticket;
+                }
+            }
+            Connection con = null;
+            Ticket ticket = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                ticket = getTicket(con, vehicleRegNumber);
+            }catch (Exception ex){
+                logger.error("Error fetching ticket",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return ticket;
+        } finally {
+            getTicketTimer.recordSince(start);
         }
+    }
+
+    @Override
+    public Ticket getTicket(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (openTicketCache != null) {
+                Ticket ticket = openTicketCache.get(vehicleRegNumber);
+                if (ticket != null) {
+                    return ticket;
+                }
+            }
+            return getTicket(unitOfWork.getConnection(), vehicleRegNumber);
+        } finally {
+            getTicketTimer.recordSince(start);
+        }
+    }
+
+    private Ticket getTicket(Connection con, String vehicleRegNumber) throws SQLException {
+        return JdbcTemplate.queryForObject(con, DBConstants.GET_TICKET, ps -> ps.setString(1, vehicleRegNumber), rs -> {
+            Ticket ticket = mapTicket(rs);
+            ticket.setVehicleRegNumber(vehicleRegNumber);
+            return ticket;
+        });
+    }
+
+    // PARKING_NUMBER, ID, PRICE, IN_TIME, OUT_TIME, TYPE, then VEHICLE_REG_NUMBER when the query selects it
+    private Ticket mapTicket(ResultSet rs) throws SQLException {
+        Ticket ticket = new Ticket();
+        ticket.setLotId(lotId);
+        ticket.setParkingSpot(new ParkingSpot(lotId, rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false));
+        ticket.setId(rs.getInt(2));
+        ticket.setPrice(rs.getDouble(3));
+        ticket.setInTime(rs.getTimestamp(4));
+        ticket.setOutTime(rs.getTimestamp(5));
         return ticket;
     }
 
+    private Ticket mapTicketWithRegNumber(ResultSet rs) throws SQLException {
+        Ticket ticket = mapTicket(rs);
+        ticket.setVehicleRegNumber(rs.getString(7));
+        return ticket;
+    }
+
+    @Override
     public boolean updateTicket(Ticket ticket) {
-        Connection con = null;
-        try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
-            ps.setDouble(1, ticket.getPrice());
-            ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
-            ps.setInt(3,ticket.getId());
-            ps.execute();
-            return true;
+        if (batchWriter != null) {
+            return awaitBatchWrite(batchWriter.update(ticket, null));
+        }
+        try (UnitOfWork unitOfWork = new UnitOfWork(dataBaseConfig)) {
+            boolean updated = updateTicket(unitOfWork, ticket);
+            unitOfWork.commit();
+            return updated;
         }catch (Exception ex){
             logger.error("Error saving ticket info",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
         }
         return false;
     }
 
-    public boolean getNbTickets(String vehicleRegNumber) {
-        Connection con = null;
-        boolean beDiscount =  false;
+    /**
+     * Closes the ticket with its price and out time.
+     * @return false when the ticket is already closed, by a concurrent exit of the same vehicle for instance
+     */
+    @Override
+    public boolean updateTicket(UnitOfWork unitOfWork, Ticket ticket) throws SQLException {
+        long start = System.nanoTime();
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NB_TICKET);
-            ps.setString(1,vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next())  {
-                beDiscount = rs.getInt(1) > 0;
+            int updateRowCount = JdbcTemplate.update(unitOfWork.getConnection(), DBConstants.UPDATE_TICKET, ps -> setUpdateParameters(ps, ticket));
+            if (updateRowCount == 1) {
+                onCommit(unitOfWork, ticket);
+            }
+            return updateRowCount == 1;
+        } finally {
+            updateTicketTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Updates all tickets with a single JDBC batch.
+     * @return the update count of each update, in the order of the list
+     */
+    @Override
+    public int[] updateTickets(UnitOfWork unitOfWork, List<Ticket> tickets) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int[] updateCounts = JdbcTemplate.batchUpdate(unitOfWork.getConnection(), DBConstants.UPDATE_TICKET, tickets, TicketDAO::setUpdateParameters);
+            onCommit(unitOfWork, tickets, updateCounts);
+            return updateCounts;
+        } finally {
+            updateTicketsTimer.recordSince(start);
+        }
+    }
+
+    private static void setUpdateParameters(PreparedStatement ps, Ticket ticket) throws SQLException {
+        ps.setDouble(1, ticket.getPrice());
+        ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
+        ps.setInt(3,ticket.getId());
+    }
+
+    private static boolean awaitBatchWrite(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Error writing ticket", e.getCause());
+        }
+        return false;
+    }
+
+    @Override
+    public List<Ticket> getOpenTickets() {
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            List<Ticket> tickets = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                tickets = JdbcTemplate.query(con, DBConstants.GET_OPEN_TICKETS, JdbcTemplate.NO_PARAMETERS, this::mapTicketWithRegNumber);
+            } catch (Exception ex){
+                logger.error("Error fetching open tickets",ex);
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return tickets;
+        } finally {
+            getOpenTicketsTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Streams the tickets closed in [from, to) through a forward-only cursor, so memory does not grow with the row count.
+     * Reads from a replica when one is configured. The connection stays borrowed for the whole read.
+     * Failures propagate: a partial read is not a result.
+     * @return the number of tickets read
+     */
+    @Override
+    public long forEachClosedTicket(Date from, Date to, ClosedTicketHandler handler) throws Exception {
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getReadConnection();
+                return JdbcTemplate.stream(con, DBConstants.GET_CLOSED_TICKETS, dataBaseConfig.getStreamingFetchSize(), ps -> {
+                    ps.setTimestamp(1, new Timestamp(from.getTime()));
+                    ps.setTimestamp(2, new Timestamp(to.getTime()));
+                }, rs -> handler.handle(mapTicketWithRegNumber(rs), rs.getBoolean(8)));
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            forEachClosedTicketTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Streams the closed tickets to export in ID order, archived ones included, through forward-only cursors: first those
+     * of heldBackIds closed since, then those above afterId up to the last ticket ID when the read starts. The IDs of the
+     * tickets still open in that range are added to openIds before any ticket is handled, so the caller can hold them back
+     * for a later run instead of stopping at the oldest one: a ticket never closed does not block the export.
+     * Reads from a replica when one is configured, on a single connection. The tickets have no parking type, it is not read.
+     * @return the last ticket ID when the read started, the next afterId once every ticket read was handled
+     */
+    @Override
+    public int forEachTicketToExport(int afterId, SortedSet<Integer> heldBackIds, Collection<Integer> openIds,
+                                     TicketHandler handler) throws Exception {
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getReadConnection();
+                // read first: a ticket inserted after it is left to the next run, whether it is open or closed by then
+                Integer lastId = JdbcTemplate.queryForObject(con, DBConstants.GET_LAST_TICKET_ID, JdbcTemplate.NO_PARAMETERS,
+                        rs -> rs.getInt(1));
+                int upperId = (lastId == null) ? afterId : Math.max(afterId, lastId);
+                openIds.addAll(JdbcTemplate.query(con, DBConstants.GET_OPEN_TICKET_IDS, ps -> {
+                    ps.setInt(1, afterId);
+                    ps.setInt(2, upperId);
+                }, rs -> rs.getInt(1)));
+                List<Integer> ids = new ArrayList<>(heldBackIds);
+                for (int from = 0; from < ids.size(); from += HELD_BACK_IDS_PER_QUERY) {
+                    List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + HELD_BACK_IDS_PER_QUERY));
+                    String sql = String.format(DBConstants.GET_HELD_BACK_TICKETS_TO_EXPORT, String.join(",", Collections.nCopies(chunk.size(), "?")));
+                    JdbcTemplate.stream(con, sql, dataBaseConfig.getStreamingFetchSize(), ps -> {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            ps.setInt(i + 1, chunk.get(i));
+                            ps.setInt(chunk.size() + i + 1, chunk.get(i));
+                        }
+                    }, rs -> handler.handle(exportedTicket(rs)));
+                }
+                JdbcTemplate.stream(con, DBConstants.GET_TICKETS_TO_EXPORT, dataBaseConfig.getStreamingFetchSize(), ps -> {
+                    ps.setInt(1, afterId);
+                    ps.setInt(2, upperId);
+                    ps.setInt(3, afterId);
+                    ps.setInt(4, upperId);
+                }, rs -> handler.handle(exportedTicket(rs)));
+                return upperId;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            forEachTicketToExportTimer.recordSince(start);
+        }
+    }
+
+    private Ticket exportedTicket(ResultSet rs) throws SQLException {
+        Ticket ticket = new Ticket();
+        ticket.setLotId(lotId);
+        ticket.setId(rs.getInt(1));
+        ticket.setParkingSpot(new ParkingSpot(lotId, rs.getInt(2), null, true));
+        ticket.setVehicleRegNumber(rs.getString(3));
+        ticket.setPrice(rs.getDouble(4));
+        ticket.setInTime(rs.getTimestamp(5));
+        ticket.setOutTime(rs.getTimestamp(6));
+        return ticket;
+    }
+
+    /**
+     * Totals of the stays closed since from, per type and hour of exit, to load the revenue rollups.
+     * Reads the primary: a stay closed after the read is counted by updateTicket instead.
+     * @return null if the rollups could not be read
+     */
+    @Override
+    public List<Rollup> getRollups(Date from) {
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            List<Rollup> rollups = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                rollups = JdbcTemplate.query(con, DBConstants.GET_ROLLUPS, ps -> ps.setTimestamp(1, new Timestamp(from.getTime())),
+                        rs -> new Rollup(ParkingType.valueOf(rs.getString(1)), new Date(rs.getLong(2) * 60 * 60 * 1000),
+                                rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getLong(6)));
+            } catch (Exception ex){
+                logger.error("Error fetching revenue rollups",ex);
+            } finally {
+                dataBaseConfig.closeConnection(con);
             }
+            return rollups;
+        } finally {
+            getRollupsTimer.recordSince(start);
+        }
+    }
 
+    /**
+     * Moves up to limit tickets closed before the given time to ticket_archive, oldest first, in one transaction.
+     * The gates never read archived tickets; the returning-customer check and the export still do.
+     * @return the number of tickets archived, or -1 if the batch failed and was rolled back
+     */
+    @Override
+    public int archiveTickets(Date closedBefore, int limit) {
+        long start = System.nanoTime();
+        try (UnitOfWork unitOfWork = new UnitOfWork(dataBaseConfig)) {
+            Connection con = unitOfWork.getConnection();
+            List<Integer> ids = JdbcTemplate.query(con, DBConstants.GET_TICKETS_TO_ARCHIVE, ps -> {
+                ps.setTimestamp(1, new Timestamp(closedBefore.getTime()));
+                ps.setInt(2, limit);
+            }, rs -> rs.getInt(1));
+            if (!ids.isEmpty()) {
+                JdbcTemplate.batchUpdate(con, DBConstants.ARCHIVE_TICKET, ids, (ps, id) -> ps.setInt(1, id));
+                JdbcTemplate.batchUpdate(con, DBConstants.DELETE_TICKET, ids, (ps, id) -> ps.setInt(1, id));
+            }
+            unitOfWork.commit();
+            return ids.size();
         } catch (Exception ex){
-            logger.error("Error fetching of recuperation number's ticket",ex);
+            logger.error("Error archiving tickets",ex);
+            return -1;
+        } finally {
+            archiveTicketsTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Adds every customer with a completed stay to the registry, streaming the distinct registration numbers.
+     * Reads the primary: a stay missing from the registry would wrongly deny the discount.
+     * The caller marks the registry loaded once every lot has been added.
+     * @return the number of customers loaded, or -1 if the registry could not be loaded
+     */
+    @Override
+    public int loadReturningCustomers(ReturningCustomerRegistry registry) {
+        long start = System.nanoTime();
+        try {
+            Connection con = null;
+            int customers = -1;
+            try {
+                con = dataBaseConfig.getConnection();
+                customers = (int) JdbcTemplate.stream(con, DBConstants.GET_RETURNING_CUSTOMERS, dataBaseConfig.getStreamingFetchSize(),
+                        JdbcTemplate.NO_PARAMETERS, rs -> registry.add(rs.getString(1)));
+            } catch (Exception ex){
+                logger.error("Error loading returning customers",ex);
+                customers = -1;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return customers;
+        } finally {
+            loadReturningCustomersTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads from a replica when one is configured.
+     * @return true when the vehicle has at least one completed stay, which entitles it to the discount
+     */
+    @Override
+    public boolean getNbTickets(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        try {
+            Boolean known = lookupReturningCustomer(vehicleRegNumber);
+            if (known != null) {
+                return known;
+            }
+            Connection con = null;
+            boolean beDiscount =  false;
+            try {
+                con = dataBaseConfig.getReadConnection();
+                beDiscount = getNbTickets(con, vehicleRegNumber);
+            } catch (Exception ex){
+                logger.error("Error fetching of recuperation number's ticket",ex);
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return beDiscount;
+        } finally {
+            getNbTicketsTimer.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean getNbTickets(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Boolean known = lookupReturningCustomer(vehicleRegNumber);
+            if (known != null) {
+                return known;
+            }
+            // a replica within the staleness tolerance is good enough; with the registry enabled, stays closed by this
+            // instance are confirmed in memory on commit and never depend on the replica catching up.
+            // Without one, the unit of work's own connection answers: borrowing a second primary connection
+            // while holding one can exhaust the pool under load
+            Connection replica = null;
+            try {
+                replica = dataBaseConfig.getReplicaConnection();
+                return getNbTickets(replica != null ? replica : unitOfWork.getConnection(), vehicleRegNumber);
+            } catch (ClassNotFoundException e) {
+                throw new SQLException(e);
+            } finally {
+                dataBaseConfig.closeConnection(replica);
+            }
+        } finally {
+            getNbTicketsTimer.recordSince(start);
+        }
+    }
+
+    /**
+     * Asks the primary whether the vehicle closed a stay in this lot, without the registry: the registry also holds
+     * the stays closed by journaled exits not yet in the database, so it cannot tell which stays came before an exit.
+     */
+    @Override
+    public boolean hasClosedStay(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException {
+        return getNbTickets(unitOfWork.getConnection(), vehicleRegNumber);
+    }
+
+    @Override
+    public boolean hasClosedStay(String vehicleRegNumber) throws SQLException {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            return getNbTickets(con, vehicleRegNumber);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException(e);
         } finally {
             dataBaseConfig.closeConnection(con);
         }
+    }
+
+    // null when only the database can tell
+    private Boolean lookupReturningCustomer(String vehicleRegNumber) {
+        return (returningCustomerRegistry == null) ? null : returningCustomerRegistry.lookup(vehicleRegNumber);
+    }
+
+    private boolean getNbTickets(Connection con, String vehicleRegNumber) throws SQLException {
+        boolean beDiscount = JdbcTemplate.exists(con, DBConstants.IS_RETURNING_CUSTOMER, ps -> {
+            ps.setString(1, vehicleRegNumber);
+            ps.setString(2, vehicleRegNumber);
+        });
+        if (beDiscount && returningCustomerRegistry != null) {
+            returningCustomerRegistry.confirm(vehicleRegNumber);
+        }
         return beDiscount;
     }
 }
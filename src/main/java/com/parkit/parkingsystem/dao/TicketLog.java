@@ -0,0 +1,384 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only file of ticket writes for the in-memory storage engine: one line per committed save or update,
+ * holding the whole ticket as written, so the last line of a ticket ID is its current state.
+ * <pre>
+ * ID  PARKING_NUMBER  TYPE  VEHICLE_REG_NUMBER  PRICE  IN_TIME  OUT_TIME     tab separated, times in epoch millis, - when open
+ * </pre>
+ * A line cut short by a crash is skipped on replay.
+ * <p>
+ * Compaction keeps the file read on start short: the file is rotated into an immutable history segment, named
+ * &lt;file&gt;.&lt;sequence&gt;_&lt;highest ticket ID&gt;_&lt;latest OUT_TIME&gt;, and replaced by a snapshot of its state: the
+ * latest ticket of each vehicle and whether the vehicle completed a stay, as S lines ahead of the writes that follow.
+ * <pre>
+ * S  ID  PARKING_NUMBER  TYPE  VEHICLE_REG_NUMBER  PRICE  IN_TIME  OUT_TIME  RETURNING     RETURNING 1 or 0
+ * </pre>
+ * The closed history is the segments followed by the file, without their S lines; a reader that only needs the recent
+ * tickets starts at the first segment that can hold them, with the S lines of that segment for the state before it.
+ */
+public class TicketLog implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("TicketLog");
+
+    private static final int FIELDS = 7;
+    private static final String SNAPSHOT = "S";
+    private static final long NO_OUT_TIME = -1;
+
+    /**
+     * Receives the tickets read back from the log, in the order they were written.
+     */
+    public interface RecordHandler {
+        void handle(Ticket ticket) throws Exception;
+    }
+
+    /**
+     * Receives the S lines a file starts with: the latest ticket of a vehicle and whether it completed a stay before.
+     */
+    public interface SnapshotHandler {
+        void handle(Ticket ticket, boolean returningCustomer) throws Exception;
+    }
+
+    private final Path path;
+    private final int lotId;
+    private final boolean fsync;
+    private final Pattern segmentName;
+    // oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    private FileChannel channel;
+
+    /**
+     * @param fsync force every append to disk before returning; without it a crash of the machine (not of the JVM)
+     *              can lose the last writes
+     */
+    public TicketLog(Path path, int lotId, boolean fsync) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.lotId = lotId;
+        this.fsync = fsync;
+        this.segmentName = Pattern.compile(Pattern.quote(this.path.getFileName() + ".") + "(\\d+)_(-?\\d+)_(-?\\d+)");
+        Files.createDirectories(this.path.getParent());
+        recoverCompaction();
+        loadSegments();
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        terminateLastLine();
+    }
+
+    // a crash during compact() leaves the snapshot next to the file, or in place of the file already rotated
+    private void recoverCompaction() throws IOException {
+        Path snapshot = snapshotPath();
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        if (Files.exists(path)) {
+            Files.delete(snapshot);
+        } else {
+            Files.move(snapshot, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path.getParent())) {
+            for (Path file : files) {
+                Matcher name = segmentName.matcher(file.getFileName().toString());
+                if (name.matches()) {
+                    segments.add(new Segment(file, Integer.parseInt(name.group(1)), Integer.parseInt(name.group(2)),
+                            Long.parseLong(name.group(3))));
+                }
+            }
+        }
+        segments.sort((a, b) -> Integer.compare(a.sequence, b.sequence));
+    }
+    // a line cut short by a crash must not swallow the next one
+    private void terminateLastLine() throws IOException {
+        long size = channel.size();
+        channel.position(size);
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        if (last.get(0) != '\n') {
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+
+    public void append(Ticket ticket) throws IOException {
+        append(Collections.singletonList(ticket));
+    }
+
+    /**
+     * Appends the tickets with a single write; if it fails, the log is cut back so none of them is in it.
+     */
+    public synchronized void append(List<Ticket> tickets) throws IOException {
+        StringBuilder lines = new StringBuilder(64 * tickets.size());
+        for (Ticket ticket : tickets) {
+            format(lines, ticket).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        long start = channel.position();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the file from the start, one ticket at a time, without holding it in memory: the state it was compacted to,
+     * then the writes since. The history segments are not read.
+     * @return the number of writes read, S lines not included
+     */
+    public long replay(SnapshotHandler snapshotHandler, RecordHandler handler) throws Exception {
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(reader, path, snapshotHandler, handler);
+        }
+    }
+
+    /**
+     * Reads the closed history from the first segment holding a ticket closed at or after from; snapshotHandler gets
+     * the state before that segment.
+     * @return the number of writes read
+     */
+    public long replayClosedSince(Date from, SnapshotHandler snapshotHandler, RecordHandler handler) throws Exception {
+        int first;
+        synchronized (this) {
+            first = 0;
+            while (first < segments.size() && segments.get(first).latestOutTime < from.getTime()) {
+                first++;
+            }
+        }
+        return replayHistory(first, snapshotHandler, handler);
+    }
+
+    /**
+     * Reads the history from the first segment holding a ticket with an ID of at least fromId: every write of such a
+     * ticket is read, its save included.
+     * @return the number of writes read
+     */
+    public long replayFrom(int fromId, RecordHandler handler) throws Exception {
+        int first;
+        synchronized (this) {
+            first = 0;
+            while (first < segments.size() && segments.get(first).highestId < fromId) {
+                first++;
+            }
+        }
+        return replayHistory(first, null, handler);
+    }
+
+    /**
+     * @return the highest ticket ID of the history segments, 0 without any: IDs go on from there after a compaction
+     */
+    public synchronized int getLastSegmentId() {
+        int lastId = 0;
+        for (Segment segment : segments) {
+            lastId = Math.max(lastId, segment.highestId);
+        }
+        return lastId;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private long replayHistory(int first, SnapshotHandler snapshotHandler, RecordHandler handler) throws Exception {
+        List<Segment> history;
+        FileChannel current;
+        synchronized (this) {
+            history = new ArrayList<>(segments.subList(Math.min(first, segments.size()), segments.size()));
+            // opened with the list: a compaction cannot rotate the writes of this file into a segment left unread
+            current = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        long records = 0;
+        try (FileChannel currentReader = current) {
+            for (Segment segment : history) {
+                try (FileChannel reader = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                    records += read(reader, segment.path, snapshotHandler, handler);
+                }
+                snapshotHandler = null;
+            }
+            records += read(currentReader, path, snapshotHandler, handler);
+        }
+        return records;
+    }
+
+    // S lines go to snapshotHandler, skipped when it is null
+    private long read(FileChannel reader, Path file, SnapshotHandler snapshotHandler, RecordHandler handler) throws Exception {
+        long records = 0;
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(Channels.newInputStream(reader), StandardCharsets.UTF_8))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                boolean snapshot = line.startsWith(SNAPSHOT + "\t");
+                if (snapshot && snapshotHandler == null) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                Ticket ticket = snapshot ? parse(fields, 1, FIELDS + 2) : parse(fields, 0, FIELDS);
+                if (ticket == null) {
+                    logger.warn("Skipping unreadable line " + lineNumber + " of " + file);
+                    continue;
+                }
+                if (snapshot) {
+                    snapshotHandler.handle(ticket, fields[FIELDS + 1].equals("1"));
+                } else {
+                    handler.handle(ticket);
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Rotates the file into a history segment and replaces it with a snapshot of its state, so a restart reads one line
+     * per vehicle instead of every write since the previous compaction. Appends wait until it is done.
+     * @return the number of writes moved to the history, 0 when there was nothing to compact
+     */
+    public synchronized long compact() throws Exception {
+        long start = System.nanoTime();
+        TicketTable state = new TicketTable(lotId);
+        int[] highestId = {0};
+        long[] latestOutTime = {NO_OUT_TIME};
+        long records;
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            records = read(reader, path, state::put, ticket -> {
+                state.put(ticket, false);
+                highestId[0] = Math.max(highestId[0], ticket.getId());
+                if (ticket.getOutTime() != null) {
+                    latestOutTime[0] = Math.max(latestOutTime[0], ticket.getOutTime().getTime());
+                }
+            });
+        }
+        if (records == 0) {
+            return 0;
+        }
+        Path snapshot = snapshotPath();
+        try (FileChannel snapshotChannel = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(snapshotChannel), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder(80);
+            state.forEach((ticket, returningCustomer) -> {
+                line.setLength(0);
+                format(line.append(SNAPSHOT).append('\t'), ticket).append('\t').append(returningCustomer ? 1 : 0).append('\n');
+                writer.append(line);
+            });
+            writer.flush();
+            snapshotChannel.force(true);
+        }
+        int sequence = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).sequence + 1;
+        Segment segment = new Segment(path.resolveSibling(path.getFileName() + "." + sequence + "_" + highestId[0] + "_" + latestOutTime[0]),
+                sequence, highestId[0], latestOutTime[0]);
+        channel.close();
+        try {
+            Files.move(path, segment.path, StandardCopyOption.ATOMIC_MOVE);
+            try {
+                Files.move(snapshot, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(segment.path, path, StandardCopyOption.ATOMIC_MOVE);
+                throw e;
+            }
+        } finally {
+            // not created if missing: appends must fail rather than start a log without the state
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        segments.add(segment);
+        logger.info("Ticket log of lot " + lotId + " compacted: " + records + " records moved to " + segment.path.getFileName() + ", "
+                + state.size() + " vehicles kept in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        return records;
+    }
+
+    private static StringBuilder format(StringBuilder line, Ticket ticket) {
+        return line.append(ticket.getId()).append('\t')
+                .append(ticket.getParkingSpot().getId()).append('\t')
+                .append(ticket.getParkingSpot().getParkingType()).append('\t')
+                .append(ticket.getVehicleRegNumber()).append('\t')
+                .append(ticket.getPrice()).append('\t')
+                .append(ticket.getInTime().getTime()).append('\t')
+                .append(ticket.getOutTime() == null ? "-" : Long.toString(ticket.getOutTime().getTime()));
+    }
+
+    // null when the line is incomplete
+    private Ticket parse(String[] fields, int offset, int length) {
+        if (fields.length != length) {
+            return null;
+        }
+        try {
+            Ticket ticket = new Ticket();
+            ticket.setLotId(lotId);
+            ticket.setId(Integer.parseInt(fields[offset]));
+            ticket.setParkingSpot(new ParkingSpot(lotId, Integer.parseInt(fields[offset + 1]), ParkingType.valueOf(fields[offset + 2]), false));
+            ticket.setVehicleRegNumber(fields[offset + 3]);
+            ticket.setPrice(Double.parseDouble(fields[offset + 4]));
+            ticket.setInTime(new Date(Long.parseLong(fields[offset + 5])));
+            ticket.setOutTime(fields[offset + 6].equals("-") ? null : new Date(Long.parseLong(fields[offset + 6])));
+            return ticket;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Path snapshotPath() {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final int sequence;
+        private final int highestId;
+        private final long latestOutTime;
+
+        private Segment(Path path, int sequence, int highestId, long latestOutTime) {
+            this.path = path;
+            this.sequence = sequence;
+            this.highestId = highestId;
+            this.latestOutTime = latestOutTime;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Ticket storage of one lot: TicketDAO on the lot's database, InMemoryTicketDAO on the in-memory storage engine.
+ * A write made in a unit of work is only seen by the other units of work once it commits.
+ * The standalone methods run in a unit of work of their own; those that only read answer null, false or -1 on error.
+ */
+public interface TicketRepository {
+
+    /**
+     * Receives the closed tickets read by forEachClosedTicket, one row at a time.
+     */
+    interface ClosedTicketHandler {
+        void handle(Ticket ticket, boolean returningCustomer) throws Exception;
+    }
+
+    /**
+     * Receives the tickets read by forEachTicketToExport, one row at a time.
+     */
+    interface TicketHandler {
+        void handle(Ticket ticket) throws Exception;
+    }
+
+    /**
+     * @return the lot whose tickets this repository holds, stamped on the tickets read
+     */
+    int getLotId();
+
+    boolean saveTicket(Ticket ticket);
+
+    /**
+     * Saves a new ticket and sets its generated ID.
+     */
+    boolean saveTicket(UnitOfWork unitOfWork, Ticket ticket) throws SQLException;
+
+    /**
+     * @return the update count of each insert, in the order of the list
+     */
+    int[] saveTickets(UnitOfWork unitOfWork, List<Ticket> tickets) throws SQLException;
+
+    /**
+     * @return the latest ticket of the vehicle, open or closed, or null when it never parked in this lot
+     */
+    Ticket getTicket(String vehicleRegNumber);
+
+    Ticket getTicket(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException;
+
+    boolean updateTicket(Ticket ticket);
+
+    /**
+     * Closes the ticket with its price and out time.
+     * @return false when the ticket is already closed, by a concurrent exit of the same vehicle for instance
+     */
+    boolean updateTicket(UnitOfWork unitOfWork, Ticket ticket) throws SQLException;
+
+    /**
+     * @return the update count of each update, in the order of the list
+     */
+    int[] updateTickets(UnitOfWork unitOfWork, List<Ticket> tickets) throws SQLException;
+
+    /**
+     * @return the tickets not closed yet, with their registration number, or null on error
+     */
+    List<Ticket> getOpenTickets();
+
+    /**
+     * Streams the tickets closed in [from, to), without holding them in memory.
+     * Failures propagate: a partial read is not a result.
+     * @return the number of tickets read
+     */
+    long forEachClosedTicket(Date from, Date to, ClosedTicketHandler handler) throws Exception;
+
+    /**
+     * Streams the closed tickets to export in ID order: first those of heldBackIds closed since, then those above
+     * afterId. The IDs of the tickets still open in that range are added to openIds before any ticket is handled.
+     * @return the last ticket ID when the read started, the next afterId once every ticket read was handled
+     */
+    int forEachTicketToExport(int afterId, SortedSet<Integer> heldBackIds, Collection<Integer> openIds,
+                              TicketHandler handler) throws Exception;
+
+    /**
+     * Totals of the stays closed since from, per type and hour of exit, to load the revenue rollups.
+     * @return null if the rollups could not be read
+     */
+    List<Rollup> getRollups(Date from);
+
+    /**
+     * Moves up to limit tickets closed before the given time out of the tickets the gates read.
+     * @return the number of tickets archived, or -1 if the batch failed
+     */
+    int archiveTickets(Date closedBefore, int limit);
+
+    /**
+     * Adds every customer with a completed stay to the registry; the caller marks it loaded once every lot is added.
+     * @return the number of customers loaded, or -1 if the registry could not be loaded
+     */
+    int loadReturningCustomers(ReturningCustomerRegistry registry);
+
+    /**
+     * @return true when the vehicle has at least one completed stay, which entitles it to the discount
+     */
+    boolean getNbTickets(String vehicleRegNumber);
+
+    boolean getNbTickets(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException;
+
+    /**
+     * Whether the vehicle closed a stay in this lot, from the storage alone, without the returning-customer registry.
+     */
+    boolean hasClosedStay(UnitOfWork unitOfWork, String vehicleRegNumber) throws SQLException;
+
+    boolean hasClosedStay(String vehicleRegNumber) throws SQLException;
+
+    /**
+     * @return the group-commit writer, null when ticket writes go straight to the storage
+     */
+    TicketBatchWriter getBatchWriter();
+
+    /**
+     * @return the journal the gates write to, null when gate events are written synchronously
+     */
+    GateJournal getGateJournal();
+
+    /**
+     * @return the write-through cache of open tickets, null when every lookup goes to the storage
+     */
+    OpenTicketCache getOpenTicketCache();
+
+    /**
+     * @return the in-memory membership of customers with a completed stay, null when the discount check always queries
+     */
+    ReturningCustomerRegistry getReturningCustomerRegistry();
+
+    /**
+     * @return the per-hour and per-day totals of the closed stays, null when revenue figures are not kept
+     */
+    RevenueRollups getRevenueRollups();
+}
@@ -0,0 +1,176 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Latest ticket of each vehicle, by IN_TIME like GET_TICKET, and whether the vehicle completed a stay, for the in-memory
+ * storage engine. Vehicles are found through an open addressing table on the registration number; their ticket is held
+ * in parallel primitive arrays rather than as a Ticket, a ParkingSpot and two Dates each, and the returning customers
+ * in a bitset. Vehicles are never removed. Not thread safe: the caller locks around it.
+ */
+final class TicketTable {
+
+    private static final long OPEN = Long.MIN_VALUE;
+    private static final ParkingType[] TYPES = ParkingType.values();
+
+    interface ReturningCustomerHandler {
+        void handle(String vehicleRegNumber);
+    }
+
+    private final int lotId;
+    // slots of the hash table, -1 when empty, else the index of the vehicle in the arrays below
+    private int[] slots = new int[16];
+    private String[] vehicleRegNumbers = new String[8];
+    private int[] ids = new int[8];
+    private int[] spotNumbers = new int[8];
+    private byte[] types = new byte[8];
+    private double[] prices = new double[8];
+    private long[] inTimes = new long[8];
+    private long[] outTimes = new long[8];
+    private final BitSet returning = new BitSet();
+    private int size;
+
+    TicketTable(int lotId) {
+        this.lotId = lotId;
+        Arrays.fill(slots, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Keeps the ticket unless the vehicle already has a later stay; a closed ticket, or returningCustomer, flags the vehicle.
+     */
+    void put(Ticket ticket, boolean returningCustomer) {
+        String vehicleRegNumber = ticket.getVehicleRegNumber();
+        int slot = slotOf(vehicleRegNumber);
+        int index = slots[slot];
+        if (index < 0) {
+            index = add(slot, vehicleRegNumber);
+            write(index, ticket);
+        } else if (ids[index] == ticket.getId() || ticket.getInTime().getTime() >= inTimes[index]) {
+            write(index, ticket);
+        }
+        if (returningCustomer || ticket.getOutTime() != null) {
+            returning.set(index);
+        }
+    }
+
+    /**
+     * @return a new Ticket holding the latest stay of the vehicle, null when it never parked
+     */
+    Ticket get(String vehicleRegNumber) {
+        int index = slots[slotOf(vehicleRegNumber)];
+        return (index < 0) ? null : read(index);
+    }
+
+    boolean isReturning(String vehicleRegNumber) {
+        int index = slots[slotOf(vehicleRegNumber)];
+        return index >= 0 && returning.get(index);
+    }
+
+    List<Ticket> getOpenTickets() {
+        List<Ticket> openTickets = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            if (outTimes[index] == OPEN) {
+                openTickets.add(read(index));
+            }
+        }
+        return openTickets;
+    }
+
+    /**
+     * @return the number of vehicles with a completed stay, handed to the handler
+     */
+    int forEachReturning(ReturningCustomerHandler handler) {
+        int count = 0;
+        for (int index = returning.nextSetBit(0); index >= 0; index = returning.nextSetBit(index + 1)) {
+            handler.handle(vehicleRegNumbers[index]);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Hands each vehicle's latest ticket with its returning-customer flag, as written to a snapshot.
+     */
+    void forEach(TicketLog.SnapshotHandler handler) throws Exception {
+        for (int index = 0; index < size; index++) {
+            handler.handle(read(index), returning.get(index));
+        }
+    }
+
+    private int slotOf(String vehicleRegNumber) {
+        int mask = slots.length - 1;
+        int slot = mix(vehicleRegNumber.hashCode()) & mask;
+        while (slots[slot] >= 0 && !vehicleRegNumbers[slots[slot]].equals(vehicleRegNumber)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int add(int slot, String vehicleRegNumber) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            vehicleRegNumbers = Arrays.copyOf(vehicleRegNumbers, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            spotNumbers = Arrays.copyOf(spotNumbers, capacity);
+            types = Arrays.copyOf(types, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            inTimes = Arrays.copyOf(inTimes, capacity);
+            outTimes = Arrays.copyOf(outTimes, capacity);
+        }
+        int index = size++;
+        vehicleRegNumbers[index] = vehicleRegNumber;
+        slots[slot] = index;
+        // at most half full, so probes stay short
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        for (int index = 0; index < size; index++) {
+            slots[slotOf(vehicleRegNumbers[index])] = index;
+        }
+    }
+
+    private void write(int index, Ticket ticket) {
+        ids[index] = ticket.getId();
+        spotNumbers[index] = ticket.getParkingSpot().getId();
+        types[index] = (byte) ticket.getParkingSpot().getParkingType().ordinal();
+        prices[index] = ticket.getPrice();
+        inTimes[index] = ticket.getInTime().getTime();
+        outTimes[index] = (ticket.getOutTime() == null) ? OPEN : ticket.getOutTime().getTime();
+    }
+
+    private Ticket read(int index) {
+        Ticket ticket = new Ticket();
+        ticket.setLotId(lotId);
+        ticket.setId(ids[index]);
+        ticket.setParkingSpot(new ParkingSpot(lotId, spotNumbers[index], TYPES[types[index]], false));
+        ticket.setVehicleRegNumber(vehicleRegNumbers[index]);
+        ticket.setPrice(prices[index]);
+        ticket.setInTime(new Date(inTimes[index]));
+        ticket.setOutTime((outTimes[index] == OPEN) ? null : new Date(outTimes[index]));
+        return ticket;
+    }
+
+    // spreads the high bits of String.hashCode over the low ones the mask keeps
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
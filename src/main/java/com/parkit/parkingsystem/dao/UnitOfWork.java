@@ -0,0 +1,110 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One connection and one transaction shared by ParkingSpotDAO and TicketDAO for a whole vehicle entry or exit.
+ * Closing a unit of work that was not committed rolls it back.
+ * In-memory structures (indexes, caches) register callbacks so they only change once the database did.
+ * A storage engine with its own durable state registers a pre-commit action: if it fails, nothing is committed.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("UnitOfWork");
+
+    private static final LatencyHistogram commitTimer = Metrics.timer("parking_db_commit_seconds");
+
+    /**
+     * Work that must succeed for the unit of work to commit.
+     */
+    public interface PreCommitAction {
+        void run() throws SQLException;
+    }
+
+    private final DataBaseConfig dataBaseConfig;
+    private final Connection connection;
+    private final List<PreCommitAction> preCommitActions = new ArrayList<>();
+    private final List<Runnable> commitCallbacks = new ArrayList<>();
+    private final List<Runnable> rollbackCallbacks = new ArrayList<>();
+    private boolean committed;
+
+    public UnitOfWork(DataBaseConfig dataBaseConfig) throws ClassNotFoundException, SQLException {
+        this.dataBaseConfig = dataBaseConfig;
+        this.connection = dataBaseConfig.getConnection();
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            dataBaseConfig.closeConnection(connection);
+            throw e;
+        }
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public void beforeCommit(PreCommitAction action) {
+        preCommitActions.add(action);
+    }
+
+    public void onCommit(Runnable callback) {
+        commitCallbacks.add(callback);
+    }
+
+    public void onRollback(Runnable callback) {
+        rollbackCallbacks.add(callback);
+    }
+
+    /**
+     * Runs the pre-commit actions, then commits; a failing action leaves the unit of work to be rolled back on close.
+     */
+    public void commit() throws SQLException {
+        long start = System.nanoTime();
+        for (PreCommitAction action : preCommitActions) {
+            action.run();
+        }
+        preCommitActions.clear();
+        connection.commit();
+        commitTimer.recordSince(start);
+        committed = true;
+        runAll(commitCallbacks);
+    }
+
+    @Override
+    public void close() {
+        if (!committed) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                logger.error("Error while rolling back unit of work", e);
+            }
+            runAll(rollbackCallbacks);
+        }
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.error("Error while restoring auto-commit", e);
+        }
+        dataBaseConfig.closeConnection(connection);
+    }
+
+    private static void runAll(List<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                logger.error("Error in unit of work callback", e);
+            }
+        }
+        callbacks.clear();
+    }
+}
@@ -0,0 +1,53 @@
+package com.parkit.parkingsystem.model;
+
+/**
+ * Outcome of a vehicle entry: the ticket issued, or why none was.
+ */
+public class EntryResult {
+
+    public enum Status {
+        ENTERED,
+        PARKING_FULL,
+        FAILED
+    }
+
+    private final Status status;
+    private final Ticket ticket;
+    private final boolean returningCustomer;
+
+    private EntryResult(Status status, Ticket ticket, boolean returningCustomer) {
+        this.status = status;
+        this.ticket = ticket;
+        this.returningCustomer = returningCustomer;
+    }
+
+    public static EntryResult entered(Ticket ticket, boolean returningCustomer) {
+        return new EntryResult(Status.ENTERED, ticket, returningCustomer);
+    }
+
+    public static EntryResult parkingFull(boolean returningCustomer) {
+        return new EntryResult(Status.PARKING_FULL, null, returningCustomer);
+    }
+
+    public static EntryResult failed() {
+        return new EntryResult(Status.FAILED, null, false);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the saved ticket, null unless the status is ENTERED
+     */
+    public Ticket getTicket() {
+        return ticket;
+    }
+
+    /**
+     * @return true when the vehicle already completed a stay and will get the discount at exit
+     */
+    public boolean isReturningCustomer() {
+        return returningCustomer;
+    }
+}
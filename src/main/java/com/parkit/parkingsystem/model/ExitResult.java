@@ -0,0 +1,44 @@
+package com.parkit.parkingsystem.model;
+
+/**
+ * Outcome of a vehicle exit: the closed ticket with its fare, or why the exit was not recorded.
+ */
+public class ExitResult {
+
+    public enum Status {
+        EXITED,
+        NO_OPEN_TICKET,
+        FAILED
+    }
+
+    private final Status status;
+    private final Ticket ticket;
+
+    private ExitResult(Status status, Ticket ticket) {
+        this.status = status;
+        this.ticket = ticket;
+    }
+
+    public static ExitResult exited(Ticket ticket) {
+        return new ExitResult(Status.EXITED, ticket);
+    }
+
+    public static ExitResult noOpenTicket() {
+        return new ExitResult(Status.NO_OPEN_TICKET, null);
+    }
+
+    public static ExitResult failed() {
+        return new ExitResult(Status.FAILED, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the closed ticket, with its out time and price, null unless the status is EXITED
+     */
+    public Ticket getTicket() {
+        return ticket;
+    }
+}
@@ -0,0 +1,40 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+/**
+ * Free and occupied spot counts of one vehicle type, as of one instant.
+ */
+public class Occupancy {
+
+    private final ParkingType parkingType;
+    private final int available;
+    private final int occupied;
+
+    public Occupancy(ParkingType parkingType, int available, int occupied) {
+        this.parkingType = parkingType;
+        this.available = available;
+        this.occupied = occupied;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getOccupied() {
+        return occupied;
+    }
+
+    public int getTotal() {
+        return available + occupied;
+    }
+
+    @Override
+    public String toString() {
+        return parkingType + ": " + available + " available, " + occupied + " occupied";
+    }
+}
@@ -3,16 +3,37 @@ package com.parkit.parkingsystem.model;
 import com.parkit.parkingsystem.constants.ParkingType;
 
 public class ParkingSpot {
+
+    // lot of a single-lot installation, and of rows read before lots existed
+    public static final int DEFAULT_LOT = 0;
+
+    private int lotId;
     private int number;
     private ParkingType parkingType;
     private boolean isAvailable;
 
     public ParkingSpot(int number, ParkingType parkingType, boolean isAvailable) {
+        this(DEFAULT_LOT, number, parkingType, isAvailable);
+    }
+
+    public ParkingSpot(int lotId, int number, ParkingType parkingType, boolean isAvailable) {
+        this.lotId = lotId;
         this.number = number;
         this.parkingType = parkingType;
         this.isAvailable = isAvailable;
     }
 
+    public int getLotId() {
+        return lotId;
+    }
+
+    public void setLotId(int lotId) {
+        this.lotId = lotId;
+    }
+
+    /**
+     * @return the spot number, unique within its lot
+     */
     public int getId() {
         return number;
     }
@@ -42,11 +63,11 @@ public class ParkingSpot {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ParkingSpot that = (ParkingSpot) o;
-        return number == that.number;
+        return lotId == that.lotId && number == that.number;
     }
 
     @Override
     public int hashCode() {
-        return number;
+        return 31 * lotId + number;
     }
 }
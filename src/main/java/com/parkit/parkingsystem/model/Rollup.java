@@ -0,0 +1,65 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Date;
+
+/**
+ * Stays of one vehicle type closed in one period (an hour or a day): how many, what they paid, how long they parked
+ * and how many had the returning-customer discount.
+ */
+public class Rollup {
+
+    private final ParkingType parkingType;
+    private final Date start;
+    private final long stays;
+    private final long revenueCents;
+    private final long minutes;
+    private final long discountedStays;
+
+    public Rollup(ParkingType parkingType, Date start, long stays, long revenueCents, long minutes, long discountedStays) {
+        this.parkingType = parkingType;
+        this.start = start;
+        this.stays = stays;
+        this.revenueCents = revenueCents;
+        this.minutes = minutes;
+        this.discountedStays = discountedStays;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    /**
+     * @return the start of the period
+     */
+    public Date getStart() {
+        return start;
+    }
+
+    public long getStays() {
+        return stays;
+    }
+
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+
+    public double getRevenue() {
+        return revenueCents / 100.0;
+    }
+
+    public long getMinutes() {
+        return minutes;
+    }
+
+    public long getDiscountedStays() {
+        return discountedStays;
+    }
+
+    @Override
+    public String toString() {
+        return parkingType + " from " + start + ": " + stays + " stays, " + getRevenue() + " revenue, " + minutes + " minutes, "
+                + discountedStays + " discounted";
+    }
+}
@@ -3,12 +3,26 @@ package com.parkit.parkingsystem.model;
 import java.util.Date;
 
 public class Ticket {
+    private int lotId = ParkingSpot.DEFAULT_LOT;
     private int id;
     private ParkingSpot parkingSpot;
     private String vehicleRegNumber;
     private double price;
     private Date inTime;
     private Date outTime;
+    // not stored: set when the fare is calculated, for the revenue rollups
+    private boolean discounted;
+
+    /**
+     * @return the lot the ticket was issued in; ticket ids are only unique within a lot
+     */
+    public int getLotId() {
+        return lotId;
+    }
+
+    public void setLotId(int lotId) {
+        this.lotId = lotId;
+    }
 
     public int getId() {
         return id;
@@ -57,4 +71,15 @@ public class Ticket {
     public void setOutTime(Date outTime) {
         this.outTime = outTime;
     }
+
+    /**
+     * @return true when the fare was calculated with the returning-customer discount
+     */
+    public boolean isDiscounted() {
+        return discounted;
+    }
+
+    public void setDiscounted(boolean discounted) {
+        this.discounted = discounted;
+    }
 }
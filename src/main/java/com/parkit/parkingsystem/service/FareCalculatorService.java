@@ -1,52 +1,94 @@
 package com.parkit.parkingsystem.service;
 
-import com.parkit.parkingsystem.constants.Fare;
 import com.parkit.parkingsystem.model.Ticket;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.function.Supplier;
 
 public class FareCalculatorService {
 
+    // above this, cents no longer fit in the exact range of a double and rounding goes through BigDecimal
+    private static final double MAX_EXACT_PRICE = (double) (1L << 53) / 100;
+
+    private final Supplier<Tariff> tariff;
+
+    public FareCalculatorService(){
+        this(Tariff.defaults());
+    }
+
+    public FareCalculatorService(Tariff tariff){
+        this(() -> tariff);
+    }
+
+    /**
+     * @param tariff read once per fare, so a TariffLoader can swap tariffs between two fares
+     */
+    public FareCalculatorService(Supplier<Tariff> tariff){
+        this.tariff = tariff;
+    }
+
     public void calculateFare(Ticket ticket, Boolean discount){
+        ticket.setPrice(calculateFareInCents(ticket, discount) / 100.0);
+        ticket.setDiscounted(Boolean.TRUE.equals(discount));
+    }
+
+    /**
+     * Same fare as calculateFare, in cents, without touching the ticket.
+     */
+    public long calculateFareInCents(Ticket ticket, boolean discount){
         if( (ticket.getOutTime() == null) || (ticket.getOutTime().before(ticket.getInTime())) ){
             throw new IllegalArgumentException("Out time provided is incorrect:"+ticket.getOutTime().toString());
         }
 
         long inMillis = ticket.getInTime().getTime();
         long outMillis = ticket.getOutTime().getTime();
-        long durationMillis = outMillis - inMillis;
-
-        double durationHours = durationMillis / (1_000.0 * 60.0 * 60.0); //conversion en heure
 
-        if(durationHours < 0.5){
-            ticket.setPrice(0);
-            return;
-        }
-
-        double fare;
-        switch (ticket.getParkingSpot().getParkingType()){
-            case CAR: {
-                fare = Fare.CAR_RATE_PER_HOUR;
-                break;
-            }
-            case BIKE: {
-                fare = Fare.BIKE_RATE_PER_HOUR;
-                break;
-            }
-            default: throw new IllegalArgumentException("Unknown Parking Type");
-        }
-
-        double discountValue =  discount ? 0.95 : 1;
-        double roundPrice = round(durationHours * fare * discountValue);
+        return tariff.get().priceInCents(ticket.getLotId(), ticket.getParkingSpot().getParkingType(), inMillis, outMillis, discount);
+    }
 
-        ticket.setPrice(roundPrice);
+    /**
+     * The returning customer discount of the current tariff, in percent.
+     */
+    public BigDecimal getReturningCustomerDiscountPercent(){
+        return tariff.get().getReturningCustomerDiscountPercent();
     }
 
     public static double round(double price){
-        BigDecimal bigDecimal = new BigDecimal(price);
-        bigDecimal = bigDecimal.setScale(2, RoundingMode.HALF_UP);
-        return bigDecimal.doubleValue();
+        return roundToCents(price) / 100.0;
+    }
+
+    /**
+     * Rounds the exact binary value of price to cents, HALF_UP, like new BigDecimal(price).setScale(2, HALF_UP)
+     * but without allocating: price is m * 2^e with an integer m of at most 53 bits, so m * 100 fits in a long
+     * and the rounding only looks at the bits shifted out.
+     */
+    public static long roundToCents(double price){
+        if (Double.isNaN(price) || Double.isInfinite(price)) {
+            throw new NumberFormatException("Infinite or NaN");
+        }
+        if (price < 0) {
+            return -roundToCents(-price);
+        }
+        if (price >= MAX_EXACT_PRICE) {
+            return new BigDecimal(price).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+        }
+        long bits = Double.doubleToRawLongBits(price);
+        int biasedExponent = (int) (bits >>> 52) & 0x7ff;
+        long mantissa = bits & 0xfffffffffffffL;
+        if (biasedExponent == 0) {
+            // subnormal, far below half a cent
+            return 0;
+        }
+        mantissa |= 1L << 52;
+        int shift = 1075 - biasedExponent; // price = mantissa * 2^-shift, and shift > 0 below MAX_EXACT_PRICE
+        long hundredfold = mantissa * 100;
+        if (shift > 62) {
+            return 0;
+        }
+        long cents = hundredfold >>> shift;
+        long remainder = hundredfold & ((1L << shift) - 1);
+        return remainder >= (1L << (shift - 1)) ? cents + 1 : cents;
     }
 
     public void calculateFare(Ticket ticket){
@@ -0,0 +1,198 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recomputes the fare of every ticket closed in a period and writes recorded vs recomputed prices as CSV.
+ * Tickets are streamed from the database in chunks, each chunk is priced on a fork-join pool,
+ * and chunks are written in read order as soon as they are done. At most maxChunksInFlight chunks are held
+ * in memory, whatever the number of tickets.
+ */
+public class FareRecomputationService {
+
+    private static final Logger logger = LogManager.getLogger("FareRecomputationService");
+
+    static final String CSV_HEADER = "ID,VEHICLE_REG_NUMBER,TYPE,IN_TIME,OUT_TIME,RETURNING_CUSTOMER,RECORDED_PRICE,RECOMPUTED_PRICE,DIFFERENCE";
+
+    // below this many tickets a task prices them itself instead of forking
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+
+    private final TicketRepository ticketRepository;
+    private final FareCalculatorService fareCalculatorService;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    public FareRecomputationService(TicketRepository ticketRepository, FareCalculatorService fareCalculatorService,
+                                    ForkJoinPool pool, int chunkSize, int maxChunksInFlight) {
+        this.ticketRepository = ticketRepository;
+        this.fareCalculatorService = fareCalculatorService;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * Recomputes the tickets closed in [from, to) and writes one CSV line per ticket to out.
+     */
+    public Summary recompute(Date from, Date to, Writer out) throws Exception {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Deque<Chunk> inFlight = new ArrayDeque<>();
+        Chunk[] current = {new Chunk(chunkSize)};
+        out.write(CSV_HEADER);
+        out.write('\n');
+        ticketRepository.forEachClosedTicket(from, to, (ticket, returningCustomer) -> {
+            Chunk chunk = current[0];
+            chunk.add(ticket, returningCustomer);
+            if (chunk.size == chunkSize) {
+                submit(chunk, inFlight, out, dateFormat, summary);
+                current[0] = new Chunk(chunkSize);
+            }
+        });
+        if (current[0].size > 0) {
+            submit(current[0], inFlight, out, dateFormat, summary);
+        }
+        while (!inFlight.isEmpty()) {
+            write(inFlight.poll(), out, dateFormat, summary);
+        }
+        out.flush();
+        logger.info("Recomputed " + summary.getTickets() + " fares in " + (System.nanoTime() - start) / 1_000_000 + "ms, "
+                + summary.getChangedTickets() + " changed");
+        return summary;
+    }
+
+    private void submit(Chunk chunk, Deque<Chunk> inFlight, Writer out, SimpleDateFormat dateFormat, Summary summary) throws IOException {
+        chunk.task = pool.submit(new RecomputeTask(chunk, 0, chunk.size));
+        inFlight.add(chunk);
+        if (inFlight.size() > maxChunksInFlight) {
+            write(inFlight.poll(), out, dateFormat, summary);
+        }
+    }
+
+    private static void write(Chunk chunk, Writer out, SimpleDateFormat dateFormat, Summary summary) throws IOException {
+        chunk.task.join();
+        StringBuilder line = new StringBuilder(128);
+        for (int i = 0; i < chunk.size; i++) {
+            Ticket ticket = chunk.tickets[i];
+            long recorded = FareCalculatorService.roundToCents(ticket.getPrice());
+            long recomputed = chunk.recomputed[i];
+            line.setLength(0);
+            line.append(ticket.getId()).append(',')
+                    .append(ticket.getVehicleRegNumber()).append(',')
+                    .append(ticket.getParkingSpot().getParkingType()).append(',')
+                    .append(dateFormat.format(ticket.getInTime())).append(',')
+                    .append(dateFormat.format(ticket.getOutTime())).append(',')
+                    .append(chunk.returningCustomers[i]).append(',');
+            appendCents(line, recorded).append(',');
+            appendCents(line, recomputed).append(',');
+            appendCents(line, recomputed - recorded).append('\n');
+            out.append(line);
+            summary.add(recorded, recomputed);
+        }
+    }
+
+    public static StringBuilder appendCents(StringBuilder builder, long cents) {
+        if (cents < 0) {
+            builder.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        return builder.append(cents / 100).append('.').append(fraction < 10 ? "0" : "").append(fraction);
+    }
+
+    private static final class Chunk {
+        final Ticket[] tickets;
+        final boolean[] returningCustomers;
+        final long[] recomputed;
+        int size;
+        ForkJoinTask<?> task;
+
+        Chunk(int capacity) {
+            tickets = new Ticket[capacity];
+            returningCustomers = new boolean[capacity];
+            recomputed = new long[capacity];
+        }
+
+        void add(Ticket ticket, boolean returningCustomer) {
+            tickets[size] = ticket;
+            returningCustomers[size] = returningCustomer;
+            size++;
+        }
+    }
+
+    private final class RecomputeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk chunk;
+        private final int from;
+        private final int to;
+
+        RecomputeTask(Chunk chunk, int from, int to) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    chunk.recomputed[i] = fareCalculatorService.calculateFareInCents(chunk.tickets[i], chunk.returningCustomers[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RecomputeTask(chunk, from, middle), new RecomputeTask(chunk, middle, to));
+        }
+    }
+
+    /**
+     * Totals of a recomputation, in cents.
+     */
+    public static class Summary {
+        private long tickets;
+        private long changedTickets;
+        private long recordedTotalCents;
+        private long recomputedTotalCents;
+
+        void add(long recordedCents, long recomputedCents) {
+            tickets++;
+            if (recordedCents != recomputedCents) {
+                changedTickets++;
+            }
+            recordedTotalCents += recordedCents;
+            recomputedTotalCents += recomputedCents;
+        }
+
+        public long getTickets() {
+            return tickets;
+        }
+
+        public long getChangedTickets() {
+            return changedTickets;
+        }
+
+        public long getRecordedTotalCents() {
+            return recordedTotalCents;
+        }
+
+        public long getRecomputedTotalCents() {
+            return recomputedTotalCents;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.dao.RevenueRollups;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.JsonUtil;
+import com.parkit.parkingsystem.util.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/JSON front end of ParkingService for the barrier controllers, on the JDK's built-in server.
+ * <pre>
+ * POST /entries  {"vehicleRegNumber":"AB123CD","parkingType":"CAR"}  201 entered, 409 parking full
+ * POST /exits    {"vehicleRegNumber":"AB123CD"}                      200 exited, 404 no open ticket
+ * GET  /occupancy[?lotId=1]                                          free / occupied spots per type, 404 when disabled
+ * GET  /revenue?hours=24|days=7[&amp;lotId=1]                           stays and revenue per type, 404 when disabled
+ * GET  /health                                                       200, 503 while draining
+ * GET  /metrics                                                      Prometheus text format, see Metrics
+ * </pre>
+ * Both POSTs take an optional "lotId" member; without it the request goes to the default lot.
+ * Each request runs on its own virtual thread when the JVM has them (Java 21+), so requests blocked on JDBC
+ * do not hold platform threads; older JVMs use a fixed pool of platform threads instead.
+ * At most maxConcurrentRequests are processed at once, the others wait up to queueTimeoutMillis and then get a 503.
+ */
+public class GateServer {
+
+    private static final Logger logger = LogManager.getLogger("GateServer");
+
+    private static final int MAX_BODY_BYTES = 4 * 1024;
+
+    static {
+        // the JDK server writes headers and body separately; without TCP_NODELAY, Nagle and delayed ACKs add ~40 ms per request.
+        // Read once when the server classes load, so it has to be set before the first HttpServer is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ParkingService parkingService;
+    private final int maxConcurrentRequests;
+    private final long queueTimeoutMillis;
+    private final Semaphore permits;
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private volatile boolean draining;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public GateServer(ParkingService parkingService, int maxConcurrentRequests, long queueTimeoutMillis) {
+        this.parkingService = parkingService;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * @param port 0 picks a free port, see getPort()
+     * @param fallbackThreads request threads when virtual threads are not available
+     */
+    public synchronized void start(int port, int fallbackThreads) throws IOException {
+        executor = newRequestExecutor(fallbackThreads);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/entries", exchange -> handle(exchange, "POST", this::enter));
+        server.createContext("/exits", exchange -> handle(exchange, "POST", this::exit));
+        server.createContext("/occupancy", this::occupancy);
+        server.createContext("/revenue", this::revenue);
+        server.createContext("/health", this::health);
+        server.createContext("/metrics", this::metrics);
+        server.start();
+        logger.info("Gate server listening on port " + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getInFlightRequests() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting gate requests, waits up to drainTimeoutMillis for the ones in progress, then closes the server.
+     * @return true when every request in progress completed
+     */
+    public synchronized boolean stop(long drainTimeoutMillis) throws InterruptedException {
+        if (server == null) {
+            return true;
+        }
+        draining = true;
+        boolean drained = permits.tryAcquire(maxConcurrentRequests, drainTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (drained) {
+            permits.release(maxConcurrentRequests);
+        } else {
+            logger.warn("Gate server stopped with " + getInFlightRequests() + " requests still in progress");
+        }
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS);
+        server = null;
+        logger.info("Gate server stopped");
+        return drained;
+    }
+
+    private interface Route {
+        Response handle(Map<String, String> request);
+    }
+
+    private static final class Response {
+        final int status;
+        final Map<String, Object> body;
+
+        Response(int status, Map<String, Object> body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Route route) throws IOException {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                send(exchange, error(405, "Method not allowed"));
+                return;
+            }
+            if (!acquire()) {
+                rejectedCount.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, error(503, draining ? "Shutting down" : "Too many requests in progress"));
+                return;
+            }
+            try {
+                Map<String, String> request;
+                try {
+                    request = JsonUtil.parseObject(readBody(exchange));
+                } catch (IllegalArgumentException e) {
+                    send(exchange, error(400, "Invalid JSON: " + e.getMessage()));
+                    return;
+                }
+                send(exchange, route.handle(request));
+            } finally {
+                permits.release();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error handling " + exchange.getRequestURI(), e);
+            send(exchange, error(500, "Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean acquire() {
+        if (draining) {
+            return false;
+        }
+        try {
+            return permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS) && !releaseIfDraining();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // a request admitted while stop() started must not delay the drain
+    private boolean releaseIfDraining() {
+        if (draining) {
+            permits.release();
+            return true;
+        }
+        return false;
+    }
+
+    private Response enter(Map<String, String> request) {
+        String vehicleRegNumber = request.get("vehicleRegNumber");
+        String parkingType = request.get("parkingType");
+        if (vehicleRegNumber == null || vehicleRegNumber.trim().isEmpty() || parkingType == null) {
+            return error(400, "vehicleRegNumber and parkingType are required");
+        }
+        ParkingType type;
+        try {
+            type = ParkingType.valueOf(parkingType.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return error(400, "Unknown parkingType " + parkingType);
+        }
+        Integer lotId;
+        try {
+            lotId = lotId(request);
+        } catch (IllegalArgumentException e) {
+            return error(400, e.getMessage());
+        }
+        EntryResult result = (lotId == null)
+                ? parkingService.enter(vehicleRegNumber.trim(), type)
+                : parkingService.enter(lotId, vehicleRegNumber.trim(), type);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", result.getStatus().name());
+        body.put("returningCustomer", result.isReturningCustomer());
+        switch (result.getStatus()) {
+            case ENTERED: {
+                Ticket ticket = result.getTicket();
+                body.put("lotId", ticket.getLotId());
+                body.put("ticketId", ticket.getId());
+                body.put("parkingNumber", ticket.getParkingSpot().getId());
+                body.put("inTime", ticket.getInTime().toInstant().toString());
+                return new Response(201, body);
+            }
+            case PARKING_FULL: return new Response(409, body);
+            default: return new Response(500, body);
+        }
+    }
+
+    private Response exit(Map<String, String> request) {
+        String vehicleRegNumber = request.get("vehicleRegNumber");
+        if (vehicleRegNumber == null || vehicleRegNumber.trim().isEmpty()) {
+            return error(400, "vehicleRegNumber is required");
+        }
+        Integer lotId;
+        try {
+            lotId = lotId(request);
+        } catch (IllegalArgumentException e) {
+            return error(400, e.getMessage());
+        }
+        ExitResult result = (lotId == null)
+                ? parkingService.exit(vehicleRegNumber.trim())
+                : parkingService.exit(lotId, vehicleRegNumber.trim());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", result.getStatus().name());
+        switch (result.getStatus()) {
+            case EXITED: {
+                Ticket ticket = result.getTicket();
+                body.put("lotId", ticket.getLotId());
+                body.put("ticketId", ticket.getId());
+                body.put("price", ticket.getPrice());
+                body.put("outTime", ticket.getOutTime().toInstant().toString());
+                return new Response(200, body);
+            }
+            case NO_OPEN_TICKET: return new Response(404, body);
+            default: return new Response(500, body);
+        }
+    }
+
+    // null when the request does not name a lot
+    private Integer lotId(Map<String, String> request) {
+        String lotId = request.get("lotId");
+        if (lotId == null) {
+            return null;
+        }
+        int parsed;
+        try {
+            parsed = Integer.parseInt(lotId.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid lotId " + lotId);
+        }
+        if (!parkingService.hasLot(parsed)) {
+            throw new IllegalArgumentException("Unknown lotId " + parsed);
+        }
+        return parsed;
+    }
+
+    // polled by the entrance displays; served from the in-memory counters, outside admission control like /metrics
+    private void occupancy(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, error(405, "Method not allowed"));
+                return;
+            }
+            Integer lotId;
+            try {
+                lotId = lotId(queryParameters(exchange.getRequestURI().getRawQuery(), "lotId"));
+            } catch (IllegalArgumentException e) {
+                send(exchange, error(400, e.getMessage()));
+                return;
+            }
+            Map<ParkingType, Occupancy> occupancy = (lotId == null) ? parkingService.getOccupancy() : parkingService.getOccupancy(lotId);
+            if (occupancy == null) {
+                send(exchange, error(404, "Occupancy counters are disabled"));
+                return;
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            if (lotId != null) {
+                body.put("lotId", lotId);
+            }
+            for (Occupancy typeOccupancy : occupancy.values()) {
+                String type = typeOccupancy.getParkingType().name().toLowerCase();
+                body.put(type + "Available", typeOccupancy.getAvailable());
+                body.put(type + "Occupied", typeOccupancy.getOccupied());
+                body.put(type + "Total", typeOccupancy.getTotal());
+            }
+            send(exchange, new Response(200, body));
+        } catch (RuntimeException e) {
+            logger.error("Error handling " + exchange.getRequestURI(), e);
+            send(exchange, error(500, "Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // totals over the last hours or days, current one included; served from the rollups like /occupancy from the counters
+    private void revenue(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, error(405, "Method not allowed"));
+                return;
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            Integer lotId;
+            Integer hours;
+            Integer days;
+            try {
+                lotId = lotId(queryParameters(query, "lotId"));
+                hours = period(queryParameters(query, "hours").get("hours"));
+                days = period(queryParameters(query, "days").get("days"));
+                if ((hours == null) == (days == null)) {
+                    throw new IllegalArgumentException("Expected either hours or days");
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, error(400, e.getMessage()));
+                return;
+            }
+            int lot = (lotId == null) ? parkingService.getDefaultLotId() : lotId;
+            List<Rollup> rollups;
+            if (hours != null) {
+                long now = System.currentTimeMillis();
+                rollups = parkingService.getHourlyRollups(lot, new Date(now - hours * 60L * 60 * 1000), new Date(now));
+            } else {
+                LocalDate today = LocalDate.now(ZoneId.systemDefault());
+                rollups = parkingService.getDailyRollups(lot, today.minusDays(days - 1), today.plusDays(1));
+            }
+            if (rollups == null) {
+                send(exchange, error(404, "Revenue rollups are disabled"));
+                return;
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            if (lotId != null) {
+                body.put("lotId", lotId);
+            }
+            for (Rollup total : RevenueRollups.total(rollups).values()) {
+                String type = total.getParkingType().name().toLowerCase();
+                body.put(type + "Stays", total.getStays());
+                body.put(type + "Revenue", total.getRevenue());
+                body.put(type + "Minutes", total.getMinutes());
+                body.put(type + "DiscountedStays", total.getDiscountedStays());
+            }
+            send(exchange, new Response(200, body));
+        } catch (RuntimeException e) {
+            logger.error("Error handling " + exchange.getRequestURI(), e);
+            send(exchange, error(500, "Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // null when the parameter is absent
+    private static Integer period(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid period " + value);
+    }
+
+    private static Map<String, String> queryParameters(String query, String name) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0 && parameter.substring(0, equals).equals(name)) {
+                    parameters.put(name, parameter.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("status", draining ? "DRAINING" : "UP");
+            body.put("inFlight", getInFlightRequests());
+            body.put("rejected", getRejectedCount());
+            send(exchange, new Response(draining ? 503 : 200, body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // not subject to admission control, a scrape must work while the gates are saturated
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, error(405, "Method not allowed"));
+                return;
+            }
+            byte[] body = Metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Response error(int status, String message) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        return new Response(status, body);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new IllegalArgumentException("request body larger than " + MAX_BODY_BYTES + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] body = JsonUtil.toJson(response.body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() when the JVM has it; looked up reflectively so the app still builds
+     * and runs on Java 8.
+     */
+    static ExecutorService newRequestExecutor(int fallbackThreads) {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("Gate requests run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads not available, gate requests run on " + fallbackThreads + " platform threads");
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(fallbackThreads, r -> {
+                Thread thread = new Thread(r, "gate-request-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
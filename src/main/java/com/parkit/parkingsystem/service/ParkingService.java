@@ -1,61 +1,255 @@
 package com.parkit.parkingsystem.service;
 
 import com.parkit.parkingsystem.constants.ParkingType;
-import com.parkit.parkingsystem.dao.ParkingSpotDAO;
-import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.GateJournal;
+import com.parkit.parkingsystem.dao.LotRouter;
+import com.parkit.parkingsystem.dao.OccupancyCounters;
+import com.parkit.parkingsystem.dao.ParkingSpotRepository;
+import com.parkit.parkingsystem.dao.RevenueRollups;
+import com.parkit.parkingsystem.dao.TicketBatchWriter;
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.Occupancy;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
 import com.parkit.parkingsystem.model.Ticket;
 import com.parkit.parkingsystem.util.InputReaderUtil;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ParkingService {
 
     private static final Logger logger = LogManager.getLogger("ParkingService");
 
-    private static final FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    private static final LatencyHistogram entryTimer = Metrics.timer("parking_gate_seconds", "operation", "enter");
+    private static final LatencyHistogram exitTimer = Metrics.timer("parking_gate_seconds", "operation", "exit");
+    private static final Map<EntryResult.Status, LongAdder> entryResults = new EnumMap<>(EntryResult.Status.class);
+    private static final Map<ExitResult.Status, LongAdder> exitResults = new EnumMap<>(ExitResult.Status.class);
+    private static final Map<ParkingType, LongAdder> allocationFailures = new EnumMap<>(ParkingType.class);
+
+    static {
+        for (EntryResult.Status status : EntryResult.Status.values()) {
+            entryResults.put(status, Metrics.counter("parking_gate_results_total", "operation", "enter", "status", status.name()));
+        }
+        for (ExitResult.Status status : ExitResult.Status.values()) {
+            exitResults.put(status, Metrics.counter("parking_gate_results_total", "operation", "exit", "status", status.name()));
+        }
+        for (ParkingType parkingType : ParkingType.values()) {
+            allocationFailures.put(parkingType, Metrics.counter("parking_allocation_failures_total", "type", parkingType.name()));
+        }
+    }
 
     private final InputReaderUtil inputReaderUtil;
-    private final ParkingSpotDAO parkingSpotDAO;
-    private final TicketDAO ticketDAO;
+    private final LotRouter lotRouter;
+    private final FareCalculatorService fareCalculatorService;
 
-    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
+    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository){
+        this(inputReaderUtil, parkingSpotRepository, ticketRepository, new FareCalculatorService());
+    }
+
+    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository,
+                          FareCalculatorService fareCalculatorService){
+        this(inputReaderUtil, LotRouter.singleLot(parkingSpotRepository, ticketRepository), fareCalculatorService);
+    }
+
+    public ParkingService(InputReaderUtil inputReaderUtil, LotRouter lotRouter, FareCalculatorService fareCalculatorService){
         this.inputReaderUtil = inputReaderUtil;
-        this.parkingSpotDAO = parkingSpotDAO;
-        this.ticketDAO = ticketDAO;
+        this.lotRouter = lotRouter;
+        this.fareCalculatorService = fareCalculatorService;
+    }
+
+    public boolean hasLot(int lotId) {
+        return lotRouter.hasLot(lotId);
+    }
+
+    public Map<ParkingType, Occupancy> getOccupancy() {
+        return getOccupancy(lotRouter.getDefaultLotId());
+    }
+
+    /**
+     * Free and occupied spots of each type from the in-memory counters, without querying the database.
+     * @return null when occupancy counters are disabled (parking.occupancy.enabled)
+     */
+    public Map<ParkingType, Occupancy> getOccupancy(int lotId) {
+        OccupancyCounters occupancyCounters = lotRouter.getParkingSpotRepository(lotId).getOccupancyCounters();
+        return (occupancyCounters != null && occupancyCounters.isLoaded()) ? occupancyCounters.snapshot() : null;
+    }
+
+    /**
+     * Closed stays per type for each hour starting in [from, to), from the in-memory rollups, without querying the database.
+     * @return null when revenue rollups are disabled (rollups.enabled)
+     */
+    public List<Rollup> getHourlyRollups(int lotId, Date from, Date to) {
+        RevenueRollups revenueRollups = lotRouter.getTicketRepository(lotId).getRevenueRollups();
+        return (revenueRollups != null && revenueRollups.isLoaded()) ? revenueRollups.getHourly(from, to) : null;
+    }
+
+    /**
+     * Closed stays per type for each day in [from, to), from the in-memory rollups, without querying the database.
+     * @return null when revenue rollups are disabled (rollups.enabled)
+     */
+    public List<Rollup> getDailyRollups(int lotId, LocalDate from, LocalDate to) {
+        RevenueRollups revenueRollups = lotRouter.getTicketRepository(lotId).getRevenueRollups();
+        return (revenueRollups != null && revenueRollups.isLoaded()) ? revenueRollups.getDaily(from, to) : null;
     }
 
+    public int getDefaultLotId() {
+        return lotRouter.getDefaultLotId();
+    }
+
+    /**
+     * Console entry: asks for the vehicle type and registration number, then prints the ticket.
+     */
     public void processIncomingVehicle() {
         try{
-            ParkingSpot parkingSpot = getNextParkingNumberIfAvailable();
-            if(parkingSpot !=null && parkingSpot.getId() > 0){
-                String vehicleRegNumber = getVehicleRegNumber();
-                if (ticketDAO.getNbTickets(vehicleRegNumber)) {
-                    System.out.println("Heureux de vous revoir ! En tant qu’utilisateur régulier de notre parking, vous allez obtenir une remise de 5%");
+            ParkingType parkingType = getVehicleType();
+            String vehicleRegNumber = getVehicleRegNumber();
+            EntryResult result = enter(vehicleRegNumber, parkingType);
+            if (result.isReturningCustomer()) {
+                System.out.println("Heureux de vous revoir ! En tant qu’utilisateur régulier de notre parking, vous allez obtenir une remise de "
+                        + fareCalculatorService.getReturningCustomerDiscountPercent().stripTrailingZeros().toPlainString() + "%");
+            }
+            switch (result.getStatus()) {
+                case ENTERED: {
+                    Ticket ticket = result.getTicket();
+                    System.out.println("Generated Ticket and saved in DB");
+                    System.out.println("Please park your vehicle in spot number:"+ticket.getParkingSpot().getId());
+                    System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+ticket.getInTime());
+                    break;
                 }
-                parkingSpot.setAvailable(false);
-                parkingSpotDAO.updateParking(parkingSpot);//allot this parking space and mark it is availability as false
-                Date inTime = new Date();
-                Ticket ticket = new Ticket();
-                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME
-                //ticket.setId(ticketID);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(0);
-                ticket.setInTime(inTime);
-                ticket.setOutTime(null);
-                ticketDAO.saveTicket(ticket);
-                System.out.println("Generated Ticket and saved in DB");
-                System.out.println("Please park your vehicle in spot number:"+parkingSpot.getId());
-                System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+inTime);
+                case PARKING_FULL: {
+                    System.out.println("Error fetching parking number from DB. Parking slots might be full");
+                    break;
+                }
+                default: System.out.println("Unable to process incoming vehicle. Error occurred");
             }
         }catch(Exception e){
             logger.error("Unable to process incoming vehicle",e);
         }
     }
 
+    /**
+     * Entry in the default lot, see enter(int, String, ParkingType).
+     */
+    public EntryResult enter(String vehicleRegNumber, ParkingType parkingType) {
+        return enter(lotRouter.getDefaultLotId(), vehicleRegNumber, parkingType);
+    }
+
+    /**
+     * Claims the lowest free spot of the given type in the lot and issues a ticket for it.
+     * Safe to call from many gate threads at once; no console I/O.
+     * @throws IllegalArgumentException when the lot is not configured
+     */
+    public EntryResult enter(int lotId, String vehicleRegNumber, ParkingType parkingType) {
+        ParkingSpotRepository parkingSpotRepository = lotRouter.getParkingSpotRepository(lotId);
+        TicketRepository ticketRepository = lotRouter.getTicketRepository(lotId);
+        long start = System.nanoTime();
+        EntryResult result;
+        try {
+            GateJournal gateJournal = ticketRepository.getGateJournal();
+            TicketBatchWriter batchWriter = ticketRepository.getBatchWriter();
+            if (gateJournal != null) {
+                result = enterWithJournal(lotId, parkingSpotRepository, ticketRepository, gateJournal, parkingType, vehicleRegNumber);
+            } else {
+                result = (batchWriter == null)
+                        ? enterInUnitOfWork(lotId, parkingSpotRepository, ticketRepository, parkingType, vehicleRegNumber)
+                        : enterWithBatchWriter(lotId, batchWriter, parkingType, vehicleRegNumber);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to process incoming vehicle " + vehicleRegNumber, e);
+            result = EntryResult.failed();
+        }
+        entryTimer.recordSince(start);
+        entryResults.get(result.getStatus()).increment();
+        if (result.getStatus() == EntryResult.Status.PARKING_FULL) {
+            allocationFailures.get(parkingType).increment();
+        }
+        return result;
+    }
+
+    private EntryResult enterInUnitOfWork(int lotId, ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository,
+                                          ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        //spot claim and ticket insert are committed together, or not at all
+        try (UnitOfWork unitOfWork = parkingSpotRepository.beginUnitOfWork()) {
+            boolean returningCustomer = lotRouter.isReturningCustomer(unitOfWork, lotId, vehicleRegNumber);
+            ParkingSpot parkingSpot = parkingSpotRepository.claimNextSpot(unitOfWork, parkingType);//allot this parking space and mark it is availability as false
+            if (!isClaimed(parkingSpot)) {
+                return EntryResult.parkingFull(returningCustomer);
+            }
+            Ticket ticket = newTicket(parkingSpot, vehicleRegNumber);
+            ticketRepository.saveTicket(unitOfWork, ticket);
+            unitOfWork.commit();
+            return EntryResult.entered(ticket, returningCustomer);
+        }
+    }
+
+    private EntryResult enterWithBatchWriter(int lotId, TicketBatchWriter batchWriter,
+                                             ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        //spot claim and ticket insert are part of the same group commit, with those of other gates
+        boolean returningCustomer = lotRouter.isReturningCustomer(lotId, vehicleRegNumber);
+        Ticket ticket = newTicket(new ParkingSpot(lotId, 0, parkingType, false), vehicleRegNumber);
+        boolean entered;
+        try {
+            entered = batchWriter.enter(ticket).get();
+        } catch (ExecutionException e) {
+            throw new Exception("Unable to save ticket for vehicle number:" + vehicleRegNumber, e.getCause());
+        }
+        return entered ? EntryResult.entered(ticket, returningCustomer) : EntryResult.parkingFull(returningCustomer);
+    }
+
+    private EntryResult enterWithJournal(int lotId, ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository, GateJournal gateJournal,
+                                         ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        //acknowledged once journaled: the spot comes from the index and GateJournalDrainer writes it with the ticket later
+        boolean returningCustomer = !Boolean.FALSE.equals(ticketRepository.getReturningCustomerRegistry().lookup(vehicleRegNumber));
+        int parkingNumber = parkingSpotRepository.getAvailabilityIndex().claimLowest(parkingType);
+        if (parkingNumber <= 0) {
+            return EntryResult.parkingFull(returningCustomer);
+        }
+        ParkingSpot parkingSpot = new ParkingSpot(lotId, parkingNumber, parkingType, false);
+        Ticket ticket = newTicket(parkingSpot, vehicleRegNumber);
+        try {
+            gateJournal.append(GateJournal.ENTRY, ticket);
+        } catch (IOException e) {
+            //a direct write would overtake the entries and exits still queued ahead of it: refuse the vehicle instead
+            logger.error(e.getMessage() + ", refusing the entry of vehicle number:" + vehicleRegNumber);
+            parkingSpotRepository.getAvailabilityIndex().setAvailable(new ParkingSpot(lotId, parkingNumber, parkingType, true));
+            return EntryResult.failed();
+        }
+        ticketRepository.getOpenTicketCache().put(ticket);
+        return EntryResult.entered(ticket, returningCustomer);
+    }
+
+    private static boolean isClaimed(ParkingSpot parkingSpot) {
+        return parkingSpot != null && parkingSpot.getId() > 0;
+    }
+
+    private static Ticket newTicket(ParkingSpot parkingSpot, String vehicleRegNumber) {
+        Ticket ticket = new Ticket();
+        //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME
+        //ticket.setId(ticketID);
+        ticket.setLotId(parkingSpot.getLotId());
+        ticket.setParkingSpot(parkingSpot);
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setPrice(0);
+        ticket.setInTime(new Date());
+        ticket.setOutTime(null);
+        return ticket;
+    }
+
     private String getVehicleRegNumber() throws Exception {
         System.out.println("Please type the vehicle registration number and press enter key");
         return inputReaderUtil.readVehicleRegistrationNumber();
@@ -65,10 +259,12 @@ public class ParkingService {
         ParkingSpot parkingSpot = null;
         try{
             ParkingType parkingType = getVehicleType();
-            int parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingType);
+            int lotId = lotRouter.getDefaultLotId();
+            int parkingNumber = lotRouter.getParkingSpotRepository(lotId).getNextAvailableSlot(parkingType);
             if(parkingNumber > 0){
-                parkingSpot = new ParkingSpot(parkingNumber,parkingType, true);
+                parkingSpot = new ParkingSpot(lotId, parkingNumber,parkingType, true);
             }else{
+                allocationFailures.get(parkingType).increment();
                 throw new Exception("Error fetching parking number from DB. Parking slots might be full");
             }
         }catch(IllegalArgumentException ie){
@@ -98,27 +294,152 @@ public class ParkingService {
         }
     }
 
+    /**
+     * Console exit: asks for the registration number, then prints the fare.
+     */
     public void processExitingVehicle() {
         try{
             String vehicleRegNumber = getVehicleRegNumber();
-            Ticket ticket = ticketDAO.getTicket(vehicleRegNumber);
-            Date outTime = new Date();
-            ticket.setOutTime(outTime);
-            if (ticketDAO.getNbTickets(vehicleRegNumber)) {
-                fareCalculatorService.calculateFare(ticket, true);
-            } else
-                fareCalculatorService.calculateFare(ticket);
-            if(ticketDAO.updateTicket(ticket)) {
-                ParkingSpot parkingSpot = ticket.getParkingSpot();
-                parkingSpot.setAvailable(true);
-                parkingSpotDAO.updateParking(parkingSpot);
-                System.out.println("Please pay the parking fare:" + ticket.getPrice());
-                System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + outTime);
-            }else{
-                System.out.println("Unable to update ticket information. Error occurred");
+            ExitResult result = exit(vehicleRegNumber);
+            switch (result.getStatus()) {
+                case EXITED: {
+                    Ticket ticket = result.getTicket();
+                    System.out.println("Please pay the parking fare:" + ticket.getPrice());
+                    System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + ticket.getOutTime());
+                    break;
+                }
+                case NO_OPEN_TICKET: {
+                    System.out.println("No parked vehicle found with number:" + vehicleRegNumber);
+                    break;
+                }
+                default: System.out.println("Unable to update ticket information. Error occurred");
             }
         }catch(Exception e){
             logger.error("Unable to process exiting vehicle",e);
         }
     }
+
+    /**
+     * Exit from the default lot, see exit(int, String).
+     */
+    public ExitResult exit(String vehicleRegNumber) {
+        return exit(lotRouter.getDefaultLotId(), vehicleRegNumber);
+    }
+
+    /**
+     * Closes the open ticket of the vehicle in the lot, prices it with the lot's rates and frees its spot.
+     * Safe to call from many gate threads at once; no console I/O.
+     * @throws IllegalArgumentException when the lot is not configured
+     */
+    public ExitResult exit(int lotId, String vehicleRegNumber) {
+        ParkingSpotRepository parkingSpotRepository = lotRouter.getParkingSpotRepository(lotId);
+        TicketRepository ticketRepository = lotRouter.getTicketRepository(lotId);
+        long start = System.nanoTime();
+        ExitResult result;
+        try {
+            GateJournal gateJournal = ticketRepository.getGateJournal();
+            TicketBatchWriter batchWriter = ticketRepository.getBatchWriter();
+            if (gateJournal != null) {
+                result = exitWithJournal(parkingSpotRepository, ticketRepository, gateJournal, vehicleRegNumber);
+            } else {
+                result = (batchWriter == null)
+                        ? exitInUnitOfWork(lotId, parkingSpotRepository, ticketRepository, vehicleRegNumber)
+                        : exitWithBatchWriter(lotId, ticketRepository, batchWriter, vehicleRegNumber);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to process exiting vehicle " + vehicleRegNumber, e);
+            result = ExitResult.failed();
+        }
+        exitTimer.recordSince(start);
+        exitResults.get(result.getStatus()).increment();
+        return result;
+    }
+
+    private ExitResult exitInUnitOfWork(int lotId, ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository, String vehicleRegNumber) throws Exception {
+        //ticket update and spot release are committed together, or not at all
+        try (UnitOfWork unitOfWork = parkingSpotRepository.beginUnitOfWork()) {
+            Ticket ticket = ticketRepository.getTicket(unitOfWork, vehicleRegNumber);
+            if (ticket == null || ticket.getOutTime() != null) {
+                return ExitResult.noOpenTicket();
+            }
+            calculateExitFare(ticket, lotRouter.isReturningCustomer(unitOfWork, lotId, vehicleRegNumber));
+            if(!ticketRepository.updateTicket(unitOfWork, ticket)) {
+                return ExitResult.noOpenTicket(); // closed by a concurrent exit since it was read
+            }
+            ParkingSpot parkingSpot = ticket.getParkingSpot();
+            parkingSpot.setAvailable(true);
+            parkingSpotRepository.updateParking(unitOfWork, parkingSpot);
+            unitOfWork.commit();
+            return ExitResult.exited(ticket);
+        }
+    }
+
+    private ExitResult exitWithBatchWriter(int lotId, TicketRepository ticketRepository, TicketBatchWriter batchWriter, String vehicleRegNumber) throws Exception {
+        Ticket ticket = ticketRepository.getTicket(vehicleRegNumber);
+        if (ticket == null || ticket.getOutTime() != null) {
+            return ExitResult.noOpenTicket();
+        }
+        calculateExitFare(ticket, lotRouter.isReturningCustomer(lotId, vehicleRegNumber));
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        parkingSpot.setAvailable(true);
+        try {
+            //ticket update and spot release are part of the same group commit
+            //false when a concurrent exit closed the ticket first
+            return batchWriter.update(ticket, parkingSpot).get() ? ExitResult.exited(ticket) : ExitResult.noOpenTicket();
+        } catch (ExecutionException e) {
+            logger.error("Error updating ticket", e.getCause());
+            return ExitResult.failed();
+        }
+    }
+
+    private ExitResult exitWithJournal(ParkingSpotRepository parkingSpotRepository, TicketRepository ticketRepository, GateJournal gateJournal,
+                                       String vehicleRegNumber) throws Exception {
+        //answered from memory alone: the cache holds every open ticket, including the entries not yet drained.
+        //Evicting it first closes the ticket for this exit only, a concurrent exit of the same vehicle finds nothing
+        Ticket ticket = ticketRepository.getOpenTicketCache().get(vehicleRegNumber);
+        if (ticket == null || !ticketRepository.getOpenTicketCache().remove(ticket)) {
+            return ExitResult.noOpenTicket();
+        }
+        //a vehicle the registry cannot rule out gets the discount, the drainer settles it against the databases
+        Boolean returningCustomer = ticketRepository.getReturningCustomerRegistry().lookup(vehicleRegNumber);
+        calculateExitFare(ticket, !Boolean.FALSE.equals(returningCustomer));
+        try {
+            gateJournal.append(GateJournal.EXIT, ticket, returningCustomer == null);
+        } catch (IOException e) {
+            logger.error(e.getMessage() + ", refusing the exit of vehicle number:" + vehicleRegNumber);
+            ticket.setOutTime(null);
+            ticket.setPrice(0);
+            ticket.setDiscounted(false);
+            ticketRepository.getOpenTicketCache().put(ticket);
+            return ExitResult.failed();
+        }
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        parkingSpot.setAvailable(true);
+        parkingSpotRepository.getAvailabilityIndex().setAvailable(parkingSpot);
+        ticketRepository.getReturningCustomerRegistry().confirm(vehicleRegNumber);
+        return ExitResult.exited(ticket);
+    }
+
+    /**
+     * Settles the discount given at a journaled exit to a vehicle the registry could not rule out. Called by the
+     * GateJournalDrainer in the transaction applying the exit: the exit is priced again, without the discount, when
+     * no lot has an earlier stay of the vehicle.
+     */
+    public void settleDiscount(UnitOfWork unitOfWork, int lotId, Ticket exit) throws SQLException {
+        if (lotRouter.hadClosedStay(unitOfWork, lotId, exit.getVehicleRegNumber())) {
+            return;
+        }
+        double charged = exit.getPrice();
+        fareCalculatorService.calculateFare(exit);
+        logger.warn("Vehicle number:" + exit.getVehicleRegNumber() + " was discounted at the gate without an earlier stay,"
+                + " charged " + charged + " instead of " + exit.getPrice());
+    }
+
+    private void calculateExitFare(Ticket ticket, boolean recurringUser) {
+        ticket.setOutTime(new Date());
+        if (recurringUser) {
+            fareCalculatorService.calculateFare(ticket, true);
+        } else
+            fareCalculatorService.calculateFare(ticket);
+    }
 }
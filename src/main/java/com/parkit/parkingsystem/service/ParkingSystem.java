@@ -0,0 +1,380 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.ApplicationConfig;
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.GateJournal;
+import com.parkit.parkingsystem.dao.GateJournalDrainer;
+import com.parkit.parkingsystem.dao.InMemoryParkingSpotDAO;
+import com.parkit.parkingsystem.dao.InMemoryTicketDAO;
+import com.parkit.parkingsystem.dao.LotRouter;
+import com.parkit.parkingsystem.dao.OccupancyCounters;
+import com.parkit.parkingsystem.dao.OpenTicketCache;
+import com.parkit.parkingsystem.dao.ParkingSpotAvailabilityIndex;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ParkingSpotRepository;
+import com.parkit.parkingsystem.dao.ReturningCustomerRegistry;
+import com.parkit.parkingsystem.dao.RevenueRollups;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketBatchWriter;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.TicketLog;
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import com.parkit.parkingsystem.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DAOs and ParkingService wired from parkingsystem.properties, shared by the console shell and the gate server.
+ * Each configured lot gets its own DAOs, database and in-memory structures; the returning-customer registry is shared.
+ */
+public class ParkingSystem implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger("ParkingSystem");
+
+    private final LotRouter lotRouter;
+    // the lots on a database, by lot id
+    private final Map<Integer, TicketDAO> ticketDAOs;
+    private final ParkingService parkingService;
+    private final Map<Integer, GateJournalDrainer> journalDrainers;
+    private final Map<Integer, TicketArchiver> ticketArchivers;
+
+    private ParkingSystem(LotRouter lotRouter, Map<Integer, TicketDAO> ticketDAOs, ParkingService parkingService,
+                          Map<Integer, GateJournalDrainer> journalDrainers, Map<Integer, TicketArchiver> ticketArchivers) {
+        this.lotRouter = lotRouter;
+        this.ticketDAOs = ticketDAOs;
+        this.parkingService = parkingService;
+        this.journalDrainers = journalDrainers;
+        this.ticketArchivers = ticketArchivers;
+    }
+
+    /**
+     * @return the lots served by this instance (parking.lots), each with its own database, see DataBaseConfig(int)
+     */
+    public static int[] configuredLotIds() {
+        String lots = ApplicationConfig.getString("parking.lots", "");
+        if (lots.trim().isEmpty()) {
+            return new int[]{ParkingSpot.DEFAULT_LOT};
+        }
+        return Arrays.stream(lots.split(",")).map(String::trim).mapToInt(Integer::parseInt).distinct().sorted().toArray();
+    }
+
+    /**
+     * @param inputReaderUtil console input, or null when only the enter/exit API is used
+     */
+    public static ParkingSystem fromConfig(InputReaderUtil inputReaderUtil) {
+        Map<Integer, ParkingSpotRepository> parkingSpotRepositories = new HashMap<>();
+        Map<Integer, TicketRepository> ticketRepositories = new HashMap<>();
+        // the database lots, the ones the optional structures are wired on
+        Map<Integer, ParkingSpotDAO> parkingSpotDAOs = new HashMap<>();
+        Map<Integer, TicketDAO> ticketDAOs = new HashMap<>();
+        Map<Integer, GateJournalDrainer> openedJournals = new HashMap<>();
+        Map<Integer, GateJournalDrainer> journalDrainers = new HashMap<>();
+        Map<Integer, TicketArchiver> ticketArchivers = new HashMap<>();
+        // the in-memory engine already answers from memory: no index, cache, batch writer or registry on top of it
+        boolean embedded = EmbeddedDataBaseConfig.isEnabled();
+        for (int lotId : configuredLotIds()) {
+            if (embedded) {
+                InMemoryTicketDAO ticketDAO = newInMemoryTicketDAO(lotId);
+                InMemoryParkingSpotDAO parkingSpotDAO = new InMemoryParkingSpotDAO(lotId,
+                        InMemoryParkingSpotDAO.parseLayout(ApplicationConfig.getString("db.memory.spots", "CAR:3,BIKE:2")));
+                parkingSpotDAO.restore(ticketDAO.getOpenTickets());
+                if (ApplicationConfig.getBoolean("parking.occupancy.enabled", false)) {
+                    parkingSpotDAO.setOccupancyCounters(loadOccupancyCounters(parkingSpotDAO));
+                }
+                // archiving compacts the ticket log
+                if (ApplicationConfig.getBoolean("ticket.archive.enabled", false)) {
+                    ticketArchivers.put(lotId, startTicketArchiver(ticketDAO));
+                }
+                parkingSpotRepositories.put(lotId, parkingSpotDAO);
+                ticketRepositories.put(lotId, ticketDAO);
+                continue;
+            }
+            TicketDAO ticketDAO = new TicketDAO(lotId, new DataBaseConfig(lotId));
+            ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO(lotId, ticketDAO.getDataBaseConfig());
+            // events journaled before a restart reach the database before the in-memory structures are loaded from it
+            if (ApplicationConfig.getBoolean("gate.journal.enabled", false)) {
+                GateJournalDrainer journalDrainer = openGateJournal(parkingSpotDAO);
+                if (journalDrainer != null) {
+                    openedJournals.put(lotId, journalDrainer);
+                }
+            }
+            if (ApplicationConfig.getBoolean("parking.index.enabled", false)) {
+                enableAvailabilityIndex(parkingSpotDAO);
+            }
+            if (ApplicationConfig.getBoolean("parking.occupancy.enabled", false)) {
+                parkingSpotDAO.setOccupancyCounters(loadOccupancyCounters(parkingSpotDAO));
+            }
+            if (ApplicationConfig.getBoolean("ticket.cache.enabled", false)) {
+                enableOpenTicketCache(ticketDAO);
+            }
+            if (ApplicationConfig.getBoolean("ticket.writer.batch.enabled", false)) {
+                ticketDAO.setBatchWriter(new TicketBatchWriter(ticketDAO, parkingSpotDAO,
+                        ApplicationConfig.getInt("ticket.writer.queueCapacity", 1024),
+                        ApplicationConfig.getInt("ticket.writer.flushSize", 64),
+                        ApplicationConfig.getLong("ticket.writer.flushIntervalMillis", 5)));
+            }
+            if (ApplicationConfig.getBoolean("rollups.enabled", false)) {
+                enableRevenueRollups(ticketDAO);
+            }
+            // archives through its own DAO: a batch never waits behind, nor holds up, the gates' batch writer
+            if (ApplicationConfig.getBoolean("ticket.archive.enabled", false)) {
+                ticketArchivers.put(lotId, startTicketArchiver(new TicketDAO(lotId, ticketDAO.getDataBaseConfig())));
+            }
+            parkingSpotRepositories.put(lotId, parkingSpotDAO);
+            ticketRepositories.put(lotId, ticketDAO);
+            parkingSpotDAOs.put(lotId, parkingSpotDAO);
+            ticketDAOs.put(lotId, ticketDAO);
+        }
+        LotRouter lotRouter = new LotRouter(parkingSpotRepositories, ticketRepositories,
+                ApplicationConfig.getInt("parking.lots.fanOutThreads", 16),
+                ApplicationConfig.getLong("parking.lots.fanOutTimeoutMillis", 500));
+        if (!embedded && ApplicationConfig.getBoolean("ticket.returningCustomers.enabled", false)) {
+            enableReturningCustomerRegistry(lotRouter, ticketDAOs.values());
+        }
+        ParkingService parkingService = new ParkingService(inputReaderUtil, lotRouter,
+                new FareCalculatorService(TariffLoader.fromConfig()));
+        for (Map.Entry<Integer, GateJournalDrainer> opened : openedJournals.entrySet()) {
+            int lotId = opened.getKey();
+            if (enableGateJournal(opened.getValue(), parkingSpotDAOs.get(lotId), ticketDAOs.get(lotId), parkingService)) {
+                journalDrainers.put(lotId, opened.getValue());
+            }
+        }
+        return new ParkingSystem(lotRouter, ticketDAOs, parkingService, journalDrainers, ticketArchivers);
+    }
+
+    /**
+     * Ticket repository of the lot on the configured storage engine; with db.engine=memory, loaded from the lot's
+     * ticket log (db.memory.dir/tickets-lot&lt;lotId&gt;.log).
+     */
+    public static TicketRepository newTicketRepository(int lotId) {
+        if (!EmbeddedDataBaseConfig.isEnabled()) {
+            return new TicketDAO(lotId, new DataBaseConfig(lotId));
+        }
+        return newInMemoryTicketDAO(lotId);
+    }
+
+    private static InMemoryTicketDAO newInMemoryTicketDAO(int lotId) {
+        Path logFile = Paths.get(ApplicationConfig.getString("db.memory.dir", "data"), "tickets-lot" + lotId + ".log");
+        try {
+            InMemoryTicketDAO ticketDAO = new InMemoryTicketDAO(lotId,
+                    new TicketLog(logFile, lotId, ApplicationConfig.getBoolean("db.memory.fsync", true)));
+            // compacted before the gates open, so the next start is quick again
+            if (ticketDAO.load() > ApplicationConfig.getLong("db.memory.compactRecords", 100_000)) {
+                ticketDAO.getTicketLog().compact();
+            }
+            return ticketDAO;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to load the ticket log " + logFile, e);
+        }
+    }
+
+    public ParkingService getParkingService() {
+        return parkingService;
+    }
+
+    /**
+     * Flushes pending ticket writes and stops the background tasks.
+     */
+    @Override
+    public void close() {
+        for (int lotId : lotRouter.getLotIds()) {
+            TicketRepository ticketRepository = lotRouter.getTicketRepository(lotId);
+            TicketArchiver ticketArchiver = ticketArchivers.get(lotId);
+            if (ticketArchiver != null) {
+                ticketArchiver.stop();
+            }
+            if (ticketRepository.getBatchWriter() != null) {
+                ticketRepository.getBatchWriter().close();
+            }
+            GateJournalDrainer journalDrainer = journalDrainers.get(lotId);
+            if (journalDrainer != null) {
+                ticketDAOs.get(lotId).setGateJournal(null);
+                journalDrainer.close();
+                closeGateJournal(lotId, journalDrainer.getJournal());
+            }
+            ParkingSpotRepository parkingSpotRepository = lotRouter.getParkingSpotRepository(lotId);
+            if (parkingSpotRepository.getAvailabilityIndex() != null) {
+                parkingSpotRepository.getAvailabilityIndex().stopReconciliation();
+            }
+            if (parkingSpotRepository.getOccupancyCounters() != null) {
+                parkingSpotRepository.getOccupancyCounters().stopReconciliation();
+            }
+            if (ticketRepository instanceof InMemoryTicketDAO) {
+                closeTicketLog((InMemoryTicketDAO) ticketRepository);
+            }
+        }
+        lotRouter.close();
+    }
+
+    private static void closeTicketLog(InMemoryTicketDAO ticketDAO){
+        try {
+            ticketDAO.getTicketLog().close();
+        } catch (IOException e) {
+            logger.error("Error while closing the ticket log of lot " + ticketDAO.getLotId(), e);
+        }
+    }
+
+    private static void closeGateJournal(int lotId, GateJournal gateJournal){
+        try {
+            gateJournal.close();
+        } catch (IOException e) {
+            logger.error("Error while closing the gate journal of lot " + lotId, e);
+        }
+    }
+
+    // the drainer writes through its own DAOs, without the cache and index the gates maintain themselves
+    private static GateJournalDrainer openGateJournal(ParkingSpotDAO parkingSpotDAO){
+        int lotId = parkingSpotDAO.getLotId();
+        Path journalFile = Paths.get(ApplicationConfig.getString("gate.journal.dir", "data"), "gate-journal-lot" + lotId + ".dat");
+        GateJournal gateJournal;
+        try {
+            gateJournal = new GateJournal(journalFile, lotId,
+                    ApplicationConfig.getInt("gate.journal.sizeBytes", 16 * 1024 * 1024),
+                    ApplicationConfig.getBoolean("gate.journal.force", false));
+        } catch (IOException e) {
+            logger.error("Unable to open the gate journal " + journalFile + ", gate events written synchronously", e);
+            return null;
+        }
+        TicketDAO drainTicketDAO = new TicketDAO(lotId, parkingSpotDAO.getDataBaseConfig());
+        ParkingSpotDAO drainParkingSpotDAO = new ParkingSpotDAO(lotId, parkingSpotDAO.getDataBaseConfig());
+        GateJournalDrainer journalDrainer = new GateJournalDrainer(gateJournal, drainTicketDAO, drainParkingSpotDAO,
+                ApplicationConfig.getInt("gate.journal.batchSize", 64),
+                ApplicationConfig.getLong("gate.journal.idleMillis", 5),
+                ApplicationConfig.getLong("gate.journal.retryMaxMillis", 5_000),
+                ApplicationConfig.getInt("gate.journal.maxAttempts", 5),
+                journalFile.resolveSibling("gate-journal-lot" + lotId + ".dead.jsonl"));
+        journalDrainer.recover();
+        return journalDrainer;
+    }
+
+    // the gates answer from the index, the cache and the registry without the database, so the journal needs all three
+    private static boolean enableGateJournal(GateJournalDrainer journalDrainer, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO,
+                                             ParkingService parkingService){
+        ParkingSpotAvailabilityIndex availabilityIndex = parkingSpotDAO.getAvailabilityIndex();
+        if (availabilityIndex == null || ticketDAO.getOpenTicketCache() == null || ticketDAO.getReturningCustomerRegistry() == null) {
+            logger.error("Gate journal of lot " + parkingSpotDAO.getLotId() + " needs parking.index.enabled, ticket.cache.enabled"
+                    + " and ticket.returningCustomers.enabled, gate events written synchronously");
+            journalDrainer.close();
+            closeGateJournal(parkingSpotDAO.getLotId(), journalDrainer.getJournal());
+            return false;
+        }
+        GateJournal gateJournal = journalDrainer.getJournal();
+        journalDrainer.replayPending(availabilityIndex, ticketDAO.getOpenTicketCache(), ticketDAO.getReturningCustomerRegistry());
+        int lotId = parkingSpotDAO.getLotId();
+        journalDrainer.setDiscountSettlement((unitOfWork, exit) -> parkingService.settleDiscount(unitOfWork, lotId, exit));
+        availabilityIndex.holdReconciliationWhile(() -> gateJournal.getPendingCount() > 0);
+        journalDrainer.getParkingSpotDAO().setOccupancyCounters(parkingSpotDAO.getOccupancyCounters());
+        journalDrainer.getTicketDAO().setRevenueRollups(ticketDAO.getRevenueRollups());
+        journalDrainer.start();
+        ticketDAO.setGateJournal(gateJournal);
+        return true;
+    }
+
+    private static void enableAvailabilityIndex(ParkingSpotDAO parkingSpotDAO){
+        List<ParkingSpot> parkingSpots = parkingSpotDAO.getParkingSpots();
+        if (parkingSpots == null) {
+            logger.error("Unable to load parking spots of lot " + parkingSpotDAO.getLotId() + ", availability index disabled");
+            return;
+        }
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(parkingSpots);
+        availabilityIndex.startReconciliation(parkingSpotDAO, ApplicationConfig.getLong("parking.index.reconcilePeriodMillis", 60_000));
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+    }
+
+    // null when the occupancy could not be read
+    private static OccupancyCounters loadOccupancyCounters(ParkingSpotRepository parkingSpotRepository){
+        Map<ParkingType, Occupancy> occupancy = parkingSpotRepository.getOccupancy();
+        if (occupancy == null) {
+            logger.error("Unable to load occupancy of lot " + parkingSpotRepository.getLotId() + ", occupancy counters disabled");
+            return null;
+        }
+        OccupancyCounters occupancyCounters = new OccupancyCounters();
+        occupancyCounters.load(occupancy);
+        occupancyCounters.startReconciliation(parkingSpotRepository, ApplicationConfig.getLong("parking.occupancy.reconcilePeriodMillis", 30_000));
+        registerOccupancyGauges(parkingSpotRepository.getLotId(), occupancyCounters);
+        return occupancyCounters;
+    }
+
+    // read from the counters, so scraping never queries the database; without them there is no occupancy gauge
+    private static void registerOccupancyGauges(int lotId, OccupancyCounters occupancyCounters){
+        for (ParkingType parkingType : ParkingType.values()) {
+            String lot = Integer.toString(lotId);
+            Metrics.gauge("parking_spots_total", () -> occupancyCounters.get(parkingType).getTotal(), "lot", lot, "type", parkingType.name());
+            Metrics.gauge("parking_spots_available", () -> occupancyCounters.get(parkingType).getAvailable(), "lot", lot, "type", parkingType.name());
+            Metrics.gauge("parking_spots_occupied", () -> occupancyCounters.get(parkingType).getOccupied(), "lot", lot, "type", parkingType.name());
+        }
+    }
+
+    private static void enableOpenTicketCache(TicketDAO ticketDAO){
+        List<Ticket> openTickets = ticketDAO.getOpenTickets();
+        if (openTickets == null) {
+            logger.error("Unable to load open tickets of lot " + ticketDAO.getLotId() + ", open ticket cache disabled");
+            return;
+        }
+        OpenTicketCache openTicketCache = new OpenTicketCache();
+        openTicketCache.load(openTickets);
+        ticketDAO.setOpenTicketCache(openTicketCache);
+    }
+
+    // loaded after the journal recovery, so the events it applied are counted by the query and not twice
+    private static void enableRevenueRollups(TicketDAO ticketDAO){
+        RevenueRollups revenueRollups = new RevenueRollups(ApplicationConfig.getInt("rollups.hours", 48),
+                ApplicationConfig.getInt("rollups.days", 92), ZoneId.systemDefault());
+        List<Rollup> rollups = ticketDAO.getRollups(revenueRollups.getRetentionStart(System.currentTimeMillis()));
+        if (rollups == null) {
+            logger.error("Unable to load revenue rollups of lot " + ticketDAO.getLotId() + ", revenue rollups disabled");
+            return;
+        }
+        revenueRollups.load(rollups);
+        ticketDAO.setRevenueRollups(revenueRollups);
+    }
+
+    private static TicketArchiver startTicketArchiver(TicketRepository ticketRepository){
+        int horizonDays = ApplicationConfig.getInt("ticket.archive.horizonDays", 365);
+        if (horizonDays < ApplicationConfig.getInt("rollups.days", 92)) {
+            logger.warn("ticket.archive.horizonDays is shorter than rollups.days: the revenue rollups are loaded from the live"
+                    + " tickets only and will miss the archived days");
+        }
+        TicketArchiver ticketArchiver = new TicketArchiver(ticketRepository, horizonDays,
+                ApplicationConfig.getInt("ticket.archive.batchSize", 500),
+                ApplicationConfig.getLong("ticket.archive.pauseMillis", 200),
+                LocalTime.parse(ApplicationConfig.getString("ticket.archive.windowStart", "02:00")),
+                LocalTime.parse(ApplicationConfig.getString("ticket.archive.windowEnd", "05:00")),
+                ZoneId.systemDefault());
+        ticketArchiver.start(ApplicationConfig.getLong("ticket.archive.checkPeriodMillis", 600_000));
+        return ticketArchiver;
+    }
+
+    // one registry for every lot, a stay in any lot earns the discount everywhere
+    private static void enableReturningCustomerRegistry(LotRouter lotRouter, Iterable<TicketDAO> ticketDAOs){
+        ReturningCustomerRegistry registry = new ReturningCustomerRegistry(
+                ApplicationConfig.getInt("ticket.returningCustomers.expected", 1_000_000),
+                ApplicationConfig.getDouble("ticket.returningCustomers.falsePositiveRate", 0.01),
+                ApplicationConfig.getInt("ticket.returningCustomers.maxConfirmed", 100_000));
+        if (lotRouter.loadReturningCustomers(registry) < 0) {
+            logger.error("Unable to load returning customers, returning customer registry disabled");
+            return;
+        }
+        for (TicketDAO ticketDAO : ticketDAOs) {
+            ticketDAO.setReturningCustomerRegistry(registry);
+        }
+    }
+}
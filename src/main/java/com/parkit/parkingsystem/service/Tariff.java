@@ -0,0 +1,313 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * A tariff definition compiled into flat arrays, one row per (lot, parking type).
+ * Each row splits the day into segments with an hourly rate, and can cap what a calendar day costs.
+ * Pricing a stay walks the segments of its first and last day only, full days in between cost a precomputed amount,
+ * so it is O(segments) and allocates nothing. Instances are immutable; TariffLoader swaps them on reload.
+ *
+ * Definition keys (hours are local time, HH:mm, and a band ends where it starts the next day if end <= start):
+ * <pre>
+ * free.minutes=30                                  stays shorter than this cost nothing
+ * discount.returningCustomer.percent=5
+ * rate.CAR=1.5                                     hourly rate, required for every parking type
+ * bands.CAR=20:00-08:00=0.5,12:00-14:00=2.0       rate by time of day, rate.CAR elsewhere
+ * cap.daily.CAR=15                                 most a calendar day can cost
+ * lot.2.rate.CAR=2.0                               any rate, bands or cap key, for lot 2 only
+ * </pre>
+ * Parking types are those of the ParkingType enum, which the TYPE column of the parking table also holds:
+ * a definition cannot introduce a vehicle type, a new type is added to the enum and the schema first.
+ */
+public class Tariff {
+
+    public static final int DEFAULT_LOT = ParkingSpot.DEFAULT_LOT;
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    private static final int DAY_MINUTES = 24 * 60;
+    private static final int TYPES = ParkingType.values().length;
+
+    private final double freeHours;
+    private final double discountMultiplier;
+    private final BigDecimal discountPercent;
+    private final TimeZone timeZone;
+    // sorted lot ids, row block i * TYPES belongs to lotIds[i]; lot DEFAULT_LOT is always present
+    private final int[] lotIds;
+    // segments of row k are at [segmentOffset[k], segmentOffset[k + 1])
+    private final int[] segmentOffset;
+    private final long[] segmentStartMillis;
+    private final double[] segmentRate;
+    private final double[] dailyCap;
+    private final double[] fullDayCost;
+    // single segment and no cap: priced as duration * rate, exactly like the original fixed rates
+    private final boolean[] flatRate;
+
+    private Tariff(double freeHours, BigDecimal discountPercent, double discountMultiplier, TimeZone timeZone, int[] lotIds, int[] segmentOffset,
+                   long[] segmentStartMillis, double[] segmentRate, double[] dailyCap) {
+        this.freeHours = freeHours;
+        this.discountMultiplier = discountMultiplier;
+        this.discountPercent = discountPercent;
+        this.timeZone = timeZone;
+        this.lotIds = lotIds;
+        this.segmentOffset = segmentOffset;
+        this.segmentStartMillis = segmentStartMillis;
+        this.segmentRate = segmentRate;
+        this.dailyCap = dailyCap;
+        int rows = lotIds.length * TYPES;
+        this.fullDayCost = new double[rows];
+        this.flatRate = new boolean[rows];
+        for (int row = 0; row < rows; row++) {
+            flatRate[row] = segmentOffset[row + 1] - segmentOffset[row] == 1 && Double.isInfinite(dailyCap[row]);
+            fullDayCost[row] = dayCost(row, 0, DAY_MILLIS);
+        }
+    }
+
+    /**
+     * The fixed rates of the Fare constants, a free half-hour and 5% off for returning customers.
+     */
+    public static Tariff defaults() {
+        Properties definition = new Properties();
+        definition.setProperty("free.minutes", "30");
+        definition.setProperty("discount.returningCustomer.percent", "5");
+        definition.setProperty("rate." + ParkingType.CAR, Double.toString(Fare.CAR_RATE_PER_HOUR));
+        definition.setProperty("rate." + ParkingType.BIKE, Double.toString(Fare.BIKE_RATE_PER_HOUR));
+        return compile(definition, TimeZone.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException when the definition is incomplete or inconsistent
+     */
+    public static Tariff compile(Properties definition, TimeZone timeZone) {
+        TreeSet<Integer> lots = new TreeSet<>();
+        lots.add(DEFAULT_LOT);
+        for (String key : definition.stringPropertyNames()) {
+            if (key.startsWith("lot.")) {
+                lots.add(parseLotId(key));
+            } else if (!key.equals("free.minutes") && !key.equals("discount.returningCustomer.percent")) {
+                checkTypeKey(key, key);
+            }
+        }
+        int[] lotIds = new int[lots.size()];
+        int lotIndex = 0;
+        for (int lotId : lots) {
+            lotIds[lotIndex++] = lotId;
+        }
+
+        int rows = lotIds.length * TYPES;
+        int[] segmentOffset = new int[rows + 1];
+        List<long[]> starts = new ArrayList<>();
+        List<double[]> rates = new ArrayList<>();
+        double[] dailyCap = new double[rows];
+        int segments = 0;
+        for (int i = 0; i < lotIds.length; i++) {
+            String prefix = lotIds[i] == DEFAULT_LOT ? "" : "lot." + lotIds[i] + ".";
+            for (ParkingType type : ParkingType.values()) {
+                int row = i * TYPES + type.ordinal();
+                String rate = lookup(definition, prefix, "rate." + type);
+                if (rate == null) {
+                    throw new IllegalArgumentException("Missing rate." + type);
+                }
+                String cap = lookup(definition, prefix, "cap.daily." + type);
+                dailyCap[row] = cap == null ? Double.POSITIVE_INFINITY : parseAmount("cap.daily." + type, cap);
+                compileSegments(type, parseAmount("rate." + type, rate), lookup(definition, prefix, "bands." + type), starts, rates);
+                segmentOffset[row] = segments;
+                segments += starts.get(starts.size() - 1).length;
+            }
+        }
+        segmentOffset[rows] = segments;
+        long[] segmentStartMillis = new long[segments];
+        double[] segmentRate = new double[segments];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(starts.get(row), 0, segmentStartMillis, segmentOffset[row], starts.get(row).length);
+            System.arraycopy(rates.get(row), 0, segmentRate, segmentOffset[row], rates.get(row).length);
+        }
+
+        double freeMinutes = parseAmount("free.minutes", definition.getProperty("free.minutes", "0"));
+        BigDecimal discountPercent = new BigDecimal(definition.getProperty("discount.returningCustomer.percent", "0").trim());
+        if (discountPercent.signum() < 0 || discountPercent.compareTo(BigDecimal.valueOf(100)) > 0) {
+            throw new IllegalArgumentException("discount.returningCustomer.percent must be between 0 and 100");
+        }
+        // 1 - percent / 100 computed exactly, so 5% gives the same multiplier as the literal 0.95
+        double discountMultiplier = BigDecimal.ONE.subtract(discountPercent.movePointLeft(2)).doubleValue();
+        return new Tariff(freeMinutes / 60.0, discountPercent, discountMultiplier, timeZone, lotIds, segmentOffset, segmentStartMillis, segmentRate, dailyCap);
+    }
+
+    /**
+     * @return the price of a stay in cents, HALF_UP
+     */
+    public long priceInCents(int lotId, ParkingType parkingType, long inMillis, long outMillis, boolean discount) {
+        long durationMillis = outMillis - inMillis;
+        double durationHours = durationMillis / (1_000.0 * 60.0 * 60.0);
+        if (durationHours < freeHours) {
+            return 0;
+        }
+        int row = row(lotId, parkingType);
+        double amount = flatRate[row]
+                ? durationHours * segmentRate[segmentOffset[row]]
+                : bandedAmount(row, inMillis, outMillis);
+        double discountValue = discount ? discountMultiplier : 1;
+        return FareCalculatorService.roundToCents(amount * discountValue);
+    }
+
+    /**
+     * @return discount.returningCustomer.percent as written in the definition, 0 when absent
+     */
+    public BigDecimal getReturningCustomerDiscountPercent() {
+        return discountPercent;
+    }
+
+    public boolean hasLot(int lotId) {
+        return Arrays.binarySearch(lotIds, lotId) >= 0;
+    }
+
+    private int row(int lotId, ParkingType parkingType) {
+        int lotIndex = Arrays.binarySearch(lotIds, lotId);
+        // lots without their own rates use the default ones
+        return (lotIndex < 0 ? Arrays.binarySearch(lotIds, DEFAULT_LOT) : lotIndex) * TYPES + parkingType.ordinal();
+    }
+
+    private double bandedAmount(int row, long inMillis, long outMillis) {
+        // calendar days follow the offset in effect at entry, a DST change during the stay shifts band edges by an hour
+        long offset = timeZone.getOffset(inMillis);
+        long localIn = inMillis + offset;
+        long localOut = outMillis + offset;
+        long firstDay = Math.floorDiv(localIn, DAY_MILLIS);
+        long lastDay = Math.floorDiv(localOut, DAY_MILLIS);
+        long inTimeOfDay = localIn - firstDay * DAY_MILLIS;
+        long outTimeOfDay = localOut - lastDay * DAY_MILLIS;
+        if (firstDay == lastDay) {
+            return dayCost(row, inTimeOfDay, outTimeOfDay);
+        }
+        return dayCost(row, inTimeOfDay, DAY_MILLIS)
+                + (lastDay - firstDay - 1) * fullDayCost[row]
+                + dayCost(row, 0, outTimeOfDay);
+    }
+
+    private double dayCost(int row, long fromTimeOfDay, long toTimeOfDay) {
+        double amount = 0;
+        int end = segmentOffset[row + 1];
+        for (int segment = segmentOffset[row]; segment < end; segment++) {
+            long segmentStart = segmentStartMillis[segment];
+            long segmentEnd = segment + 1 < end ? segmentStartMillis[segment + 1] : DAY_MILLIS;
+            long overlap = Math.min(toTimeOfDay, segmentEnd) - Math.max(fromTimeOfDay, segmentStart);
+            if (overlap > 0) {
+                amount += overlap / (double) HOUR_MILLIS * segmentRate[segment];
+            }
+        }
+        return Math.min(amount, dailyCap[row]);
+    }
+
+    // lot keys fall back to the default lot key of the same name
+    private static String lookup(Properties definition, String lotPrefix, String key) {
+        String value = lotPrefix.isEmpty() ? null : definition.getProperty(lotPrefix + key);
+        return value != null ? value : definition.getProperty(key);
+    }
+
+    private static void compileSegments(ParkingType type, double baseRate, String bands, List<long[]> starts, List<double[]> rates) {
+        double[] ratePerMinute = new double[DAY_MINUTES];
+        Arrays.fill(ratePerMinute, baseRate);
+        if (bands != null && !bands.trim().isEmpty()) {
+            boolean[] covered = new boolean[DAY_MINUTES];
+            for (String band : bands.split(",")) {
+                // HH:mm-HH:mm=rate
+                String[] rangeAndRate = band.trim().split("=");
+                String[] range = rangeAndRate.length == 2 ? rangeAndRate[0].split("-") : new String[0];
+                if (range.length != 2) {
+                    throw new IllegalArgumentException("Invalid band '" + band.trim() + "' for " + type + ", expected HH:mm-HH:mm=rate");
+                }
+                int start = parseMinuteOfDay(range[0]);
+                int end = parseMinuteOfDay(range[1]);
+                double rate = parseAmount("bands." + type, rangeAndRate[1]);
+                int length = Math.floorMod(end - start - 1, DAY_MINUTES) + 1;
+                for (int i = 0; i < length; i++) {
+                    int minute = (start + i) % DAY_MINUTES;
+                    if (covered[minute]) {
+                        throw new IllegalArgumentException("Overlapping bands for " + type + " at " + range[0].trim());
+                    }
+                    covered[minute] = true;
+                    ratePerMinute[minute] = rate;
+                }
+            }
+        }
+        List<Integer> segmentStarts = new ArrayList<>();
+        for (int minute = 0; minute < DAY_MINUTES; minute++) {
+            if (minute == 0 || ratePerMinute[minute] != ratePerMinute[minute - 1]) {
+                segmentStarts.add(minute);
+            }
+        }
+        long[] rowStarts = new long[segmentStarts.size()];
+        double[] rowRates = new double[segmentStarts.size()];
+        for (int i = 0; i < rowStarts.length; i++) {
+            rowStarts[i] = segmentStarts.get(i) * MINUTE_MILLIS;
+            rowRates[i] = ratePerMinute[segmentStarts.get(i)];
+        }
+        starts.add(rowStarts);
+        rates.add(rowRates);
+    }
+
+    private static int parseMinuteOfDay(String time) {
+        String[] hoursAndMinutes = time.trim().split(":");
+        try {
+            int hours = Integer.parseInt(hoursAndMinutes[0]);
+            int minutes = hoursAndMinutes.length > 1 ? Integer.parseInt(hoursAndMinutes[1]) : 0;
+            if (hoursAndMinutes.length <= 2 && hours >= 0 && hours <= 24 && minutes >= 0 && minutes < 60 && hours * 60 + minutes <= DAY_MINUTES) {
+                return (hours * 60 + minutes) % DAY_MINUTES;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid time of day '" + time.trim() + "'");
+    }
+
+    private static double parseAmount(String key, String value) {
+        double amount;
+        try {
+            amount = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number '" + value.trim() + "' for " + key);
+        }
+        if (amount < 0 || Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Invalid number '" + value.trim() + "' for " + key);
+        }
+        return amount;
+    }
+
+    private static int parseLotId(String key) {
+        int end = key.indexOf('.', "lot.".length());
+        try {
+            if (end > 0) {
+                checkTypeKey(key.substring(end + 1), key);
+                return Integer.parseInt(key.substring("lot.".length(), end));
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid lot key " + key);
+    }
+
+    private static void checkTypeKey(String key, String fullKey) {
+        int typeStart = key.lastIndexOf('.');
+        String name = typeStart < 0 ? "" : key.substring(0, typeStart);
+        if (!name.equals("rate") && !name.equals("bands") && !name.equals("cap.daily")) {
+            throw new IllegalArgumentException("Unknown tariff key " + fullKey);
+        }
+        try {
+            ParkingType.valueOf(key.substring(typeStart + 1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown parking type in " + fullKey + ", expected one of " + Arrays.toString(ParkingType.values()));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.ApplicationConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Compiles the tariff definition file and recompiles it when the file changes, without restarting.
+ * A definition that does not compile is logged and ignored, the previous tariff stays in force.
+ * Fares being calculated while a new tariff is swapped in finish with the tariff they started with.
+ */
+public class TariffLoader implements Supplier<Tariff> {
+
+    private static final Logger logger = LogManager.getLogger("TariffLoader");
+
+    private final Path file;
+    private final AtomicReference<Tariff> tariff;
+    private long loadedModifiedTime = Long.MIN_VALUE;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * @param fallback tariff used until the file has been compiled successfully
+     */
+    public TariffLoader(Path file, Tariff fallback) {
+        this.file = file;
+        this.tariff = new AtomicReference<>(fallback);
+    }
+
+    /**
+     * The tariff file named by tariff.file, watched for changes, or the default tariff when none is set.
+     */
+    public static Supplier<Tariff> fromConfig() {
+        String file = ApplicationConfig.getString("tariff.file", "");
+        if (file.trim().isEmpty()) {
+            Tariff tariff = Tariff.defaults();
+            return () -> tariff;
+        }
+        TariffLoader tariffLoader = new TariffLoader(Paths.get(file.trim()), Tariff.defaults());
+        tariffLoader.reload();
+        tariffLoader.startWatching(ApplicationConfig.getLong("tariff.reloadPeriodMillis", 10_000));
+        return tariffLoader;
+    }
+
+    @Override
+    public Tariff get() {
+        return tariff.get();
+    }
+
+    /**
+     * Recompiles the file if it changed since the last successful load.
+     * @return true when a new tariff is now in force
+     */
+    public synchronized boolean reload() {
+        try {
+            long modifiedTime = Files.getLastModifiedTime(file).toMillis();
+            if (modifiedTime == loadedModifiedTime) {
+                return false;
+            }
+            Properties definition = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                definition.load(in);
+            }
+            tariff.set(Tariff.compile(definition, TimeZone.getDefault()));
+            loadedModifiedTime = modifiedTime;
+            logger.info("Tariff loaded from " + file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Unable to load tariff from " + file + ", keeping the current one", e);
+            return false;
+        }
+    }
+
+    public synchronized void startWatching(long periodMillis) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tariff-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reload, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+}
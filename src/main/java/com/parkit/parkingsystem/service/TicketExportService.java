@@ -0,0 +1,160 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.util.TicketColumnFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Exports the closed tickets to TicketColumnFile files partitioned by day of entry:
+ * &lt;directory&gt;/day=&lt;yyyy-MM-dd&gt;/tickets-&lt;first ID&gt;.tcf.gz.
+ * Tickets are streamed in ID order and a single file is open at a time, so memory does not grow with the row count.
+ * Once a file is complete, &lt;directory&gt;/export.state records the last ID exported (first line) and the IDs below it of
+ * the tickets still open then (second line, comma-separated); the next run exports those that closed since, and the
+ * tickets after the last ID. A ticket left open for good is carried from run to run without holding back the others.
+ */
+public class TicketExportService {
+
+    private static final Logger logger = LogManager.getLogger("TicketExportService");
+
+    static final String STATE_FILE = "export.state";
+
+    private final TicketRepository ticketRepository;
+    private final Path directory;
+    private final int rowGroupSize;
+    private final ZoneId zone;
+
+    public TicketExportService(TicketRepository ticketRepository, Path directory, int rowGroupSize, ZoneId zone) {
+        this.ticketRepository = ticketRepository;
+        this.directory = directory;
+        this.rowGroupSize = rowGroupSize;
+        this.zone = zone;
+    }
+
+    /**
+     * Exports the tickets closed since the last run.
+     */
+    public Summary export() throws Exception {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+        readState(summary);
+        // open in the range read this run, until a complete file moves the last ID past them
+        NavigableSet<Integer> openIds = new TreeSet<>();
+        TicketColumnFile.Writer[] current = {null};
+        LocalDate[] currentDay = {null};
+        try {
+            int lastId = ticketRepository.forEachTicketToExport(summary.lastId, new TreeSet<>(summary.heldBackIds), openIds, ticket -> {
+                LocalDate day = Instant.ofEpochMilli(ticket.getInTime().getTime()).atZone(zone).toLocalDate();
+                if (!day.equals(currentDay[0])) {
+                    if (current[0] != null) {
+                        complete(current[0], summary, openIds);
+                    }
+                    current[0] = new TicketColumnFile.Writer(directory.resolve("day=" + day)
+                            .resolve("tickets-" + ticket.getId() + ".tcf.gz"), rowGroupSize);
+                    currentDay[0] = day;
+                }
+                current[0].add(ticket);
+                // closed between the read of the open IDs and its own row
+                summary.heldBackIds.remove(ticket.getId());
+                openIds.remove(ticket.getId());
+            });
+            if (current[0] != null) {
+                complete(current[0], summary, openIds);
+                current[0] = null;
+            }
+            summary.lastId = Math.max(summary.lastId, lastId);
+            summary.heldBackIds.addAll(openIds);
+            writeState(summary);
+        } catch (Exception e) {
+            if (current[0] != null) {
+                current[0].abort(); // the next run writes it again, from the last complete file
+            }
+            throw e;
+        }
+        logger.info("Exported " + summary.tickets + " tickets to " + summary.files + " files in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms, last ID " + summary.lastId
+                + (summary.heldBackIds.isEmpty() ? "" : ", " + summary.heldBackIds.size()
+                        + " tickets still open held back, the oldest is ID " + summary.heldBackIds.first()));
+        return summary;
+    }
+
+    private void complete(TicketColumnFile.Writer writer, Summary summary, NavigableSet<Integer> openIds) throws IOException {
+        writer.close();
+        summary.tickets += writer.getTickets();
+        summary.files++;
+        // the held back tickets come first and are below the last ID
+        summary.lastId = Math.max(summary.lastId, writer.getLastId());
+        NavigableSet<Integer> passed = openIds.headSet(summary.lastId, true);
+        summary.heldBackIds.addAll(passed);
+        passed.clear();
+        writeState(summary);
+    }
+
+    void readState(Summary summary) throws IOException {
+        Path state = directory.resolve(STATE_FILE);
+        if (!Files.exists(state)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(state, StandardCharsets.UTF_8);
+        summary.lastId = Integer.parseInt(lines.get(0).trim());
+        if (lines.size() > 1 && !lines.get(1).trim().isEmpty()) {
+            for (String id : lines.get(1).split(",")) {
+                summary.heldBackIds.add(Integer.parseInt(id.trim()));
+            }
+        }
+    }
+
+    private void writeState(Summary summary) throws IOException {
+        Files.createDirectories(directory);
+        StringBuilder state = new StringBuilder().append(summary.lastId).append('\n');
+        for (Integer id : summary.heldBackIds) {
+            if (state.charAt(state.length() - 1) != '\n') {
+                state.append(',');
+            }
+            state.append(id);
+        }
+        Path temporary = directory.resolve(STATE_FILE + ".tmp");
+        Files.write(temporary, state.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, directory.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static final class Summary {
+        private long tickets;
+        private int files;
+        private int lastId;
+        private final SortedSet<Integer> heldBackIds = new TreeSet<>();
+
+        public long getTickets() {
+            return tickets;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getLastId() {
+            return lastId;
+        }
+
+        /**
+         * @return the IDs below the last one of the tickets still open, exported by a later run once they are closed
+         */
+        public SortedSet<Integer> getHeldBackIds() {
+            return Collections.unmodifiableSortedSet(heldBackIds);
+        }
+    }
+}
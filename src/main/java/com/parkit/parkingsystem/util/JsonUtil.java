@@ -0,0 +1,157 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the flat JSON objects exchanged with the gate controllers. Nested objects and arrays are not supported.
+ */
+public class JsonUtil {
+
+    /**
+     * @return the members of a flat object; strings are unescaped, other values are kept as written, null as null
+     * @throws IllegalArgumentException when the text is not a flat JSON object
+     */
+    public static Map<String, String> parseObject(String json) {
+        Map<String, String> members = new LinkedHashMap<>();
+        int[] position = {skipWhitespace(json, 0)};
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            position[0]++;
+        } else {
+            while (true) {
+                String name = readString(json, position);
+                expect(json, position, ':');
+                String value = peek(json, position) == '"' ? readString(json, position) : readLiteral(json, position);
+                members.put(name, value);
+                char next = peek(json, position);
+                position[0]++;
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("Expected ',' or '}' at " + (position[0] - 1));
+                }
+            }
+        }
+        if (skipWhitespace(json, position[0]) != json.length()) {
+            throw new IllegalArgumentException("Unexpected content after the object");
+        }
+        return members;
+    }
+
+    /**
+     * Writes the members as a JSON object. Numbers and booleans are written as such, anything else as a string.
+     */
+    public static String toJson(Map<String, ?> members) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, ?> member : members.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendString(json, member.getKey()).append(':');
+            Object value = member.getValue();
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                appendString(json, value.toString());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+
+    private static String readString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (i < json.length()) {
+            char c = json.charAt(i++);
+            if (c == '"') {
+                position[0] = i;
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u': {
+                    if (i + 4 > json.length()) {
+                        throw new IllegalArgumentException("Invalid unicode escape at " + i);
+                    }
+                    value.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                }
+                default: value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static String readLiteral(String json, int[] position) {
+        int start = position[0];
+        int end = start;
+        while (end < json.length() && ",}".indexOf(json.charAt(end)) < 0 && !Character.isWhitespace(json.charAt(end))) {
+            end++;
+        }
+        String literal = json.substring(start, end);
+        if (literal.isEmpty() || literal.charAt(0) == '{' || literal.charAt(0) == '[') {
+            throw new IllegalArgumentException("Unsupported value at " + start);
+        }
+        position[0] = end;
+        return literal.equals("null") ? null : literal;
+    }
+
+    private static void expect(String json, int[] position, char expected) {
+        if (peek(json, position) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    // skips whitespace and returns the next character, or 0 at the end
+    private static char peek(String json, int[] position) {
+        position[0] = skipWhitespace(json, position[0]);
+        return position[0] < json.length() ? json.charAt(position[0]) : 0;
+    }
+
+    private static int skipWhitespace(String json, int position) {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,165 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with log-linear buckets, in the manner of HdrHistogram:
+ * each power of two is split into SUB_BUCKETS linear buckets, so any recorded value is reported within ~3%
+ * whatever its magnitude, in a fixed array and without allocating on record. Counts are cumulative since creation.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below SUB_BUCKETS are exact, then SUB_BUCKETS buckets per power of two up to 2^63
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Summary of a histogram at one point in time; durations in milliseconds.
+     */
+    public static class Snapshot {
+        private final long count;
+        private final double sumMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double p999Millis;
+        private final double maxMillis;
+
+        Snapshot(long count, double sumMillis, double p50Millis, double p90Millis, double p99Millis, double p999Millis, double maxMillis) {
+            this.count = count;
+            this.sumMillis = sumMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.p999Millis = p999Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSumMillis() {
+            return sumMillis;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : sumMillis / count;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getP999Millis() {
+            return p999Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        sumNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since startNanos, a System.nanoTime() reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the highest value of the bucket holding the quantile, in nanoseconds, or 0 when nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        return valuesAtQuantiles(new double[]{quantile})[0];
+    }
+
+    public Snapshot snapshot() {
+        long[] values = valuesAtQuantiles(new double[]{0.5, 0.9, 0.99, 0.999});
+        return new Snapshot(getCount(), toMillis(sumNanos.get()), toMillis(values[0]), toMillis(values[1]),
+                toMillis(values[2]), toMillis(values[3]), toMillis(maxNanos.get()));
+    }
+
+    // one pass over the buckets for all quantiles, which must be in increasing order
+    long[] valuesAtQuantiles(double[] quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[quantiles.length];
+        if (total == 0) {
+            return values;
+        }
+        long seen = 0;
+        int q = 0;
+        for (int i = 0; i < BUCKETS && q < quantiles.length; i++) {
+            seen += snapshot[i];
+            while (q < quantiles.length && seen > 0 && seen >= Math.ceil(quantiles[q] * total)) {
+                values[q++] = Math.min(highestValueOf(i), maxNanos.get());
+            }
+        }
+        return values;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,211 @@
+package com.parkit.parkingsystem.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of timers, counters and gauges, exposed through JMX (registerMBean) and in the Prometheus
+ * text format (writeText, served by the gate server on GET /metrics).
+ * A series is a metric name plus label pairs, e.g. timer("parking_dao_seconds", "dao", "TicketDAO", "method", "getTicket").
+ * Look series up once and keep them in a field: recording is then a few atomic increments, with no lookup or allocation.
+ */
+public final class Metrics {
+
+    private static final Logger logger = LogManager.getLogger("Metrics");
+
+    public static final String OBJECT_NAME = "com.parkit.parkingsystem:type=Metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Comparator<String> BY_NAME = Comparator.comparing(Metrics::nameOf).thenComparing(Comparator.naturalOrder());
+
+    // keyed by series, name{label="value",...}
+    private static final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    public static LatencyHistogram timer(String name, String... labels) {
+        return timers.computeIfAbsent(series(name, labels), key -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(series(name, labels), key -> new LongAdder());
+    }
+
+    /**
+     * Registers, or replaces, a value read on every scrape.
+     */
+    public static void gauge(String name, LongSupplier value, String... labels) {
+        gauges.put(series(name, labels), value);
+    }
+
+    public static void removeGauge(String name, String... labels) {
+        gauges.remove(series(name, labels));
+    }
+
+    /**
+     * Writes every series in the Prometheus text exposition format (version 0.0.4); timers are summaries in seconds.
+     */
+    public static void writeText(StringBuilder out) {
+        String lastName = null;
+        for (Map.Entry<String, LatencyHistogram> timer : sorted(timers).entrySet()) {
+            String name = nameOf(timer.getKey());
+            String labels = labelsOf(timer.getKey());
+            if (!name.equals(lastName)) {
+                out.append("# TYPE ").append(name).append(" summary\n");
+                lastName = name;
+            }
+            LatencyHistogram histogram = timer.getValue();
+            long[] values = histogram.valuesAtQuantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                String quantile = "quantile=\"" + QUANTILES[i] + "\"";
+                out.append(name).append('{').append(labels.isEmpty() ? quantile : labels + "," + quantile).append("} ")
+                        .append(values[i] / 1e9).append('\n');
+            }
+            appendSample(out, name + "_sum", labels, Double.toString(histogram.getSumNanos() / 1e9));
+            appendSample(out, name + "_count", labels, Long.toString(histogram.getCount()));
+        }
+        lastName = null;
+        for (Map.Entry<String, LongAdder> counter : sorted(counters).entrySet()) {
+            String name = nameOf(counter.getKey());
+            if (!name.equals(lastName)) {
+                out.append("# TYPE ").append(name).append(" counter\n");
+                lastName = name;
+            }
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        lastName = null;
+        for (Map.Entry<String, Long> gauge : readGauges().entrySet()) {
+            String name = nameOf(gauge.getKey());
+            if (!name.equals(lastName)) {
+                out.append("# TYPE ").append(name).append(" gauge\n");
+                lastName = name;
+            }
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue()).append('\n');
+        }
+    }
+
+    public static String toText() {
+        StringBuilder out = new StringBuilder();
+        writeText(out);
+        return out.toString();
+    }
+
+    /**
+     * Registers the MetricsMXBean with the platform MBean server, once.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new MBean(), objectName);
+            }
+        } catch (JMException e) {
+            logger.error("Unable to register the metrics MBean", e);
+        }
+    }
+
+    private static final class MBean implements MetricsMXBean {
+        @Override
+        public Map<String, LatencyHistogram.Snapshot> getTimers() {
+            Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+            timers.forEach((series, histogram) -> snapshots.put(series, histogram.snapshot()));
+            return snapshots;
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((series, counter) -> values.put(series, counter.sum()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return readGauges();
+        }
+    }
+
+    private static Map<String, Long> readGauges() {
+        Map<String, Long> values = new TreeMap<>(BY_NAME);
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().getAsLong());
+            } catch (RuntimeException e) {
+                logger.warn("Unable to read gauge " + gauge.getKey() + ": " + e.getMessage());
+            }
+        }
+        return values;
+    }
+
+    // every series of a metric together, as the text format requires
+    private static <T> Map<String, T> sorted(Map<String, T> series) {
+        Map<String, T> sorted = new TreeMap<>(BY_NAME);
+        sorted.putAll(series);
+        return sorted;
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    static String series(String name, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs: " + name);
+        }
+        if (labels.length == 0) {
+            return name;
+        }
+        StringBuilder series = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                series.append(',');
+            }
+            series.append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                if (c == '\\' || c == '"') {
+                    series.append('\\').append(c);
+                } else if (c == '\n') {
+                    series.append("\\n");
+                } else {
+                    series.append(c);
+                }
+            }
+            series.append('"');
+        }
+        return series.append('}').toString();
+    }
+
+    private static String nameOf(String series) {
+        int brace = series.indexOf('{');
+        return brace < 0 ? series : series.substring(0, brace);
+    }
+
+    private static String labelsOf(String series) {
+        int brace = series.indexOf('{');
+        return brace < 0 ? "" : series.substring(brace + 1, series.length() - 1);
+    }
+}
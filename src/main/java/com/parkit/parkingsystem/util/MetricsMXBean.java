@@ -0,0 +1,16 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.Map;
+
+/**
+ * JMX view of the Metrics registry, under com.parkit.parkingsystem:type=Metrics. Keys are the series names
+ * of the text exposition, labels included.
+ */
+public interface MetricsMXBean {
+
+    Map<String, LatencyHistogram.Snapshot> getTimers();
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+}
@@ -0,0 +1,243 @@
+package com.parkit.parkingsystem.util;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped, column-oriented file of closed tickets, written in row groups so the writer holds at most rowGroupSize rows.
+ * <pre>
+ * file       MAGIC int, row groups, 0 int
+ * row group  row count int, then each column for all its rows:
+ *   ID                 first ID, then the difference with the previous one
+ *   PARKING_NUMBER     spot number
+ *   VEHICLE_REG_NUMBER dictionary size, dictionary entries (modified UTF-8), then the entry index of each row
+ *   PRICE              cents
+ *   IN_TIME            epoch millis, as the difference with the previous row (0 before the first)
+ *   OUT_TIME           millis after the row's IN_TIME
+ * </pre>
+ * Numbers are variable-length (7 bits per byte), signed ones zigzag-encoded first.
+ */
+public final class TicketColumnFile {
+
+    private static final int MAGIC = 0x54434631; // TCF1
+
+    private TicketColumnFile() {
+    }
+
+    /**
+     * Writes to a temporary file next to the target, moved in place by close: a file under its final name is complete.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final Path temporaryPath;
+        private final DataOutputStream out;
+        private final int[] ids;
+        private final int[] parkingNumbers;
+        private final int[] regNumberIndexes;
+        private final long[] cents;
+        private final long[] inTimes;
+        private final long[] outTimes;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final String[] dictionaryEntries;
+        private int rows;
+        private long tickets;
+        private int lastId;
+
+        public Writer(Path path, int rowGroupSize) throws IOException {
+            this.path = path;
+            this.temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)), 64 * 1024));
+            this.ids = new int[rowGroupSize];
+            this.parkingNumbers = new int[rowGroupSize];
+            this.regNumberIndexes = new int[rowGroupSize];
+            this.cents = new long[rowGroupSize];
+            this.inTimes = new long[rowGroupSize];
+            this.outTimes = new long[rowGroupSize];
+            this.dictionaryEntries = new String[rowGroupSize];
+            out.writeInt(MAGIC);
+        }
+
+        /**
+         * Adds a closed ticket; tickets must come in increasing ID order.
+         */
+        public void add(Ticket ticket) throws IOException {
+            if (rows == ids.length) {
+                flushRowGroup();
+            }
+            ids[rows] = ticket.getId();
+            parkingNumbers[rows] = ticket.getParkingSpot().getId();
+            Integer index = dictionary.get(ticket.getVehicleRegNumber());
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(ticket.getVehicleRegNumber(), index);
+                dictionaryEntries[index] = ticket.getVehicleRegNumber();
+            }
+            regNumberIndexes[rows] = index;
+            cents[rows] = Math.round(ticket.getPrice() * 100);
+            inTimes[rows] = ticket.getInTime().getTime();
+            outTimes[rows] = ticket.getOutTime().getTime();
+            rows++;
+            tickets++;
+            lastId = ticket.getId();
+        }
+
+        public long getTickets() {
+            return tickets;
+        }
+
+        public int getLastId() {
+            return lastId;
+        }
+
+        private void flushRowGroup() throws IOException {
+            out.writeInt(rows);
+            writeVarLong(out, ids[0]);
+            for (int i = 1; i < rows; i++) {
+                writeVarLong(out, ids[i] - ids[i - 1]);
+            }
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, parkingNumbers[i]);
+            }
+            writeVarLong(out, dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                out.writeUTF(dictionaryEntries[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, regNumberIndexes[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, zigzag(cents[i]));
+            }
+            long previousInTime = 0;
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, zigzag(inTimes[i] - previousInTime));
+                previousInTime = inTimes[i];
+            }
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(out, zigzag(outTimes[i] - inTimes[i]));
+            }
+            rows = 0;
+            dictionary.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (rows > 0) {
+                    flushRowGroup();
+                }
+                out.writeInt(0);
+            } finally {
+                out.close();
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Drops the file being written.
+         */
+        public void abort() throws IOException {
+            out.close();
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Reads the tickets of a file back, one row group in memory at a time. The tickets have no parking type.
+     * @return the number of tickets read
+     */
+    public static long read(Path path, int lotId, Consumer<Ticket> handler) throws IOException {
+        long tickets = 0;
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a ticket column file");
+            }
+            int rows;
+            while ((rows = in.readInt()) > 0) {
+                Ticket[] group = new Ticket[rows];
+                long id = 0;
+                for (int i = 0; i < rows; i++) {
+                    id += readVarLong(in);
+                    group[i] = new Ticket();
+                    group[i].setLotId(lotId);
+                    group[i].setId((int) id);
+                }
+                for (int i = 0; i < rows; i++) {
+                    group[i].setParkingSpot(new ParkingSpot(lotId, (int) readVarLong(in), null, true));
+                }
+                String[] dictionary = new String[(int) readVarLong(in)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = in.readUTF();
+                }
+                for (int i = 0; i < rows; i++) {
+                    group[i].setVehicleRegNumber(dictionary[(int) readVarLong(in)]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    group[i].setPrice(unzigzag(readVarLong(in)) / 100.0);
+                }
+                long inTime = 0;
+                for (int i = 0; i < rows; i++) {
+                    inTime += unzigzag(readVarLong(in));
+                    group[i].setInTime(new Date(inTime));
+                }
+                for (int i = 0; i < rows; i++) {
+                    group[i].setOutTime(new Date(group[i].getInTime().getTime() + unzigzag(readVarLong(in))));
+                }
+                for (Ticket ticket : group) {
+                    handler.accept(ticket);
+                }
+                tickets += rows;
+            }
+        }
+        return tickets;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+}
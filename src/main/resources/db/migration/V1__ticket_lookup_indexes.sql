@@ -0,0 +1,10 @@
+/* GET_TICKET filters on VEHICLE_REG_NUMBER and sorts on IN_TIME */
+create index IDX_TICKET_REG_IN_TIME on ticket (VEHICLE_REG_NUMBER, IN_TIME);
+
+/* IS_RETURNING_CUSTOMER filters on VEHICLE_REG_NUMBER and OUT_TIME IS NOT NULL */
+create index IDX_TICKET_REG_OUT_TIME on ticket (VEHICLE_REG_NUMBER, OUT_TIME);
+
+/* Open tickets: MySQL has no partial index, so index a virtual column that is only set while OUT_TIME is null */
+alter table ticket add column OPEN_VEHICLE_REG_NUMBER varchar(10)
+    generated always as (case when OUT_TIME is null then VEHICLE_REG_NUMBER end) virtual;
+create index IDX_TICKET_OPEN on ticket (OPEN_VEHICLE_REG_NUMBER);
@@ -0,0 +1,2 @@
+/* GET_NEXT_PARKING_SPOT and claimNextSpot look up the lowest free spot of a type */
+create index IDX_PARKING_TYPE_AVAILABLE on parking (TYPE, AVAILABLE, PARKING_NUMBER);
@@ -0,0 +1,2 @@
+/* GET_CLOSED_TICKETS reads a range of OUT_TIME for fare recomputation */
+create index IDX_TICKET_OUT_TIME on ticket (OUT_TIME);
@@ -0,0 +1,5 @@
+/* Last gate journal sequence applied to this database, advanced in the transaction that applies the events */
+create table journal_checkpoint (
+    JOURNAL_ID varchar(16) PRIMARY KEY,
+    APPLIED_SEQ bigint NOT NULL
+);
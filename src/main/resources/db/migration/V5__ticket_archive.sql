@@ -0,0 +1,12 @@
+/* Closed tickets older than ticket.archive.horizonDays, moved out of ticket by TicketArchiver; IDs are kept */
+create table ticket_archive (
+    ID int PRIMARY KEY,
+    PARKING_NUMBER int NOT NULL,
+    VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+    PRICE double,
+    IN_TIME DATETIME NOT NULL,
+    OUT_TIME DATETIME NOT NULL
+);
+
+/* IS_RETURNING_CUSTOMER and the discount test of GET_CLOSED_TICKETS look up archived stays by vehicle */
+create index IDX_TICKET_ARCHIVE_REG_OUT_TIME on ticket_archive (VEHICLE_REG_NUMBER, OUT_TIME);
@@ -0,0 +1,226 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.ConnectionPool;
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ConnectionPoolTest {
+
+    private final List<Connection> physicalConnections = new ArrayList<>();
+    private ConnectionPool pool;
+
+    // ----- SETUP -----
+
+    private ConnectionPool createPool(int min, int max, long leakThresholdMillis) {
+        return createPool(min, max, leakThresholdMillis, 0);
+    }
+
+    private ConnectionPool createPool(int min, int max, long leakThresholdMillis, int statementCacheSize) {
+        return createPool(min, max, leakThresholdMillis, statementCacheSize, 0);
+    }
+
+    private ConnectionPool createPool(int min, int max, long leakThresholdMillis, int statementCacheSize, long validationSkipMillis) {
+        pool = new ConnectionPool("test", () -> {
+            Connection connection = mock(Connection.class);
+            when(connection.isValid(anyInt())).thenReturn(true);
+            when(connection.getAutoCommit()).thenReturn(true);
+            when(connection.prepareStatement(anyString())).thenAnswer(invocation -> mock(PreparedStatement.class));
+            physicalConnections.add(connection);
+            return connection;
+        }, min, max, 100, 1, 60_000, leakThresholdMillis, 0, statementCacheSize, validationSkipMillis);
+        return pool;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("A returned connection is reused instead of opening a new one")
+    public void borrowReusesReturnedConnection() throws Exception {
+        // GIVEN
+        createPool(0, 2, 0);
+
+        // WHEN
+        pool.borrow().close();
+        pool.borrow().close();
+
+        // THEN
+        assertEquals(1, physicalConnections.size(), "Only one physical connection should be opened");
+        verify(physicalConnections.get(0), never()).close();
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getIdleConnections());
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    @DisplayName("Borrowing beyond the maximum size times out")
+    public void borrowFailsWhenPoolExhausted() throws Exception {
+        // GIVEN
+        createPool(0, 1, 0);
+        Connection held = pool.borrow();
+
+        // WHEN / THEN
+        assertThrows(SQLException.class, () -> pool.borrow());
+        assertEquals(1, pool.getTimeoutCount());
+        held.close();
+        assertNotNull(pool.borrow(), "A connection must be available once the first one is returned");
+    }
+
+    @Test
+    @DisplayName("A connection failing validation is discarded on borrow")
+    public void borrowDiscardsInvalidConnection() throws Exception {
+        // GIVEN
+        createPool(0, 2, 0);
+        pool.borrow().close();
+        when(physicalConnections.get(0).isValid(anyInt())).thenReturn(false);
+
+        // WHEN
+        pool.borrow();
+
+        // THEN
+        assertEquals(2, physicalConnections.size());
+        verify(physicalConnections.get(0), times(1)).close();
+        assertEquals(1, pool.getValidationFailureCount());
+    }
+
+    @Test
+    @DisplayName("A connection returned moments ago is reused without validation")
+    public void recentlyReturnedConnectionIsNotValidated() throws Exception {
+        // GIVEN
+        createPool(0, 2, 0, 0, 60_000);
+        pool.borrow().close();
+
+        // WHEN
+        pool.borrow().close();
+
+        // THEN
+        assertEquals(1, physicalConnections.size());
+        verify(physicalConnections.get(0), never()).isValid(anyInt());
+    }
+
+    @Test
+    @DisplayName("Closing a handle twice returns the connection only once")
+    public void doubleCloseIsIgnored() throws Exception {
+        // GIVEN
+        createPool(0, 1, 0);
+        Connection connection = pool.borrow();
+
+        // WHEN
+        connection.close();
+        connection.close();
+
+        // THEN
+        assertTrue(connection.isClosed());
+        assertEquals(1, pool.getIdleConnections());
+        assertThrows(SQLException.class, () -> connection.prepareStatement("select 1"));
+    }
+
+    @Test
+    @DisplayName("A closed statement is reused by the next borrow preparing the same SQL")
+    public void preparedStatementIsReusedAcrossBorrows() throws Exception {
+        // GIVEN
+        createPool(0, 1, 0, 4);
+        Connection first = pool.borrow();
+        PreparedStatement firstStatement = first.prepareStatement("select 1");
+        firstStatement.setInt(1, 42);
+        firstStatement.close();
+        first.close();
+
+        // WHEN
+        Connection second = pool.borrow();
+        PreparedStatement secondStatement = second.prepareStatement("select 1");
+
+        // THEN
+        verify(physicalConnections.get(0), times(1)).prepareStatement("select 1");
+        assertEquals(1, pool.getStatementCacheHits());
+        assertEquals(1, pool.getStatementCacheMisses());
+        assertTrue(firstStatement.isClosed());
+        assertFalse(secondStatement.isClosed());
+        assertSame(second, secondStatement.getConnection());
+        assertThrows(SQLException.class, () -> firstStatement.setInt(1, 1), "A closed handle must not reach the reused statement");
+    }
+
+    @Test
+    @DisplayName("The statement cache keeps at most its size, closing the least recently used")
+    public void statementCacheIsBounded() throws Exception {
+        // GIVEN
+        createPool(0, 1, 0, 2);
+        Connection connection = pool.borrow();
+        List<PreparedStatement> physicalStatements = new ArrayList<>();
+        when(physicalConnections.get(0).prepareStatement(anyString())).thenAnswer(invocation -> {
+            PreparedStatement statement = mock(PreparedStatement.class);
+            physicalStatements.add(statement);
+            return statement;
+        });
+
+        // WHEN
+        connection.prepareStatement("select 1").close();
+        connection.prepareStatement("select 2").close();
+        connection.prepareStatement("select 3").close();
+        connection.close();
+
+        // THEN
+        assertEquals(3, physicalStatements.size());
+        verify(physicalStatements.get(0), times(1)).close();
+        verify(physicalStatements.get(1), never()).close();
+        verify(physicalStatements.get(2), never()).close();
+    }
+
+    @Test
+    @DisplayName("A statement left open is reset and reclaimed when its connection is returned")
+    public void unclosedStatementIsReclaimedOnRelease() throws Exception {
+        // GIVEN
+        createPool(0, 1, 0, 4);
+        Connection first = pool.borrow();
+        PreparedStatement leaked = first.prepareStatement("select 1");
+
+        // WHEN
+        first.close();
+        Connection second = pool.borrow();
+        second.prepareStatement("select 1");
+
+        // THEN
+        assertTrue(leaked.isClosed());
+        assertEquals(1, pool.getStatementCacheHits());
+    }
+
+    @Test
+    @DisplayName("Lots sharing a URL with their own user get their own pool")
+    public void poolIsSharedPerUrlAndUser() {
+        // GIVEN
+        System.setProperty("db.lot.91.user", "lot91");
+        System.setProperty("db.lot.92.user", "lot92");
+        try {
+            // WHEN
+            ConnectionPool lot91 = new DataBaseConfig(91).getPool();
+            ConnectionPool lot92 = new DataBaseConfig(92).getPool();
+
+            // THEN
+            assertNotSame(lot91, lot92);
+            assertSame(lot91, new DataBaseConfig(91).getPool());
+        } finally {
+            System.clearProperty("db.lot.91.user");
+            System.clearProperty("db.lot.92.user");
+            DataBaseConfig.closePools();
+        }
+    }
+}
@@ -15,7 +15,10 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Date;
+import java.util.Random;
 import java.util.stream.Stream;
 
 public class FareCalculatorServiceTest {
@@ -228,6 +231,47 @@ public class FareCalculatorServiceTest {
     }
 
 
+    // --- TESTS FOR ROUNDING ---
+
+
+    @Test
+    @DisplayName("Should round like BigDecimal HALF_UP, including values close to half a cent")
+    public void roundMatchesBigDecimalHalfUp(){
+        // GIVEN
+        Random random = new Random(42);
+        double[] prices = new double[100_000];
+        for (int i = 0; i < prices.length; i += 2) {
+            prices[i] = random.nextDouble() * 1_000;
+            // n.nn5 is rarely exact in binary, so these land on either side of the tie
+            prices[i + 1] = (random.nextInt(100_000) + 0.5) / 100;
+        }
+
+        // WHEN THEN
+        for (double price : prices) {
+            double expected = new BigDecimal(price).setScale(2, RoundingMode.HALF_UP).doubleValue();
+            assertEquals(expected, FareCalculatorService.round(price), "Rounding differs for " + price);
+        }
+        assertEquals(0.13, FareCalculatorService.round(0.125));
+        assertEquals(1.0, FareCalculatorService.round(1.005));
+        assertEquals(2.67, FareCalculatorService.round(2.675));
+        assertEquals(-0.13, FareCalculatorService.round(-0.125));
+    }
+
+    @Test
+    @DisplayName("Should return the fare in cents without changing the ticket")
+    public void calculateFareInCents(){
+        // GIVEN
+        setUpTicketAndParkingSpot(45*60*1000,1,ParkingType.CAR,false);
+
+        // WHEN
+        long cents = fareCalculatorService.calculateFareInCents(ticket, false);
+
+        // THEN
+        assertEquals(113, cents);
+        assertEquals(0, ticket.getPrice());
+    }
+
+
     // --- MULTIPLE TESTS FOR ANY PARKING TYPE ---
 
 
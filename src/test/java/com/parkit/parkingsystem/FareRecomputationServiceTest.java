@@ -0,0 +1,102 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.FareRecomputationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class FareRecomputationServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Mock
+    private TicketDAO ticketDAO;
+
+    private ForkJoinPool pool;
+    private FareRecomputationService fareRecomputationService;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        pool = new ForkJoinPool(4);
+        fareRecomputationService = new FareRecomputationService(ticketDAO, new FareCalculatorService(), pool, 4, 2);
+    }
+
+    @AfterEach
+    public void tearDownPerTest() {
+        pool.shutdown();
+    }
+
+    private static Ticket createClosedTicket(int id, long stayMillis, double recordedPrice) {
+        Ticket ticket = new Ticket();
+        ticket.setId(id);
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, true));
+        ticket.setVehicleRegNumber("REG" + id);
+        ticket.setInTime(new Date(0));
+        ticket.setOutTime(new Date(stayMillis));
+        ticket.setPrice(recordedPrice);
+        return ticket;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Every ticket is written once, in read order, with recorded and recomputed prices")
+    public void recomputeWritesEveryTicketInOrder() throws Exception {
+        // GIVEN 2-hour car stays recorded at 3.00, every third one by a returning customer
+        when(ticketDAO.forEachClosedTicket(any(Date.class), any(Date.class), any())).thenAnswer(invocation -> {
+            TicketDAO.ClosedTicketHandler handler = invocation.getArgument(2);
+            for (int id = 1; id <= 10; id++) {
+                handler.handle(createClosedTicket(id, 2 * HOUR, 3.0), id % 3 == 0);
+            }
+            return 10L;
+        });
+        StringWriter out = new StringWriter();
+
+        // WHEN
+        FareRecomputationService.Summary summary = fareRecomputationService.recompute(new Date(0), new Date(), out);
+
+        // THEN
+        String[] lines = out.toString().split("\n");
+        assertEquals(11, lines.length);
+        for (int id = 1; id <= 10; id++) {
+            assertTrue(lines[id].startsWith(id + ",REG" + id + ",CAR,"), "Unexpected line " + lines[id]);
+        }
+        assertTrue(lines[3].endsWith(",true,3.00,2.85,-0.15"), lines[3]);
+        assertTrue(lines[1].endsWith(",false,3.00,3.00,0.00"), lines[1]);
+        assertEquals(10, summary.getTickets());
+        assertEquals(3, summary.getChangedTickets());
+        assertEquals(3000, summary.getRecordedTotalCents());
+        assertEquals(3000 - 3 * 15, summary.getRecomputedTotalCents());
+    }
+
+    @Test
+    @DisplayName("A failing read is reported, not turned into a partial result")
+    public void readFailurePropagates() throws Exception {
+        // GIVEN
+        when(ticketDAO.forEachClosedTicket(any(Date.class), any(Date.class), any())).thenThrow(new SQLException("Simulated failure"));
+
+        // WHEN THEN
+        assertThrows(SQLException.class, () -> fareRecomputationService.recompute(new Date(0), new Date(), new StringWriter()));
+    }
+}
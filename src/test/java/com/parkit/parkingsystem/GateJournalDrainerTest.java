@@ -0,0 +1,293 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.GateJournal;
+import com.parkit.parkingsystem.dao.GateJournalDrainer;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.JsonUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLRecoverableException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GateJournalDrainerTest {
+
+    private static final int CAPACITY = 4096;
+    private static final int MAX_ATTEMPTS = 2;
+
+    @Mock
+    private TicketDAO ticketDAO;
+    @Mock
+    private ParkingSpotDAO parkingSpotDAO;
+    @Mock
+    private UnitOfWork unitOfWork;
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement preparedStatement;
+    @Mock
+    private ResultSet checkpoint;
+
+    private Path journalDir;
+    private GateJournal gateJournal;
+    private GateJournalDrainer journalDrainer;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        journalDir = Files.createTempDirectory("journal");
+        gateJournal = new GateJournal(journalDir.resolve("gate.dat"), ParkingSpot.DEFAULT_LOT, CAPACITY, false);
+        journalDrainer = new GateJournalDrainer(gateJournal, ticketDAO, parkingSpotDAO, 64, 1, 1, MAX_ATTEMPTS,
+                journalDir.resolve("gate.dead.jsonl"));
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        gateJournal.close();
+        try (Stream<Path> files = Files.list(journalDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDir);
+    }
+
+    // the checkpoint row of the journal holds appliedSeq
+    private void givenDatabase(long appliedSeq) throws Exception {
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(unitOfWork.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.executeQuery()).thenReturn(checkpoint);
+        when(checkpoint.next()).thenReturn(true);
+        when(checkpoint.getLong(1)).thenReturn(appliedSeq);
+    }
+
+    private static Ticket ticket(String vehicleRegNumber, int spot, Date outTime) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(spot, ParkingType.CAR, outTime != null));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(new Date(System.currentTimeMillis() - 60 * 60 * 1000));
+        ticket.setOutTime(outTime);
+        ticket.setPrice(outTime == null ? 0 : 1.5);
+        return ticket;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Events left by the previous run are applied in one transaction with the checkpoint, then marked applied")
+    public void recoverAppliesPendingEvents() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        when(ticketDAO.saveTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("BBB", 2, null));
+
+        // WHEN
+        boolean recovered = journalDrainer.recover();
+
+        // THEN
+        assertTrue(recovered);
+        assertEquals(0, gateJournal.getPendingCount());
+        verify(ticketDAO, times(2)).saveTicket(eq(unitOfWork), any(Ticket.class));
+        verify(parkingSpotDAO, times(2)).updateParking(eq(unitOfWork), any(ParkingSpot.class));
+        verify(preparedStatement).setLong(1, 2);
+        verify(unitOfWork, times(1)).commit();
+    }
+
+    @Test
+    @DisplayName("Recovery reports the database as unavailable and keeps the events")
+    public void recoverKeepsEventsWhenTheDatabaseIsDown() throws Exception {
+        // GIVEN
+        when(parkingSpotDAO.beginUnitOfWork()).thenThrow(new SQLRecoverableException("Connection refused"));
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+
+        // WHEN
+        boolean recovered = journalDrainer.recover();
+
+        // THEN
+        assertFalse(recovered);
+        assertEquals(1, gateJournal.getPendingCount());
+    }
+
+    @Test
+    @DisplayName("Events already committed before a crash are skipped, the others are applied")
+    public void committedEventsAreSkipped() throws Exception {
+        // GIVEN the database checkpoint is ahead of the journal's applied seq
+        givenDatabase(1);
+        when(ticketDAO.saveTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("BBB", 2, null));
+
+        // WHEN
+        journalDrainer.recover();
+
+        // THEN
+        ArgumentCaptor<Ticket> saved = ArgumentCaptor.forClass(Ticket.class);
+        verify(ticketDAO).saveTicket(eq(unitOfWork), saved.capture());
+        assertEquals("BBB", saved.getValue().getVehicleRegNumber());
+        assertEquals(0, gateJournal.getPendingCount());
+    }
+
+    @Test
+    @DisplayName("An exit closes the open ticket found by registration number and frees its spot")
+    public void exitUpdatesTheOpenTicket() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        Ticket open = ticket("AAA", 3, null);
+        open.setId(12);
+        when(ticketDAO.getTicket(unitOfWork, "AAA")).thenReturn(open);
+        when(ticketDAO.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+        Ticket exit = ticket("AAA", 3, new Date());
+        exit.setDiscounted(true);
+        gateJournal.append(GateJournal.EXIT, exit);
+
+        // WHEN
+        journalDrainer.recover();
+
+        // THEN
+        ArgumentCaptor<Ticket> updated = ArgumentCaptor.forClass(Ticket.class);
+        verify(ticketDAO).updateTicket(eq(unitOfWork), updated.capture());
+        assertEquals(12, updated.getValue().getId());
+        assertEquals(exit.getOutTime(), updated.getValue().getOutTime());
+        assertEquals(1.5, updated.getValue().getPrice());
+        assertTrue(updated.getValue().isDiscounted());
+        ArgumentCaptor<ParkingSpot> freed = ArgumentCaptor.forClass(ParkingSpot.class);
+        verify(parkingSpotDAO).updateParking(eq(unitOfWork), freed.capture());
+        assertEquals(3, freed.getValue().getId());
+        assertTrue(freed.getValue().isAvailable());
+    }
+
+    @Test
+    @DisplayName("A discount the gate could not confirm is settled in the transaction closing the ticket")
+    public void unconfirmedDiscountIsSettled() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        Ticket open = ticket("AAA", 3, null);
+        open.setId(12);
+        when(ticketDAO.getTicket(unitOfWork, "AAA")).thenReturn(open);
+        when(ticketDAO.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+        Ticket exit = ticket("AAA", 3, new Date());
+        exit.setDiscounted(true);
+        gateJournal.append(GateJournal.EXIT, exit, true);
+        journalDrainer.setDiscountSettlement((settlementUnitOfWork, settled) -> {
+            assertSame(unitOfWork, settlementUnitOfWork);
+            settled.setPrice(2.0);
+            settled.setDiscounted(false);
+        });
+
+        // WHEN
+        journalDrainer.recover();
+
+        // THEN
+        ArgumentCaptor<Ticket> updated = ArgumentCaptor.forClass(Ticket.class);
+        verify(ticketDAO).updateTicket(eq(unitOfWork), updated.capture());
+        assertEquals(2.0, updated.getValue().getPrice());
+        assertFalse(updated.getValue().isDiscounted());
+    }
+
+    @Test
+    @DisplayName("An exit whose ticket update matches no row fails, and is parked like any rejected event")
+    public void exitUpdatingNoRowIsParked() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        when(ticketDAO.getTicket(unitOfWork, "AAA")).thenAnswer(invocation -> {
+            Ticket open = ticket("AAA", 3, null);
+            open.setId(12);
+            return open;
+        });
+        when(ticketDAO.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(false);
+        gateJournal.append(GateJournal.EXIT, ticket("AAA", 3, new Date()));
+
+        // WHEN
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !journalDrainer.recover(); attempt++) {
+            // the background thread retries the same way
+        }
+
+        // THEN
+        assertEquals(0, gateJournal.getPendingCount());
+        List<String> deadLetters = Files.readAllLines(journalDir.resolve("gate.dead.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(1, deadLetters.size());
+        assertEquals("EXIT", JsonUtil.parseObject(deadLetters.get(0)).get("type"));
+        verify(parkingSpotDAO, never()).updateParking(eq(unitOfWork), any(ParkingSpot.class));
+    }
+
+    @Test
+    @DisplayName("An event the database keeps rejecting is parked in the dead-letter file, the next ones are applied")
+    public void rejectedEventIsParked() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        when(ticketDAO.saveTicket(eq(unitOfWork), any(Ticket.class))).thenAnswer(invocation -> {
+            Ticket ticket = invocation.getArgument(1);
+            if (ticket.getVehicleRegNumber().equals("BAD")) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate entry");
+            }
+            return true;
+        });
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("BAD", 2, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("CCC", 3, null));
+
+        // WHEN
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !journalDrainer.recover(); attempt++) {
+            // the background thread retries the same way
+        }
+
+        // THEN
+        assertEquals(0, gateJournal.getPendingCount());
+        List<String> deadLetters = Files.readAllLines(journalDir.resolve("gate.dead.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(1, deadLetters.size());
+        Map<String, String> deadLetter = JsonUtil.parseObject(deadLetters.get(0));
+        assertEquals("2", deadLetter.get("seq"));
+        assertEquals("ENTRY", deadLetter.get("type"));
+        assertEquals("BAD", deadLetter.get("vehicleRegNumber"));
+        verify(ticketDAO, atLeastOnce()).saveTicket(eq(unitOfWork), argThat(ticket -> ticket.getVehicleRegNumber().equals("CCC")));
+    }
+
+    @Test
+    @DisplayName("A lost connection is retried without ever parking the event")
+    public void connectionFailureIsNotParked() throws Exception {
+        // GIVEN
+        givenDatabase(0);
+        when(ticketDAO.saveTicket(eq(unitOfWork), any(Ticket.class))).thenThrow(new SQLRecoverableException("Connection reset"));
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+
+        // WHEN
+        for (int attempt = 0; attempt < 2 * MAX_ATTEMPTS; attempt++) {
+            assertFalse(journalDrainer.recover());
+        }
+
+        // THEN
+        assertEquals(1, gateJournal.getPendingCount());
+        assertFalse(Files.exists(journalDir.resolve("gate.dead.jsonl")));
+    }
+}
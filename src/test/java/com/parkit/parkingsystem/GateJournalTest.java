@@ -0,0 +1,330 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.GateJournal;
+import com.parkit.parkingsystem.dao.GateJournalDrainer;
+import com.parkit.parkingsystem.dao.OpenTicketCache;
+import com.parkit.parkingsystem.dao.ParkingSpotAvailabilityIndex;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ReturningCustomerRegistry;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GateJournalTest {
+
+    private static final String REG_NUMBER = "ABCDEF";
+    private static final int CAPACITY = 4096;
+
+    private Path journalFile;
+    private GateJournal gateJournal;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        journalFile = Files.createTempDirectory("journal").resolve("gate.dat");
+        gateJournal = new GateJournal(journalFile, ParkingSpot.DEFAULT_LOT, CAPACITY, false);
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        gateJournal.close();
+        Files.deleteIfExists(journalFile);
+        Files.deleteIfExists(journalFile.getParent());
+    }
+
+    private void reopen() throws IOException {
+        gateJournal.close();
+        gateJournal = new GateJournal(journalFile, ParkingSpot.DEFAULT_LOT, CAPACITY, false);
+    }
+
+    // appends until the journal refuses the event
+    private long fill() {
+        long seq = gateJournal.getLastSeq();
+        try {
+            while (true) {
+                seq = gateJournal.append(GateJournal.ENTRY, ticket(REG_NUMBER, 1, null));
+            }
+        } catch (IOException e) {
+            return seq;
+        }
+    }
+
+    private static Ticket ticket(String vehicleRegNumber, int spot, Date outTime) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(spot, ParkingType.CAR, outTime != null));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(new Date(System.currentTimeMillis() - 60 * 60 * 1000));
+        ticket.setOutTime(outTime);
+        ticket.setPrice(outTime == null ? 0 : 1.5);
+        return ticket;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Events are read back in order with their sequence numbers and fields")
+    public void appendThenPoll() throws Exception {
+        // GIVEN
+        Ticket exit = ticket(REG_NUMBER, 1, new Date());
+        gateJournal.append(GateJournal.ENTRY, ticket(REG_NUMBER, 1, null));
+        gateJournal.append(GateJournal.EXIT, exit);
+
+        // WHEN
+        List<GateJournal.Record> records = gateJournal.poll(10);
+
+        // THEN
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).getSeq());
+        assertEquals(GateJournal.ENTRY, records.get(0).getType());
+        assertNull(records.get(0).getTicket().getOutTime());
+        assertFalse(records.get(0).getTicket().getParkingSpot().isAvailable());
+        GateJournal.Record last = records.get(1);
+        assertEquals(2, last.getSeq());
+        assertEquals(GateJournal.EXIT, last.getType());
+        assertEquals(REG_NUMBER, last.getTicket().getVehicleRegNumber());
+        assertEquals(exit.getOutTime(), last.getTicket().getOutTime());
+        assertEquals(1.5, last.getTicket().getPrice());
+        assertTrue(last.getTicket().getParkingSpot().isAvailable());
+        assertTrue(gateJournal.poll(10).isEmpty(), "Polled events are not returned twice");
+    }
+
+    @Test
+    @DisplayName("Events not marked applied are found again after a restart, sequence numbers continue")
+    public void pendingEventsSurviveRestart() throws Exception {
+        // GIVEN
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("BBB", 2, null));
+        gateJournal.markApplied(gateJournal.poll(1).get(0).getSeq());
+
+        // WHEN
+        reopen();
+
+        // THEN
+        assertEquals(1, gateJournal.getPendingCount());
+        List<GateJournal.Record> records = gateJournal.poll(10);
+        assertEquals(1, records.size());
+        assertEquals("BBB", records.get(0).getTicket().getVehicleRegNumber());
+        assertEquals(3, gateJournal.append(GateJournal.EXIT, ticket("AAA", 1, new Date())));
+    }
+
+    @Test
+    @DisplayName("A record cut short by a crash ends the journal")
+    public void tornRecordIsDropped() throws Exception {
+        // GIVEN
+        gateJournal.append(GateJournal.ENTRY, ticket("AAA", 1, null));
+        gateJournal.append(GateJournal.ENTRY, ticket("BBB", 2, null));
+        gateJournal.close();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+            // the last byte of the second registration number, as if the page was not written
+            int header = 64;
+            int recordHeader = 16;
+            int fixedPayload = 33;
+            file.seek(header + (recordHeader + fixedPayload + 3) + recordHeader + fixedPayload + 2);
+            file.write('X');
+        }
+
+        // WHEN
+        gateJournal = new GateJournal(journalFile, ParkingSpot.DEFAULT_LOT, CAPACITY, false);
+
+        // THEN
+        assertEquals(1, gateJournal.getLastSeq());
+        List<GateJournal.Record> records = gateJournal.poll(10);
+        assertEquals(1, records.size());
+        assertEquals("AAA", records.get(0).getTicket().getVehicleRegNumber());
+    }
+
+    @Test
+    @DisplayName("A full journal refuses the event, and reuses the space of the applied ones from the start of the file")
+    public void fullJournalWrapsOverAppliedEvents() throws Exception {
+        // GIVEN a full journal whose first half is applied
+        long full = fill();
+        List<GateJournal.Record> records = gateJournal.poll(Integer.MAX_VALUE);
+        assertEquals(full, records.size());
+        long applied = full / 2;
+        gateJournal.markApplied(applied);
+
+        // WHEN more events are appended, they wrap to the start of the file
+        long last = fill();
+
+        // THEN
+        assertTrue(last > full);
+        assertEquals(last - applied, gateJournal.getPendingCount());
+        List<GateJournal.Record> wrapped = gateJournal.poll(Integer.MAX_VALUE);
+        assertEquals(last - full, wrapped.size());
+        assertEquals(full + 1, wrapped.get(0).getSeq());
+        reopen();
+        assertEquals(last, gateJournal.getLastSeq());
+        List<GateJournal.Record> pending = gateJournal.poll(Integer.MAX_VALUE);
+        assertEquals(last - applied, pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            assertEquals(applied + 1 + i, pending.get(i).getSeq());
+        }
+        gateJournal.markApplied(last);
+        assertEquals(0, gateJournal.getPendingCount());
+        assertEquals(last + 1, gateJournal.append(GateJournal.ENTRY, ticket(REG_NUMBER, 1, null)));
+    }
+
+    @Test
+    @DisplayName("Gates fail at once while the journal is full, the claimed spot is released")
+    public void fullJournalFailsTheGates() throws Exception {
+        // GIVEN
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(Arrays.asList(new ParkingSpot(1, ParkingType.CAR, true), new ParkingSpot(2, ParkingType.CAR, true)));
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.setOpenTicketCache(new OpenTicketCache());
+        ticketDAO.setReturningCustomerRegistry(new ReturningCustomerRegistry(1000, 0.01, 1000));
+        ticketDAO.getReturningCustomerRegistry().setLoaded(0);
+        ticketDAO.setGateJournal(gateJournal);
+        ParkingService parkingService = new ParkingService(null, parkingSpotDAO, ticketDAO);
+        assertEquals(EntryResult.Status.ENTERED, parkingService.enter(REG_NUMBER, ParkingType.CAR).getStatus());
+        long last = fill();
+
+        // WHEN
+        EntryResult entry = parkingService.enter("BBB", ParkingType.CAR);
+        ExitResult exit = parkingService.exit(REG_NUMBER);
+
+        // THEN
+        assertEquals(EntryResult.Status.FAILED, entry.getStatus());
+        assertEquals(ExitResult.Status.FAILED, exit.getStatus());
+        assertEquals(last, gateJournal.getLastSeq());
+        assertNotNull(ticketDAO.getOpenTicketCache().get(REG_NUMBER), "The vehicle is still parked");
+        assertEquals(1, availabilityIndex.countAvailable(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Gates are answered from the journal, the index and the cache without the database")
+    public void journaledEntryAndExit() {
+        // GIVEN
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(Arrays.asList(new ParkingSpot(1, ParkingType.CAR, true), new ParkingSpot(2, ParkingType.CAR, true)));
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+        ReturningCustomerRegistry registry = new ReturningCustomerRegistry(1000, 0.01, 1000);
+        registry.setLoaded(0);
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.setOpenTicketCache(new OpenTicketCache());
+        ticketDAO.setReturningCustomerRegistry(registry);
+        ticketDAO.setGateJournal(gateJournal);
+        ParkingService parkingService = new ParkingService(null, parkingSpotDAO, ticketDAO);
+
+        // WHEN
+        EntryResult entry = parkingService.enter(REG_NUMBER, ParkingType.CAR);
+        ExitResult exit = parkingService.exit(REG_NUMBER);
+
+        // THEN
+        assertEquals(EntryResult.Status.ENTERED, entry.getStatus());
+        assertEquals(1, entry.getTicket().getParkingSpot().getId());
+        assertEquals(ExitResult.Status.EXITED, exit.getStatus());
+        assertNotNull(exit.getTicket().getOutTime());
+        assertEquals(2, gateJournal.getPendingCount());
+        assertEquals(2, availabilityIndex.countAvailable(ParkingType.CAR));
+        assertEquals(0, ticketDAO.getOpenTicketCache().size());
+        assertTrue(registry.isConfirmed(REG_NUMBER));
+    }
+
+    @Test
+    @DisplayName("A second exit of a journaled vehicle finds no open ticket and journals nothing")
+    public void journaledExitClosesTheTicketOnce() {
+        // GIVEN
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(Collections.singletonList(new ParkingSpot(1, ParkingType.CAR, true)));
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.setOpenTicketCache(new OpenTicketCache());
+        ticketDAO.setReturningCustomerRegistry(new ReturningCustomerRegistry(1000, 0.01, 1000));
+        ticketDAO.getReturningCustomerRegistry().setLoaded(0);
+        ticketDAO.setGateJournal(gateJournal);
+        ParkingService parkingService = new ParkingService(null, parkingSpotDAO, ticketDAO);
+        parkingService.enter(REG_NUMBER, ParkingType.CAR);
+
+        // WHEN
+        ExitResult first = parkingService.exit(REG_NUMBER);
+        ExitResult second = parkingService.exit(REG_NUMBER);
+
+        // THEN
+        assertEquals(ExitResult.Status.EXITED, first.getStatus());
+        assertEquals(ExitResult.Status.NO_OPEN_TICKET, second.getStatus());
+        assertEquals(2, gateJournal.getPendingCount());
+    }
+
+    @Test
+    @DisplayName("A vehicle the registry cannot rule out is discounted at the gate, the exit is flagged for the drainer")
+    public void unconfirmedReturningCustomerIsFlagged() throws Exception {
+        // GIVEN a returning customer loaded into the Bloom filter, not confirmed yet
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(Collections.singletonList(new ParkingSpot(1, ParkingType.CAR, true)));
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+        ReturningCustomerRegistry registry = new ReturningCustomerRegistry(1000, 0.01, 1000);
+        registry.add(REG_NUMBER);
+        registry.setLoaded(1);
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.setOpenTicketCache(new OpenTicketCache());
+        ticketDAO.setReturningCustomerRegistry(registry);
+        ticketDAO.setGateJournal(gateJournal);
+        ParkingService parkingService = new ParkingService(null, parkingSpotDAO, ticketDAO);
+
+        // WHEN
+        EntryResult entry = parkingService.enter(REG_NUMBER, ParkingType.CAR);
+        ExitResult exit = parkingService.exit(REG_NUMBER);
+
+        // THEN
+        assertTrue(entry.isReturningCustomer());
+        assertTrue(exit.getTicket().isDiscounted());
+        List<GateJournal.Record> records = gateJournal.poll(2);
+        assertFalse(records.get(0).isDiscountUnconfirmed());
+        assertTrue(records.get(1).isDiscountUnconfirmed());
+        assertTrue(records.get(1).getTicket().isDiscounted());
+    }
+
+    @Test
+    @DisplayName("Events still pending at startup are replayed onto the index and cache loaded from the database")
+    public void pendingEventsAreReplayedInMemory() throws Exception {
+        // GIVEN an entry already in the database, then an exit and a new entry still in the journal
+        Ticket applied = ticket("AAA", 1, null);
+        applied.setId(7);
+        gateJournal.append(GateJournal.EXIT, ticket("AAA", 1, new Date()));
+        gateJournal.append(GateJournal.ENTRY, ticket("BBB", 2, null));
+        reopen();
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(Arrays.asList(new ParkingSpot(1, ParkingType.CAR, false), new ParkingSpot(2, ParkingType.CAR, true)));
+        OpenTicketCache openTicketCache = new OpenTicketCache();
+        openTicketCache.load(Collections.singletonList(applied));
+        ReturningCustomerRegistry registry = new ReturningCustomerRegistry(1000, 0.01, 1000);
+        registry.setLoaded(0);
+
+        // WHEN
+        new GateJournalDrainer(gateJournal, new TicketDAO(), new ParkingSpotDAO(), 64, 5, 5_000, 5, null)
+                .replayPending(availabilityIndex, openTicketCache, registry);
+
+        // THEN
+        assertNull(openTicketCache.get("AAA"));
+        assertNotNull(openTicketCache.get("BBB"));
+        assertEquals(1, availabilityIndex.lowestAvailable(ParkingType.CAR));
+        assertEquals(1, availabilityIndex.countAvailable(ParkingType.CAR));
+        assertTrue(registry.isConfirmed("AAA"));
+    }
+}
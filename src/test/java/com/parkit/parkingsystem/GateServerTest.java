@@ -0,0 +1,258 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.util.JsonUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GateServerTest {
+
+    @Mock
+    private ParkingService parkingService;
+
+    private GateServer gateServer;
+
+  // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws IOException {
+        gateServer = new GateServer(parkingService, 1, 50);
+        gateServer.start(0, 4);
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws InterruptedException {
+        gateServer.stop(1_000);
+    }
+
+    private static final class Reply {
+        final int status;
+        final Map<String, String> body;
+
+        Reply(int status, Map<String, String> body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private Reply post(String path, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + gateServer.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return read(connection);
+    }
+
+    private Reply get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + gateServer.getPort() + path).openConnection();
+        return read(connection);
+    }
+
+    private static Reply read(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new Reply(status, JsonUtil.parseObject(new String(body.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("GET /occupancy returns the free and occupied spots of each type")
+    public void getOccupancyTest() throws IOException {
+        // GIVEN
+        Map<ParkingType, Occupancy> occupancy = new EnumMap<>(ParkingType.class);
+        occupancy.put(ParkingType.CAR, new Occupancy(ParkingType.CAR, 2, 1));
+        occupancy.put(ParkingType.BIKE, new Occupancy(ParkingType.BIKE, 0, 2));
+        when(parkingService.hasLot(1)).thenReturn(true);
+        when(parkingService.getOccupancy(1)).thenReturn(occupancy);
+
+        // WHEN
+        Reply reply = get("/occupancy?lotId=1");
+
+        // THEN
+        assertEquals(200, reply.status);
+        assertEquals("1", reply.body.get("lotId"));
+        assertEquals("2", reply.body.get("carAvailable"));
+        assertEquals("1", reply.body.get("carOccupied"));
+        assertEquals("3", reply.body.get("carTotal"));
+        assertEquals("0", reply.body.get("bikeAvailable"));
+    }
+
+    @Test
+    @DisplayName("GET /occupancy returns 404 when the occupancy counters are disabled")
+    public void getOccupancyDisabledTest() throws IOException {
+        // GIVEN
+        when(parkingService.getOccupancy()).thenReturn(null);
+
+        // WHEN
+        Reply reply = get("/occupancy");
+
+        // THEN
+        assertEquals(404, reply.status);
+    }
+
+    @Test
+    @DisplayName("GET /revenue adds up the hourly rollups of each type")
+    public void getRevenueTest() throws IOException {
+        // GIVEN
+        Date hour = new Date();
+        when(parkingService.getDefaultLotId()).thenReturn(ParkingSpot.DEFAULT_LOT);
+        when(parkingService.getHourlyRollups(eq(ParkingSpot.DEFAULT_LOT), any(Date.class), any(Date.class))).thenReturn(Arrays.asList(
+                new Rollup(ParkingType.CAR, hour, 2, 450, 180, 1),
+                new Rollup(ParkingType.BIKE, hour, 1, 100, 60, 0),
+                new Rollup(ParkingType.CAR, hour, 1, 150, 60, 0)));
+
+        // WHEN
+        Reply reply = get("/revenue?hours=2");
+
+        // THEN
+        assertEquals(200, reply.status);
+        assertEquals("3", reply.body.get("carStays"));
+        assertEquals("6.0", reply.body.get("carRevenue"));
+        assertEquals("240", reply.body.get("carMinutes"));
+        assertEquals("1", reply.body.get("carDiscountedStays"));
+        assertEquals("1", reply.body.get("bikeStays"));
+    }
+
+    @Test
+    @DisplayName("GET /revenue returns 400 unless exactly one period is given")
+    public void getRevenueInvalidPeriodTest() throws IOException {
+        // WHEN
+        Reply both = get("/revenue?hours=2&days=1");
+        Reply none = get("/revenue");
+        Reply negative = get("/revenue?days=-1");
+
+        // THEN
+        assertEquals(400, both.status);
+        assertEquals(400, none.status);
+        assertEquals(400, negative.status);
+    }
+
+    @Test
+    @DisplayName("POST /entries returns 201 with the ticket when the vehicle enters")
+    public void postEntryTest() throws IOException {
+        // GIVEN
+        Ticket ticket = new Ticket();
+        ticket.setId(7);
+        ticket.setParkingSpot(new ParkingSpot(3, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("ABCDEF");
+        ticket.setInTime(new Date());
+        when(parkingService.enter("ABCDEF", ParkingType.CAR)).thenReturn(EntryResult.entered(ticket, true));
+
+        // WHEN
+        Reply reply = post("/entries", "{\"vehicleRegNumber\":\"ABCDEF\",\"parkingType\":\"car\"}");
+
+        // THEN
+        assertEquals(201, reply.status);
+        assertEquals("ENTERED", reply.body.get("status"));
+        assertEquals("7", reply.body.get("ticketId"));
+        assertEquals("3", reply.body.get("parkingNumber"));
+        assertEquals("true", reply.body.get("returningCustomer"));
+    }
+
+    @Test
+    @DisplayName("Gate outcomes other than success are mapped to 409 and 404")
+    public void postEntryAndExitRefusedTest() throws IOException {
+        // GIVEN
+        when(parkingService.enter("ABCDEF", ParkingType.BIKE)).thenReturn(EntryResult.parkingFull(false));
+        when(parkingService.exit("ABCDEF")).thenReturn(ExitResult.noOpenTicket());
+
+        // WHEN
+        Reply entry = post("/entries", "{\"vehicleRegNumber\":\"ABCDEF\",\"parkingType\":\"BIKE\"}");
+        Reply exit = post("/exits", "{\"vehicleRegNumber\":\"ABCDEF\"}");
+
+        // THEN
+        assertEquals(409, entry.status);
+        assertEquals("PARKING_FULL", entry.body.get("status"));
+        assertEquals(404, exit.status);
+        assertEquals("NO_OPEN_TICKET", exit.body.get("status"));
+    }
+
+    @Test
+    @DisplayName("Malformed requests get a 400 without reaching the parking service")
+    public void postInvalidRequestTest() throws IOException {
+        // WHEN
+        Reply invalidJson = post("/entries", "{\"vehicleRegNumber\":");
+        Reply unknownType = post("/entries", "{\"vehicleRegNumber\":\"ABCDEF\",\"parkingType\":\"TRUCK\"}");
+
+        // THEN
+        assertEquals(400, invalidJson.status);
+        assertEquals(400, unknownType.status);
+        verifyZeroInteractions(parkingService);
+    }
+
+    @Test
+    @DisplayName("Requests over the concurrency limit get a 503 and stop() waits for the request in progress")
+    public void concurrencyLimitAndDrainTest() throws Exception {
+        // GIVEN
+        CountDownLatch inService = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(parkingService.exit("SLOW")).thenAnswer(invocation -> {
+            inService.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return ExitResult.failed();
+        });
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        Future<Reply> slowExit = client.submit(() -> post("/exits", "{\"vehicleRegNumber\":\"SLOW\"}"));
+        assertTrue(inService.await(5, TimeUnit.SECONDS));
+
+        // WHEN
+        Reply rejected = post("/exits", "{\"vehicleRegNumber\":\"OTHER\"}");
+        Future<Boolean> stopped = Executors.newSingleThreadExecutor().submit(() -> gateServer.stop(5_000));
+        Thread.sleep(100);
+        boolean stoppedBeforeRelease = stopped.isDone();
+        release.countDown();
+
+        // THEN
+        assertEquals(503, rejected.status);
+        assertEquals(1, gateServer.getRejectedCount());
+        assertFalse(stoppedBeforeRelease);
+        assertTrue(stopped.get(5, TimeUnit.SECONDS));
+        assertEquals(500, slowExit.get(5, TimeUnit.SECONDS).status);
+        verify(parkingService, never()).exit("OTHER");
+        client.shutdown();
+    }
+}
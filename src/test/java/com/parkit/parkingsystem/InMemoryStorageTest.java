@@ -0,0 +1,548 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.InMemoryParkingSpotDAO;
+import com.parkit.parkingsystem.dao.InMemoryTicketDAO;
+import com.parkit.parkingsystem.dao.TicketLog;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+/**
+ * The ParkingDataBaseIT scenarios on the in-memory storage engine, plus restarts from the ticket log.
+ */
+@ExtendWith(MockitoExtension.class)
+public class InMemoryStorageTest {
+
+    private static final String REG_NUMBER = "ABCDEF";
+    private static final int ONE_HOURS_IN_MILLIS = 60 * 60 * 1000;
+
+    @Mock
+    private InputReaderUtil inputReaderUtil;
+
+    private Path logDir;
+    private Path logFile;
+    private InMemoryParkingSpotDAO parkingSpotDAO;
+    private InMemoryTicketDAO ticketDAO;
+
+  // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        lenient().when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
+        logDir = Files.createTempDirectory("tickets");
+        logFile = logDir.resolve("tickets.log");
+        open();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        ticketDAO.getTicketLog().close();
+        try (Stream<Path> files = Files.list(logDir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(logDir);
+    }
+
+    // the same layout as the test database: spots 1 to 3 for cars, 4 and 5 for bikes
+    private void open() throws Exception {
+        ticketDAO = new InMemoryTicketDAO(ParkingSpot.DEFAULT_LOT, new TicketLog(logFile, ParkingSpot.DEFAULT_LOT, false));
+        ticketDAO.load();
+        parkingSpotDAO = new InMemoryParkingSpotDAO(ParkingSpot.DEFAULT_LOT, InMemoryParkingSpotDAO.parseLayout("CAR:3,BIKE:2"));
+        parkingSpotDAO.restore(ticketDAO.getOpenTickets());
+    }
+
+    private void restart() throws Exception {
+        ticketDAO.getTicketLog().close();
+        open();
+    }
+
+    static Stream<Arguments> calculateFareSource() {
+        return Stream.of(
+                Arguments.of(0.2, ParkingType.CAR, Fare.CAR_RATE_PER_HOUR, 1),
+                Arguments.of(1, ParkingType.CAR, Fare.CAR_RATE_PER_HOUR, 1),
+                Arguments.of(5, ParkingType.CAR, Fare.CAR_RATE_PER_HOUR, 1),
+                Arguments.of(1, ParkingType.BIKE, Fare.BIKE_RATE_PER_HOUR, 4),
+                Arguments.of(9, ParkingType.BIKE, Fare.BIKE_RATE_PER_HOUR, 4)
+        );
+    }
+
+    private static Ticket ticket(ParkingSpot parkingSpot, Date inTime, Date outTime) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(parkingSpot);
+        ticket.setVehicleRegNumber(REG_NUMBER);
+        ticket.setInTime(inTime);
+        ticket.setOutTime(outTime);
+        return ticket;
+    }
+
+  // ----- START TESTS -----
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2})
+    @DisplayName("An incoming vehicle gets a ticket and occupies its spot")
+    public void parkingComingTest(int choice) {
+        // GIVEN
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        lenient().when(inputReaderUtil.readSelection()).thenReturn(choice);
+
+        // WHEN
+        parkingService.processIncomingVehicle();
+
+        // THEN
+        Ticket ticket = ticketDAO.getTicket(REG_NUMBER);
+        assertNotNull(ticket);
+        assertEquals(0, ticket.getPrice());
+        assertFalse(ticket.getParkingSpot().isAvailable());
+        int spot = ticket.getParkingSpot().getId();
+        assertEquals(choice == 1 ? 1 : 4, spot);
+        assertEquals(choice == 1 ? 2 : 5, parkingSpotDAO.getNextAvailableSlot(choice == 1 ? ParkingType.CAR : ParkingType.BIKE));
+    }
+
+    @ParameterizedTest(name = "Check fare for a parking duration of {0}h")
+    @MethodSource("calculateFareSource")
+    @DisplayName("An exiting vehicle is charged for its stay")
+    public void parkingLotExitTest(double hours, ParkingType parkingType, double fare, int place) {
+        // GIVEN
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        ticketDAO.saveTicket(ticket(new ParkingSpot(place, parkingType, false),
+                new Date((long) (System.currentTimeMillis() - hours * ONE_HOURS_IN_MILLIS)), null));
+
+        // WHEN
+        parkingService.processExitingVehicle();
+
+        // THEN
+        Ticket ticket = ticketDAO.getTicket(REG_NUMBER);
+        double duration = (ticket.getOutTime().getTime() - ticket.getInTime().getTime()) / (1_000.0 * 60.0 * 60.0);
+        double expected = (duration < 0.5) ? 0 : Math.round(duration * fare * 100.0) / 100.0;
+        assertEquals(expected, ticket.getPrice(), 0.011);
+    }
+
+    @ParameterizedTest(name = "Check fare for recurring user after {0}h of parking")
+    @MethodSource("calculateFareSource")
+    @DisplayName("A recurring user gets the discount, also after a restart")
+    public void parkingLotExitRecurringUserTest(double hours, ParkingType parkingType, double fare, int place) throws Exception {
+        // GIVEN
+        long now = System.currentTimeMillis();
+        ParkingSpot parkingSpot = new ParkingSpot(place, parkingType, false);
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(now - 24 * ONE_HOURS_IN_MILLIS), new Date(now - 23 * ONE_HOURS_IN_MILLIS)));
+        restart();
+        assertTrue(ticketDAO.getNbTickets(REG_NUMBER));
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date((long) (now - hours * ONE_HOURS_IN_MILLIS)), null));
+
+        // WHEN
+        new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).processExitingVehicle();
+
+        // THEN
+        Ticket ticket = ticketDAO.getTicket(REG_NUMBER);
+        double duration = (ticket.getOutTime().getTime() - ticket.getInTime().getTime()) / (1_000.0 * 60.0 * 60.0);
+        double expected = (duration < 0.5) ? 0 : FareCalculatorService.round(duration * fare * 0.95);
+        assertEquals(expected, ticket.getPrice(), 0.011);
+    }
+
+    @Test
+    @DisplayName("Concurrent claims hand out each free spot exactly once")
+    public void claimNextSpotUnderContention() throws Exception {
+        // GIVEN
+        ExecutorService gates = Executors.newFixedThreadPool(10);
+        List<Callable<ParkingSpot>> claims = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            claims.add(() -> parkingSpotDAO.claimNextSpot(ParkingType.CAR));
+        }
+
+        // WHEN
+        List<Future<ParkingSpot>> results = gates.invokeAll(claims);
+        gates.shutdown();
+
+        // THEN
+        Set<Integer> claimed = new HashSet<>();
+        for (Future<ParkingSpot> result : results) {
+            if (result.get() != null) {
+                assertTrue(claimed.add(result.get().getId()), "No spot may be claimed twice");
+            }
+        }
+        assertEquals(3, claimed.size());
+        assertEquals(-1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Of concurrent exits of the same vehicle, only one closes and charges its ticket")
+    public void concurrentExitsCloseTheTicketOnce() throws Exception {
+        // GIVEN two gates that have both read the open ticket before either closes it
+        new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).enter(REG_NUMBER, ParkingType.CAR);
+        CyclicBarrier bothPriced = new CyclicBarrier(2);
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO, new FareCalculatorService() {
+            @Override
+            public void calculateFare(Ticket ticket, Boolean discount) {
+                super.calculateFare(ticket, discount);
+                try {
+                    bothPriced.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        ExecutorService gates = Executors.newFixedThreadPool(2);
+        List<Callable<ExitResult>> exits = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            exits.add(() -> parkingService.exit(REG_NUMBER));
+        }
+
+        // WHEN
+        List<Future<ExitResult>> results = gates.invokeAll(exits);
+        gates.shutdown();
+
+        // THEN
+        List<ExitResult.Status> statuses = new ArrayList<>();
+        for (Future<ExitResult> result : results) {
+            statuses.add(result.get().getStatus());
+        }
+        assertTrue(statuses.contains(ExitResult.Status.EXITED));
+        assertTrue(statuses.contains(ExitResult.Status.NO_OPEN_TICKET));
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER).getOutTime());
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Open tickets and their spots survive a restart")
+    public void openTicketsAreRestored() throws Exception {
+        // GIVEN
+        new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).enter(REG_NUMBER, ParkingType.CAR);
+
+        // WHEN
+        restart();
+
+        // THEN
+        assertEquals(1, ticketDAO.getOpenTickets().size());
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertNotNull(new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).exit(REG_NUMBER).getTicket());
+    }
+
+    @Test
+    @DisplayName("A rolled back unit of work leaves neither the spot nor the ticket behind")
+    public void rollbackUndoesWrites() throws Exception {
+        // WHEN
+        try (UnitOfWork unitOfWork = parkingSpotDAO.beginUnitOfWork()) {
+            ParkingSpot parkingSpot = parkingSpotDAO.claimNextSpot(unitOfWork, ParkingType.CAR);
+            ticketDAO.saveTicket(unitOfWork, ticket(parkingSpot, new Date(), null));
+        }
+        restart();
+
+        // THEN
+        assertNull(ticketDAO.getTicket(REG_NUMBER));
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(0, Files.size(logFile));
+    }
+
+    @Test
+    @DisplayName("An exit not committed yet is only seen by its own unit of work")
+    public void uncommittedExitIsInvisibleToOtherUnitsOfWork() throws Exception {
+        // GIVEN
+        Ticket ticket = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).enter(REG_NUMBER, ParkingType.CAR).getTicket();
+        ticket.setOutTime(new Date());
+
+        try (UnitOfWork unitOfWork = parkingSpotDAO.beginUnitOfWork()) {
+            // WHEN
+            assertTrue(ticketDAO.updateTicket(unitOfWork, ticket));
+            ticket.getParkingSpot().setAvailable(true);
+            assertTrue(parkingSpotDAO.updateParking(unitOfWork, ticket.getParkingSpot()));
+
+            // THEN
+            assertNotNull(ticketDAO.getTicket(unitOfWork, REG_NUMBER).getOutTime());
+            assertTrue(ticketDAO.getNbTickets(unitOfWork, REG_NUMBER));
+            assertNull(ticketDAO.getTicket(REG_NUMBER).getOutTime());
+            assertFalse(ticketDAO.getNbTickets(REG_NUMBER));
+            assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+
+            unitOfWork.commit();
+        }
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER).getOutTime());
+        assertTrue(ticketDAO.getNbTickets(REG_NUMBER));
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("An exit rolled back hands neither its ticket nor its spot to another gate")
+    public void rolledBackExitKeepsTicketAndSpot() throws Exception {
+        // GIVEN
+        Ticket ticket = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).enter(REG_NUMBER, ParkingType.CAR).getTicket();
+        ticket.setOutTime(new Date());
+        ParkingSpot claimed;
+
+        // WHEN an entry commits while the exit is still in flight, then the exit rolls back
+        try (UnitOfWork exit = parkingSpotDAO.beginUnitOfWork()) {
+            assertTrue(ticketDAO.updateTicket(exit, ticket));
+            ticket.getParkingSpot().setAvailable(true);
+            parkingSpotDAO.updateParking(exit, ticket.getParkingSpot());
+            assertFalse(ticketDAO.updateTicket(ticket));
+            claimed = parkingSpotDAO.claimNextSpot(ParkingType.CAR);
+        }
+
+        // THEN
+        assertEquals(2, claimed.getId());
+        assertNull(ticketDAO.getTicket(REG_NUMBER).getOutTime());
+        assertEquals(3, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertTrue(ticketDAO.updateTicket(ticket));
+    }
+
+    @Test
+    @DisplayName("A unit of work whose tickets the log cannot take is not committed")
+    public void failedLogAppendFailsTheUnitOfWork() throws Exception {
+        // GIVEN
+        ticketDAO.getTicketLog().close();
+
+        // WHEN
+        EntryResult entryResult = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO).enter(REG_NUMBER, ParkingType.CAR);
+
+        // THEN
+        assertEquals(EntryResult.Status.FAILED, entryResult.getStatus());
+        assertNull(ticketDAO.getTicket(REG_NUMBER));
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("A line cut short by a crash is skipped and does not swallow the next write")
+    public void tornLineIsSkipped() throws Exception {
+        // GIVEN
+        ticketDAO.getTicketLog().close();
+        Files.write(logFile, "1\t1\tCAR\tXYZ".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        open();
+
+        // WHEN
+        ticketDAO.saveTicket(ticket(new ParkingSpot(2, ParkingType.CAR, false), new Date(), null));
+        restart();
+
+        // THEN
+        assertNull(ticketDAO.getTicket("XYZ"));
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER));
+    }
+
+    @Test
+    @DisplayName("The export replays the log: closed tickets in ID order, open ones held back, pending ones left out")
+    public void exportReplaysTheLog() throws Exception {
+        // GIVEN
+        long now = System.currentTimeMillis();
+        ticketDAO.saveTicket(ticket(new ParkingSpot(1, ParkingType.CAR, false), new Date(now - 2 * ONE_HOURS_IN_MILLIS), null));
+        Ticket closed = ticketDAO.getTicket(REG_NUMBER);
+        closed.setOutTime(new Date(now - ONE_HOURS_IN_MILLIS));
+        closed.setPrice(1.5);
+        ticketDAO.updateTicket(closed);
+        Ticket open = ticket(new ParkingSpot(2, ParkingType.CAR, false), new Date(now), null);
+        open.setVehicleRegNumber("OPEN");
+        ticketDAO.saveTicket(open);
+        List<Ticket> exported = new ArrayList<>();
+        List<Integer> openIds = new ArrayList<>();
+
+        // WHEN a third ticket is still in an open unit of work
+        int lastId;
+        try (UnitOfWork unitOfWork = parkingSpotDAO.beginUnitOfWork()) {
+            Ticket pending = ticket(new ParkingSpot(3, ParkingType.CAR, false), new Date(now), null);
+            pending.setVehicleRegNumber("PENDING");
+            ticketDAO.saveTicket(unitOfWork, pending);
+            lastId = ticketDAO.forEachTicketToExport(0, new TreeSet<>(), openIds, exported::add);
+        }
+
+        // THEN
+        assertEquals(2, lastId);
+        assertEquals(1, exported.size());
+        assertEquals(1, exported.get(0).getId());
+        assertEquals(1.5, exported.get(0).getPrice());
+        assertEquals(Collections.singletonList(2), openIds);
+
+        // WHEN the held back ticket is closed
+        open = ticketDAO.getTicket("OPEN");
+        open.setOutTime(new Date(now + ONE_HOURS_IN_MILLIS));
+        ticketDAO.updateTicket(open);
+        exported.clear();
+        openIds.clear();
+        lastId = ticketDAO.forEachTicketToExport(lastId, new TreeSet<>(Collections.singleton(2)), openIds, exported::add);
+
+        // THEN
+        assertEquals(3, lastId);
+        assertEquals(1, exported.size());
+        assertEquals(2, exported.get(0).getId());
+        assertTrue(openIds.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Revenue rollups are replayed from the log, also once archiving compacted it")
+    public void rollupsAndArchiveWithoutQueries() throws Exception {
+        // GIVEN two stays of the same vehicle closed in the same hour
+        long hour = System.currentTimeMillis() / ONE_HOURS_IN_MILLIS * ONE_HOURS_IN_MILLIS;
+        ParkingSpot parkingSpot = new ParkingSpot(4, ParkingType.BIKE, false);
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(hour - ONE_HOURS_IN_MILLIS), new Date(hour + 1_000)));
+        restart();
+        Ticket second = ticket(parkingSpot, new Date(hour - 30 * 60 * 1000), new Date(hour + 2_000));
+        second.setPrice(0.5);
+        ticketDAO.saveTicket(second);
+
+        // WHEN
+        List<Rollup> rollups = ticketDAO.getRollups(new Date(hour - ONE_HOURS_IN_MILLIS));
+        int archived = ticketDAO.archiveTickets(new Date(hour + ONE_HOURS_IN_MILLIS), 100);
+
+        // THEN
+        assertEquals(2, archived);
+        assertEquals(0, ticketDAO.archiveTickets(new Date(hour + ONE_HOURS_IN_MILLIS), 100));
+        for (List<Rollup> replayed : Arrays.asList(rollups, ticketDAO.getRollups(new Date(hour - ONE_HOURS_IN_MILLIS)))) {
+            assertEquals(1, replayed.size());
+            Rollup rollup = replayed.get(0);
+            assertEquals(ParkingType.BIKE, rollup.getParkingType());
+            assertEquals(new Date(hour), rollup.getStart());
+            assertEquals(2, rollup.getStays());
+            assertEquals(50, rollup.getRevenueCents());
+            assertEquals(90, rollup.getMinutes());
+            assertEquals(1, rollup.getDiscountedStays());
+        }
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER));
+    }
+
+    @Test
+    @DisplayName("A compacted log restarts from the latest ticket of each vehicle and keeps the closed history")
+    public void compactedLogKeepsStateAndHistory() throws Exception {
+        // GIVEN a closed and an open stay of one vehicle, a closed stay of another
+        long now = System.currentTimeMillis();
+        ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(now - 3 * ONE_HOURS_IN_MILLIS), new Date(now - 2 * ONE_HOURS_IN_MILLIS)));
+        Ticket other = ticket(new ParkingSpot(2, ParkingType.CAR, false), new Date(now - 3 * ONE_HOURS_IN_MILLIS), null);
+        other.setVehicleRegNumber("OTHER");
+        ticketDAO.saveTicket(other);
+        other.setOutTime(new Date(now - ONE_HOURS_IN_MILLIS));
+        ticketDAO.updateTicket(other);
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(now), null));
+
+        // WHEN
+        long compacted = ticketDAO.getTicketLog().compact();
+        restart();
+
+        // THEN the log holds one line per vehicle
+        assertEquals(4, compacted);
+        assertEquals(1, ticketDAO.getTicketLog().getSegmentCount());
+        assertEquals(2, Files.readAllLines(logFile).size());
+        assertEquals(1, ticketDAO.getOpenTickets().size());
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertTrue(ticketDAO.getNbTickets(REG_NUMBER));
+        assertTrue(ticketDAO.getNbTickets("OTHER"));
+
+        // THEN the history is whole and IDs go on
+        List<Boolean> discounts = new ArrayList<>();
+        assertEquals(2, ticketDAO.forEachClosedTicket(new Date(0), new Date(Long.MAX_VALUE),
+                (ticket, returningCustomer) -> discounts.add(returningCustomer)));
+        assertEquals(Arrays.asList(false, false), discounts);
+        List<Ticket> exported = new ArrayList<>();
+        List<Integer> openIds = new ArrayList<>();
+        assertEquals(3, ticketDAO.forEachTicketToExport(0, new TreeSet<>(), openIds, exported::add));
+        assertEquals(Arrays.asList(1, 2), exported.stream().map(Ticket::getId).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList(3), openIds);
+        Ticket next = ticket(new ParkingSpot(3, ParkingType.CAR, false), new Date(now), null);
+        next.setVehicleRegNumber("NEXT");
+        ticketDAO.saveTicket(next);
+        assertEquals(4, next.getId());
+    }
+
+    @Test
+    @DisplayName("Readers of the recent tickets start after the older history segments, from the state they left")
+    public void recentReadersSkipOlderSegments() throws Exception {
+        // GIVEN a stay closed, compacted into a segment that is then out of reach, and a second stay closed since
+        long now = System.currentTimeMillis();
+        ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(now - 3 * ONE_HOURS_IN_MILLIS), new Date(now - 2 * ONE_HOURS_IN_MILLIS)));
+        ticketDAO.getTicketLog().compact();
+        try (Stream<Path> files = Files.list(logDir)) {
+            for (Path segment : files.filter(file -> !file.equals(logFile)).collect(Collectors.toList())) {
+                Files.delete(segment);
+            }
+        }
+        ticketDAO.saveTicket(ticket(parkingSpot, new Date(now - ONE_HOURS_IN_MILLIS), new Date(now)));
+        List<Ticket> closed = new ArrayList<>();
+        List<Boolean> discounts = new ArrayList<>();
+        List<Ticket> exported = new ArrayList<>();
+
+        // WHEN
+        ticketDAO.forEachClosedTicket(new Date(now - ONE_HOURS_IN_MILLIS), new Date(Long.MAX_VALUE), (ticket, returningCustomer) -> {
+            closed.add(ticket);
+            discounts.add(returningCustomer);
+        });
+        ticketDAO.forEachTicketToExport(1, new TreeSet<>(), new ArrayList<>(), exported::add);
+
+        // THEN
+        assertEquals(1, closed.size());
+        assertEquals(2, closed.get(0).getId());
+        assertEquals(Collections.singletonList(true), discounts);
+        assertEquals(1, exported.size());
+        assertEquals(2, exported.get(0).getId());
+    }
+
+    @Test
+    @DisplayName("A compaction cut short by a crash is undone, or completed, on start")
+    public void interruptedCompactionIsRecovered() throws Exception {
+        // GIVEN a snapshot written but not swapped in yet
+        ticketDAO.saveTicket(ticket(new ParkingSpot(1, ParkingType.CAR, false), new Date(), null));
+        ticketDAO.getTicketLog().close();
+        Path snapshot = logDir.resolve("tickets.log.compact");
+        Files.write(snapshot, "S\t1".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        open();
+
+        // THEN the log is read as it was
+        assertFalse(Files.exists(snapshot));
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER));
+
+        // GIVEN the log rotated, but the snapshot not put in its place yet
+        ticketDAO.getTicketLog().compact();
+        ticketDAO.getTicketLog().close();
+        Files.move(logFile, snapshot);
+
+        // WHEN
+        open();
+
+        // THEN the snapshot becomes the log
+        assertFalse(Files.exists(snapshot));
+        assertNotNull(ticketDAO.getTicket(REG_NUMBER));
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+}
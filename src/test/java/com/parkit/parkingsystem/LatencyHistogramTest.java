@@ -0,0 +1,55 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Quantiles are reported within the bucket precision, whatever the magnitude")
+    public void quantilesTest() {
+        // GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // WHEN
+        for (int i = 1; i <= 1_000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        // THEN
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(500_000, histogram.getValueAtQuantile(0.5), 500_000 * 0.04);
+        assertEquals(990_000, histogram.getValueAtQuantile(0.99), 990_000 * 0.04);
+        assertEquals(1_000_000, histogram.getValueAtQuantile(1.0));
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0.5005, snapshot.getMeanMillis(), 1e-9);
+        assertEquals(1.0, snapshot.getMaxMillis(), 1e-9);
+        assertTrue(snapshot.getP50Millis() <= snapshot.getP90Millis() && snapshot.getP90Millis() <= snapshot.getP999Millis());
+    }
+
+    @Test
+    @DisplayName("Small values are exact, huge and negative values are clamped into range")
+    public void extremeValuesTest() {
+        // GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // WHEN
+        histogram.record(7);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        // THEN
+        assertEquals(3, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.1));
+        assertEquals(7, histogram.getValueAtQuantile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtQuantile(1.0));
+        assertEquals(0, new LatencyHistogram().getValueAtQuantile(0.99));
+    }
+}
@@ -0,0 +1,183 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.LotRouter;
+import com.parkit.parkingsystem.dao.OpenTicketCache;
+import com.parkit.parkingsystem.dao.ParkingSpotRepository;
+import com.parkit.parkingsystem.dao.ReturningCustomerRegistry;
+import com.parkit.parkingsystem.dao.TicketRepository;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.Tariff;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LotRouterTest {
+
+    private static final String REG_NUMBER = "ABCDEF";
+
+    @Mock
+    private ParkingSpotRepository parkingSpotDAO1;
+    @Mock
+    private ParkingSpotRepository parkingSpotDAO2;
+    @Mock
+    private ParkingSpotRepository parkingSpotDAO3;
+    @Mock
+    private TicketRepository ticketDAO1;
+    @Mock
+    private TicketRepository ticketDAO2;
+    @Mock
+    private TicketRepository ticketDAO3;
+    @Mock
+    private UnitOfWork unitOfWork;
+
+    private LotRouter lotRouter;
+
+  // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        Map<Integer, ParkingSpotRepository> parkingSpotDAOs = new HashMap<>();
+        parkingSpotDAOs.put(1, parkingSpotDAO1);
+        parkingSpotDAOs.put(2, parkingSpotDAO2);
+        parkingSpotDAOs.put(3, parkingSpotDAO3);
+        Map<Integer, TicketRepository> ticketDAOs = new HashMap<>();
+        ticketDAOs.put(1, ticketDAO1);
+        ticketDAOs.put(2, ticketDAO2);
+        ticketDAOs.put(3, ticketDAO3);
+        lotRouter = new LotRouter(parkingSpotDAOs, ticketDAOs, 2, 1_000);
+    }
+
+    @AfterEach
+    public void tearDownPerTest() {
+        lotRouter.close();
+    }
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("A stay closed in another lot makes the vehicle a returning customer")
+    public void returningCustomerInOtherLotTest() throws Exception {
+        // GIVEN
+        when(ticketDAO1.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(false);
+        lenient().when(ticketDAO2.getNbTickets(REG_NUMBER)).thenReturn(false);
+        lenient().when(ticketDAO3.getNbTickets(REG_NUMBER)).thenReturn(true);
+
+        // WHEN
+        boolean returningCustomer = lotRouter.isReturningCustomer(unitOfWork, 1, REG_NUMBER);
+
+        // THEN
+        assertTrue(returningCustomer);
+        verify(ticketDAO1, never()).getNbTickets(REG_NUMBER);
+    }
+
+    @Test
+    @DisplayName("A vehicle without a closed stay in any lot is not a returning customer")
+    public void firstTimeCustomerTest() throws Exception {
+        // GIVEN
+        when(ticketDAO2.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(false);
+        when(ticketDAO1.getNbTickets(REG_NUMBER)).thenReturn(false);
+        when(ticketDAO3.getNbTickets(REG_NUMBER)).thenReturn(false);
+
+        // WHEN
+        boolean returningCustomer = lotRouter.isReturningCustomer(unitOfWork, 2, REG_NUMBER);
+
+        // THEN
+        assertFalse(returningCustomer);
+    }
+
+    @Test
+    @DisplayName("The registry answers a first-time customer without querying any lot")
+    public void registryShortCircuitTest() throws Exception {
+        // GIVEN
+        ReturningCustomerRegistry registry = new ReturningCustomerRegistry(100, 0.01, 10);
+        registry.setLoaded(0);
+        when(ticketDAO1.getReturningCustomerRegistry()).thenReturn(registry);
+
+        // WHEN
+        boolean returningCustomer = lotRouter.isReturningCustomer(unitOfWork, 1, REG_NUMBER);
+
+        // THEN
+        assertFalse(returningCustomer);
+        verifyZeroInteractions(ticketDAO2, ticketDAO3);
+        verify(ticketDAO1, never()).getNbTickets(any(UnitOfWork.class), anyString());
+    }
+
+    @Test
+    @DisplayName("An entry is handled by the DAOs of its lot and priced with that lot's id")
+    public void enterRoutesToLotTest() throws Exception {
+        // GIVEN
+        ParkingService parkingService = new ParkingService(null, lotRouter, new FareCalculatorService());
+        when(parkingSpotDAO2.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO2.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(true);
+        when(parkingSpotDAO2.claimNextSpot(unitOfWork, ParkingType.CAR)).thenReturn(new ParkingSpot(2, 5, ParkingType.CAR, false));
+        when(ticketDAO2.saveTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+
+        // WHEN
+        EntryResult result = parkingService.enter(2, REG_NUMBER, ParkingType.CAR);
+
+        // THEN
+        assertEquals(EntryResult.Status.ENTERED, result.getStatus());
+        assertEquals(2, result.getTicket().getLotId());
+        assertEquals(5, result.getTicket().getParkingSpot().getId());
+        verifyZeroInteractions(parkingSpotDAO1, parkingSpotDAO3);
+        assertThrows(IllegalArgumentException.class, () -> parkingService.enter(4, REG_NUMBER, ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("An exit served from the open ticket cache keeps its lot and is priced with that lot's rates")
+    public void exitFromCacheKeepsLotTest() throws Exception {
+        // GIVEN lot 2 charges twice the default car rate
+        Properties definition = new Properties();
+        definition.setProperty("rate.CAR", "1.5");
+        definition.setProperty("rate.BIKE", "1.0");
+        definition.setProperty("lot.2.rate.CAR", "3.0");
+        ParkingService parkingService = new ParkingService(null, lotRouter,
+                new FareCalculatorService(Tariff.compile(definition, TimeZone.getTimeZone("UTC"))));
+        Ticket ticket = new Ticket();
+        ticket.setLotId(2);
+        ticket.setId(9);
+        ticket.setParkingSpot(new ParkingSpot(2, 5, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(REG_NUMBER);
+        ticket.setInTime(new Date(System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+        OpenTicketCache openTicketCache = new OpenTicketCache();
+        openTicketCache.load(Collections.singletonList(ticket));
+        when(parkingSpotDAO2.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO2.getTicket(unitOfWork, REG_NUMBER)).thenAnswer(invocation -> openTicketCache.get(REG_NUMBER));
+        when(ticketDAO2.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(false);
+        when(ticketDAO1.getNbTickets(REG_NUMBER)).thenReturn(false);
+        when(ticketDAO3.getNbTickets(REG_NUMBER)).thenReturn(false);
+        when(ticketDAO2.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
+
+        // WHEN
+        ExitResult result = parkingService.exit(2, REG_NUMBER);
+
+        // THEN
+        assertEquals(ExitResult.Status.EXITED, result.getStatus());
+        assertEquals(2, result.getTicket().getLotId());
+        assertEquals(2, result.getTicket().getParkingSpot().getLotId());
+        assertEquals(6.0, result.getTicket().getPrice(), 0.05);
+        verify(parkingSpotDAO2).updateParking(eq(unitOfWork), any(ParkingSpot.class));
+    }
+}
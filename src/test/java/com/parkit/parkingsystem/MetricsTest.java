@@ -0,0 +1,61 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.util.Metrics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Timers, counters and gauges are written in the Prometheus text format")
+    public void textFormatTest() {
+        // GIVEN
+        Metrics.timer("test_request_seconds", "route", "a\"b").record(TimeUnit.MILLISECONDS.toNanos(2));
+        Metrics.counter("test_requests_total", "status", "ok").add(3);
+        Metrics.gauge("test_queue_depth", () -> 42);
+
+        // WHEN
+        String text = Metrics.toText();
+
+        // THEN
+        assertTrue(text.contains("# TYPE test_request_seconds summary\n"));
+        assertTrue(text.contains("test_request_seconds{route=\"a\\\"b\",quantile=\"0.99\"} 0.00"));
+        assertTrue(text.contains("test_request_seconds_count{route=\"a\\\"b\"} 1\n"));
+        assertTrue(text.contains("# TYPE test_requests_total counter\ntest_requests_total{status=\"ok\"} 3\n"));
+        assertTrue(text.contains("# TYPE test_queue_depth gauge\ntest_queue_depth 42\n"));
+        Metrics.removeGauge("test_queue_depth");
+        assertFalse(Metrics.toText().contains("test_queue_depth"));
+    }
+
+    @Test
+    @DisplayName("The registry is readable through JMX")
+    public void mbeanTest() throws Exception {
+        // GIVEN
+        Metrics.timer("test_jmx_seconds").record(TimeUnit.MILLISECONDS.toNanos(5));
+        Metrics.counter("test_jmx_total").increment();
+        Metrics.registerMBean();
+        Metrics.registerMBean();
+
+        // WHEN
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        TabularData timers = (TabularData) server.getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Timers");
+        TabularData counters = (TabularData) server.getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Counters");
+
+        // THEN
+        CompositeData timer = (CompositeData) timers.get(new Object[]{"test_jmx_seconds"}).get("value");
+        assertEquals(1L, timer.get("count"));
+        assertEquals(5.0, (Double) timer.get("maxMillis"), 1e-9);
+        assertEquals(1L, counters.get(new Object[]{"test_jmx_total"}).get("value"));
+    }
+}
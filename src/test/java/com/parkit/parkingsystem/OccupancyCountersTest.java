@@ -0,0 +1,138 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyCounters;
+import com.parkit.parkingsystem.model.Occupancy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OccupancyCountersTest {
+
+    private OccupancyCounters occupancyCounters;
+
+  // ----- SETUP -----
+
+    private static Map<ParkingType, Occupancy> occupancy(int carsAvailable, int carsOccupied, int bikesAvailable, int bikesOccupied) {
+        Map<ParkingType, Occupancy> occupancy = new EnumMap<>(ParkingType.class);
+        occupancy.put(ParkingType.CAR, new Occupancy(ParkingType.CAR, carsAvailable, carsOccupied));
+        occupancy.put(ParkingType.BIKE, new Occupancy(ParkingType.BIKE, bikesAvailable, bikesOccupied));
+        return occupancy;
+    }
+
+    @BeforeEach
+    public void setUpPerTest() {
+        occupancyCounters = new OccupancyCounters();
+        occupancyCounters.load(occupancy(3, 0, 2, 0));
+    }
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Occupying and freeing spots moves them between the counts of their type")
+    public void spotChangedUpdatesCounts() {
+        // WHEN
+        occupancyCounters.spotChanged(ParkingType.CAR, false);
+        occupancyCounters.spotChanged(ParkingType.CAR, false);
+        occupancyCounters.spotChanged(ParkingType.CAR, true);
+
+        // THEN
+        Occupancy cars = occupancyCounters.get(ParkingType.CAR);
+        assertEquals(2, cars.getAvailable());
+        assertEquals(1, cars.getOccupied());
+        assertEquals(3, cars.getTotal());
+        assertEquals(2, occupancyCounters.get(ParkingType.BIKE).getAvailable());
+    }
+
+    @Test
+    @DisplayName("A change the counts cannot hold is ignored instead of going negative")
+    public void spotChangedNeverGoesNegative() {
+        // WHEN
+        occupancyCounters.spotChanged(ParkingType.BIKE, true);
+
+        // THEN
+        Occupancy bikes = occupancyCounters.get(ParkingType.BIKE);
+        assertEquals(2, bikes.getAvailable());
+        assertEquals(0, bikes.getOccupied());
+    }
+
+    @Test
+    @DisplayName("Reconciliation is skipped when a spot changed while the database was read")
+    public void reconcileSkippedWhenModified() {
+        // GIVEN
+        long expected = occupancyCounters.getModificationCount();
+        occupancyCounters.spotChanged(ParkingType.CAR, false);
+
+        // WHEN
+        boolean applied = occupancyCounters.reconcile(occupancy(0, 3, 0, 2), expected);
+
+        // THEN
+        assertFalse(applied);
+        assertEquals(1, occupancyCounters.get(ParkingType.CAR).getOccupied());
+        assertTrue(occupancyCounters.reconcile(occupancy(0, 3, 0, 2), occupancyCounters.getModificationCount()));
+        assertEquals(3, occupancyCounters.get(ParkingType.CAR).getOccupied());
+    }
+
+    @Test
+    @DisplayName("A reconciliation reading a change committed but not yet applied skips its pass instead of counting it twice")
+    public void reconcileSkippedWhileChangePending() {
+        // GIVEN the change is announced before its commit, the reconciler reads the committed row
+        occupancyCounters.changePending();
+        long expected = occupancyCounters.getModificationCount();
+
+        // WHEN
+        boolean applied = occupancyCounters.reconcile(occupancy(2, 1, 2, 0), expected);
+        occupancyCounters.changeCommitted(ParkingType.CAR, false);
+
+        // THEN
+        assertFalse(applied);
+        Occupancy cars = occupancyCounters.get(ParkingType.CAR);
+        assertEquals(2, cars.getAvailable());
+        assertEquals(1, cars.getOccupied());
+        assertTrue(occupancyCounters.reconcile(occupancy(2, 1, 2, 0), occupancyCounters.getModificationCount()));
+    }
+
+    @Test
+    @DisplayName("Readers never see a spot missing or counted twice while gates change the counts")
+    public void concurrentReadsStayConsistent() throws Exception {
+        // GIVEN
+        occupancyCounters.load(occupancy(1_000, 0, 0, 0));
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        CountDownLatch done = new CountDownLatch(4);
+        AtomicBoolean inconsistent = new AtomicBoolean();
+
+        // WHEN
+        for (int gate = 0; gate < 4; gate++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    occupancyCounters.spotChanged(ParkingType.CAR, false);
+                    occupancyCounters.spotChanged(ParkingType.CAR, true);
+                }
+                done.countDown();
+            });
+        }
+        executor.submit(() -> {
+            while (done.getCount() > 0) {
+                if (occupancyCounters.get(ParkingType.CAR).getTotal() != 1_000) {
+                    inconsistent.set(true);
+                }
+            }
+        });
+        executor.shutdown();
+
+        // THEN
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertFalse(inconsistent.get());
+        assertEquals(1_000, occupancyCounters.get(ParkingType.CAR).getAvailable());
+    }
+}
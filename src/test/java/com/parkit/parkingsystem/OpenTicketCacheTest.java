@@ -0,0 +1,110 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OpenTicketCache;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpenTicketCacheTest {
+
+    private static final String REG_NUMBER = "ABCDEF";
+
+    private OpenTicketCache openTicketCache;
+
+    // ----- SETUP -----
+
+    private static Ticket createOpenTicket(int id) {
+        Ticket ticket = new Ticket();
+        ticket.setId(id);
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(REG_NUMBER);
+        ticket.setInTime(new Date(System.currentTimeMillis() - 60 * 60 * 1000));
+        return ticket;
+    }
+
+    @BeforeEach
+    public void setUpPerTest() {
+        openTicketCache = new OpenTicketCache();
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("A saved open ticket is served from the cache as a copy")
+    public void openTicketIsCachedAsCopy() {
+        // GIVEN
+        openTicketCache.put(createOpenTicket(7));
+
+        // WHEN
+        Ticket cached = openTicketCache.get(REG_NUMBER);
+        cached.setOutTime(new Date());
+        cached.getParkingSpot().setAvailable(true);
+
+        // THEN
+        Ticket cachedAgain = openTicketCache.get(REG_NUMBER);
+        assertEquals(7, cachedAgain.getId());
+        assertNull(cachedAgain.getOutTime(), "Mutating a returned ticket must not change the cache");
+        assertFalse(cachedAgain.getParkingSpot().isAvailable());
+    }
+
+    @Test
+    @DisplayName("Of two exits that read the same open ticket, only the first evicts it; a later stay is left alone")
+    public void removeEvictsTheSameStayOnce() {
+        // GIVEN
+        openTicketCache.put(createOpenTicket(7));
+        Ticket firstExit = openTicketCache.get(REG_NUMBER);
+        Ticket secondExit = openTicketCache.get(REG_NUMBER);
+
+        // WHEN
+        boolean first = openTicketCache.remove(firstExit);
+        boolean second = openTicketCache.remove(secondExit);
+        Ticket nextStay = createOpenTicket(7);
+        nextStay.setInTime(new Date());
+        openTicketCache.put(nextStay);
+
+        // THEN
+        assertTrue(first);
+        assertFalse(second);
+        assertFalse(openTicketCache.remove(secondExit), "An exit of the earlier stay must not close the next one");
+        assertNotNull(openTicketCache.get(REG_NUMBER));
+    }
+
+    @Test
+    @DisplayName("Closing the ticket evicts it")
+    public void closedTicketIsEvicted() {
+        // GIVEN
+        openTicketCache.load(Collections.singletonList(createOpenTicket(7)));
+        Ticket closed = createOpenTicket(7);
+        closed.setOutTime(new Date());
+
+        // WHEN
+        openTicketCache.put(closed);
+
+        // THEN
+        assertNull(openTicketCache.get(REG_NUMBER));
+        assertEquals(0, openTicketCache.size());
+    }
+
+    @Test
+    @DisplayName("Closing an older ticket keeps the current stay cached")
+    public void closingOtherTicketKeepsEntry() {
+        // GIVEN
+        openTicketCache.put(createOpenTicket(8));
+        Ticket older = createOpenTicket(7);
+        older.setOutTime(new Date());
+
+        // WHEN
+        openTicketCache.put(older);
+
+        // THEN
+        assertEquals(8, openTicketCache.get(REG_NUMBER).getId());
+    }
+}
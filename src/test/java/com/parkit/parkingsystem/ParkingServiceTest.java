@@ -3,6 +3,9 @@ package com.parkit.parkingsystem;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
 import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.EntryResult;
+import com.parkit.parkingsystem.model.ExitResult;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
 import com.parkit.parkingsystem.service.FareCalculatorService;
@@ -19,7 +22,17 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -39,6 +52,8 @@ public class ParkingServiceTest {
     private static ParkingSpotDAO parkingSpotDAO;
     @Mock
     private static TicketDAO ticketDAO;
+    @Mock
+    private UnitOfWork unitOfWork;
 
   // ----- SETUP -----
 
@@ -105,14 +120,10 @@ public class ParkingServiceTest {
 
     // ----- METHOD MOCKED -----
 
-    public void mockUpdateParkingAndGetNbTicket(boolean typeUser) {
-        when(ticketDAO.getNbTickets(REG_NUMBER)).thenReturn(typeUser);
-        when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(true);
-    }
-
-    public void mockReadSelectionAndGetNextAvailableSlot_ThenReturnTypeVehicleAnd1(int typeVehicle) {
-        when(inputReaderUtil.readSelection()).thenReturn(typeVehicle);
-        when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(1);
+    public void mockUpdateParkingAndGetNbTicket(boolean typeUser) throws Exception {
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(typeUser);
+        when(parkingSpotDAO.updateParking(eq(unitOfWork), any(ParkingSpot.class))).thenReturn(true);
     }
 
 
@@ -124,26 +135,28 @@ public class ParkingServiceTest {
     public void testProcessIncomingVehicle(int typeVehicle, boolean typeUser) throws Exception {
         // GIVEN
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
-        mockUpdateParkingAndGetNbTicket(typeUser);
-        mockReadSelectionAndGetNextAvailableSlot_ThenReturnTypeVehicleAnd1(typeVehicle);
+        when(inputReaderUtil.readSelection()).thenReturn(typeVehicle);
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(typeUser);
+        when(parkingSpotDAO.claimNextSpot(eq(unitOfWork), any(ParkingType.class)))
+                .thenAnswer(invocation -> new ParkingSpot(1, invocation.getArgument(1), false));
 
         // captor
-        ArgumentCaptor<ParkingSpot> parkingSpotCaptor = ArgumentCaptor.forClass(ParkingSpot.class);
         ArgumentCaptor<Ticket> ticketCaptor = ArgumentCaptor.forClass(Ticket.class);
 
         // WHEN
         parkingService.processIncomingVehicle();
 
         // THEN
-        verify(parkingSpotDAO, times(1)).updateParking(parkingSpotCaptor.capture());
-        verify(parkingSpotDAO, times(1)).getNextAvailableSlot(any(ParkingType.class));
-        verify(ticketDAO, times(1)).saveTicket(ticketCaptor.capture());
-        verify(ticketDAO, times(1)).getNbTickets(REG_NUMBER);
+        verify(parkingSpotDAO, times(1)).claimNextSpot(unitOfWork, typeVehicle == 1 ? ParkingType.CAR : ParkingType.BIKE);
+        verify(ticketDAO, times(1)).saveTicket(eq(unitOfWork), ticketCaptor.capture());
+        verify(ticketDAO, times(1)).getNbTickets(unitOfWork, REG_NUMBER);
+        verify(unitOfWork, times(1)).commit();
+        verify(unitOfWork, times(1)).close();
 
-        ParkingSpot updatedSpot = parkingSpotCaptor.getValue();
         Ticket savedTicket = ticketCaptor.getValue();
 
-        assertFalse(updatedSpot.isAvailable(), "ParkingSpot should be marked as not available");
+        assertFalse(savedTicket.getParkingSpot().isAvailable(), "ParkingSpot should be marked as not available");
 
         assertEquals("ABCDEF", savedTicket.getVehicleRegNumber(), "Vehicle registration number should match input");
         assertEquals(1, savedTicket.getParkingSpot().getId(), "Saved ticket should reference ParkingSpot with ID 1");
@@ -159,16 +172,35 @@ public class ParkingServiceTest {
     @DisplayName("Handle vehicle entry - exception when reading license plate fails")
     public void testProcessIncomingVehicle_ShouldHandleException_WhenReadVehicleRegNumberFails(int typeVehicle) throws Exception {
         // GIVEN
-        when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
-        mockReadSelectionAndGetNextAvailableSlot_ThenReturnTypeVehicleAnd1(typeVehicle);
+        when(inputReaderUtil.readSelection()).thenReturn(typeVehicle);
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenThrow(new RuntimeException("Simulated exception"));
 
         // WHEN
         parkingService.processIncomingVehicle();
 
         // THEN
-        verify(ticketDAO, never()).saveTicket(any());
-        verify(parkingSpotDAO, never()).updateParking(any());
+        verify(parkingSpotDAO, never()).beginUnitOfWork();
+        verify(parkingSpotDAO, never()).claimNextSpot(any(), any());
+        verify(ticketDAO, never()).saveTicket(any(), any());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2})
+    @DisplayName("Handle vehicle entry - no ticket when every spot is taken")
+    public void testProcessIncomingVehicle_ShouldNotSaveTicket_WhenParkingFull(int typeVehicle) throws Exception {
+        // GIVEN
+        when(inputReaderUtil.readSelection()).thenReturn(typeVehicle);
+        when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(parkingSpotDAO.claimNextSpot(eq(unitOfWork), any(ParkingType.class))).thenReturn(null);
+
+        // WHEN
+        parkingService.processIncomingVehicle();
+
+        // THEN
+        verify(ticketDAO, never()).saveTicket(any(), any());
+        verify(unitOfWork, never()).commit();
+        verify(unitOfWork, times(1)).close();
     }
 
 
@@ -183,8 +215,8 @@ public class ParkingServiceTest {
 
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
         mockUpdateParkingAndGetNbTicket(typeUser);
-        when(ticketDAO.getTicket(anyString())).thenReturn(ticket);
-        when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(true);
+        when(ticketDAO.getTicket(eq(unitOfWork), anyString())).thenReturn(ticket);
+        when(ticketDAO.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(true);
 
         ticket.setInTime(new Date(System.currentTimeMillis() - ((long) hours * 60 * 60 * 1000)));
         ticket.setParkingSpot(new ParkingSpot(1, parkingType, false));
@@ -196,9 +228,10 @@ public class ParkingServiceTest {
         parkingService.processExitingVehicle();
 
         // THEN
-        verify(ticketDAO, times(1)).updateTicket(ticketCaptor.capture());
-        verify(parkingSpotDAO, times(1)).updateParking(any(ParkingSpot.class));
-        verify(ticketDAO, times(1)).getNbTickets(REG_NUMBER);
+        verify(ticketDAO, times(1)).updateTicket(eq(unitOfWork), ticketCaptor.capture());
+        verify(parkingSpotDAO, times(1)).updateParking(eq(unitOfWork), any(ParkingSpot.class));
+        verify(ticketDAO, times(1)).getNbTickets(unitOfWork, REG_NUMBER);
+        verify(unitOfWork, times(1)).commit();
 
         Ticket ticket1 = ticketCaptor.getValue();
         final double result = (ticket1.getOutTime().getTime()-ticket1.getInTime().getTime())/ (1_000.0 * 60.0 * 60.0);
@@ -236,30 +269,122 @@ public class ParkingServiceTest {
         parkingService.processExitingVehicle();
 
         // THEN
-        verify(ticketDAO, never()).getTicket(any());
-        verify(ticketDAO, never()).updateTicket(any());
-        verify(parkingSpotDAO, never()).updateParking(any());
+        verify(ticketDAO, never()).getTicket(any(), any());
+        verify(ticketDAO, never()).updateTicket(any(), any());
+        verify(parkingSpotDAO, never()).updateParking(any(), any());
     }
 
     @Test
-    @DisplayName("processExitingVehicle: fail when ticket update fails (updateTicket returns false)")
-    public void processExitingVehicleTestUnableUpdate() throws Exception {
+    @DisplayName("processExitingVehicle: no exit when the ticket was closed meanwhile (updateTicket returns false)")
+    public void processExitingVehicleTestClosedMeanwhile() throws Exception {
         // GIVEN
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(REG_NUMBER);
-        when(ticketDAO.getNbTickets(REG_NUMBER)).thenReturn(false);
-        when(ticketDAO.getTicket(anyString())).thenReturn(ticket);
-        when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(false);
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(false);
+        when(ticketDAO.getTicket(eq(unitOfWork), anyString())).thenReturn(ticket);
+        when(ticketDAO.updateTicket(eq(unitOfWork), any(Ticket.class))).thenReturn(false);
 
         // WHEN
         parkingService.processExitingVehicle();
 
         // THEN
-        verify(parkingSpotDAO, never()).updateParking(any(ParkingSpot.class));
-        verify(ticketDAO, Mockito.times(1)).updateTicket(any(Ticket.class));
-        verify(ticketDAO, Mockito.times(1)).getNbTickets(REG_NUMBER);
+        verify(parkingSpotDAO, never()).updateParking(any(), any(ParkingSpot.class));
+        verify(ticketDAO, Mockito.times(1)).updateTicket(eq(unitOfWork), any(Ticket.class));
+        verify(ticketDAO, Mockito.times(1)).getNbTickets(unitOfWork, REG_NUMBER);
+        verify(unitOfWork, never()).commit();
     }
 
 
+    // ----- GATE API TESTS -----
+
+    @Test
+    @DisplayName("enter: returns the saved ticket without reading the console")
+    public void testEnterReturnsTicket() throws Exception {
+        // GIVEN
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO.getNbTickets(unitOfWork, REG_NUMBER)).thenReturn(true);
+        when(parkingSpotDAO.claimNextSpot(unitOfWork, ParkingType.BIKE)).thenReturn(new ParkingSpot(4, ParkingType.BIKE, false));
+
+        // WHEN
+        EntryResult result = parkingService.enter(REG_NUMBER, ParkingType.BIKE);
+
+        // THEN
+        assertEquals(EntryResult.Status.ENTERED, result.getStatus());
+        assertEquals(4, result.getTicket().getParkingSpot().getId());
+        assertTrue(result.isReturningCustomer());
+        verify(ticketDAO, times(1)).saveTicket(unitOfWork, result.getTicket());
+        verify(unitOfWork, times(1)).commit();
+        verifyNoMoreInteractions(inputReaderUtil);
+    }
+
+    @Test
+    @DisplayName("enter: reports a full parking instead of throwing")
+    public void testEnterWhenParkingFull() throws Exception {
+        // GIVEN
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(parkingSpotDAO.claimNextSpot(unitOfWork, ParkingType.CAR)).thenReturn(null);
+
+        // WHEN
+        EntryResult result = parkingService.enter(REG_NUMBER, ParkingType.CAR);
+
+        // THEN
+        assertEquals(EntryResult.Status.PARKING_FULL, result.getStatus());
+        assertNull(result.getTicket());
+        verify(unitOfWork, never()).commit();
+    }
+
+    @Test
+    @DisplayName("exit: a vehicle without an open ticket is reported, nothing is written")
+    public void testExitWithoutOpenTicket() throws Exception {
+        // GIVEN
+        ticket.setOutTime(new Date());
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(ticketDAO.getTicket(unitOfWork, REG_NUMBER)).thenReturn(ticket);
+
+        // WHEN
+        ExitResult result = parkingService.exit(REG_NUMBER);
+
+        // THEN
+        assertEquals(ExitResult.Status.NO_OPEN_TICKET, result.getStatus());
+        verify(ticketDAO, never()).updateTicket(any(), any());
+        verify(unitOfWork, never()).commit();
+    }
+
+    @Test
+    @DisplayName("enter: concurrent gates each get their own ticket")
+    public void testConcurrentEntries() throws Exception {
+        // GIVEN
+        int gates = 16;
+        AtomicInteger nextSpot = new AtomicInteger();
+        when(parkingSpotDAO.beginUnitOfWork()).thenAnswer(invocation -> mock(UnitOfWork.class));
+        when(parkingSpotDAO.claimNextSpot(any(UnitOfWork.class), eq(ParkingType.CAR)))
+                .thenAnswer(invocation -> new ParkingSpot(nextSpot.incrementAndGet(), ParkingType.CAR, false));
+        ExecutorService executor = Executors.newFixedThreadPool(gates);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<EntryResult>> results = new ArrayList<>();
+
+        // WHEN
+        for (int gate = 0; gate < gates; gate++) {
+            String vehicleRegNumber = "GATE" + gate;
+            results.add(executor.submit(() -> {
+                start.await();
+                return parkingService.enter(vehicleRegNumber, ParkingType.CAR);
+            }));
+        }
+        start.countDown();
+        Set<Integer> spots = new HashSet<>();
+        for (Future<EntryResult> result : results) {
+            EntryResult entryResult = result.get(5, TimeUnit.SECONDS);
+            assertEquals(EntryResult.Status.ENTERED, entryResult.getStatus());
+            spots.add(entryResult.getTicket().getParkingSpot().getId());
+        }
+        executor.shutdown();
+
+        // THEN
+        assertEquals(gates, spots.size(), "Every gate should have been given a distinct spot");
+        verifyNoMoreInteractions(inputReaderUtil);
+    }
+
     // ----- PARKING SLOT SELECTION TESTS -----
 
     @ParameterizedTest
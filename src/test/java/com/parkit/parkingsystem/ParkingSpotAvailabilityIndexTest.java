@@ -0,0 +1,95 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotAvailabilityIndex;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParkingSpotAvailabilityIndexTest {
+
+    private ParkingSpotAvailabilityIndex availabilityIndex;
+
+    // ----- SETUP -----
+
+    private static List<ParkingSpot> defaultParking() {
+        return new ArrayList<>(Arrays.asList(
+                new ParkingSpot(1, ParkingType.CAR, true),
+                new ParkingSpot(2, ParkingType.CAR, true),
+                new ParkingSpot(3, ParkingType.CAR, true),
+                new ParkingSpot(4, ParkingType.BIKE, true),
+                new ParkingSpot(5, ParkingType.BIKE, true)
+        ));
+    }
+
+    @BeforeEach
+    public void setUpPerTest() {
+        availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(defaultParking());
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Lowest free spot is returned per vehicle type")
+    public void lowestAvailablePerType() {
+        assertEquals(1, availabilityIndex.lowestAvailable(ParkingType.CAR));
+        assertEquals(4, availabilityIndex.lowestAvailable(ParkingType.BIKE));
+    }
+
+    @Test
+    @DisplayName("Occupying and freeing spots updates the index")
+    public void setAvailableUpdatesIndex() {
+        // WHEN
+        availabilityIndex.setAvailable(new ParkingSpot(1, ParkingType.CAR, false));
+        availabilityIndex.setAvailable(new ParkingSpot(2, ParkingType.CAR, false));
+        availabilityIndex.setAvailable(new ParkingSpot(3, ParkingType.CAR, false));
+
+        // THEN
+        assertEquals(-1, availabilityIndex.lowestAvailable(ParkingType.CAR), "No car spot should be left");
+        assertEquals(2, availabilityIndex.countAvailable(ParkingType.BIKE));
+
+        availabilityIndex.setAvailable(new ParkingSpot(2, ParkingType.CAR, true));
+        assertEquals(2, availabilityIndex.lowestAvailable(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Spots beyond the first 64 are found in later words")
+    public void lowestAvailableAcrossWords() {
+        // GIVEN
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int number = 1; number <= 200; number++) {
+            parkingSpots.add(new ParkingSpot(number, ParkingType.CAR, number == 150));
+        }
+
+        // WHEN
+        availabilityIndex.load(parkingSpots);
+
+        // THEN
+        assertEquals(150, availabilityIndex.lowestAvailable(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Reconciliation is skipped when the index changed meanwhile")
+    public void reconcileSkippedOnConcurrentModification() {
+        // GIVEN
+        long expected = availabilityIndex.getModificationCount();
+        List<ParkingSpot> snapshot = defaultParking();
+        snapshot.get(0).setAvailable(false);
+        availabilityIndex.setAvailable(new ParkingSpot(2, ParkingType.CAR, false));
+
+        // WHEN / THEN
+        assertFalse(availabilityIndex.reconcile(snapshot, expected));
+        assertEquals(1, availabilityIndex.lowestAvailable(ParkingType.CAR));
+
+        assertTrue(availabilityIndex.reconcile(snapshot, availabilityIndex.getModificationCount()));
+        assertEquals(2, availabilityIndex.lowestAvailable(ParkingType.CAR));
+    }
+}
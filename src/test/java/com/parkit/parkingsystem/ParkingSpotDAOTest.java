@@ -0,0 +1,187 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyCounters;
+import com.parkit.parkingsystem.dao.ParkingSpotAvailabilityIndex;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParkingSpotDAOTest {
+
+    private static final int CAR_SPOTS = 500;
+    private static final int THREADS = 32;
+
+    private ParkingSpotDAO parkingSpotDAO;
+
+    // spots the fake database considers occupied
+    private final Set<Integer> occupiedInDataBase = ConcurrentHashMap.newKeySet();
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int number = 1; number <= CAR_SPOTS; number++) {
+            parkingSpots.add(new ParkingSpot(number, ParkingType.CAR, true));
+        }
+        parkingSpots.add(new ParkingSpot(CAR_SPOTS + 1, ParkingType.BIKE, true));
+        ParkingSpotAvailabilityIndex availabilityIndex = new ParkingSpotAvailabilityIndex();
+        availabilityIndex.load(parkingSpots);
+
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.setDataBaseConfig(new FakeDataBaseConfig());
+        parkingSpotDAO.setAvailabilityIndex(availabilityIndex);
+        Map<ParkingType, Occupancy> occupancy = new EnumMap<>(ParkingType.class);
+        occupancy.put(ParkingType.CAR, new Occupancy(ParkingType.CAR, CAR_SPOTS, 0));
+        occupancy.put(ParkingType.BIKE, new Occupancy(ParkingType.BIKE, 1, 0));
+        parkingSpotDAO.setOccupancyCounters(new OccupancyCounters());
+        parkingSpotDAO.getOccupancyCounters().load(occupancy);
+    }
+
+    /**
+     * Answers the conditional updates like the parking table would: one row only if the spot changed state.
+     */
+    private class FakeDataBaseConfig extends DataBaseConfig {
+        @Override
+        public Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (connection, method, args) -> "prepareStatement".equals(method.getName()) ? newStatement((String) args[0]) : null);
+        }
+
+        private PreparedStatement newStatement(String sql) {
+            AtomicInteger parkingNumber = new AtomicInteger();
+            AtomicBoolean available = new AtomicBoolean();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (statement, method, args) -> {
+                        switch (method.getName()) {
+                            case "setInt": {
+                                parkingNumber.set((Integer) args[1]);
+                                return null;
+                            }
+                            case "setBoolean": {
+                                if ((Integer) args[0] == 1) {
+                                    available.set((Boolean) args[1]);
+                                }
+                                return null;
+                            }
+                            case "executeUpdate": {
+                                if (DBConstants.UPDATE_PARKING_SPOT.equals(sql) && available.get()) {
+                                    return occupiedInDataBase.remove(parkingNumber.get()) ? 1 : 0;
+                                }
+                                return occupiedInDataBase.add(parkingNumber.get()) ? 1 : 0;
+                            }
+                            default: return null;
+                        }
+                    });
+        }
+
+        @Override
+        public void closeConnection(Connection con) {
+        }
+
+        @Override
+        public void closePreparedStatement(PreparedStatement ps) {
+        }
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Concurrent gates never claim the same spot")
+    public void claimNextSpotUnderContention() throws Exception {
+        // GIVEN
+        ExecutorService gates = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        for (int gate = 0; gate < THREADS; gate++) {
+            results.add(gates.submit(() -> {
+                List<Integer> claimed = new ArrayList<>();
+                start.await();
+                ParkingSpot parkingSpot;
+                while ((parkingSpot = parkingSpotDAO.claimNextSpot(ParkingType.CAR)) != null) {
+                    claimed.add(parkingSpot.getId());
+                }
+                return claimed;
+            }));
+        }
+
+        // WHEN
+        start.countDown();
+        Set<Integer> allClaimed = ConcurrentHashMap.newKeySet();
+        int claimCount = 0;
+        for (Future<List<Integer>> result : results) {
+            for (Integer parkingNumber : result.get(30, TimeUnit.SECONDS)) {
+                allClaimed.add(parkingNumber);
+                claimCount++;
+            }
+        }
+        gates.shutdown();
+
+        // THEN
+        assertEquals(CAR_SPOTS, claimCount, "Every car spot should be handed out exactly once");
+        assertEquals(CAR_SPOTS, allClaimed.size(), "No spot may be handed out twice");
+        assertFalse(allClaimed.contains(CAR_SPOTS + 1), "A bike spot must never be given to a car");
+        assertNull(parkingSpotDAO.claimNextSpot(ParkingType.CAR), "The car park should be full");
+        assertEquals(CAR_SPOTS + 1, parkingSpotDAO.claimNextSpot(ParkingType.BIKE).getId());
+        assertEquals(0, parkingSpotDAO.getOccupancyCounters().get(ParkingType.CAR).getAvailable());
+        assertEquals(CAR_SPOTS, parkingSpotDAO.getOccupancyCounters().get(ParkingType.CAR).getOccupied());
+        assertEquals(1, parkingSpotDAO.getOccupancyCounters().get(ParkingType.BIKE).getOccupied());
+    }
+
+    @Test
+    @DisplayName("A spot already taken in the database is skipped")
+    public void claimNextSpotSkipsStaleIndexEntry() {
+        // GIVEN
+        occupiedInDataBase.add(1);
+
+        // WHEN
+        ParkingSpot parkingSpot = parkingSpotDAO.claimNextSpot(ParkingType.CAR);
+
+        // THEN
+        assertEquals(2, parkingSpot.getId());
+        assertFalse(parkingSpot.isAvailable());
+        assertEquals(3, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    @Test
+    @DisplayName("Writing a spot the state it already has leaves the occupancy counts alone")
+    public void updateParkingToSameStateIsNotCounted() {
+        // GIVEN
+        ParkingSpot parkingSpot = parkingSpotDAO.claimNextSpot(ParkingType.CAR);
+        parkingSpot.setAvailable(true);
+        assertTrue(parkingSpotDAO.updateParking(parkingSpot));
+
+        // WHEN
+        boolean updated = parkingSpotDAO.updateParking(parkingSpot);
+
+        // THEN
+        assertFalse(updated);
+        assertEquals(CAR_SPOTS, parkingSpotDAO.getOccupancyCounters().get(ParkingType.CAR).getAvailable());
+        assertEquals(0, parkingSpotDAO.getOccupancyCounters().get(ParkingType.CAR).getOccupied());
+    }
+}
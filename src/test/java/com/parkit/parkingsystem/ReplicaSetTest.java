@@ -0,0 +1,88 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.ReplicaSet;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaSetTest {
+
+    private static final String REPLICA_1 = "jdbc:mysql://replica1:3306/prod";
+    private static final String REPLICA_2 = "jdbc:mysql://replica2:3306/prod";
+
+    private final Map<String, Long> lags = new HashMap<>();
+
+    private final ReplicaSet replicaSet = new ReplicaSet(Arrays.asList(REPLICA_1, REPLICA_2), url -> {
+        Long lag = lags.get(url);
+        if (lag == null) {
+            throw new IllegalStateException("Connection refused");
+        }
+        return lag;
+    });
+
+  // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Replicas within the staleness tolerance are picked in turn")
+    public void roundRobinTest() {
+        // GIVEN
+        lags.put(REPLICA_1, 0L);
+        lags.put(REPLICA_2, 500L);
+        replicaSet.probe();
+
+        // WHEN
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            picked.add(replicaSet.pick(1_000));
+        }
+
+        // THEN
+        assertEquals(new HashSet<>(Arrays.asList(REPLICA_1, REPLICA_2)), picked);
+        assertEquals(500L, replicaSet.getLagMillis(REPLICA_2));
+    }
+
+    @Test
+    @DisplayName("A replica lagging behind the tolerance is skipped, and none is picked when all lag")
+    public void staleReplicaSkippedTest() {
+        // GIVEN
+        lags.put(REPLICA_1, 5_000L);
+        lags.put(REPLICA_2, 100L);
+        replicaSet.probe();
+
+        // WHEN
+        String first = replicaSet.pick(1_000);
+        String second = replicaSet.pick(1_000);
+
+        // THEN
+        assertEquals(REPLICA_2, first);
+        assertEquals(REPLICA_2, second);
+        assertNull(replicaSet.pick(50));
+    }
+
+    @Test
+    @DisplayName("A replica that cannot be probed or reached is out of rotation until the next successful probe")
+    public void unavailableReplicaTest() {
+        // GIVEN
+        lags.put(REPLICA_1, 0L);
+        replicaSet.probe();
+
+        // WHEN
+        String beforeFailure = replicaSet.pick(1_000);
+        replicaSet.markUnavailable(REPLICA_1);
+        String afterFailure = replicaSet.pick(1_000);
+        replicaSet.probe();
+
+        // THEN
+        assertEquals(REPLICA_1, beforeFailure);
+        assertNull(afterFailure);
+        assertEquals(ReplicaSet.UNKNOWN_LAG, replicaSet.getLagMillis(REPLICA_2));
+        assertEquals(REPLICA_1, replicaSet.pick(1_000));
+    }
+}
@@ -0,0 +1,72 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.ReturningCustomerRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReturningCustomerRegistryTest {
+
+    private static final int CUSTOMERS = 10_000;
+
+    private ReturningCustomerRegistry registry;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        registry = new ReturningCustomerRegistry(CUSTOMERS, 0.01, 10);
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Every added customer is reported as possibly returning")
+    public void noFalseNegatives() {
+        // GIVEN
+        for (int i = 0; i < CUSTOMERS; i++) {
+            registry.add("REG" + i);
+        }
+
+        // WHEN / THEN
+        for (int i = 0; i < CUSTOMERS; i++) {
+            assertTrue(registry.mightBeReturning("REG" + i));
+        }
+    }
+
+    @Test
+    @DisplayName("Unknown customers are rejected close to the configured false positive rate")
+    public void falsePositiveRateIsBounded() {
+        // GIVEN
+        for (int i = 0; i < CUSTOMERS; i++) {
+            registry.add("REG" + i);
+        }
+
+        // WHEN
+        int falsePositives = 0;
+        for (int i = 0; i < CUSTOMERS; i++) {
+            if (registry.mightBeReturning("NEW" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // THEN
+        assertTrue(falsePositives < CUSTOMERS * 0.03, falsePositives + " false positives out of " + CUSTOMERS);
+    }
+
+    @Test
+    @DisplayName("Confirmed customers are remembered up to the configured bound")
+    public void confirmedCustomersAreBounded() {
+        // GIVEN
+        for (int i = 0; i < 20; i++) {
+            registry.confirm("REG" + i);
+        }
+
+        // WHEN / THEN
+        assertTrue(registry.isConfirmed("REG0"));
+        assertFalse(registry.isConfirmed("REG19"));
+        assertTrue(registry.mightBeReturning("REG19"), "A customer beyond the bound must still pass the filter");
+    }
+}
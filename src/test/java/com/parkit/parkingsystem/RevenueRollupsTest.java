@@ -0,0 +1,119 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.RevenueRollups;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Rollup;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RevenueRollupsTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private RevenueRollups revenueRollups;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        revenueRollups = new RevenueRollups(4, 3, ZoneOffset.UTC);
+    }
+
+    private static Ticket closedTicket(ParkingType parkingType, long outMillis, long minutes, double price, boolean discounted) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, parkingType, true));
+        ticket.setVehicleRegNumber("ABCDEF");
+        ticket.setInTime(new Date(outMillis - minutes * 60_000));
+        ticket.setOutTime(new Date(outMillis));
+        ticket.setPrice(price);
+        ticket.setDiscounted(discounted);
+        return ticket;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Closed stays are added to the hour and the day of their exit")
+    public void recordedStaysAreQueried() {
+        // GIVEN
+        long day = 10 * DAY;
+        revenueRollups.record(closedTicket(ParkingType.CAR, day + 2 * HOUR + 5, 90, 2.25, false));
+        revenueRollups.record(closedTicket(ParkingType.CAR, day + 2 * HOUR + 10, 30, 0.71, true));
+        revenueRollups.record(closedTicket(ParkingType.BIKE, day + 3 * HOUR, 60, 1.0, false));
+
+        // WHEN
+        List<Rollup> hourly = revenueRollups.getHourly(new Date(day + 2 * HOUR), new Date(day + 3 * HOUR));
+        Map<ParkingType, Rollup> daily = RevenueRollups.total(
+                revenueRollups.getDaily(LocalDate.ofEpochDay(10), LocalDate.ofEpochDay(11)));
+
+        // THEN
+        assertEquals(ParkingType.values().length, hourly.size());
+        Map<ParkingType, Rollup> hour = RevenueRollups.total(hourly);
+        assertEquals(2, hour.get(ParkingType.CAR).getStays());
+        assertEquals(296, hour.get(ParkingType.CAR).getRevenueCents());
+        assertEquals(120, hour.get(ParkingType.CAR).getMinutes());
+        assertEquals(1, hour.get(ParkingType.CAR).getDiscountedStays());
+        assertEquals(0, hour.get(ParkingType.BIKE).getStays());
+        assertEquals(new Date(day + 2 * HOUR), hour.get(ParkingType.CAR).getStart());
+        assertEquals(2, daily.get(ParkingType.CAR).getStays());
+        assertEquals(1, daily.get(ParkingType.BIKE).getStays());
+        assertEquals(1.0, daily.get(ParkingType.BIKE).getRevenue());
+    }
+
+    @Test
+    @DisplayName("A slot reused by a newer hour starts from zero and older hours are no longer returned")
+    public void ringKeepsTheLastBuckets() {
+        // GIVEN 4 hours held
+        for (int hour = 0; hour < 6; hour++) {
+            revenueRollups.record(closedTicket(ParkingType.CAR, hour * HOUR, 10, 1.0, false));
+        }
+        // an exit older than the hours held is dropped instead of overwriting a newer one
+        revenueRollups.record(closedTicket(ParkingType.CAR, HOUR, 10, 1.0, false));
+
+        // WHEN
+        List<Rollup> hourly = revenueRollups.getHourly(new Date(0), new Date(6 * HOUR));
+
+        // THEN
+        assertEquals(4 * ParkingType.values().length, hourly.size());
+        assertEquals(new Date(2 * HOUR), hourly.get(0).getStart());
+        assertEquals(4, RevenueRollups.total(hourly).get(ParkingType.CAR).getStays());
+    }
+
+    @Test
+    @DisplayName("Rollups loaded from the ticket table fill the hourly and the daily rings")
+    public void loadFillsBothRings() {
+        // GIVEN
+        assertFalse(revenueRollups.isLoaded());
+        long day = 3 * DAY;
+
+        // WHEN
+        revenueRollups.load(Arrays.asList(
+                new Rollup(ParkingType.CAR, new Date(day + 22 * HOUR), 3, 450, 200, 1),
+                new Rollup(ParkingType.CAR, new Date(day + 23 * HOUR), 2, 300, 100, 0)));
+
+        // THEN
+        assertTrue(revenueRollups.isLoaded());
+        Map<ParkingType, Rollup> lastHour = RevenueRollups.total(
+                revenueRollups.getHourly(new Date(day + 23 * HOUR), new Date(day + DAY)));
+        assertEquals(2, lastHour.get(ParkingType.CAR).getStays());
+        Map<ParkingType, Rollup> wholeDay = RevenueRollups.total(
+                revenueRollups.getDaily(LocalDate.ofEpochDay(3), LocalDate.ofEpochDay(4)));
+        assertEquals(5, wholeDay.get(ParkingType.CAR).getStays());
+        assertEquals(7.5, wholeDay.get(ParkingType.CAR).getRevenue());
+        // the 3 days held start before the 4 hours held
+        assertEquals(new Date(DAY), revenueRollups.getRetentionStart(day + 23 * HOUR + 5));
+    }
+}
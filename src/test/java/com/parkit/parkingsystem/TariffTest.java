@@ -0,0 +1,172 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffLoader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TariffTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private Properties definition;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() {
+        definition = new Properties();
+        definition.setProperty("free.minutes", "30");
+        definition.setProperty("discount.returningCustomer.percent", "5");
+        definition.setProperty("rate.CAR", "1.5");
+        definition.setProperty("rate.BIKE", "1.0");
+    }
+
+    // the fare formula before tariffs existed
+    private static long fixedRateCents(ParkingType parkingType, long durationMillis, boolean discount) {
+        double durationHours = durationMillis / (1_000.0 * 60.0 * 60.0);
+        if (durationHours < 0.5) {
+            return 0;
+        }
+        double fare = parkingType == ParkingType.CAR ? Fare.CAR_RATE_PER_HOUR : Fare.BIKE_RATE_PER_HOUR;
+        double discountValue = discount ? 0.95 : 1;
+        return new BigDecimal(durationHours * fare * discountValue).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("The default tariff prices every stay exactly like the fixed rates")
+    public void defaultsMatchFixedRates() {
+        // GIVEN
+        Tariff tariff = Tariff.defaults();
+        Random random = new Random(42);
+
+        // WHEN THEN
+        for (int i = 0; i < 100_000; i++) {
+            long durationMillis = (long) (random.nextDouble() * 10 * DAY);
+            ParkingType parkingType = random.nextBoolean() ? ParkingType.CAR : ParkingType.BIKE;
+            boolean discount = random.nextBoolean();
+            long inMillis = random.nextInt(Integer.MAX_VALUE) * 1_000L;
+            assertEquals(fixedRateCents(parkingType, durationMillis, discount),
+                    tariff.priceInCents(Tariff.DEFAULT_LOT, parkingType, inMillis, inMillis + durationMillis, discount),
+                    "Price differs for a " + parkingType + " staying " + durationMillis + "ms");
+        }
+    }
+
+    @Test
+    @DisplayName("Time-of-day bands apply their rate to the part of the stay they cover")
+    public void bandsSplitTheStay() {
+        // GIVEN nights at 0.5, 12:00-14:00 at 2.0, 1.5 otherwise
+        definition.setProperty("bands.CAR", "20:00-08:00=0.5, 12:00-14:00=2.0");
+        Tariff tariff = Tariff.compile(definition, UTC);
+        long day = 10 * DAY;
+
+        // WHEN THEN 07:00 to 13:00: 1h at 0.5, 4h at 1.5, 1h at 2.0
+        assertEquals(850, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, day + 7 * HOUR, day + 13 * HOUR, false));
+        // 22:00 to 06:00 the next day: 8h at 0.5
+        assertEquals(400, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, day + 22 * HOUR, day + DAY + 6 * HOUR, false));
+        // bikes have no bands
+        assertEquals(600, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.BIKE, day + 7 * HOUR, day + 13 * HOUR, false));
+    }
+
+    @Test
+    @DisplayName("A daily cap limits each calendar day of a long stay")
+    public void dailyCapLimitsEachDay() {
+        // GIVEN
+        definition.setProperty("cap.daily.CAR", "10");
+        Tariff tariff = Tariff.compile(definition, UTC);
+        long day = 10 * DAY;
+
+        // WHEN THEN 18:00 to 10:00 three days later: 6h (9.00) + 2 capped days (20.00) + 10h capped (10.00)
+        assertEquals(3900, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, day + 18 * HOUR, day + 3 * DAY + 10 * HOUR, false));
+        // the discount applies after the cap
+        assertEquals(3705, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, day + 18 * HOUR, day + 3 * DAY + 10 * HOUR, true));
+    }
+
+    @Test
+    @DisplayName("Lots without their own rates use the default ones")
+    public void lotOverridesFallBackToDefaults() {
+        // GIVEN
+        definition.setProperty("lot.2.rate.CAR", "3.0");
+        Tariff tariff = Tariff.compile(definition, UTC);
+
+        // WHEN THEN
+        assertEquals(600, tariff.priceInCents(2, ParkingType.CAR, 0, 2 * HOUR, false));
+        assertEquals(200, tariff.priceInCents(2, ParkingType.BIKE, 0, 2 * HOUR, false));
+        assertEquals(300, tariff.priceInCents(7, ParkingType.CAR, 0, 2 * HOUR, false));
+        assertTrue(tariff.hasLot(2));
+        assertFalse(tariff.hasLot(7));
+    }
+
+    @Test
+    @DisplayName("The returning customer discount is the one of the definition")
+    public void discountPercentFromDefinition() {
+        // GIVEN
+        definition.setProperty("discount.returningCustomer.percent", "12.50");
+        Tariff tariff = Tariff.compile(definition, UTC);
+
+        // WHEN THEN
+        assertEquals("12.5", tariff.getReturningCustomerDiscountPercent().stripTrailingZeros().toPlainString());
+        assertEquals(263, tariff.priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, 0, 2 * HOUR, true));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(Tariff.defaults().getReturningCustomerDiscountPercent()));
+    }
+
+    @Test
+    @DisplayName("Incomplete or inconsistent definitions are rejected")
+    public void invalidDefinitionsAreRejected() {
+        Properties missingRate = new Properties();
+        missingRate.setProperty("rate.CAR", "1.5");
+        assertThrows(IllegalArgumentException.class, () -> Tariff.compile(missingRate, UTC));
+
+        definition.setProperty("bands.CAR", "08:00-12:00=1.0,11:00-13:00=2.0");
+        assertThrows(IllegalArgumentException.class, () -> Tariff.compile(definition, UTC));
+
+        definition.remove("bands.CAR");
+        definition.setProperty("rate.TRUCK", "4.0");
+        assertThrows(IllegalArgumentException.class, () -> Tariff.compile(definition, UTC));
+    }
+
+    @Test
+    @DisplayName("Editing the tariff file changes the next fares, a broken edit keeps the current tariff")
+    public void tariffFileIsReloaded() throws Exception {
+        // GIVEN
+        Path file = Files.createTempFile("tariff", ".properties");
+        file.toFile().deleteOnExit();
+        Files.write(file, "free.minutes=30\nrate.CAR=1.5\nrate.BIKE=1.0\n".getBytes(StandardCharsets.UTF_8));
+        TariffLoader tariffLoader = new TariffLoader(file, Tariff.defaults());
+        assertTrue(tariffLoader.reload());
+        assertEquals(300, tariffLoader.get().priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, 0, 2 * HOUR, false));
+
+        // WHEN
+        Files.write(file, "free.minutes=30\nrate.CAR=2.5\nrate.BIKE=1.0\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 2_000));
+        boolean reloaded = tariffLoader.reload();
+        Files.write(file, "rate.CAR=oops\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 4_000));
+        boolean brokenReloaded = tariffLoader.reload();
+
+        // THEN
+        assertTrue(reloaded);
+        assertFalse(brokenReloaded);
+        assertEquals(500, tariffLoader.get().priceInCents(Tariff.DEFAULT_LOT, ParkingType.CAR, 0, 2 * HOUR, false));
+    }
+}
@@ -0,0 +1,85 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TicketArchiverTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Mock
+    private TicketDAO ticketDAO;
+
+    // ----- SETUP -----
+
+    // equal bounds: the window is always open
+    private TicketArchiver newArchiver(LocalTime windowStart, LocalTime windowEnd) {
+        return new TicketArchiver(ticketDAO, 30, 100, 0, windowStart, windowEnd, ZoneOffset.UTC);
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Batches are archived until one comes back short")
+    public void archiveUntilShortBatch() {
+        // GIVEN
+        TicketArchiver ticketArchiver = newArchiver(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT);
+        when(ticketDAO.archiveTickets(any(Date.class), eq(100))).thenReturn(100, 100, 42);
+
+        // WHEN
+        long archived = ticketArchiver.archive(100 * DAY);
+
+        // THEN
+        assertEquals(242, archived);
+        verify(ticketDAO, times(3)).archiveTickets(new Date(70 * DAY), 100);
+    }
+
+    @Test
+    @DisplayName("A failed batch ends the run without counting it")
+    public void failedBatchStopsTheRun() {
+        // GIVEN
+        TicketArchiver ticketArchiver = newArchiver(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT);
+        when(ticketDAO.archiveTickets(any(Date.class), eq(100))).thenReturn(100, -1);
+
+        // WHEN
+        long archived = ticketArchiver.archive(100 * DAY);
+
+        // THEN
+        assertEquals(100, archived);
+        verify(ticketDAO, times(2)).archiveTickets(any(Date.class), eq(100));
+    }
+
+    @Test
+    @DisplayName("The off-peak window may span midnight")
+    public void offPeakWindow() {
+        // GIVEN
+        TicketArchiver night = newArchiver(LocalTime.of(23, 0), LocalTime.of(5, 0));
+        TicketArchiver morning = newArchiver(LocalTime.of(2, 0), LocalTime.of(5, 0));
+
+        // THEN
+        assertTrue(night.isOffPeak(LocalTime.of(23, 30)));
+        assertTrue(night.isOffPeak(LocalTime.of(1, 0)));
+        assertFalse(night.isOffPeak(LocalTime.of(5, 0)));
+        assertFalse(night.isOffPeak(LocalTime.of(12, 0)));
+        assertTrue(morning.isOffPeak(LocalTime.of(2, 0)));
+        assertFalse(morning.isOffPeak(LocalTime.of(1, 59)));
+        assertFalse(morning.isOffPeak(LocalTime.of(23, 0)));
+    }
+}
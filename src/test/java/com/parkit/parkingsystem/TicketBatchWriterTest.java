@@ -0,0 +1,240 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketBatchWriter;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.UnitOfWork;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TicketBatchWriterTest {
+
+    @Mock
+    private TicketDAO ticketDAO;
+    @Mock
+    private ParkingSpotDAO parkingSpotDAO;
+    @Mock
+    private UnitOfWork unitOfWork;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        when(parkingSpotDAO.beginUnitOfWork()).thenReturn(unitOfWork);
+    }
+
+    private static Ticket createTicket(int number) {
+        Ticket ticket = new Ticket();
+        ticket.setId(number);
+        ticket.setParkingSpot(new ParkingSpot(number, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("REG" + number);
+        ticket.setInTime(new Date());
+        return ticket;
+    }
+
+    private static int[] ones(List<?> list) {
+        int[] counts = new int[list.size()];
+        Arrays.fill(counts, 1);
+        return counts;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Pending saves are written with one batch and one commit")
+    public void pendingSavesAreCoalesced() throws Exception {
+        // GIVEN (the first flush blocks until every save is queued)
+        CountDownLatch queued = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        when(ticketDAO.saveTickets(eq(unitOfWork), anyList())).thenAnswer(invocation -> {
+            queued.await(5, TimeUnit.SECONDS);
+            List<?> tickets = invocation.getArgument(1);
+            batchSizes.add(tickets.size());
+            return ones(tickets);
+        });
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 100, 50, 0);
+
+        // WHEN
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 1; i <= 11; i++) {
+            results.add(batchWriter.save(createTicket(i)));
+        }
+        queued.countDown();
+        batchWriter.close();
+
+        // THEN
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS), "Every save must be acknowledged");
+        }
+        assertTrue(batchSizes.size() <= 2, "Saves queued behind the first flush should share a single batch");
+        assertEquals(11, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        verify(unitOfWork, times(batchSizes.size())).commit();
+    }
+
+    @Test
+    @DisplayName("An update and its spot release are committed together")
+    public void updateReleasesSpotInSameBatch() throws Exception {
+        // GIVEN
+        when(ticketDAO.updateTickets(eq(unitOfWork), anyList())).thenAnswer(invocation -> ones(invocation.getArgument(1)));
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+        Ticket ticket = createTicket(1);
+        ticket.setOutTime(new Date());
+        ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, true);
+
+        // WHEN
+        boolean updated = batchWriter.update(ticket, parkingSpot).get(5, TimeUnit.SECONDS);
+        batchWriter.close();
+
+        // THEN
+        assertTrue(updated);
+        verify(parkingSpotDAO, times(1)).updateParkings(eq(unitOfWork), eq(Collections.singletonList(parkingSpot)));
+        verify(unitOfWork, times(1)).commit();
+    }
+
+    @Test
+    @DisplayName("An entry claims its spot in the same transaction as the ticket insert")
+    public void entryClaimsSpotInSameBatch() throws Exception {
+        // GIVEN
+        ParkingSpot claimed = new ParkingSpot(2, ParkingType.CAR, false);
+        when(parkingSpotDAO.claimNextSpot(unitOfWork, ParkingType.CAR)).thenReturn(claimed);
+        when(ticketDAO.saveTickets(eq(unitOfWork), anyList())).thenAnswer(invocation -> ones(invocation.getArgument(1)));
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+        Ticket ticket = createTicket(1);
+        ticket.setParkingSpot(new ParkingSpot(0, ParkingType.CAR, false));
+
+        // WHEN
+        boolean entered = batchWriter.enter(ticket).get(5, TimeUnit.SECONDS);
+        batchWriter.close();
+
+        // THEN
+        assertTrue(entered);
+        assertEquals(2, ticket.getParkingSpot().getId());
+        InOrder inOrder = inOrder(parkingSpotDAO, ticketDAO, unitOfWork);
+        inOrder.verify(parkingSpotDAO).claimNextSpot(unitOfWork, ParkingType.CAR);
+        inOrder.verify(ticketDAO).saveTickets(unitOfWork, Collections.singletonList(ticket));
+        inOrder.verify(unitOfWork).commit();
+    }
+
+    @Test
+    @DisplayName("An entry finding no free spot completes with false and saves nothing")
+    public void entryWithoutFreeSpotIsNotSaved() throws Exception {
+        // GIVEN
+        when(parkingSpotDAO.claimNextSpot(unitOfWork, ParkingType.CAR)).thenReturn(null);
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+        Ticket ticket = createTicket(1);
+        ticket.setParkingSpot(new ParkingSpot(0, ParkingType.CAR, false));
+
+        // WHEN
+        boolean entered = batchWriter.enter(ticket).get(5, TimeUnit.SECONDS);
+        batchWriter.close();
+
+        // THEN
+        assertFalse(entered);
+        verify(ticketDAO, never()).saveTickets(any(), anyList());
+    }
+
+    @Test
+    @DisplayName("An update closing no ticket leaves its spot alone and completes with false")
+    public void updateOfClosedTicketKeepsSpot() throws Exception {
+        // GIVEN a concurrent exit closed the ticket first
+        when(ticketDAO.updateTickets(eq(unitOfWork), anyList())).thenReturn(new int[] {0});
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+        Ticket ticket = createTicket(1);
+        ticket.setOutTime(new Date());
+
+        // WHEN
+        boolean updated = batchWriter.update(ticket, new ParkingSpot(1, ParkingType.CAR, true)).get(5, TimeUnit.SECONDS);
+        batchWriter.close();
+
+        // THEN
+        assertFalse(updated);
+        verify(parkingSpotDAO, never()).updateParkings(any(), anyList());
+    }
+
+    @Test
+    @DisplayName("A failed batch fails every write it contained")
+    public void failedBatchCompletesExceptionally() throws Exception {
+        // GIVEN
+        when(ticketDAO.saveTickets(eq(unitOfWork), anyList())).thenThrow(new SQLException("Simulated failure"));
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+
+        // WHEN
+        CompletableFuture<Boolean> result = batchWriter.save(createTicket(1));
+        batchWriter.close();
+
+        // THEN
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        verify(unitOfWork, never()).commit();
+        verify(unitOfWork, times(1)).close();
+    }
+
+    @Test
+    @DisplayName("When a batch fails its writes are retried one by one, only the failing one fails")
+    public void failedBatchIsRetriedOneByOne() throws Exception {
+        // GIVEN (the first flush blocks until every save is queued, so they share a batch)
+        CountDownLatch queued = new CountDownLatch(1);
+        when(ticketDAO.saveTickets(eq(unitOfWork), anyList())).thenAnswer(invocation -> {
+            queued.await(5, TimeUnit.SECONDS);
+            List<Ticket> tickets = invocation.getArgument(1);
+            for (Ticket ticket : tickets) {
+                if (ticket.getVehicleRegNumber().equals("REG2")) {
+                    throw new SQLException("Simulated constraint violation");
+                }
+            }
+            return ones(tickets);
+        });
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 50);
+
+        // WHEN
+        CompletableFuture<Boolean> first = batchWriter.save(createTicket(1));
+        CompletableFuture<Boolean> second = batchWriter.save(createTicket(2));
+        CompletableFuture<Boolean> third = batchWriter.save(createTicket(3));
+        queued.countDown();
+        batchWriter.close();
+
+        // THEN
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertTrue(third.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Writes submitted after close are rejected")
+    public void writesAfterCloseAreRejected() throws Exception {
+        // GIVEN
+        TicketBatchWriter batchWriter = new TicketBatchWriter(ticketDAO, parkingSpotDAO, 10, 10, 0);
+        reset(parkingSpotDAO);
+        batchWriter.close();
+
+        // WHEN
+        CompletableFuture<Boolean> result = batchWriter.save(createTicket(1));
+
+        // THEN
+        assertTrue(result.isCompletedExceptionally());
+    }
+}
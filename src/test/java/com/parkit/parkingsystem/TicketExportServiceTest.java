@@ -0,0 +1,211 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.TicketExportService;
+import com.parkit.parkingsystem.util.TicketColumnFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TicketExportServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    @Mock
+    private TicketDAO ticketDAO;
+
+    private Path directory;
+    private TicketExportService ticketExportService;
+
+    // ----- SETUP -----
+
+    @BeforeEach
+    public void setUpPerTest() throws IOException {
+        directory = Files.createTempDirectory("export");
+        // row groups of 4 tickets, so a day spans several of them
+        ticketExportService = new TicketExportService(ticketDAO, directory, 4, ZoneOffset.UTC);
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // ticket id enters on day (id - 1) / 10, one hour after the previous one, and stays id minutes
+    private static Ticket createClosedTicket(int id) {
+        Ticket ticket = new Ticket();
+        ticket.setId(id);
+        ticket.setParkingSpot(new ParkingSpot(id % 3 + 1, null, true));
+        ticket.setVehicleRegNumber("REG" + id % 5);
+        ticket.setInTime(new Date((id - 1) / 10 * DAY + (id - 1) % 10 * HOUR));
+        ticket.setOutTime(new Date(ticket.getInTime().getTime() + id * 60_000L));
+        ticket.setPrice(id * 1.25);
+        return ticket;
+    }
+
+    // doAnswer, as a later call replaces the stubbing without running the previous answer
+    private void givenTickets(int afterId, int lastId) throws Exception {
+        doAnswer(invocation -> {
+            TicketDAO.TicketHandler handler = invocation.getArgument(3);
+            for (int id = afterId + 1; id <= lastId; id++) {
+                handler.handle(createClosedTicket(id));
+            }
+            return lastId;
+        }).when(ticketDAO).forEachTicketToExport(anyInt(), any(), any(), any());
+    }
+
+    private List<Ticket> readDay(String day) throws IOException {
+        List<Ticket> tickets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory.resolve("day=" + day))) {
+            for (Path file : files.sorted().collect(Collectors.toList())) {
+                TicketColumnFile.read(file, ParkingSpot.DEFAULT_LOT, tickets::add);
+            }
+        }
+        return tickets;
+    }
+
+    // ----- START TESTS -----
+
+    @Test
+    @DisplayName("Tickets are written one file per day of entry and read back unchanged")
+    public void exportPartitionsByDay() throws Exception {
+        // GIVEN
+        givenTickets(0, 25);
+
+        // WHEN
+        TicketExportService.Summary summary = ticketExportService.export();
+
+        // THEN
+        assertEquals(25, summary.getTickets());
+        assertEquals(3, summary.getFiles());
+        assertEquals(25, summary.getLastId());
+        assertTrue(Files.exists(directory.resolve("day=1970-01-01").resolve("tickets-1.tcf.gz")));
+        List<Ticket> secondDay = readDay("1970-01-02");
+        assertEquals(10, secondDay.size());
+        for (int i = 0; i < secondDay.size(); i++) {
+            Ticket expected = createClosedTicket(11 + i);
+            Ticket actual = secondDay.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getParkingSpot().getId(), actual.getParkingSpot().getId());
+            assertEquals(expected.getVehicleRegNumber(), actual.getVehicleRegNumber());
+            assertEquals(expected.getPrice(), actual.getPrice());
+            assertEquals(expected.getInTime(), actual.getInTime());
+            assertEquals(expected.getOutTime(), actual.getOutTime());
+        }
+        assertEquals(5, readDay("1970-01-03").size());
+    }
+
+    @Test
+    @DisplayName("A second run resumes after the last exported ID")
+    public void exportResumesFromLastId() throws Exception {
+        // GIVEN
+        givenTickets(0, 12);
+        ticketExportService.export();
+        givenTickets(12, 15);
+
+        // WHEN
+        TicketExportService.Summary summary = ticketExportService.export();
+
+        // THEN
+        verify(ticketDAO).forEachTicketToExport(eq(12), any(), any(), any());
+        assertEquals(3, summary.getTickets());
+        assertEquals(15, summary.getLastId());
+        assertEquals(5, readDay("1970-01-02").size());
+    }
+
+    @Test
+    @DisplayName("A failed read leaves no partial file and does not move the last exported ID")
+    public void failedExportIsNotRecorded() throws Exception {
+        // GIVEN the read fails on the second day
+        when(ticketDAO.forEachTicketToExport(anyInt(), any(), any(), any())).thenAnswer(invocation -> {
+            TicketDAO.TicketHandler handler = invocation.getArgument(3);
+            for (int id = 1; id <= 15; id++) {
+                handler.handle(createClosedTicket(id));
+            }
+            throw new IOException("connection lost");
+        });
+
+        // WHEN
+        assertThrows(IOException.class, () -> ticketExportService.export());
+
+        // THEN
+        assertEquals(10, readDay("1970-01-01").size());
+        try (Stream<Path> files = Files.list(directory.resolve("day=1970-01-02"))) {
+            assertEquals(0, files.count());
+        }
+        givenTickets(10, 15);
+        assertEquals(15, ticketExportService.export().getLastId());
+        verify(ticketDAO).forEachTicketToExport(eq(10), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A ticket still open is held back by its ID and exported once closed, without stopping the others")
+    public void openTicketIsHeldBack() throws Exception {
+        // GIVEN ticket 5 is still open during the first run
+        doAnswer(invocation -> {
+            Collection<Integer> openIds = invocation.getArgument(2);
+            openIds.add(5);
+            TicketDAO.TicketHandler handler = invocation.getArgument(3);
+            for (int id = 1; id <= 12; id++) {
+                if (id != 5) {
+                    handler.handle(createClosedTicket(id));
+                }
+            }
+            return 12;
+        }).when(ticketDAO).forEachTicketToExport(eq(0), any(), any(), any());
+        TicketExportService.Summary first = ticketExportService.export();
+        doAnswer(invocation -> {
+            SortedSet<Integer> heldBackIds = invocation.getArgument(1);
+            assertEquals(Collections.singleton(5), heldBackIds);
+            TicketDAO.TicketHandler handler = invocation.getArgument(3);
+            handler.handle(createClosedTicket(5));
+            handler.handle(createClosedTicket(13));
+            return 13;
+        }).when(ticketDAO).forEachTicketToExport(eq(12), any(), any(), any());
+
+        // WHEN
+        TicketExportService.Summary second = ticketExportService.export();
+
+        // THEN
+        assertEquals(12, first.getLastId());
+        assertEquals(Collections.singleton(5), first.getHeldBackIds());
+        assertEquals(13, second.getLastId());
+        assertTrue(second.getHeldBackIds().isEmpty());
+        assertEquals(10, readDay("1970-01-01").size());
+        assertEquals(3, readDay("1970-01-02").size());
+    }
+}
@@ -1,5 +1,6 @@
 package com.parkit.parkingsystem.integration;
 
+import com.parkit.parkingsystem.config.SchemaMigrator;
 import com.parkit.parkingsystem.constants.Fare;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
@@ -19,7 +20,15 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -44,11 +53,12 @@ public class ParkingDataBaseIT {
     private InputReaderUtil inputReaderUtil;
 
     @BeforeAll
-    public static void setUp() {
+    public static void setUp() throws Exception {
+        new SchemaMigrator(dataBaseTestConfig).migrate();
         parkingSpotDAO = new ParkingSpotDAO();
-        parkingSpotDAO.dataBaseConfig = dataBaseTestConfig;
+        parkingSpotDAO.setDataBaseConfig(dataBaseTestConfig);
         ticketDAO = new TicketDAO();
-        ticketDAO.dataBaseConfig = dataBaseTestConfig;
+        ticketDAO.setDataBaseConfig(dataBaseTestConfig);
         dataBasePrepareService = new DataBasePrepareService();
     }
 
@@ -194,6 +204,62 @@ public class ParkingDataBaseIT {
         assertEquals(expectedFare, verifiedTicket.getPrice(), 0.011);
     }
 
+    @Test
+    @DisplayName("An archived stay still earns the discount and the gates no longer see it")
+    public void archivedStayKeepsDiscount() {
+        // GIVEN a stay closed 40 days ago and a newer open one
+        final long now = System.currentTimeMillis();
+        Ticket oldTicket = new Ticket();
+        oldTicket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        oldTicket.setVehicleRegNumber(REG_NUMBER);
+        oldTicket.setInTime(new Date(now - 40 * 24L * ONE_HOURS_IN_MILLIS - ONE_HOURS_IN_MILLIS));
+        oldTicket.setOutTime(new Date(now - 40 * 24L * ONE_HOURS_IN_MILLIS));
+        ticketDAO.saveTicket(oldTicket);
+        Ticket openTicket = new Ticket();
+        openTicket.setParkingSpot(new ParkingSpot(2, ParkingType.CAR, false));
+        openTicket.setVehicleRegNumber("GHIJKL");
+        openTicket.setInTime(new Date(now));
+        ticketDAO.saveTicket(openTicket);
+
+        // WHEN
+        int archived = ticketDAO.archiveTickets(new Date(now - 30 * 24L * ONE_HOURS_IN_MILLIS), 100);
+
+        // THEN
+        assertEquals(1, archived);
+        Assertions.assertNull(ticketDAO.getTicket(REG_NUMBER));
+        Assertions.assertTrue(ticketDAO.getNbTickets(REG_NUMBER));
+        assertEquals(openTicket.getId(), ticketDAO.getTicket("GHIJKL").getId());
+    }
+
+    @Test
+    @DisplayName("Concurrent claims hand out each free spot exactly once")
+    public void claimNextSpotUnderContention() throws Exception {
+        // GIVEN (3 car spots in the test database)
+        ExecutorService gates = Executors.newFixedThreadPool(10);
+        List<Callable<ParkingSpot>> claims = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            claims.add(() -> parkingSpotDAO.claimNextSpot(ParkingType.CAR));
+        }
+
+        // WHEN
+        List<Future<ParkingSpot>> results = gates.invokeAll(claims);
+        gates.shutdown();
+
+        // THEN
+        Set<Integer> claimed = new HashSet<>();
+        int claimCount = 0;
+        for (Future<ParkingSpot> result : results) {
+            ParkingSpot parkingSpot = result.get();
+            if (parkingSpot != null) {
+                claimed.add(parkingSpot.getId());
+                claimCount++;
+            }
+        }
+        assertEquals(3, claimCount, "Only the three car spots can be claimed");
+        assertEquals(3, claimed.size(), "No spot may be claimed twice");
+        assertEquals(-1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
     // ----- HELPER -----
 
     private double calculateDurationInHours(Ticket ticket) {